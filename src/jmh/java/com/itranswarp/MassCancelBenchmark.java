@@ -0,0 +1,90 @@
+package com.itranswarp;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.itranswarp.assets.Users;
+import com.itranswarp.order.Direction;
+import com.itranswarp.order.Order;
+import com.itranswarp.order.OrderRequest;
+
+/**
+ * 撤销做市商全部挂单的性能。
+ *
+ * 每次测试前由submitBatch挂入orders个买卖订单，其他用户的订单保持不变。
+ * CANCEL_EACH逐个调用cancelOrder，CANCEL_ALL调用cancelAll，每种资产只解冻一次。
+ * 单次操作在数百微秒内，每次调用前准备订单的开销不影响结果。
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MassCancelBenchmark {
+
+    static final Long MARKET_MAKER = Users.TRADER;
+    static final Long OTHER = Users.TRADER + 1;
+    static final int LEVELS = 100;
+
+    @Param({ "CANCEL_EACH", "CANCEL_ALL" })
+    String mode;
+
+    // 做市商的挂单数量:
+    @Param({ "5000" })
+    int orders;
+
+    TradingEngine engine;
+    List<OrderRequest> requests;
+    Order[] resting;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        engine = new TradingEngine();
+        for (Long userId : new Long[] { MARKET_MAKER, OTHER }) {
+            engine.deposit(userId, "FIAT", new BigDecimal("1000000000"));
+            engine.deposit(userId, "STOCK", new BigDecimal("1000000000"));
+        }
+        // 其他用户在相同档位的挂单:
+        for (int i = 0; i < LEVELS; i++) {
+            engine.createOrder(OTHER, Direction.BUY, BigDecimal.valueOf(99990 - i * 10, 2), BigDecimal.ONE);
+            engine.createOrder(OTHER, Direction.SELL, BigDecimal.valueOf(100010 + i * 10, 2), BigDecimal.ONE);
+        }
+        requests = new ArrayList<>();
+        for (int i = 0; i < orders / 2; i++) {
+            requests.add(new OrderRequest(MARKET_MAKER, "STOCK", Direction.BUY, BigDecimal.valueOf(99990 - i % LEVELS * 10, 2), BigDecimal.ONE));
+            requests.add(new OrderRequest(MARKET_MAKER, "STOCK", Direction.SELL, BigDecimal.valueOf(100010 + i % LEVELS * 10, 2), BigDecimal.ONE));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void postQuotes() {
+        resting = engine.submitBatch(requests).orders;
+    }
+
+    @Benchmark
+    public int cancel() {
+        if ("CANCEL_ALL".equals(mode)) {
+            return engine.cancelAll(MARKET_MAKER);
+        }
+        for (Order order : resting) {
+            engine.cancelOrder(MARKET_MAKER, order.sequenceId);
+        }
+        return resting.length;
+    }
+}
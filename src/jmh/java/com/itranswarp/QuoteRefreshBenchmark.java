@@ -0,0 +1,131 @@
+package com.itranswarp;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.itranswarp.assets.Users;
+import com.itranswarp.journal.Journal;
+import com.itranswarp.match.OrderBookType;
+import com.itranswarp.metrics.HistogramMetrics;
+import com.itranswarp.order.Direction;
+import com.itranswarp.order.Order;
+import com.itranswarp.order.OrderRequest;
+import com.itranswarp.order.OrderStatus;
+
+/**
+ * 做市商刷新报价的性能。
+ *
+ * 每次测试撤销上一轮的全部报价，再在中间价两侧各挂quotes/2个买卖报价，报价之间不成交。
+ * SEQUENTIAL逐个调用createOrder，BATCH调用submitBatch合并冻结和清算，写入日志时一批报价只计为一条待fsync的记录。
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuoteRefreshBenchmark {
+
+    static final Long MARKET_MAKER = Users.TRADER;
+
+    @Param({ "SEQUENTIAL", "BATCH" })
+    String mode;
+
+    // 每轮报价数量:
+    @Param({ "10", "100", "500" })
+    int quotes;
+
+    // 是否写入日志:
+    @Param({ "false", "true" })
+    boolean journal;
+
+    // 买入报价是否与对手方的卖单成交，使用-p fill=true比较合并清算:
+    @Param({ "false" })
+    boolean fill;
+
+    // 运行指标的抽样间隔，0表示不记录，使用-p metricsSample=0,1,16比较开销:
+    @Param({ "0" })
+    int metricsSample;
+
+    Path dir;
+    Journal commandJournal;
+    TradingEngine engine;
+    List<OrderRequest> requests;
+    Order[] resting;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        if (journal) {
+            dir = Files.createTempDirectory("quote-refresh-");
+            commandJournal = new Journal(dir);
+        }
+        engine = new TradingEngine(OrderBookType.PRICE_LEVEL, commandJournal);
+        if (metricsSample > 0) {
+            engine.setMetrics(new HistogramMetrics(), metricsSample);
+        }
+        engine.deposit(MARKET_MAKER, "FIAT", new BigDecimal("1000000000"));
+        engine.deposit(MARKET_MAKER, "STOCK", new BigDecimal("1000000000"));
+        requests = new ArrayList<>();
+        for (int i = 0; i < quotes / 2; i++) {
+            requests.add(new OrderRequest(MARKET_MAKER, "STOCK", Direction.BUY, BigDecimal.valueOf(99990 - i * 10, 2), BigDecimal.ONE));
+            requests.add(new OrderRequest(MARKET_MAKER, "STOCK", Direction.SELL, BigDecimal.valueOf(100010 + i * 10, 2), BigDecimal.ONE));
+        }
+        resting = new Order[requests.size()];
+        if (fill) {
+            // 对手方在最低买入报价挂出足够大的卖单，每轮全部买入报价立即成交:
+            engine.deposit(MARKET_MAKER, "FIAT", new BigDecimal("10000000000000"));
+            engine.deposit(MARKET_MAKER + 1, "STOCK", new BigDecimal("1000000000"));
+            engine.createOrder(MARKET_MAKER + 1, Direction.SELL, BigDecimal.valueOf(99990 - (quotes / 2 - 1) * 10, 2), new BigDecimal("1000000000"));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (commandJournal != null) {
+            commandJournal.close();
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    @Benchmark
+    public Order[] refreshQuotes() {
+        for (Order order : resting) {
+            if (order != null && order.status != OrderStatus.FULLY_FILLED) {
+                engine.cancel(order);
+            }
+        }
+        if ("BATCH".equals(mode)) {
+            BatchResult result = engine.submitBatch(requests);
+            System.arraycopy(result.orders, 0, resting, 0, resting.length);
+        } else {
+            for (int i = 0; i < resting.length; i++) {
+                OrderRequest request = requests.get(i);
+                resting[i] = engine.createOrder(request.userId, request.symbol, request.direction, request.price, request.amount);
+            }
+        }
+        return resting;
+    }
+}
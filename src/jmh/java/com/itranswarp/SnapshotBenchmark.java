@@ -0,0 +1,87 @@
+package com.itranswarp;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.itranswarp.assets.Users;
+import com.itranswarp.match.OrderBookType;
+import com.itranswarp.order.Direction;
+
+/**
+ * 写入和恢复百万账户、百万挂单的快照。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SnapshotBenchmark {
+
+    @Param({ "1000000" })
+    int users;
+
+    @Param({ "1000000" })
+    int orders;
+
+    Path dir;
+    TradingEngine engine;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("snapshot-bench");
+        engine = new TradingEngine(OrderBookType.PRICE_LEVEL);
+        BigDecimal balance = new BigDecimal("1000000");
+        for (int i = 0; i < users; i++) {
+            engine.deposit(Users.TRADER + i, "FIAT", balance);
+            engine.deposit(Users.TRADER + i, "STOCK", balance);
+        }
+        // 买盘低于1000.00，卖盘高于1000.00，全部挂单不成交:
+        BigDecimal amount = BigDecimal.ONE;
+        for (int i = 0; i < orders; i++) {
+            Long userId = Users.TRADER + (i % users);
+            if (i % 2 == 0) {
+                engine.createOrder(userId, Direction.BUY, BigDecimal.valueOf(99999 - (i % 1000), 2), amount);
+            } else {
+                engine.createOrder(userId, Direction.SELL, BigDecimal.valueOf(100001 + (i % 1000), 2), amount);
+            }
+        }
+        engine.writeSnapshot(dir);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public Path write() {
+        return engine.writeSnapshot(dir);
+    }
+
+    @Benchmark
+    public TradingEngine restore() {
+        return new TradingEngine(OrderBookType.PRICE_LEVEL, dir, null);
+    }
+}
@@ -0,0 +1,115 @@
+package com.itranswarp;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.itranswarp.assets.Users;
+import com.itranswarp.match.OrderBookType;
+import com.itranswarp.order.Direction;
+import com.itranswarp.order.Order;
+
+/**
+ * TradingEngine端到端的下单和撤单混合负载。
+ * 
+ * 订单价格围绕中间价随机分布，按cancelRatio的比例撤销最早的活动订单。
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TradingEngineBenchmark {
+
+    static final int USERS = 1000;
+    static final int MASK = (1 << 16) - 1;
+
+    @Param({ "TREE_MAP", "PRICE_LEVEL" })
+    OrderBookType bookType;
+
+    @Param({ "0.5", "0.9" })
+    double cancelRatio;
+
+    TradingEngine engine;
+
+    Long[] userIds;
+    Direction[] directions;
+    BigDecimal[] prices;
+    BigDecimal[] amounts;
+    boolean[] cancels;
+
+    // 按创建顺序记录的活动订单:
+    long[] liveOrders;
+    int liveHead;
+    int liveTail;
+
+    int index;
+    long rejected;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        engine = new TradingEngine(bookType);
+        for (int i = 0; i < USERS; i++) {
+            engine.deposit(Users.TRADER + i, "FIAT", new BigDecimal("1000000000"));
+            engine.deposit(Users.TRADER + i, "STOCK", new BigDecimal("1000000"));
+        }
+        Random random = new Random(12345);
+        userIds = new Long[MASK + 1];
+        directions = new Direction[MASK + 1];
+        prices = new BigDecimal[MASK + 1];
+        amounts = new BigDecimal[MASK + 1];
+        cancels = new boolean[MASK + 1];
+        for (int i = 0; i <= MASK; i++) {
+            userIds[i] = Users.TRADER + random.nextInt(USERS);
+            directions[i] = random.nextBoolean() ? Direction.BUY : Direction.SELL;
+            // 中间价1000.00上下5.00:
+            prices[i] = BigDecimal.valueOf(100000 + random.nextInt(1001) - 500, 2);
+            amounts[i] = BigDecimal.valueOf(1 + random.nextInt(100), 2);
+            cancels[i] = random.nextDouble() < cancelRatio;
+        }
+        liveOrders = new long[MASK + 1];
+        liveHead = liveTail = 0;
+        index = 0;
+        rejected = 0;
+    }
+
+    @Benchmark
+    public Order createOrCancel() {
+        int i = index++ & MASK;
+        if (cancels[i]) {
+            while (liveHead != liveTail) {
+                Long sequenceId = liveOrders[liveHead++ & MASK];
+                Order order = engine.orderService.getOrder(sequenceId);
+                // 跳过已完全成交的订单:
+                if (order != null) {
+                    return engine.cancelOrder(order.userId, sequenceId);
+                }
+            }
+        }
+        Order order;
+        try {
+            order = engine.createOrder(userIds[i], directions[i], prices[i], amounts[i]);
+        } catch (RuntimeException e) {
+            rejected++;
+            return null;
+        }
+        if (order.unfilledAmount > 0 && liveTail - liveHead <= MASK) {
+            liveOrders[liveTail++ & MASK] = order.sequenceId;
+        }
+        return order;
+    }
+}
@@ -0,0 +1,101 @@
+package com.itranswarp.assets;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 分片的AssetService与原来的嵌套ConcurrentMap存储相比的内存占用。
+ *
+ * 每次迭代创建accounts个用户，每个用户2种资产，迭代结束后Full GC并打印每个用户占用的堆内存，耗时为建立全部账户的时间。
+ * 使用ParallelGC，System.gc()后的堆占用较准确。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = { "-Xms4g", "-Xmx4g", "-XX:+UseParallelGC" })
+public class AssetFootprintBenchmark {
+
+    static final long BALANCE = 1L << 40;
+
+    @Param({ "1000000" })
+    int accounts;
+
+    @Param({ "NESTED_MAP", "SHARDED" })
+    String store;
+
+    Object retained;
+    long baseline;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        retained = null;
+        baseline = usedHeap();
+    }
+
+    @Benchmark
+    public Object build() {
+        if ("NESTED_MAP".equals(store)) {
+            NestedMapStore assets = new NestedMapStore();
+            for (int i = 0; i < accounts; i++) {
+                assets.deposit(Users.TRADER + i, "FIAT", BALANCE);
+                assets.deposit(Users.TRADER + i, "STOCK", BALANCE);
+            }
+            retained = assets;
+        } else {
+            AssetService assets = new AssetService();
+            for (int i = 0; i < accounts; i++) {
+                assets.tryTransfer(Transfer.AVAILABLE_TO_AVAILABLE, Users.DEBT, Users.TRADER + i, "FIAT", BALANCE, false);
+                assets.tryTransfer(Transfer.AVAILABLE_TO_AVAILABLE, Users.DEBT, Users.TRADER + i, "STOCK", BALANCE, false);
+            }
+            retained = assets;
+        }
+        return retained;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        long used = usedHeap() - baseline;
+        System.out.printf("%n%s: %d bytes per account%n", store, used / accounts);
+        retained = null;
+    }
+
+    static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * 原来的存储结构: userId -> (assetId -> Asset)
+     */
+    static class NestedMapStore {
+
+        final ConcurrentMap<Long, ConcurrentMap<String, Asset>> userAssets = new ConcurrentHashMap<>();
+
+        void deposit(Long userId, String assetId, long amount) {
+            Asset asset = userAssets.computeIfAbsent(userId, k -> new ConcurrentHashMap<>()).computeIfAbsent(assetId, k -> new Asset());
+            asset.available += amount;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.itranswarp.assets;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * AssetService.tryTransfer的性能。
+ * 
+ * 用户按幂律分布选取，少数活跃用户承担大部分转账，与实际交易分布接近。
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AssetServiceBenchmark {
+
+    static final long BALANCE = 1L << 40;
+    static final int MASK = (1 << 16) - 1;
+
+    @Param({ "10000", "1000000" })
+    int users;
+
+    AssetService assetService;
+    long[] userIds;
+    int index;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        assetService = new AssetService();
+        for (int i = 0; i < users; i++) {
+            assetService.tryTransfer(Transfer.AVAILABLE_TO_AVAILABLE, Users.DEBT, Users.TRADER + i, "FIAT", BALANCE, false);
+            assetService.tryTransfer(Transfer.AVAILABLE_TO_AVAILABLE, Users.DEBT, Users.TRADER + i, "STOCK", BALANCE, false);
+        }
+        Random random = new Random(12345);
+        userIds = new long[MASK + 1];
+        for (int i = 0; i < userIds.length; i++) {
+            double r = random.nextDouble();
+            userIds[i] = Users.TRADER + (long) (users * r * r * r);
+        }
+    }
+
+    @Benchmark
+    public boolean transfer() {
+        long from = userIds[index++ & MASK];
+        long to = userIds[index & MASK];
+        return assetService.tryTransfer(Transfer.AVAILABLE_TO_AVAILABLE, from, to, "FIAT", 100, true);
+    }
+
+    @Benchmark
+    public boolean freezeAndUnfreeze() {
+        long userId = userIds[index++ & MASK];
+        boolean ok = assetService.tryFreeze(userId, "STOCK", 100);
+        assetService.unfreeze(userId, "STOCK", 100);
+        return ok;
+    }
+}
@@ -0,0 +1,100 @@
+package com.itranswarp.candle;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.itranswarp.TradingEngine;
+import com.itranswarp.assets.Users;
+import com.itranswarp.match.MatchEngine;
+import com.itranswarp.match.MatchResult;
+import com.itranswarp.match.OrderBookType;
+import com.itranswarp.order.Direction;
+import com.itranswarp.order.Order;
+
+/**
+ * 生成K线对撮合吞吐量的影响，CANDLES把成交交给CandleAggregator，NOOP不处理行情。
+ *
+ * 聚合线程与撮合线程并行运行，只有一个CPU时两者分时运行，聚合线程空闲时改为休眠1毫秒，测得的是两者的总开销。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CandleBenchmark {
+
+    static final long BASE_PRICE = 100000;
+    static final long MAKER_AMOUNT = 1L << 40;
+    static final BigDecimal PRICE = new BigDecimal("1000.00");
+    static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+    @Param({ "NOOP", "CANDLES" })
+    String listener;
+
+    MatchEngine engine;
+    CandleAggregator aggregator;
+    long sequenceId;
+
+    TradingEngine tradingEngine;
+    int count;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        engine = new MatchEngine(OrderBookType.PRICE_LEVEL);
+        if ("CANDLES".equals(listener)) {
+            aggregator = new CandleAggregator(64 * 1024, 1024, null);
+            engine.setMarketDataListener(aggregator);
+        }
+        tradingEngine = new TradingEngine(OrderBookType.PRICE_LEVEL);
+        tradingEngine.addMarketDataListener(aggregator);
+        tradingEngine.deposit(Users.TRADER, "FIAT", new BigDecimal("1000000000"));
+        tradingEngine.deposit(Users.TRADER + 1, "STOCK", new BigDecimal("1000000000"));
+        count = 0;
+        sequenceId = 0;
+        for (int i = 0; i < 10; i++) {
+            engine.processOrder(new Order(++sequenceId, 100L, Direction.SELL, BASE_PRICE + i, MAKER_AMOUNT));
+            engine.processOrder(new Order(++sequenceId, 101L, Direction.BUY, BASE_PRICE - i - 1, MAKER_AMOUNT));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        if (aggregator != null) {
+            aggregator.shutdown();
+        }
+    }
+
+    /**
+     * 与最优卖单部分成交
+     */
+    @Benchmark
+    public MatchResult matchBest() {
+        return engine.processOrder(new Order(++sequenceId, 102L, Direction.BUY, BASE_PRICE, 1));
+    }
+
+    /**
+     * TradingEngine交替下卖单和买单，每两个订单成交一笔，包含冻结和清算
+     */
+    @Benchmark
+    public Order createOrder() {
+        if ((count++ & 1) == 0) {
+            return tradingEngine.createOrder(Users.TRADER + 1, Direction.SELL, PRICE, AMOUNT);
+        }
+        return tradingEngine.createOrder(Users.TRADER, Direction.BUY, PRICE, AMOUNT);
+    }
+}
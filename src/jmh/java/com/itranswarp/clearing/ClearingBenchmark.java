@@ -0,0 +1,79 @@
+package com.itranswarp.clearing;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.itranswarp.assets.AssetService;
+import com.itranswarp.assets.Transfer;
+import com.itranswarp.assets.Users;
+import com.itranswarp.match.MatchResult;
+import com.itranswarp.order.Direction;
+import com.itranswarp.order.Order;
+import com.itranswarp.order.OrderService;
+
+/**
+ * ClearingService.clearMatchResult的性能。
+ * 
+ * Taker和Maker都只部分成交，因此清算后订单保持活动状态，每次测试可以重复清算同一个MatchResult。
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClearingBenchmark {
+
+    static final long BALANCE = 1L << 50;
+
+    @Param({ "BUY", "SELL" })
+    Direction takerDirection;
+
+    // 每次成交的Maker数量:
+    @Param({ "1", "10", "100" })
+    int records;
+
+    ClearingService clearingService;
+    MatchResult result;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        AssetService assetService = new AssetService();
+        OrderService orderService = new OrderService(assetService);
+        clearingService = new ClearingService(assetService, orderService);
+        Direction makerDirection = takerDirection == Direction.BUY ? Direction.SELL : Direction.BUY;
+        long takerPrice = takerDirection == Direction.BUY ? 100100 : 99900;
+        Order taker = new Order((long) records + 1, prepareUser(assetService, Users.TRADER), takerDirection, takerPrice, 1L << 30);
+        result = new MatchResult(taker);
+        for (int i = 0; i < records; i++) {
+            Order maker = new Order((long) i + 1, prepareUser(assetService, Users.TRADER + 1 + i), makerDirection, 100000, 1L << 30);
+            result.add(maker.price, 1, maker);
+        }
+    }
+
+    Long prepareUser(AssetService assetService, long userId) {
+        for (String assetId : new String[] { "FIAT", "STOCK" }) {
+            assetService.tryTransfer(Transfer.AVAILABLE_TO_AVAILABLE, Users.DEBT, userId, assetId, BALANCE, false);
+            assetService.tryFreeze(userId, assetId, BALANCE);
+        }
+        return userId;
+    }
+
+    @Benchmark
+    public MatchResult clearMatchResult() {
+        clearingService.clearMatchResult(result);
+        return result;
+    }
+}
@@ -0,0 +1,75 @@
+package com.itranswarp.match;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.itranswarp.order.Direction;
+import com.itranswarp.order.Order;
+import com.itranswarp.order.OrderStatus;
+
+/**
+ * 撤销订单簿中任意位置订单的性能。
+ *
+ * 每次撤销一个随机选取的挂单，再把它重新挂入订单簿，订单簿大小保持不变，重新挂单的开销计入结果。
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CancelBenchmark {
+
+    static final long BASE_PRICE = 100000;
+    static final int LEVELS = 100;
+    static final int MASK = (1 << 16) - 1;
+
+    @Param({ "TREE_MAP", "PRICE_LEVEL" })
+    OrderBookType bookType;
+
+    // 挂单数量:
+    @Param({ "1000", "100000" })
+    int orders;
+
+    MatchEngine engine;
+    Order[] restingOrders;
+    int[] cancelIndexes;
+    int index;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        engine = new MatchEngine(bookType);
+        restingOrders = new Order[orders];
+        for (int i = 0; i < orders; i++) {
+            restingOrders[i] = new Order((long) i + 1, 100L, Direction.SELL, BASE_PRICE + i % LEVELS, 100);
+            engine.processOrder(restingOrders[i]);
+        }
+        Random random = new Random(12345);
+        cancelIndexes = new int[MASK + 1];
+        for (int i = 0; i < cancelIndexes.length; i++) {
+            cancelIndexes[i] = random.nextInt(orders);
+        }
+    }
+
+    @Benchmark
+    public Order cancelAndRestore() {
+        Order order = restingOrders[cancelIndexes[index++ & MASK]];
+        engine.cancel(order);
+        order.status = OrderStatus.PENDING;
+        engine.sellBook.add(order);
+        return order;
+    }
+}
@@ -0,0 +1,83 @@
+package com.itranswarp.match;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.itranswarp.order.Direction;
+import com.itranswarp.order.Order;
+
+/**
+ * MatchEngine.processOrder在不同深度和价差的订单簿上的性能。
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatchEngineBenchmark {
+
+    static final long BASE_PRICE = 100000;
+    static final long MAKER_AMOUNT = 1L << 40;
+
+    @Param({ "TREE_MAP", "PRICE_LEVEL" })
+    OrderBookType bookType;
+
+    // 每边价格档位数:
+    @Param({ "10", "1000" })
+    int depth;
+
+    // 每个档位的订单数:
+    @Param({ "1", "10" })
+    int ordersPerLevel;
+
+    // 相邻档位价差:
+    @Param({ "1", "100" })
+    long spread;
+
+    MatchEngine engine;
+    long sequenceId;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        engine = new MatchEngine(bookType);
+        sequenceId = 0;
+        for (int i = 0; i < depth; i++) {
+            for (int j = 0; j < ordersPerLevel; j++) {
+                engine.processOrder(new Order(++sequenceId, 100L, Direction.SELL, BASE_PRICE + i * spread, MAKER_AMOUNT));
+                engine.processOrder(new Order(++sequenceId, 101L, Direction.BUY, BASE_PRICE - (i + 1) * spread, MAKER_AMOUNT));
+            }
+        }
+    }
+
+    /**
+     * 与最优卖单部分成交，订单簿结构不变
+     */
+    @Benchmark
+    public MatchResult matchBest() {
+        return engine.processOrder(new Order(++sequenceId, 102L, Direction.BUY, BASE_PRICE, 1));
+    }
+
+    /**
+     * 未成交的订单挂入订单簿后撤销
+     */
+    @Benchmark
+    public Order restAndCancel() {
+        Order order = new Order(++sequenceId, 102L, Direction.BUY, BASE_PRICE - spread * (depth / 2 + 1), 1);
+        engine.processOrder(order);
+        engine.cancel(order);
+        return order;
+    }
+}
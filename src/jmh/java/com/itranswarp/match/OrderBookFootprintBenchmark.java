@@ -0,0 +1,88 @@
+package com.itranswarp.match;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.itranswarp.order.Direction;
+import com.itranswarp.order.Order;
+
+/**
+ * 各种订单簿结构本身占用的堆内存。
+ *
+ * 订单在迭代开始前创建，计入基准，每次迭代把orders个订单分布在levels个价格档位上加入订单簿，迭代结束后Full GC并打印每个挂单占用的堆内存。
+ * 同时打印Order本身占用的堆内存：Order由OrderService共享，任何订单簿都不能省掉。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = { "-Xms4g", "-Xmx4g", "-XX:+UseParallelGC" })
+public class OrderBookFootprintBenchmark {
+
+    @Param({ "1000000" })
+    int orders;
+
+    @Param({ "1000" })
+    int levels;
+
+    @Param({ "TREE_MAP", "PRICE_LEVEL" })
+    OrderBookType type;
+
+    Order[] resting;
+    OrderBook book;
+    long baseline;
+    long orderBytes;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        book = null;
+        long empty = usedHeap();
+        resting = new Order[orders];
+        for (int i = 0; i < orders; i++) {
+            resting[i] = new Order(i + 1L, 100L, Direction.BUY, 10000 + i % levels, 100);
+        }
+        baseline = usedHeap();
+        orderBytes = baseline - empty;
+    }
+
+    @Benchmark
+    public Object build() {
+        book = type.create(Direction.BUY);
+        for (Order order : resting) {
+            book.add(order);
+        }
+        return book;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        long used = usedHeap() - baseline;
+        System.out.printf("%n%s: %d heap bytes per resting order in the book, plus %d bytes for each Order%n", type, used / orders, orderBytes / orders);
+        book = null;
+        resting = null;
+    }
+
+    static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
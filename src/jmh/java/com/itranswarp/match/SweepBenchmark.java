@@ -0,0 +1,71 @@
+package com.itranswarp.match;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.itranswarp.order.Direction;
+import com.itranswarp.order.Order;
+import com.itranswarp.order.OrderStatus;
+
+/**
+ * 一个大单吃掉多个档位，产生大量成交记录。
+ * 
+ * 每次测试后把被吃掉的Maker恢复到订单簿，恢复的开销计入结果。
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SweepBenchmark {
+
+    static final long BASE_PRICE = 100000;
+    static final long MAKER_AMOUNT = 100;
+
+    @Param({ "TREE_MAP", "PRICE_LEVEL" })
+    OrderBookType bookType;
+
+    // 吃掉的Maker数量:
+    @Param({ "10", "100", "1000" })
+    int makers;
+
+    MatchEngine engine;
+    Order[] makerOrders;
+    long sequenceId;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        engine = new MatchEngine(bookType);
+        makerOrders = new Order[makers];
+        sequenceId = 0;
+        for (int i = 0; i < makers; i++) {
+            // 每两个Maker一个档位:
+            makerOrders[i] = new Order(++sequenceId, 100L, Direction.SELL, BASE_PRICE + i / 2, MAKER_AMOUNT);
+            engine.processOrder(makerOrders[i]);
+        }
+    }
+
+    @Benchmark
+    public MatchResult sweep() {
+        MatchResult result = engine.processOrder(new Order(++sequenceId, 101L, Direction.BUY, BASE_PRICE + makers, MAKER_AMOUNT * makers));
+        for (Order maker : makerOrders) {
+            maker.unfilledAmount = MAKER_AMOUNT;
+            maker.status = OrderStatus.PENDING;
+            engine.sellBook.add(maker);
+        }
+        return result;
+    }
+}
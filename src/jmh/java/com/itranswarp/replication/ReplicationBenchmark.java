@@ -0,0 +1,83 @@
+package com.itranswarp.replication;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.itranswarp.TradingEngine;
+import com.itranswarp.journal.Journal;
+
+/**
+ * 主节点写入一条日志记录的开销，followers个备节点通过本机回环地址复制并应用，写日志的线程不等待确认。
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplicationBenchmark {
+
+    @Param({ "0", "1" })
+    int followers;
+
+    Path dir;
+    Journal journal;
+    ReplicationPrimary primary;
+    List<ReplicationFollower> standbys;
+    long sequenceId;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("replication-bench");
+        journal = new Journal(dir, 64 * 1024 * 1024, 1024);
+        primary = new ReplicationPrimary(journal, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 16 * 1024 * 1024);
+        standbys = new ArrayList<>();
+        for (int i = 0; i < followers; i++) {
+            standbys.add(new ReplicationFollower(new TradingEngine(), primary.getAddress()));
+        }
+        primary.awaitAck(followers, 0, 5000);
+        sequenceId = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        primary.awaitAck(followers, sequenceId, 60_000);
+        for (ReplicationFollower standby : standbys) {
+            standby.close();
+        }
+        primary.close();
+        journal.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long appendDeposit() {
+        sequenceId++;
+        journal.appendDeposit(sequenceId, 100L + (sequenceId & 1023), "FIAT", 100);
+        return sequenceId;
+    }
+}
@@ -0,0 +1,30 @@
+package com.itranswarp;
+
+import com.itranswarp.order.Order;
+
+/**
+ * 批量下单的结果，按请求顺序保存每个订单或拒绝原因。
+ */
+public class BatchResult {
+
+    // 已接受的订单，被拒绝的请求为null:
+    public final Order[] orders;
+
+    // 被拒绝的原因，已接受的请求为null:
+    public final RuntimeException[] errors;
+
+    // 已接受的订单数量:
+    public int accepted = 0;
+
+    // 是否合并冻结，为false表示合并冻结失败后逐个处理:
+    public boolean coalesced = false;
+
+    public BatchResult(int size) {
+        this.orders = new Order[size];
+        this.errors = new RuntimeException[size];
+    }
+
+    public int size() {
+        return this.orders.length;
+    }
+}
@@ -1,205 +1,1261 @@
 package com.itranswarp;
 
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentMap;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
 
-import com.itranswarp.assets.Asset;
 import com.itranswarp.assets.AssetService;
 import com.itranswarp.assets.Transfer;
 import com.itranswarp.assets.Users;
+import com.itranswarp.audit.Auditor;
 import com.itranswarp.clearing.ClearingService;
+import com.itranswarp.clearing.SettlementPipeline;
+import com.itranswarp.journal.CommandCodec;
+import com.itranswarp.journal.CommandListener;
+import com.itranswarp.journal.Journal;
+import com.itranswarp.match.Depth;
+import com.itranswarp.match.MarketDataListener;
 import com.itranswarp.match.MatchEngine;
 import com.itranswarp.match.MatchResult;
+import com.itranswarp.match.OrderBook;
+import com.itranswarp.match.OrderBookType;
+import com.itranswarp.match.StopBook;
+import com.itranswarp.metrics.EngineMetrics;
+import com.itranswarp.metrics.Stage;
 import com.itranswarp.order.Direction;
 import com.itranswarp.order.Order;
+import com.itranswarp.order.OrderRequest;
 import com.itranswarp.order.OrderService;
+import com.itranswarp.order.OrderStatus;
+import com.itranswarp.order.OrderType;
+import com.itranswarp.order.RiskLimits;
+import com.itranswarp.order.Symbol;
+import com.itranswarp.query.StateListener;
+import com.itranswarp.snapshot.SnapshotReader;
+import com.itranswarp.snapshot.SnapshotWriter;
+import com.itranswarp.util.AccountLedger;
+import com.itranswarp.util.FixedPoint;
 
 public class TradingEngine {
 
+    static final long NOT_TIMED = Long.MIN_VALUE;
+
     final AssetService assetService;
     final OrderService orderService;
-    final MatchEngine matchEngine;
     final ClearingService clearingService;
+    final Journal journal;
+
+    // 交易品种及对应的撮合引擎:
+    final Map<String, Symbol> symbols;
+    final Map<String, MatchEngine> matchEngines;
+    final Set<String> assetIds;
+
+    // 最后接受的命令序号:
+    long lastSequenceId = 0;
+
+    // 增量审计，为null时不审计:
+    Auditor auditor = null;
+
+    // 批量下单按用户和资产合并的冻结额，只在定序线程使用:
+    final AccountLedger batchFreezes = new AccountLedger();
+
+    // 并行清算，为null时在撮合线程中清算:
+    SettlementPipeline settlement = null;
+
+    // 回放日志和应用复制记录:
+    final JournalReplayer replayer = new JournalReplayer();
+    final CRC32C recordCrc = new CRC32C();
+
+    // 行情接收者:
+    MarketDataListener marketDataListener = MarketDataListener.NOOP;
+
+    // 状态变化的接收者，为null时不发布:
+    StateListener stateListener = null;
+
+    // 运行指标，为NOOP时不计时:
+    EngineMetrics metrics = EngineMetrics.NOOP;
+    boolean metricsEnabled = false;
+
+    // 订单序列号与sampleMask为0的订单才计时:
+    long sampleMask = 0;
 
     public TradingEngine() {
+        this(OrderBookType.PRICE_LEVEL);
+    }
+
+    public TradingEngine(OrderBookType bookType) {
+        this(bookType, null);
+    }
+
+    /**
+     * 使用预写日志，创建时先回放日志恢复状态
+     */
+    public TradingEngine(OrderBookType bookType, Journal journal) {
+        this(bookType, null, journal);
+    }
+
+    /**
+     * 先从snapshotDir中最新的快照恢复，再回放快照之后的日志
+     */
+    public TradingEngine(OrderBookType bookType, Path snapshotDir, Journal journal) {
+        this(List.of(Symbol.DEFAULT), bookType, snapshotDir, journal);
+    }
+
+    public TradingEngine(List<Symbol> symbols, OrderBookType bookType, Path snapshotDir, Journal journal) {
         this.assetService = new AssetService();
         this.orderService = new OrderService(this.assetService);
-        this.matchEngine = new MatchEngine();
         this.clearingService = new ClearingService(this.assetService, this.orderService);
+        this.journal = journal;
+        Map<String, Symbol> symbolMap = new LinkedHashMap<>();
+        Map<String, MatchEngine> engineMap = new LinkedHashMap<>();
+        Set<String> assets = new HashSet<>();
+        for (Symbol symbol : symbols) {
+            if (symbolMap.put(symbol.name, symbol) != null) {
+                throw new IllegalArgumentException("Duplicate symbol: " + symbol.name);
+            }
+            engineMap.put(symbol.name, new MatchEngine(symbol, bookType));
+            assets.add(symbol.baseAsset);
+            assets.add(symbol.quoteAsset);
+        }
+        this.symbols = Collections.unmodifiableMap(symbolMap);
+        this.matchEngines = Collections.unmodifiableMap(engineMap);
+        this.assetIds = Collections.unmodifiableSet(assets);
+        Path snapshot = snapshotDir == null ? null : SnapshotReader.latest(snapshotDir);
+        if (snapshot != null) {
+            this.lastSequenceId = SnapshotReader.read(snapshot, this.assetService, this.orderService, this.matchEngines);
+        }
+        if (journal != null) {
+            this.lastSequenceId = journal.replay(this.lastSequenceId, this.replayer);
+        }
+    }
+
+    public long getLastSequenceId() {
+        return this.lastSequenceId;
+    }
+
+    /**
+     * 引擎的资产，只能在没有命令执行时直接读取，并发查询应使用QueryReplica
+     */
+    public AssetService getAssetService() {
+        return this.assetService;
+    }
+
+    /**
+     * 引擎的活动订单，只能在没有命令执行时直接读取，并发查询应使用QueryReplica
+     */
+    public OrderService getOrderService() {
+        return this.orderService;
+    }
+
+    /**
+     * 预写日志，未使用日志时返回null
+     */
+    public Journal getJournal() {
+        return this.journal;
+    }
+
+    public Map<String, Symbol> getSymbols() {
+        return this.symbols;
+    }
+
+    public MatchEngine getMatchEngine(String symbol) {
+        MatchEngine matchEngine = this.matchEngines.get(symbol);
+        if (matchEngine == null) {
+            throw new IllegalArgumentException("Invalid symbol.");
+        }
+        return matchEngine;
+    }
+
+    /**
+     * 先全量验证当前状态，再开启增量审计，此后每条命令结束时检查该命令修改过的账户和订单
+     */
+    public void enableAudit() {
+        if (this.settlement != null) {
+            throw new IllegalStateException("Cannot audit with parallel settlement.");
+        }
+        validate();
+        this.auditor = new Auditor(this.assetService);
+        this.assetService.setAuditor(this.auditor);
+    }
+
+    /**
+     * 开启并行清算，成交的转账按用户分片交给workers个线程异步执行，撮合线程不再等待清算。
+     *
+     * 冻结资产前等待该用户此前的清算完成，命令结果与同步清算相同。增量审计要求每条命令的余额变化在命令结束时完成，不能同时开启。
+     * 直接读取余额前调用awaitSettled()。必须在没有命令执行时开启。
+     *
+     * @param capacity 每个清算线程的队列容量，必须是2的幂，队列满时撮合线程等待
+     */
+    public void enableParallelSettlement(int workers, int capacity) {
+        if (this.auditor != null) {
+            throw new IllegalStateException("Cannot audit with parallel settlement.");
+        }
+        if (this.settlement != null) {
+            throw new IllegalStateException("Parallel settlement already enabled.");
+        }
+        this.settlement = new SettlementPipeline(this.assetService, workers, capacity);
+        this.clearingService.setSettlement(this.settlement);
+    }
+
+    /**
+     * 执行完所有已提交的清算后停止清算线程，此后恢复在撮合线程中清算
+     */
+    public void disableParallelSettlement() throws InterruptedException {
+        SettlementPipeline settlement = this.settlement;
+        if (settlement != null) {
+            this.clearingService.setSettlement(null);
+            this.settlement = null;
+            settlement.shutdown();
+        }
+    }
+
+    /**
+     * 等待所有已提交的清算完成，未开启并行清算时立即返回
+     */
+    public void awaitSettled() {
+        if (this.settlement != null) {
+            this.settlement.awaitSettled();
+        }
+    }
+
+    /**
+     * 设置下单前的风控限制，为null时不检查。
+     *
+     * 只检查新接受的订单，回放日志和应用复制记录时不检查，被拒绝的命令不写入日志，因此不影响回放结果。
+     */
+    public void setRiskLimits(RiskLimits limits) {
+        this.orderService.setRiskLimits(limits);
+    }
+
+    /**
+     * 设置运行指标的接收者，每个订单都计时，必须在执行命令之前设置
+     */
+    public void setMetrics(EngineMetrics metrics) {
+        setMetrics(metrics, 1);
+    }
+
+    /**
+     * 设置运行指标的接收者，每sampleInterval个订单计时一次，成交笔数和订单簿深度仍逐个记录。
+     *
+     * 读取时钟是主要开销，生产环境可按订单序列号抽样计时，sampleInterval必须是2的幂。
+     */
+    public void setMetrics(EngineMetrics metrics, int sampleInterval) {
+        if (sampleInterval <= 0 || Integer.bitCount(sampleInterval) != 1) {
+            throw new IllegalArgumentException("Invalid sample interval.");
+        }
+        this.metrics = metrics == null ? EngineMetrics.NOOP : metrics;
+        this.metricsEnabled = this.metrics != EngineMetrics.NOOP;
+        this.sampleMask = sampleInterval - 1;
+    }
+
+    /**
+     * 设置所有交易品种的行情接收者，替换已有的接收者，行情在撮合线程中发布
+     */
+    public void setMarketDataListener(MarketDataListener listener) {
+        this.marketDataListener = listener == null ? MarketDataListener.NOOP : listener;
+        for (MatchEngine matchEngine : this.matchEngines.values()) {
+            matchEngine.setMarketDataListener(this.marketDataListener);
+        }
+    }
+
+    /**
+     * 添加行情接收者，与已有的接收者一起接收每条行情
+     */
+    public void addMarketDataListener(MarketDataListener listener) {
+        setMarketDataListener(MarketDataListener.compose(this.marketDataListener, listener));
+    }
+
+    /**
+     * 设置状态变化的接收者，先发布当前全部余额和活动订单，此后发布每次余额、订单和成交的变化。
+     *
+     * 必须在没有命令执行时设置，例如在创建管道之前。
+     */
+    public void setStateListener(StateListener listener) {
+        awaitSettled();
+        if (listener != null) {
+            this.assetService.forEach((userId, assetId, available, frozen) -> listener.onBalanceChanged(userId, assetId, available, frozen));
+            List<Order> orders = new ArrayList<>(this.orderService.activeOrders.values());
+            orders.sort((o1, o2) -> o1.sequenceId.compareTo(o2.sequenceId));
+            for (Order order : orders) {
+                listener.onOrderChanged(order);
+            }
+        }
+        this.stateListener = listener;
+        this.assetService.setStateListener(listener);
+    }
+
+    /**
+     * 返回交易品种的买卖盘快照，必须在撮合线程中调用
+     */
+    public Depth getDepth(String symbol, int levels) {
+        return getMatchEngine(symbol).getDepth(levels);
+    }
+
+    /**
+     * 在snapshotDir中写入当前状态的快照，返回快照文件
+     */
+    public Path writeSnapshot(Path snapshotDir) {
+        awaitSettled();
+        return SnapshotWriter.write(snapshotDir, this.lastSequenceId, this.assetService, this.orderService, this.matchEngines.values());
     }
 
     public void deposit(Long userId, String assetId, BigDecimal amount) {
         if (userId == null || userId.longValue() < Users.TRADER) {
             throw new IllegalArgumentException("Invalid user id.");
         }
-        if (!"FIAT".equals(assetId) && !"STOCK".equals(assetId)) {
+        if (!this.assetIds.contains(assetId)) {
             throw new IllegalArgumentException("Invalid asset id.");
         }
         if (amount == null || amount.signum() <= 0 || amount.scale() > 2) {
             throw new IllegalArgumentException("Invalid amount.");
         }
+        long value = FixedPoint.toBalance(amount);
+        long sequenceId = this.lastSequenceId + 1;
+        if (this.journal != null) {
+            this.journal.appendDeposit(sequenceId, userId, assetId, value);
+        }
+        this.lastSequenceId = sequenceId;
+        applyDeposit(userId, assetId, value);
+    }
+
+    void applyDeposit(Long userId, String assetId, long amount) {
+        Auditor auditor = this.auditor;
+        if (auditor != null) {
+            auditor.begin();
+        }
         boolean ok = this.assetService.tryTransfer(Transfer.AVAILABLE_TO_AVAILABLE, Users.DEBT, userId, assetId, amount, false);
         if (!ok) {
             throw new RuntimeException("deposit transfer failed.");
         }
+        if (auditor != null) {
+            auditor.end();
+        }
     }
 
     /**
-     * 创建订单
+     * 创建默认交易品种的订单
      */
     public Order createOrder(Long userId, Direction direction, BigDecimal price, BigDecimal amount) {
+        return createOrder(userId, Symbol.DEFAULT.name, direction, price, amount);
+    }
+
+    /**
+     * 创建订单
+     */
+    public Order createOrder(Long userId, String symbol, Direction direction, BigDecimal price, BigDecimal amount) {
+        return createOrder(userId, symbol, OrderType.LIMIT, direction, price, amount);
+    }
+
+    /**
+     * 创建指定类型的订单，市价单的price必须为null。市价、IOC和FOK订单未成交的部分在撮合后立即撤销，POST_ONLY订单会成交时撤销。
+     */
+    public Order createOrder(Long userId, String symbol, OrderType type, Direction direction, BigDecimal price, BigDecimal amount) {
+        Order order = acceptOrder(userId, symbol, type, direction, price, amount);
+        matchOrder(order);
+        return order;
+    }
+
+    /**
+     * 校验并冻结订单所需资产，写入日志后返回待撮合的订单。
+     *
+     * 只有冻结成功的订单才写入日志，多个交易品种并行撮合时，回放的冻结结果与首次执行一致。
+     */
+    public Order acceptOrder(Long userId, String symbol, Direction direction, BigDecimal price, BigDecimal amount) {
+        return acceptOrder(userId, symbol, OrderType.LIMIT, direction, price, amount);
+    }
+
+    /**
+     * 校验并冻结指定类型的订单，写入日志后返回待撮合的订单。
+     *
+     * 市价单按此时的对手盘计算能成交全部数量的最差价格作为限价，买入按该价格冻结计价资产，实际成交更优的部分在清算时退回。
+     * 日志记录计算出的限价，回放时不再读取订单簿。多个交易品种并行撮合时，必须等待该品种的撮合线程空闲后再接受市价单。
+     */
+    public Order acceptOrder(Long userId, String symbol, OrderType type, Direction direction, BigDecimal price, BigDecimal amount) {
+        if (type != null && type.isStop()) {
+            // 止损单由acceptStopOrder接受:
+            throw new IllegalArgumentException("Invalid order type.");
+        }
+        Symbol s = checkOrder(userId, symbol, type, direction, price, amount);
+        long amountValue = FixedPoint.toLong(amount);
+        long priceValue;
+        if (type == OrderType.MARKET) {
+            priceValue = this.matchEngines.get(symbol).getSweepPrice(direction, amountValue);
+            if (priceValue == 0) {
+                throw new RuntimeException("No liquidity.");
+            }
+        } else {
+            priceValue = FixedPoint.toLong(price);
+        }
+        // 市价单的限价由对手盘决定，不检查价格偏离:
+        this.orderService.checkRisk(userId, s, priceValue, amountValue, type == OrderType.MARKET ? 0 : this.matchEngines.get(symbol).marketPrice);
+        Order order = newOrder(userId, s, type, direction, priceValue, amountValue, 0);
+        long sequenceId = this.lastSequenceId + 1;
+        if (this.journal != null) {
+            long start = startTiming(order.sequenceId);
+            this.journal.appendCreateOrder(sequenceId, userId, symbol, type, direction, priceValue, amountValue);
+            recordLatency(Stage.JOURNAL, start);
+        }
+        this.lastSequenceId = sequenceId;
+        return order;
+    }
+
+    /**
+     * 创建止损单或止损限价单，按price冻结资产。
+     *
+     * 最新成交价达到stopPrice时触发：止损单以price为保护价按IOC撮合，止损限价单按限价单撮合。下单时已达到止损价的立即触发。
+     */
+    public Order createStopOrder(Long userId, String symbol, OrderType type, Direction direction, BigDecimal stopPrice, BigDecimal price, BigDecimal amount) {
+        Order order = acceptStopOrder(userId, symbol, type, direction, stopPrice, price, amount);
+        matchOrder(order);
+        return order;
+    }
+
+    /**
+     * 校验并冻结止损单，写入日志后返回待撮合的订单
+     */
+    public Order acceptStopOrder(Long userId, String symbol, OrderType type, Direction direction, BigDecimal stopPrice, BigDecimal price,
+            BigDecimal amount) {
+        if (type == null || !type.isStop()) {
+            throw new IllegalArgumentException("Invalid order type.");
+        }
+        Symbol s = checkOrder(userId, symbol, type, direction, price, amount);
+        if (stopPrice == null || stopPrice.signum() <= 0 || stopPrice.scale() > 2) {
+            throw new IllegalArgumentException("Invalid stop price.");
+        }
+        long priceValue = FixedPoint.toLong(price);
+        long amountValue = FixedPoint.toLong(amount);
+        long stopValue = FixedPoint.toLong(stopPrice);
+        // 止损单在触发时才接近最新成交价，不检查价格偏离:
+        this.orderService.checkRisk(userId, s, priceValue, amountValue, 0);
+        Order order = newOrder(userId, s, type, direction, priceValue, amountValue, stopValue);
+        long sequenceId = this.lastSequenceId + 1;
+        if (this.journal != null) {
+            long start = startTiming(order.sequenceId);
+            this.journal.appendCreateStopOrder(sequenceId, userId, symbol, type, direction, priceValue, amountValue, stopValue);
+            recordLatency(Stage.JOURNAL, start);
+        }
+        this.lastSequenceId = sequenceId;
+        return order;
+    }
+
+    /**
+     * 创建冰山限价单，按全部数量冻结资产，订单簿和行情每次只显示最多peakAmount。
+     *
+     * 显示的部分全部成交后由撮合引擎从隐藏数量中补充，补充后排到同价格档位的最后，不经过createOrder，也不再写入日志。
+     */
+    public Order createIcebergOrder(Long userId, String symbol, Direction direction, BigDecimal price, BigDecimal amount, BigDecimal peakAmount) {
+        Order order = acceptIcebergOrder(userId, symbol, direction, price, amount, peakAmount);
+        matchOrder(order);
+        return order;
+    }
+
+    /**
+     * 校验并冻结冰山限价单，写入日志后返回待撮合的订单
+     */
+    public Order acceptIcebergOrder(Long userId, String symbol, Direction direction, BigDecimal price, BigDecimal amount, BigDecimal peakAmount) {
+        Symbol s = checkOrder(userId, symbol, OrderType.LIMIT, direction, price, amount);
+        if (peakAmount == null || peakAmount.signum() <= 0 || peakAmount.scale() > 2 || peakAmount.compareTo(amount) >= 0) {
+            throw new IllegalArgumentException("Invalid peak amount.");
+        }
+        long priceValue = FixedPoint.toLong(price);
+        long amountValue = FixedPoint.toLong(amount);
+        long peakValue = FixedPoint.toLong(peakAmount);
+        this.orderService.checkRisk(userId, s, priceValue, amountValue, this.matchEngines.get(symbol).marketPrice);
+        Order order = newOrder(userId, s, OrderType.LIMIT, direction, priceValue, amountValue, 0);
+        order.peakAmount = peakValue;
+        long sequenceId = this.lastSequenceId + 1;
+        if (this.journal != null) {
+            long start = startTiming(order.sequenceId);
+            this.journal.appendCreateIcebergOrder(sequenceId, userId, symbol, direction, priceValue, amountValue, peakValue);
+            recordLatency(Stage.JOURNAL, start);
+        }
+        this.lastSequenceId = sequenceId;
+        return order;
+    }
+
+    /**
+     * 批量下单，结果与按请求顺序逐个调用createOrder一致，被拒绝的请求不影响其他请求。
+     *
+     * 先按用户和资产合并所有订单的冻结额，每个用户的每种资产只冻结一次。撮合只会减少冻结额、增加可用资产，
+     * 因此合并冻结成功时逐个下单也必然冻结成功；合并冻结失败时退回逐个下单，由每个订单单独决定是否被拒绝。
+     * 每个订单仍以一条命令写入日志，回放时逐个执行，结果相同。
+     * 合并冻结成功后，撮合产生的转账和解冻也按用户和资产合并，整批撮合结束后每个账户只修改一次。
+     */
+    public BatchResult submitBatch(List<OrderRequest> requests) {
+        BatchResult result = new BatchResult(requests.size());
+        if (tryAcceptBatch(requests, result)) {
+            // 增量审计按命令检查余额，并行清算由工作线程转账，两者都不合并清算:
+            boolean coalesce = this.auditor == null && this.settlement == null;
+            if (coalesce) {
+                this.clearingService.beginBatch();
+            }
+            try {
+                for (Order order : result.orders) {
+                    if (order != null) {
+                        matchOrder(order);
+                    }
+                }
+            } finally {
+                if (coalesce) {
+                    this.clearingService.endBatch();
+                }
+            }
+        } else {
+            acceptEach(requests, result, true);
+        }
+        return result;
+    }
+
+    /**
+     * 批量接受订单并合并冻结，返回的订单由调用方按顺序撮合。合并冻结失败时逐个接受。
+     */
+    public BatchResult acceptBatch(List<OrderRequest> requests) {
+        BatchResult result = new BatchResult(requests.size());
+        if (!tryAcceptBatch(requests, result)) {
+            acceptEach(requests, result, false);
+        }
+        return result;
+    }
+
+    // 逐个接受未被拒绝的请求，match为true时接受后立即撮合:
+    void acceptEach(List<OrderRequest> requests, BatchResult result, boolean match) {
+        for (int i = 0; i < result.size(); i++) {
+            if (result.errors[i] != null) {
+                continue;
+            }
+            OrderRequest request = requests.get(i);
+            Order order;
+            try {
+                order = acceptOrder(request.userId, request.symbol, request.direction, request.price, request.amount);
+            } catch (RuntimeException e) {
+                result.errors[i] = e;
+                continue;
+            }
+            if (match) {
+                matchOrder(order);
+            }
+            result.orders[i] = order;
+            result.accepted++;
+        }
+    }
+
+    // 合并冻结并接受所有有效请求，冻结失败时回滚并返回false，无效请求的原因写入result:
+    boolean tryAcceptBatch(List<OrderRequest> requests, BatchResult result) {
+        if (this.orderService.getRiskLimits() != null) {
+            // 风控按此前已接受的订单逐个检查:
+            return false;
+        }
+        int n = requests.size();
+        Symbol[] orderSymbols = new Symbol[n];
+        long[] prices = new long[n];
+        long[] amounts = new long[n];
+        // 按用户和资产合并的冻结额:
+        AccountLedger freezes = this.batchFreezes;
+        freezes.reset();
+        for (int i = 0; i < n; i++) {
+            OrderRequest request = requests.get(i);
+            String assetId;
+            long frozen;
+            try {
+                orderSymbols[i] = checkOrder(request.userId, request.symbol, request.direction, request.price, request.amount);
+                prices[i] = FixedPoint.toLong(request.price);
+                amounts[i] = FixedPoint.toLong(request.amount);
+                if (request.direction == Direction.BUY) {
+                    assetId = orderSymbols[i].quoteAsset;
+                    frozen = FixedPoint.notional(prices[i], amounts[i]);
+                } else {
+                    assetId = orderSymbols[i].baseAsset;
+                    frozen = FixedPoint.quantity(amounts[i]);
+                }
+            } catch (RuntimeException e) {
+                orderSymbols[i] = null;
+                result.errors[i] = e;
+                continue;
+            }
+            try {
+                freezes.add(request.userId, this.assetService.assetIndex(assetId), 0, frozen);
+            } catch (ArithmeticException e) {
+                // 合计溢出，不可能全部冻结成功:
+                return false;
+            }
+        }
+        Auditor auditor = this.auditor;
+        if (auditor != null) {
+            auditor.begin();
+        }
+        long start = startTiming(0);
+        if (this.settlement != null) {
+            for (int j = 0; j < freezes.size(); j++) {
+                this.settlement.awaitUser(freezes.userId(j));
+            }
+        }
+        int frozen = 0;
+        while (frozen < freezes.size()
+                && this.assetService.tryFreeze(freezes.userId(frozen), this.assetService.getAssetId(freezes.asset(frozen)), freezes.frozen(frozen))) {
+            frozen++;
+        }
+        if (frozen < freezes.size()) {
+            // 回滚已冻结的资产:
+            for (int j = 0; j < frozen; j++) {
+                this.assetService.unfreeze(freezes.userId(j), this.assetService.getAssetId(freezes.asset(j)), freezes.frozen(j));
+            }
+            if (auditor != null) {
+                auditor.end();
+            }
+            return false;
+        }
+        recordLatency(Stage.FREEZE, start);
+        if (this.journal != null) {
+            this.journal.beginBatch();
+        }
+        for (int i = 0; i < n; i++) {
+            if (orderSymbols[i] == null) {
+                continue;
+            }
+            OrderRequest request = requests.get(i);
+            Order order = this.orderService.createFrozenOrder(request.userId, orderSymbols[i], request.direction, prices[i], amounts[i]);
+            if (auditor != null) {
+                auditor.onOrderChanged(order, order.unfilledAmount);
+            }
+            if (this.stateListener != null) {
+                this.stateListener.onOrderChanged(order);
+            }
+            long sequenceId = this.lastSequenceId + 1;
+            if (this.journal != null) {
+                this.journal.appendCreateOrder(sequenceId, request.userId, request.symbol, request.direction, prices[i], amounts[i]);
+            }
+            this.lastSequenceId = sequenceId;
+            result.orders[i] = order;
+            result.accepted++;
+        }
+        if (this.journal != null) {
+            this.journal.endBatch();
+        }
+        if (auditor != null) {
+            auditor.end();
+        }
+        result.coalesced = true;
+        return true;
+    }
+
+    // 校验订单参数，返回交易品种:
+    Symbol checkOrder(Long userId, String symbol, Direction direction, BigDecimal price, BigDecimal amount) {
+        return checkOrder(userId, symbol, OrderType.LIMIT, direction, price, amount);
+    }
+
+    Symbol checkOrder(Long userId, String symbol, OrderType type, Direction direction, BigDecimal price, BigDecimal amount) {
         if (userId == null || userId.longValue() < Users.TRADER) {
             throw new IllegalArgumentException("Invalid user id.");
         }
+        Symbol s = this.symbols.get(symbol);
+        if (s == null) {
+            throw new IllegalArgumentException("Invalid symbol.");
+        }
         if (direction == null) {
             throw new IllegalArgumentException("Invalid direction.");
         }
-        if (price == null || price.signum() <= 0 || price.scale() > 2) {
+        if (type == null) {
+            throw new IllegalArgumentException("Invalid order type.");
+        }
+        if (type == OrderType.MARKET) {
+            // 市价单的限价由对手盘决定:
+            if (price != null) {
+                throw new IllegalArgumentException("Invalid price.");
+            }
+        } else if (price == null || price.signum() <= 0 || price.scale() > 2) {
             throw new IllegalArgumentException("Invalid price.");
         }
         if (amount == null || amount.signum() <= 0 || amount.scale() > 2) {
             throw new IllegalArgumentException("Invalid amount.");
         }
-        Order order = this.orderService.createOrder(userId, direction, price, amount);
-        MatchResult result = this.matchEngine.processOrder(order);
-        this.clearingService.clearMatchResult(result);
+        return s;
+    }
+
+    // 创建订单并冻结资产:
+    Order newOrder(Long userId, Symbol symbol, OrderType type, Direction direction, long price, long amount, long stopPrice) {
+        Auditor auditor = this.auditor;
+        if (auditor != null) {
+            auditor.begin();
+        }
+        long start = startTiming(this.orderService.getSequenceId() + 1);
+        if (this.settlement != null) {
+            // 冻结前等待该用户此前的成交入账:
+            this.settlement.awaitUser(userId);
+        }
+        Order order = this.orderService.createOrder(userId, symbol, type, direction, price, amount, stopPrice);
+        recordLatency(Stage.FREEZE, start);
+        if (this.stateListener != null) {
+            this.stateListener.onOrderChanged(order);
+        }
+        if (auditor != null) {
+            auditor.onOrderChanged(order, order.unfilledAmount);
+            auditor.end();
+        }
         return order;
     }
 
+    /**
+     * 撮合并清算已接受的订单，再依次撮合被成交价触发的止损单，同一交易品种的订单必须按接受的顺序撮合
+     */
+    public void matchOrder(Order order) {
+        MatchEngine matchEngine = this.matchEngines.get(order.symbol.name);
+        matchOrder(matchEngine, order);
+        Order triggered;
+        while ((triggered = matchEngine.pollTriggered()) != null) {
+            matchOrder(matchEngine, triggered);
+        }
+    }
+
+    // 撮合并清算一个订单，每个订单单独审计:
+    void matchOrder(MatchEngine matchEngine, Order order) {
+        Auditor auditor = this.auditor;
+        if (auditor != null) {
+            auditor.begin();
+        }
+        long start = startTiming(order.sequenceId);
+        MatchResult result = matchEngine.processOrder(order);
+        start = recordLatency(Stage.MATCH, start);
+        this.clearingService.clearMatchResult(result);
+        recordLatency(Stage.CLEAR, start);
+        if (this.metricsEnabled) {
+            this.metrics.recordFills(matchEngine.symbol.name, result.size());
+            recordBook(matchEngine);
+        }
+        if (this.stateListener != null) {
+            publishMatchResult(result);
+        }
+        if (auditor != null) {
+            for (int i = 0; i < result.size(); i++) {
+                long matched = result.getAmount(i);
+                auditor.onOrderChanged(order, -matched);
+                auditor.onOrderChanged(result.getMakerOrder(i), -matched);
+            }
+            for (int i = 0; i < result.selfTradeSize(); i++) {
+                Order selfTrade = result.getSelfTradeOrder(i);
+                auditor.onOrderChanged(selfTrade, -result.getSelfTradeAmount(i));
+                if (selfTrade != order && selfTrade.status == OrderStatus.CANCELLED) {
+                    // 撤销的Maker已解冻:
+                    auditor.onOrderChanged(selfTrade, -selfTrade.unfilledAmount);
+                }
+            }
+            if (order.status == OrderStatus.CANCELLED) {
+                // 未挂入订单簿的部分已解冻:
+                auditor.onOrderChanged(order, -order.unfilledAmount);
+            }
+            auditor.end();
+        }
+    }
+
     /**
      * 撤销订单
      */
     public Order cancelOrder(Long userId, Long sequenceId) {
+        return cancel(acceptCancel(userId, sequenceId));
+    }
+
+    /**
+     * 校验撤单请求，写入日志后返回待撤销的订单
+     */
+    public Order acceptCancel(Long userId, Long sequenceId) {
         Order order = this.orderService.getOrder(sequenceId);
         // 未找到活动订单或订单不属于该用户:
         if (order == null || order.userId.longValue() != userId.longValue()) {
             throw new IllegalArgumentException("Order not found by sequenceId: " + sequenceId);
         }
-        this.matchEngine.cancel(order);
+        long commandSequenceId = this.lastSequenceId + 1;
+        if (this.journal != null) {
+            long start = startTiming(sequenceId);
+            this.journal.appendCancelOrder(commandSequenceId, userId, sequenceId);
+            recordLatency(Stage.JOURNAL, start);
+        }
+        this.lastSequenceId = commandSequenceId;
+        return order;
+    }
+
+    /**
+     * 撤销已接受的撤单请求。订单可能在接受之后、撤销之前已完全成交，此时撤单失败。
+     */
+    public Order cancel(Order order) {
+        if (this.orderService.getOrder(order.sequenceId) != order) {
+            throw new IllegalArgumentException("Order not found by sequenceId: " + order.sequenceId);
+        }
+        Auditor auditor = this.auditor;
+        if (auditor != null) {
+            auditor.begin();
+        }
+        MatchEngine matchEngine = this.matchEngines.get(order.symbol.name);
+        long start = startTiming(order.sequenceId);
+        matchEngine.cancel(order);
         this.clearingService.clearCancelOrder(order);
+        recordLatency(Stage.CANCEL, start);
+        if (this.metricsEnabled) {
+            recordBook(matchEngine);
+        }
+        if (this.stateListener != null) {
+            this.stateListener.onOrderChanged(order);
+        }
+        if (auditor != null) {
+            auditor.onOrderChanged(order, -order.unfilledAmount);
+            auditor.end();
+        }
+        return order;
+    }
+
+    /**
+     * 撤销用户在所有交易品种的全部订单，返回撤销的订单数量
+     */
+    public int cancelAll(Long userId) {
+        return cancelAll(userId, null);
+    }
+
+    /**
+     * 撤销用户在所有交易品种某一方向的订单，direction为null时撤销两个方向，返回撤销的订单数量
+     */
+    public int cancelAll(Long userId, Direction direction) {
+        long lastOrderId = acceptCancelAll(userId, direction);
+        return cancelAll(userId, direction, lastOrderId);
+    }
+
+    // 一次遍历用户的订单，按交易品种分组撤销:
+    int cancelAll(Long userId, Direction direction, long lastOrderId) {
+        int count = 0;
+        for (Entry<String, List<Order>> entry : this.orderService.getOrdersBySymbol(userId, direction, lastOrderId).entrySet()) {
+            count += cancelOrders(userId, entry.getKey(), entry.getValue());
+        }
+        return count;
+    }
+
+    /**
+     * 校验批量撤单请求并写入日志，返回此时最后一个订单的序列号，由各交易品种分别撤销不晚于该序列号的订单
+     */
+    public long acceptCancelAll(Long userId, Direction direction) {
+        if (userId == null || userId.longValue() < Users.TRADER) {
+            throw new IllegalArgumentException("Invalid user id.");
+        }
+        long sequenceId = this.lastSequenceId + 1;
+        if (this.journal != null) {
+            this.journal.appendCancelAll(sequenceId, userId, direction);
+        }
+        this.lastSequenceId = sequenceId;
+        return this.orderService.getSequenceId();
+    }
+
+    /**
+     * 撤销用户在一个交易品种的一组订单，此前已成交或撤销的订单被跳过，每种资产只解冻一次。
+     * 多个交易品种并行撮合时必须在该品种的撮合线程调用，orders由OrderService.getOrdersBySymbol()分组得到。
+     */
+    public int cancelOrders(Long userId, String symbol, List<Order> orders) {
+        MatchEngine matchEngine = getMatchEngine(symbol);
+        // 分组之后、撤销之前可能已被本品种的撮合线程删除:
+        orders.removeIf(order -> this.orderService.getOrder(order.sequenceId) != order);
+        if (orders.isEmpty()) {
+            return 0;
+        }
+        Auditor auditor = this.auditor;
+        if (auditor != null) {
+            auditor.begin();
+        }
+        long start = startTiming(0);
+        for (Order order : orders) {
+            matchEngine.cancel(order);
+            if (auditor != null) {
+                auditor.onOrderChanged(order, -order.unfilledAmount);
+            }
+        }
+        this.clearingService.clearCancelOrders(userId, matchEngine.symbol, orders);
+        recordLatency(Stage.CANCEL, start);
+        if (this.stateListener != null) {
+            for (Order order : orders) {
+                this.stateListener.onOrderChanged(order);
+            }
+        }
+        if (this.metricsEnabled) {
+            recordBook(matchEngine);
+        }
+        if (auditor != null) {
+            auditor.end();
+        }
+        return orders.size();
+    }
+
+    /**
+     * 改单，减少订单数量并保持排队位置
+     *
+     * @param amount 新的订单数量，必须小于原数量且大于已成交数量
+     */
+    public Order amendOrder(Long userId, Long sequenceId, BigDecimal amount) {
+        Order order = acceptAmend(userId, sequenceId, amount);
+        return amend(order, FixedPoint.toLong(amount));
+    }
+
+    /**
+     * 校验改单请求，写入日志后返回待改单的订单
+     */
+    public Order acceptAmend(Long userId, Long sequenceId, BigDecimal amount) {
+        Order order = this.orderService.getOrder(sequenceId);
+        // 未找到活动订单或订单不属于该用户:
+        if (order == null || order.userId.longValue() != userId.longValue()) {
+            throw new IllegalArgumentException("Order not found by sequenceId: " + sequenceId);
+        }
+        if (amount == null || amount.signum() <= 0 || amount.scale() > 2) {
+            throw new IllegalArgumentException("Invalid amount.");
+        }
+        long amountValue = FixedPoint.toLong(amount);
+        // 只能减少数量:
+        if (amountValue >= order.amount) {
+            throw new IllegalArgumentException("Invalid amount.");
+        }
+        long commandSequenceId = this.lastSequenceId + 1;
+        if (this.journal != null) {
+            this.journal.appendAmendOrder(commandSequenceId, userId, sequenceId, amountValue);
+        }
+        this.lastSequenceId = commandSequenceId;
+        return order;
+    }
+
+    /**
+     * 执行已接受的改单请求。订单可能在接受之后已成交，成交数量不小于新数量时改单失败。
+     */
+    public Order amend(Order order, long amount) {
+        if (!canAmend(order, amount)) {
+            throw new IllegalArgumentException("Cannot amend order: " + order.sequenceId);
+        }
+        Auditor auditor = this.auditor;
+        if (auditor != null) {
+            auditor.begin();
+        }
+        long reduced = order.amount - amount;
+        this.matchEngines.get(order.symbol.name).amend(order, amount);
+        this.clearingService.clearAmendOrder(order, reduced);
+        if (this.stateListener != null) {
+            this.stateListener.onOrderChanged(order);
+        }
+        if (auditor != null) {
+            auditor.onOrderChanged(order, -reduced);
+            auditor.end();
+        }
         return order;
     }
 
+    // 开始计时，未设置指标或未被抽样的订单不读取时钟，批量操作的orderId为0，总是计时:
+    long startTiming(long orderId) {
+        return this.metricsEnabled && (orderId & this.sampleMask) == 0 ? System.nanoTime() : NOT_TIMED;
+    }
+
+    // 记录从start开始的阶段耗时，返回当前时间作为下一阶段的开始:
+    long recordLatency(Stage stage, long start) {
+        if (start == NOT_TIMED) {
+            return NOT_TIMED;
+        }
+        long now = System.nanoTime();
+        this.metrics.recordLatency(stage, now - start);
+        return now;
+    }
+
+    // 发布成交以及双方订单清算后的状态:
+    void publishMatchResult(MatchResult result) {
+        StateListener listener = this.stateListener;
+        Order taker = result.takerOrder;
+        for (int i = 0; i < result.size(); i++) {
+            listener.onTrade(taker, result.getMakerOrder(i), result.getPrice(i), result.getAmount(i));
+        }
+        for (int i = 0; i < result.size(); i++) {
+            listener.onOrderChanged(result.getMakerOrder(i));
+        }
+        for (int i = 0; i < result.selfTradeSize(); i++) {
+            if (result.getSelfTradeOrder(i) != taker) {
+                listener.onOrderChanged(result.getSelfTradeOrder(i));
+            }
+        }
+        listener.onOrderChanged(taker);
+    }
+
+    void recordBook(MatchEngine matchEngine) {
+        this.metrics.recordBook(matchEngine.symbol.name, matchEngine.buyBook.size(), matchEngine.sellBook.size());
+        this.metrics.recordActiveOrders(this.orderService.activeOrders.size());
+    }
+
+    boolean canAmend(Order order, long amount) {
+        return this.orderService.getOrder(order.sequenceId) == order && amount < order.amount && amount > order.amount - order.unfilledAmount;
+    }
+
+    /**
+     * 回放日志。日志只包含已接受的命令，撤单和改单可能因订单已成交而失败，与首次执行的结果一致。
+     */
+    class JournalReplayer implements CommandListener {
+
+        @Override
+        public void onDeposit(long sequenceId, long userId, String assetId, long amount) {
+            lastSequenceId = sequenceId;
+            applyDeposit(userId, assetId, amount);
+        }
+
+        @Override
+        public void onCreateOrder(long sequenceId, long userId, String symbol, OrderType type, Direction direction, long price, long amount) {
+            lastSequenceId = sequenceId;
+            matchOrder(newOrder(userId, symbols.get(symbol), type, direction, price, amount, 0));
+        }
+
+        @Override
+        public void onCreateStopOrder(long sequenceId, long userId, String symbol, OrderType type, Direction direction, long price, long amount,
+                long stopPrice) {
+            lastSequenceId = sequenceId;
+            matchOrder(newOrder(userId, symbols.get(symbol), type, direction, price, amount, stopPrice));
+        }
+
+        @Override
+        public void onCreateIcebergOrder(long sequenceId, long userId, String symbol, Direction direction, long price, long amount, long peakAmount) {
+            lastSequenceId = sequenceId;
+            Order order = newOrder(userId, symbols.get(symbol), OrderType.LIMIT, direction, price, amount, 0);
+            order.peakAmount = peakAmount;
+            matchOrder(order);
+        }
+
+        @Override
+        public void onCancelOrder(long sequenceId, long userId, long orderId) {
+            lastSequenceId = sequenceId;
+            Order order = orderService.getOrder(orderId);
+            if (order != null) {
+                cancel(order);
+            }
+        }
+
+        @Override
+        public void onAmendOrder(long sequenceId, long userId, long orderId, long amount) {
+            lastSequenceId = sequenceId;
+            Order order = orderService.getOrder(orderId);
+            if (order != null && canAmend(order, amount)) {
+                amend(order, amount);
+            }
+        }
+
+        @Override
+        public void onCancelAll(long sequenceId, long userId, Direction direction) {
+            lastSequenceId = sequenceId;
+            cancelAll(userId, direction, orderService.getSequenceId());
+        }
+    }
+
+    /**
+     * 应用主节点复制的一条已编码记录，buffer当前位置必须是一条完整记录，应用后buffer移动到下一条记录。
+     *
+     * 已应用过的记录被跳过，序号不连续时抛出IllegalStateException。使用预写日志时先把原始记录写入日志，提升为主节点后可直接继续写日志。
+     */
+    public long applyRecord(ByteBuffer buffer) {
+        int start = buffer.position();
+        long sequenceId = buffer.getLong(start + CommandCodec.HEADER_SIZE);
+        if (sequenceId > this.lastSequenceId + 1) {
+            throw new IllegalStateException("Invalid sequence id " + sequenceId + " after " + this.lastSequenceId);
+        }
+        if (sequenceId <= this.lastSequenceId) {
+            buffer.position(start + CommandCodec.HEADER_SIZE + buffer.getInt(start));
+            return sequenceId;
+        }
+        long decoded = CommandCodec.decode(buffer, this.recordCrc, this.replayer);
+        if (decoded < 0) {
+            throw new IllegalStateException("Invalid record at sequence id " + sequenceId);
+        }
+        if (this.journal != null && decoded > this.journal.getLastSequenceId()) {
+            this.journal.appendRecord(decoded, buffer, start, buffer.position() - start);
+        }
+        return decoded;
+    }
+
+    /**
+     * 当前状态的哈希值，与遍历顺序无关，两个引擎处理相同的命令后哈希值相同，用于主备节点交叉检查
+     */
+    public long stateHash() {
+        awaitSettled();
+        long[] hash = { mix(this.lastSequenceId, this.orderService.getSequenceId()) };
+        this.assetService.forEach((userId, assetId, available, frozen) -> {
+            // 被拒绝的命令可能留下余额为0的账户，与不存在的账户等价:
+            if (available != 0 || frozen != 0) {
+                hash[0] += mix(mix(mix(userId, assetId.hashCode()), available), frozen);
+            }
+        });
+        for (Order order : this.orderService.activeOrders.values()) {
+            long h = mix(mix(mix(order.sequenceId, order.amount), order.unfilledAmount), order.status.ordinal());
+            hash[0] += mix(mix(h, order.triggered ? 1 : 0), order.hiddenAmount);
+        }
+        for (MatchEngine matchEngine : this.matchEngines.values()) {
+            hash[0] += mix(matchEngine.symbol.name.hashCode(), matchEngine.marketPrice);
+        }
+        return hash[0];
+    }
+
+    static long mix(long h, long value) {
+        long x = (h ^ value) * 0x9e3779b97f4a7c15L;
+        return x ^ (x >>> 31);
+    }
+
     public void debug() {
+        awaitSettled();
         System.out.println("========== trading engine ==========");
         this.assetService.debug();
-        this.matchEngine.debug();
+        for (MatchEngine matchEngine : this.matchEngines.values()) {
+            matchEngine.debug();
+        }
         System.out.println("========== // trading engine ==========");
     }
 
+    /**
+     * 全量验证，按资产分片和交易品种并行扫描，必须在没有命令执行时调用
+     */
     public void validate() {
+        awaitSettled();
         validateAssets();
         validateOrders();
         validateMatchEngine();
     }
 
     void validateAssets() {
-        // 验证系统资产完整性:
-        BigDecimal totalFiat = BigDecimal.ZERO;
-        BigDecimal totalStock = BigDecimal.ZERO;
-        for (Entry<Long, ConcurrentMap<String, Asset>> userEntry : this.assetService.userAssets.entrySet()) {
-            Long userId = userEntry.getKey();
-            ConcurrentMap<String, Asset> assets = userEntry.getValue();
-            for (Entry<String, Asset> entry : assets.entrySet()) {
-                String assetId = entry.getKey();
-                Asset asset = entry.getValue();
-                if (userId.longValue() >= Users.TRADER) {
+        // 验证系统资产完整性，各分片并行:
+        Map<String, Long> totals = IntStream.range(0, this.assetService.getShards()).parallel().mapToObj(shard -> {
+            Map<String, Long> shardTotals = new HashMap<>();
+            this.assetService.forEach(shard, (userId, assetId, available, frozen) -> {
+                String asset = "user " + userId + ", asset " + assetId;
+                if (userId >= Users.TRADER) {
                     // 交易用户的available/frozen不允许为负数:
-                    require(asset.getAvailable().signum() >= 0, "Trader has negative available: " + asset);
-                    require(asset.getFrozen().signum() >= 0, "Trader has negative frozen: " + asset);
+                    require(available >= 0, "Trader has negative available: " + asset);
+                    require(frozen >= 0, "Trader has negative frozen: " + asset);
                 }
-                if (userId.longValue() == Users.DEBT) {
+                if (userId == Users.DEBT) {
                     // 系统负债账户available不允许为正:
-                    require(asset.getAvailable().signum() <= 0, "Debt has positive available: " + asset);
+                    require(available <= 0, "Debt has positive available: " + asset);
                     // 系统负债账户frozen必须为0:
-                    require(asset.getFrozen().signum() == 0, "Debt has non-zero frozen: " + asset);
-                }
-                switch (assetId) {
-                case "FIAT" -> {
-                    totalFiat = totalFiat.add(asset.getTotal());
-                }
-                case "STOCK" -> {
-                    totalStock = totalStock.add(asset.getTotal());
-                }
-                default -> throw new RuntimeException("Unexpected asset id: " + assetId);
+                    require(frozen == 0, "Debt has non-zero frozen: " + asset);
                 }
-            }
-        }
+                require(this.assetIds.contains(assetId), "Unexpected asset id: " + assetId);
+                shardTotals.merge(assetId, Math.addExact(available, frozen), Math::addExact);
+            });
+            return shardTotals;
+        }).reduce((a, b) -> {
+            b.forEach((assetId, total) -> a.merge(assetId, total, Math::addExact));
+            return a;
+        }).orElse(Map.of());
         // 各类别资产总额为0:
-        require(totalFiat.signum() == 0, "Non zero fiat balance: " + totalFiat);
-        require(totalStock.signum() == 0, "Non zero stock balance: " + totalStock);
+        for (Entry<String, Long> entry : totals.entrySet()) {
+            require(entry.getValue() == 0, "Non zero " + entry.getKey() + " balance: " + FixedPoint.balanceToBigDecimal(entry.getValue()));
+        }
     }
 
     void validateOrders() {
+        // 按用户所在的资产分片分组，各分片并行验证:
+        Map<Integer, List<Order>> ordersByShard = this.orderService.activeOrders.values().parallelStream()
+                .collect(Collectors.groupingByConcurrent(order -> this.assetService.shardOf(order.userId)));
+        IntStream.range(0, this.assetService.getShards()).parallel().forEach(shard -> validateOrders(shard, ordersByShard.getOrDefault(shard, List.of())));
+        // 没有活动订单的用户不保留索引:
+        long users = this.orderService.activeOrders.values().stream().map(order -> order.userId).distinct().count();
+        require(this.orderService.getIndexedUsers() == users, "Unexpected indexed users: " + this.orderService.getIndexedUsers());
+    }
+
+    void validateOrders(int shard, List<Order> orders) {
         // 验证订单:
-        Map<Long, Map<String, BigDecimal>> userOrderFrozen = new HashMap<>();
-        for (Entry<Long, Order> entry : this.orderService.activeOrders.entrySet()) {
-            Order order = entry.getValue();
-            require(order.unfilledAmount.signum() > 0, "Active order must have positive unfilled amount: " + order);
+        Map<Long, Map<String, Long>> userOrderFrozen = new HashMap<>();
+        Map<Long, Integer> userOrderCount = new HashMap<>();
+        Map<Long, Map<String, Long>> userNotional = new HashMap<>();
+        for (Order order : orders) {
+            require(order.unfilledAmount > 0, "Active order must have positive unfilled amount: " + order);
+            userOrderCount.merge(order.userId, 1, Integer::sum);
+            userNotional.computeIfAbsent(order.userId, k -> new HashMap<>()).merge(order.symbol.quoteAsset, FixedPoint.notional(order.price, order.unfilledAmount),
+                    Math::addExact);
+            MatchEngine matchEngine = this.matchEngines.get(order.symbol.name);
+            Map<String, Long> frozenAssets = userOrderFrozen.computeIfAbsent(order.userId, k -> new HashMap<>());
             switch (order.direction) {
             case BUY -> {
                 // 订单必须在MatchEngine中:
-                require(this.matchEngine.buyBook.exist(order), "order not found in buy book: " + order);
-                // 累计冻结的FIAT:
-                userOrderFrozen.putIfAbsent(order.userId, new HashMap<>());
-                Map<String, BigDecimal> frozenAssets = userOrderFrozen.get(order.userId);
-                frozenAssets.putIfAbsent("FIAT", BigDecimal.ZERO);
-                BigDecimal frozen = frozenAssets.get("FIAT");
-                frozenAssets.put("FIAT", frozen.add(order.price.multiply(order.unfilledAmount)));
+                require(matchEngine.buyBook.exist(order) || matchEngine.buyStops.exist(order), "order not found in buy book: " + order);
+                // 累计冻结的计价资产:
+                frozenAssets.merge(order.symbol.quoteAsset, FixedPoint.notional(order.price, order.unfilledAmount), Math::addExact);
             }
             case SELL -> {
                 // 订单必须在MatchEngine中:
-                require(this.matchEngine.sellBook.exist(order), "order not found in sell book: " + order);
-                // 累计冻结的STOCK:
-                userOrderFrozen.putIfAbsent(order.userId, new HashMap<>());
-                Map<String, BigDecimal> frozenAssets = userOrderFrozen.get(order.userId);
-                frozenAssets.putIfAbsent("STOCK", BigDecimal.ZERO);
-                BigDecimal frozen = frozenAssets.get("STOCK");
-                frozenAssets.put("STOCK", frozen.add(order.unfilledAmount));
+                require(matchEngine.sellBook.exist(order) || matchEngine.sellStops.exist(order), "order not found in sell book: " + order);
+                // 累计冻结的标的资产:
+                frozenAssets.merge(order.symbol.baseAsset, FixedPoint.quantity(order.unfilledAmount), Math::addExact);
             }
             default -> throw new RuntimeException("Unexpected direction.");
             }
         }
-        // 订单冻结的累计金额必须和Asset冻结一致:
-        for (Entry<Long, ConcurrentMap<String, Asset>> userEntry : this.assetService.userAssets.entrySet()) {
-            Long userId = userEntry.getKey();
-            ConcurrentMap<String, Asset> assets = userEntry.getValue();
-            for (Entry<String, Asset> entry : assets.entrySet()) {
-                String assetId = entry.getKey();
-                Asset asset = entry.getValue();
-                if (asset.getFrozen().signum() > 0) {
-                    Map<String, BigDecimal> orderFrozen = userOrderFrozen.get(userId);
-                    require(orderFrozen != null, "No order frozen found for user: " + userId + ", asset: " + asset);
-                    BigDecimal frozen = orderFrozen.get(assetId);
-                    require(frozen != null, "No order frozen found for asset: " + asset);
-                    require(frozen.compareTo(asset.getFrozen()) == 0, "Order frozen " + frozen + " is not equals to asset frozen: " + asset);
-                    // 从userOrderFrozen中删除已验证的Asset数据:
-                    orderFrozen.remove(assetId);
-                }
+        // 用户订单索引与活动订单一致:
+        for (Entry<Long, Integer> entry : userOrderCount.entrySet()) {
+            List<Order> userOrders = this.orderService.getOrders(entry.getKey());
+            require(userOrders.size() == entry.getValue(), "User " + entry.getKey() + " has unexpected indexed orders: " + userOrders.size());
+            for (Order order : userOrders) {
+                require(this.orderService.getOrder(order.sequenceId) == order, "Indexed order is not active: " + order);
+            }
+            // 风控按计价资产使用的名义价值与活动订单一致:
+            for (Entry<String, Long> notional : userNotional.get(entry.getKey()).entrySet()) {
+                long open = this.orderService.getOpenNotional(entry.getKey(), notional.getKey());
+                require(open == notional.getValue(), "User " + entry.getKey() + " has unexpected open " + notional.getKey() + " notional: " + open);
             }
         }
+        // 订单冻结的累计金额必须和Asset冻结一致:
+        this.assetService.forEach(shard, (userId, assetId, available, frozen) -> {
+            if (frozen > 0) {
+                String asset = "user " + userId + ", asset " + assetId;
+                Map<String, Long> orderFrozen = userOrderFrozen.get(userId);
+                require(orderFrozen != null, "No order frozen found for " + asset);
+                Long expected = orderFrozen.get(assetId);
+                require(expected != null, "No order frozen found for " + asset);
+                require(expected == frozen, "Order frozen " + expected + " is not equals to asset frozen " + frozen + ": " + asset);
+                // 从userOrderFrozen中删除已验证的Asset数据:
+                orderFrozen.remove(assetId);
+            }
+        });
         // userOrderFrozen不存在未验证的Asset数据:
-        for (Entry<Long, Map<String, BigDecimal>> userEntry : userOrderFrozen.entrySet()) {
+        for (Entry<Long, Map<String, Long>> userEntry : userOrderFrozen.entrySet()) {
             Long userId = userEntry.getKey();
-            Map<String, BigDecimal> frozenAssets = userEntry.getValue();
+            Map<String, Long> frozenAssets = userEntry.getValue();
             require(frozenAssets.isEmpty(), "User " + userId + " has unexpected frozen for order: " + frozenAssets);
         }
     }
 
     void validateMatchEngine() {
-        // OrderBook的Order必须在ActiveOrders中:
-        Map<Long, Order> copyOfActiveOrders = new HashMap<>(this.orderService.activeOrders);
-        for (Order order : this.matchEngine.buyBook.book.values()) {
-            require(copyOfActiveOrders.remove(order.sequenceId) == order, "Order in buy book is not in active orders: " + order);
+        // OrderBook的Order必须在ActiveOrders中，各交易品种并行:
+        long count = this.matchEngines.values().parallelStream()
+                .mapToLong(matchEngine -> validateOrderBook(matchEngine, matchEngine.buyBook) + validateOrderBook(matchEngine, matchEngine.sellBook)
+                        + validateStopBook(matchEngine, matchEngine.buyStops) + validateStopBook(matchEngine, matchEngine.sellStops))
+                .sum();
+        // activeOrders的所有Order必须在Order Book中:
+        require(count == this.orderService.activeOrders.size(), "Not all active orders are in order book.");
+    }
+
+    long validateOrderBook(MatchEngine matchEngine, OrderBook book) {
+        long count = 0;
+        for (Order order : book) {
+            require(this.orderService.getOrder(order.sequenceId) == order, "Order in " + book.direction + " book is not in active orders: " + order);
+            require(order.symbol == matchEngine.symbol, "Order in " + book.direction + " book has unexpected symbol: " + order);
+            // 冰山单显示不超过peakAmount，其他订单全部显示:
+            long maxVisible = order.isIceberg() ? order.peakAmount : order.unfilledAmount;
+            require(order.hiddenAmount >= 0 && order.visibleAmount() > 0 && order.visibleAmount() <= maxVisible,
+                    "Order in " + book.direction + " book has invalid visible amount: " + order);
+            count++;
         }
-        for (Order order : this.matchEngine.sellBook.book.values()) {
-            require(copyOfActiveOrders.remove(order.sequenceId) == order, "Order in sell book is not in active orders: " + order);
+        return count;
+    }
+
+    long validateStopBook(MatchEngine matchEngine, StopBook stops) {
+        long count = 0;
+        for (Order order : stops) {
+            require(this.orderService.getOrder(order.sequenceId) == order, "Order in " + stops.direction + " stops is not in active orders: " + order);
+            require(order.symbol == matchEngine.symbol && order.direction == stops.direction, "Order in " + stops.direction + " stops is unexpected: " + order);
+            require(order.type.isStop() && !order.triggered, "Order in " + stops.direction + " stops is not a pending stop order: " + order);
+            count++;
         }
-        // activeOrders的所有Order必须在Order Book中:
-        require(copyOfActiveOrders.isEmpty(), "Not all active orders are in order book.");
+        return count;
     }
 
     void require(boolean condition, String errorMessage) {
@@ -2,35 +2,38 @@ package com.itranswarp.assets;
 
 import java.math.BigDecimal;
 
+import com.itranswarp.util.FixedPoint;
+
 public class Asset {
 
-    BigDecimal available;
+    // 余额以FixedPoint.BALANCE_SCALE精度的定点数存储:
+    long available;
 
-    BigDecimal frozen;
+    long frozen;
 
     public Asset() {
-        this(BigDecimal.ZERO, BigDecimal.ZERO);
+        this(0L, 0L);
     }
 
-    public Asset(BigDecimal available, BigDecimal frozen) {
+    public Asset(long available, long frozen) {
         this.available = available;
         this.frozen = frozen;
     }
 
     public BigDecimal getAvailable() {
-        return available;
+        return FixedPoint.balanceToBigDecimal(available);
     }
 
     public BigDecimal getFrozen() {
-        return frozen;
+        return FixedPoint.balanceToBigDecimal(frozen);
     }
 
     public BigDecimal getTotal() {
-        return available.add(frozen);
+        return FixedPoint.balanceToBigDecimal(Math.addExact(available, frozen));
     }
 
     @Override
     public String toString() {
-        return String.format("[available=%04.2f, frozen=%02.2f]", available, frozen);
+        return String.format("[available=%04.2f, frozen=%02.2f]", getAvailable(), getFrozen());
     }
 }
@@ -1,105 +1,312 @@
 package com.itranswarp.assets;
 
-import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
+import com.itranswarp.audit.Auditor;
+import com.itranswarp.query.StateListener;
+
+/**
+ * 用户资产。
+ *
+ * 资产按userId分片存储在AssetShard中，每个分片一把锁，不同分片可以并行修改。
+ * 多个交易品种的撮合线程可能同时修改同一用户的资产，每次转账按分片序号从小到大锁定涉及的分片。
+ * 资产ID在首次使用时分配一个小整数序号，作为分片内的列号。
+ */
 public class AssetService {
 
-    // userId -> (assetId -> Asset)
-    public ConcurrentMap<Long, ConcurrentMap<String, Asset>> userAssets = new ConcurrentHashMap<>();
+    public static final int DEFAULT_SHARDS = 16;
+
+    final AssetShard[] shards;
+    final int shardMask;
+
+    // assetId -> 序号，写时复制:
+    volatile Map<String, Integer> assetIndexes = Map.of();
+    volatile String[] assetIds = new String[0];
+
+    // 增量审计，为null时不审计:
+    Auditor auditor = null;
+
+    // 余额变化的接收者，为null时不发布:
+    StateListener stateListener = null;
+
+    public AssetService() {
+        this(DEFAULT_SHARDS);
+    }
+
+    /**
+     * @param shards 分片数量，必须是2的幂
+     */
+    public AssetService(int shards) {
+        if (shards <= 0 || shards > 65536 || Integer.bitCount(shards) != 1) {
+            throw new IllegalArgumentException("Shards must be power of 2 and no more than 65536.");
+        }
+        this.shards = new AssetShard[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new AssetShard();
+        }
+        this.shardMask = shards - 1;
+    }
+
+    /**
+     * 设置增量审计，必须在处理命令之前设置
+     */
+    public void setAuditor(Auditor auditor) {
+        this.auditor = auditor;
+    }
+
+    /**
+     * 设置余额变化的接收者，在持有分片锁时发布变化后的余额，必须在处理命令之前设置
+     */
+    public void setStateListener(StateListener listener) {
+        this.stateListener = listener;
+    }
+
+    public String getAssetId(int assetIndex) {
+        return this.assetIds[assetIndex];
+    }
+
+    public int getShards() {
+        return this.shards.length;
+    }
+
+    /**
+     * 用户所在的分片
+     */
+    public int shardOf(long userId) {
+        return (int) (mix(userId) >>> 48) & this.shardMask;
+    }
+
+    /**
+     * 返回资产的序号，首次使用时分配
+     */
+    public int assetIndex(String assetId) {
+        Integer index = this.assetIndexes.get(assetId);
+        if (index != null) {
+            return index.intValue();
+        }
+        return registerAsset(assetId);
+    }
+
+    synchronized int registerAsset(String assetId) {
+        Integer index = this.assetIndexes.get(assetId);
+        if (index != null) {
+            return index.intValue();
+        }
+        int n = this.assetIds.length;
+        String[] ids = new String[n + 1];
+        System.arraycopy(this.assetIds, 0, ids, 0, n);
+        ids[n] = assetId;
+        Map<String, Integer> indexes = new HashMap<>(this.assetIndexes);
+        indexes.put(assetId, n);
+        this.assetIds = ids;
+        this.assetIndexes = indexes;
+        return n;
+    }
 
-    public Asset getAsset(Long userId, String assetId) {
-        Map<String, Asset> assets = userAssets.get(userId);
-        if (assets == null) {
+    /**
+     * 返回资产的副本，用户未使用过该资产时返回null
+     */
+    public Asset getAsset(long userId, String assetId) {
+        Integer index = this.assetIndexes.get(assetId);
+        if (index == null) {
             return null;
         }
-        return assets.get(assetId);
+        int asset = index.intValue();
+        AssetShard shard = this.shards[shardOf(userId)];
+        synchronized (shard) {
+            int row = shard.find(userId);
+            if (row < 0 || !shard.uses(row, asset)) {
+                return null;
+            }
+            return new Asset(shard.available[asset][row], shard.frozen[asset][row]);
+        }
     }
 
-    public boolean tryFreeze(Long userId, String assetId, BigDecimal amount) {
+    public boolean tryFreeze(long userId, String assetId, long amount) {
         return tryTransfer(Transfer.AVAILABLE_TO_FROZEN, userId, userId, assetId, amount, true);
     }
 
-    public void unfreeze(Long userId, String assetId, BigDecimal amount) {
+    public void unfreeze(long userId, String assetId, long amount) {
         if (!tryTransfer(Transfer.FROZEN_TO_AVAILABLE, userId, userId, assetId, amount, true)) {
             throw new RuntimeException("Unfreeze failed for user " + userId + ", asset = " + assetId + ", amount = " + amount);
         }
     }
 
-    public void transfer(Transfer type, Long fromUser, Long toUser, String assetId, BigDecimal amount) {
+    public void transfer(Transfer type, long fromUser, long toUser, String assetId, long amount) {
         if (!tryTransfer(type, fromUser, toUser, assetId, amount, true)) {
             throw new RuntimeException(
                     "Transfer failed for " + type + ", from user " + fromUser + " to user " + toUser + ", asset = " + assetId + ", amount = " + amount);
         }
     }
 
-    public boolean tryTransfer(Transfer type, Long fromUser, Long toUser, String assetId, BigDecimal amount, boolean checkBalance) {
-        if (amount.signum() == 0) {
+    public boolean tryTransfer(Transfer type, long fromUser, long toUser, String assetId, long amount, boolean checkBalance) {
+        if (amount == 0) {
             return true;
         }
-        if (amount.signum() < 0) {
+        if (amount < 0) {
             throw new IllegalArgumentException("Negative amount");
         }
-        Asset fromAsset = getAsset(fromUser, assetId);
-        if (fromAsset == null) {
-            fromAsset = initAssets(fromUser, assetId);
+        int asset = assetIndex(assetId);
+        int fromShard = shardOf(fromUser);
+        int toShard = shardOf(toUser);
+        if (fromShard == toShard) {
+            AssetShard shard = this.shards[fromShard];
+            synchronized (shard) {
+                return transfer(type, shard, shard, fromUser, toUser, asset, amount, checkBalance);
+            }
         }
-        Asset toAsset = getAsset(toUser, assetId);
-        if (toAsset == null) {
-            toAsset = initAssets(toUser, assetId);
+        // 按分片序号加锁，避免死锁:
+        AssetShard from = this.shards[fromShard];
+        AssetShard to = this.shards[toShard];
+        synchronized (fromShard < toShard ? from : to) {
+            synchronized (fromShard < toShard ? to : from) {
+                return transfer(type, from, to, fromUser, toUser, asset, amount, checkBalance);
+            }
+        }
+    }
+
+    boolean transfer(Transfer type, AssetShard from, AssetShard to, long fromUser, long toUser, int asset, long amount, boolean checkBalance) {
+        int fromRow = from.row(fromUser, asset);
+        // 同一分片插入新行可能扩容，因此最后一次插入后再取行号:
+        int toRow = to.row(toUser, asset);
+        if (from == to) {
+            fromRow = from.find(fromUser);
         }
-        return switch (type) {
+        long[] fromAvailable = from.available[asset];
+        long[] fromFrozen = from.frozen[asset];
+        long[] toAvailable = to.available[asset];
+        long[] toFrozen = to.frozen[asset];
+        // 审计时记录修改前的余额:
+        long fromAvailable0 = fromAvailable[fromRow];
+        long fromFrozen0 = fromFrozen[fromRow];
+        long toAvailable0 = toAvailable[toRow];
+        long toFrozen0 = toFrozen[toRow];
+        boolean ok = switch (type) {
         case AVAILABLE_TO_AVAILABLE -> {
             // 需要检查余额且余额不足:
-            if (checkBalance && fromAsset.available.compareTo(amount) < 0) {
+            if (checkBalance && fromAvailable[fromRow] < amount) {
                 yield false;
             }
-            fromAsset.available = fromAsset.available.subtract(amount);
-            toAsset.available = toAsset.available.add(amount);
+            fromAvailable[fromRow] = Math.subtractExact(fromAvailable[fromRow], amount);
+            toAvailable[toRow] = Math.addExact(toAvailable[toRow], amount);
             yield true;
         }
         case AVAILABLE_TO_FROZEN -> {
             // 需要检查余额且余额不足:
-            if (checkBalance && fromAsset.available.compareTo(amount) < 0) {
+            if (checkBalance && fromAvailable[fromRow] < amount) {
                 yield false;
             }
-            fromAsset.available = fromAsset.available.subtract(amount);
-            toAsset.frozen = toAsset.frozen.add(amount);
+            fromAvailable[fromRow] = Math.subtractExact(fromAvailable[fromRow], amount);
+            toFrozen[toRow] = Math.addExact(toFrozen[toRow], amount);
             yield true;
         }
         case FROZEN_TO_AVAILABLE -> {
             // 需要检查余额且余额不足:
-            if (checkBalance && fromAsset.frozen.compareTo(amount) < 0) {
+            if (checkBalance && fromFrozen[fromRow] < amount) {
                 yield false;
             }
-            fromAsset.frozen = fromAsset.frozen.subtract(amount);
-            toAsset.available = toAsset.available.add(amount);
+            fromFrozen[fromRow] = Math.subtractExact(fromFrozen[fromRow], amount);
+            toAvailable[toRow] = Math.addExact(toAvailable[toRow], amount);
             yield true;
         }
         default -> {
             throw new IllegalArgumentException("invalid type: " + type);
         }
         };
+        Auditor auditor = this.auditor;
+        if (ok && auditor != null) {
+            if (from == to && fromRow == toRow) {
+                // 同一账户:
+                auditor.onBalanceChanged(fromUser, asset, fromAvailable[fromRow] - fromAvailable0, fromFrozen[fromRow] - fromFrozen0, fromAvailable[fromRow],
+                        fromFrozen[fromRow]);
+            } else {
+                auditor.onBalanceChanged(fromUser, asset, fromAvailable[fromRow] - fromAvailable0, fromFrozen[fromRow] - fromFrozen0, fromAvailable[fromRow],
+                        fromFrozen[fromRow]);
+                auditor.onBalanceChanged(toUser, asset, toAvailable[toRow] - toAvailable0, toFrozen[toRow] - toFrozen0, toAvailable[toRow], toFrozen[toRow]);
+            }
+        }
+        StateListener listener = this.stateListener;
+        if (ok && listener != null) {
+            String assetId = this.assetIds[asset];
+            listener.onBalanceChanged(fromUser, assetId, fromAvailable[fromRow], fromFrozen[fromRow]);
+            if (from != to || fromRow != toRow) {
+                listener.onBalanceChanged(toUser, assetId, toAvailable[toRow], toFrozen[toRow]);
+            }
+        }
+        return ok;
+    }
+
+    /**
+     * 直接调整一个账户的余额，用于并行清算中转账的单边记账，不检查余额，不参与增量审计
+     */
+    public void adjust(long userId, String assetId, long availableDelta, long frozenDelta) {
+        int asset = assetIndex(assetId);
+        AssetShard shard = this.shards[shardOf(userId)];
+        synchronized (shard) {
+            int row = shard.row(userId, asset);
+            long available = Math.addExact(shard.available[asset][row], availableDelta);
+            long frozen = Math.addExact(shard.frozen[asset][row], frozenDelta);
+            shard.available[asset][row] = available;
+            shard.frozen[asset][row] = frozen;
+            StateListener listener = this.stateListener;
+            if (listener != null) {
+                listener.onBalanceChanged(userId, this.assetIds[asset], available, frozen);
+            }
+        }
     }
 
-    Asset initAssets(Long userId, String assetId) {
-        ConcurrentMap<String, Asset> map = userAssets.get(userId);
-        if (map == null) {
-            map = new ConcurrentHashMap<>();
-            userAssets.put(userId, map);
+    /**
+     * 遍历所有资产，遍历时持有分片锁，visitor不能修改资产
+     */
+    public void forEach(AssetVisitor visitor) {
+        for (int i = 0; i < this.shards.length; i++) {
+            forEach(i, visitor);
+        }
+    }
+
+    /**
+     * 遍历一个分片的资产，不同分片可以在不同线程并行遍历
+     */
+    public void forEach(int shardIndex, AssetVisitor visitor) {
+        AssetShard shard = this.shards[shardIndex];
+        synchronized (shard) {
+            String[] ids = this.assetIds;
+            for (int row = 0; row < shard.userIds.length; row++) {
+                if (!shard.occupied[row]) {
+                    continue;
+                }
+                for (int asset = 0; asset < ids.length; asset++) {
+                    if (shard.uses(row, asset)) {
+                        visitor.visit(shard.userIds[row], ids[asset], shard.available[asset][row], shard.frozen[asset][row]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 从快照恢复资产
+     */
+    public void restore(long userId, String assetId, long available, long frozen) {
+        int asset = assetIndex(assetId);
+        AssetShard shard = this.shards[shardOf(userId)];
+        synchronized (shard) {
+            int row = shard.row(userId, asset);
+            shard.available[asset][row] = available;
+            shard.frozen[asset][row] = frozen;
         }
-        Asset zeroAsset = new Asset();
-        map.put(assetId, zeroAsset);
-        return zeroAsset;
     }
 
     public void debug() {
         System.out.println("---------- assets ----------");
+        Map<Long, Map<String, Asset>> userAssets = new HashMap<>();
+        forEach((userId, assetId, available, frozen) -> {
+            userAssets.computeIfAbsent(userId, k -> new HashMap<>()).put(assetId, new Asset(available, frozen));
+        });
         List<Long> userIds = new ArrayList<>(userAssets.keySet());
         Collections.sort(userIds);
         for (Long userId : userIds) {
@@ -113,4 +320,14 @@ public class AssetService {
         }
         System.out.println("---------- // assets ----------");
     }
+
+    static long mix(long userId) {
+        return userId * 0x9e3779b97f4a7c15L;
+    }
+
+    // 分片内的哈希值，高位已用于选择分片，与低位混合:
+    static int hash(long userId) {
+        long h = mix(userId);
+        return (int) (h ^ (h >>> 32));
+    }
 }
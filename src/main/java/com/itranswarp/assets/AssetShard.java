@@ -0,0 +1,136 @@
+package com.itranswarp.assets;
+
+import java.util.Arrays;
+
+/**
+ * 一个分片内的用户资产。
+ *
+ * 以userId为键的开放寻址哈希表(线性探测)，每个用户占一行，每种资产按列存储available和frozen，列在该资产首次使用时分配。
+ * 资产种类不设上限，列数组在持有分片锁时按需扩大，每列用一个位图记录哪些行使用了该资产。
+ * 所有方法都必须在持有分片锁(synchronized(shard))时调用。
+ */
+final class AssetShard {
+
+    static final int INITIAL_CAPACITY = 16;
+
+    // userId -> 行号:
+    long[] userIds;
+
+    // 行已被占用:
+    boolean[] occupied;
+
+    // [assetIndex][行号]，未使用的资产为null:
+    long[][] available = new long[0][];
+    long[][] frozen = new long[0][];
+
+    // [assetIndex][行号 / 64]，使用了该资产的行:
+    long[][] used = new long[0][];
+
+    int size = 0;
+
+    AssetShard() {
+        this.userIds = new long[INITIAL_CAPACITY];
+        this.occupied = new boolean[INITIAL_CAPACITY];
+    }
+
+    /**
+     * 查找用户所在行，不存在返回-1
+     */
+    int find(long userId) {
+        int mask = this.userIds.length - 1;
+        for (int row = AssetService.hash(userId) & mask;; row = (row + 1) & mask) {
+            if (!this.occupied[row]) {
+                return -1;
+            }
+            if (this.userIds[row] == userId) {
+                return row;
+            }
+        }
+    }
+
+    /**
+     * 该行是否使用了指定资产
+     */
+    boolean uses(int row, int asset) {
+        return asset < this.used.length && this.used[asset] != null && (this.used[asset][row >>> 6] & (1L << row)) != 0;
+    }
+
+    /**
+     * 返回用户所在行，并标记该行使用了指定资产
+     */
+    int row(long userId, int asset) {
+        int row = find(userId);
+        if (row < 0) {
+            // 负载因子超过0.5时扩容:
+            if ((this.size + 1) * 2 > this.userIds.length) {
+                resize(this.userIds.length * 2);
+            }
+            row = insert(userId);
+            this.size++;
+        }
+        if (!uses(row, asset)) {
+            if (asset >= this.available.length) {
+                int columns = Math.max(asset + 1, this.available.length * 2);
+                this.available = Arrays.copyOf(this.available, columns);
+                this.frozen = Arrays.copyOf(this.frozen, columns);
+                this.used = Arrays.copyOf(this.used, columns);
+            }
+            if (this.available[asset] == null) {
+                this.available[asset] = new long[this.userIds.length];
+                this.frozen[asset] = new long[this.userIds.length];
+                this.used[asset] = new long[words(this.userIds.length)];
+            }
+            this.used[asset][row >>> 6] |= 1L << row;
+        }
+        return row;
+    }
+
+    int insert(long userId) {
+        int mask = this.userIds.length - 1;
+        int row = AssetService.hash(userId) & mask;
+        while (this.occupied[row]) {
+            row = (row + 1) & mask;
+        }
+        this.userIds[row] = userId;
+        this.occupied[row] = true;
+        return row;
+    }
+
+    void resize(int capacity) {
+        long[] oldUserIds = this.userIds;
+        boolean[] oldOccupied = this.occupied;
+        long[][] oldAvailable = this.available;
+        long[][] oldFrozen = this.frozen;
+        long[][] oldUsed = this.used;
+        int columns = oldAvailable.length;
+        this.userIds = new long[capacity];
+        this.occupied = new boolean[capacity];
+        this.available = new long[columns][];
+        this.frozen = new long[columns][];
+        this.used = new long[columns][];
+        for (int asset = 0; asset < columns; asset++) {
+            if (oldAvailable[asset] != null) {
+                this.available[asset] = new long[capacity];
+                this.frozen[asset] = new long[capacity];
+                this.used[asset] = new long[words(capacity)];
+            }
+        }
+        for (int oldRow = 0; oldRow < oldUserIds.length; oldRow++) {
+            if (!oldOccupied[oldRow]) {
+                continue;
+            }
+            int row = insert(oldUserIds[oldRow]);
+            for (int asset = 0; asset < columns; asset++) {
+                if (oldUsed[asset] != null && (oldUsed[asset][oldRow >>> 6] & (1L << oldRow)) != 0) {
+                    this.available[asset][row] = oldAvailable[asset][oldRow];
+                    this.frozen[asset][row] = oldFrozen[asset][oldRow];
+                    this.used[asset][row >>> 6] |= 1L << row;
+                }
+            }
+        }
+    }
+
+    static int words(int capacity) {
+        return (capacity + 63) >>> 6;
+    }
+}
@@ -0,0 +1,9 @@
+package com.itranswarp.assets;
+
+/**
+ * 遍历资产，余额为FixedPoint.BALANCE_SCALE精度的定点数。
+ */
+public interface AssetVisitor {
+
+    void visit(long userId, String assetId, long available, long frozen);
+}
@@ -0,0 +1,56 @@
+package com.itranswarp.audit;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import com.itranswarp.assets.AssetService;
+import com.itranswarp.util.AccountLedger;
+
+/**
+ * 一条命令内的余额变化，只在所属线程访问。
+ *
+ * (userId, asset)的frozen变化与订单冻结额变化之差记录在AccountLedger的冻结列中，命令结束时必须全部为0。
+ */
+final class AuditScope {
+
+    // 每种资产的余额变化之和，按资产序号扩容:
+    long[] totals = new long[16];
+    final BitSet touchedAssets = new BitSet();
+
+    final AccountLedger frozenDeltas = new AccountLedger();
+
+    void addTotal(int asset, long delta) {
+        if (asset >= this.totals.length) {
+            this.totals = Arrays.copyOf(this.totals, Math.max(asset + 1, this.totals.length * 2));
+        }
+        this.totals[asset] = Math.addExact(this.totals[asset], delta);
+        this.touchedAssets.set(asset);
+    }
+
+    void addFrozen(long userId, int asset, long delta) {
+        this.frozenDeltas.add(userId, asset, 0, delta);
+    }
+
+    void check(AssetService assetService) {
+        for (int asset = this.touchedAssets.nextSetBit(0); asset >= 0; asset = this.touchedAssets.nextSetBit(asset + 1)) {
+            if (this.totals[asset] != 0) {
+                throw new RuntimeException("Non zero " + assetService.getAssetId(asset) + " balance change: " + this.totals[asset]);
+            }
+        }
+        AccountLedger deltas = this.frozenDeltas;
+        for (int i = 0; i < deltas.size(); i++) {
+            if (deltas.frozen(i) != 0) {
+                throw new RuntimeException("Frozen of user " + deltas.userId(i) + ", asset " + assetService.getAssetId(deltas.asset(i))
+                        + " differs from order frozen by " + deltas.frozen(i));
+            }
+        }
+    }
+
+    void reset() {
+        for (int asset = this.touchedAssets.nextSetBit(0); asset >= 0; asset = this.touchedAssets.nextSetBit(asset + 1)) {
+            this.totals[asset] = 0;
+        }
+        this.touchedAssets.clear();
+        this.frozenDeltas.reset();
+    }
+}
@@ -0,0 +1,81 @@
+package com.itranswarp.audit;
+
+import com.itranswarp.assets.AssetService;
+import com.itranswarp.assets.Users;
+import com.itranswarp.order.Order;
+import com.itranswarp.util.FixedPoint;
+
+/**
+ * 增量审计。
+ *
+ * 每条命令在执行线程上开启一个审计范围，AssetService报告每次余额变化，TradingEngine报告订单冻结额的变化。
+ * 命令结束时检查：
+ *
+ * 1. 每种资产所有账户余额变化之和为0，即资产总额保持为0；
+ * 2. 每个用户每种资产的frozen变化等于该用户订单冻结额的变化；
+ * 3. 被修改的账户中，交易用户余额不为负，负债账户available不为正且frozen为0。
+ *
+ * 检查只涉及本条命令修改过的账户，复杂度与成交笔数成正比，与用户和订单总数无关。
+ * 前提是开启审计时状态已通过TradingEngine.validate()的全量检查。
+ */
+public class Auditor {
+
+    final AssetService assetService;
+
+    final ThreadLocal<AuditScope> scopes = ThreadLocal.withInitial(AuditScope::new);
+
+    public Auditor(AssetService assetService) {
+        this.assetService = assetService;
+    }
+
+    /**
+     * 在当前线程开始一条命令，丢弃上一条未结束命令的记录
+     */
+    public void begin() {
+        this.scopes.get().reset();
+    }
+
+    /**
+     * 检查当前线程的命令，违反不变量时抛出RuntimeException
+     */
+    public void end() {
+        AuditScope scope = this.scopes.get();
+        try {
+            scope.check(this.assetService);
+        } finally {
+            scope.reset();
+        }
+    }
+
+    /**
+     * 账户余额变化，available和frozen为变化后的余额，由AssetService在持有分片锁时调用
+     */
+    public void onBalanceChanged(long userId, int asset, long availableDelta, long frozenDelta, long available, long frozen) {
+        if (userId >= Users.TRADER) {
+            require(available >= 0 && frozen >= 0, "Trader has negative balance", userId, asset);
+        } else if (userId == Users.DEBT) {
+            require(available <= 0 && frozen == 0, "Debt has positive available or non-zero frozen", userId, asset);
+        }
+        AuditScope scope = this.scopes.get();
+        scope.addTotal(asset, Math.addExact(availableDelta, frozenDelta));
+        scope.addFrozen(userId, asset, frozenDelta);
+    }
+
+    /**
+     * 订单的未成交数量变化，amount为变化量，增加为正，减少为负
+     */
+    public void onOrderChanged(Order order, long amount) {
+        AuditScope scope = this.scopes.get();
+        switch (order.direction) {
+        case BUY -> scope.addFrozen(order.userId, this.assetService.assetIndex(order.symbol.quoteAsset), -FixedPoint.notional(order.price, amount));
+        case SELL -> scope.addFrozen(order.userId, this.assetService.assetIndex(order.symbol.baseAsset), -FixedPoint.quantity(amount));
+        default -> throw new IllegalArgumentException("Invalid direction.");
+        }
+    }
+
+    void require(boolean condition, String message, long userId, int asset) {
+        if (!condition) {
+            throw new RuntimeException(message + ": user " + userId + ", asset " + this.assetService.getAssetId(asset));
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.itranswarp.candle;
+
+import com.itranswarp.util.FixedPoint;
+
+/**
+ * 一根已收盘的K线，价格和成交量为定点数，成交额精度与余额相同。
+ */
+public class Candle {
+
+    public final String symbol;
+    public final CandleInterval interval;
+
+    // 周期开始时间:
+    public final long start;
+
+    public final long open;
+    public final long high;
+    public final long low;
+    public final long close;
+
+    // 成交量:
+    public final long volume;
+    // 成交额:
+    public final long turnover;
+    // 成交笔数:
+    public final int trades;
+
+    public Candle(String symbol, CandleInterval interval, long start, long open, long high, long low, long close, long volume, long turnover,
+            int trades) {
+        this.symbol = symbol;
+        this.interval = interval;
+        this.start = start;
+        this.open = open;
+        this.high = high;
+        this.low = low;
+        this.close = close;
+        this.volume = volume;
+        this.turnover = turnover;
+        this.trades = trades;
+    }
+
+    /**
+     * 成交量加权平均价
+     */
+    public long getVwap() {
+        return vwap(this.turnover, this.volume);
+    }
+
+    static long vwap(long turnover, long volume) {
+        return volume == 0 ? 0 : turnover / volume;
+    }
+
+    @Override
+    public String toString() {
+        return symbol + " " + interval + " " + start + " O=" + FixedPoint.toBigDecimal(open) + " H=" + FixedPoint.toBigDecimal(high) + " L="
+                + FixedPoint.toBigDecimal(low) + " C=" + FixedPoint.toBigDecimal(close) + " V=" + FixedPoint.toBigDecimal(volume) + " VWAP="
+                + FixedPoint.toBigDecimal(getVwap());
+    }
+}
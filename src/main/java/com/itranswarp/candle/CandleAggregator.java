@@ -0,0 +1,501 @@
+package com.itranswarp.candle;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+import com.itranswarp.match.MarketDataListener;
+import com.itranswarp.order.Direction;
+import com.itranswarp.util.FixedPoint;
+
+/**
+ * 从逐笔成交增量生成秒、分钟、小时K线和累计成交量加权平均价。
+ *
+ * 撮合线程在onTrade()中只把成交价、数量和时间戳写入预分配的环形缓冲区，多个交易品种并行撮合时可由多个线程写入。
+ * 时间戳由聚合线程每毫秒更新一次，撮合线程只读取该字段，不读取时钟。
+ * 独立的线程逐笔更新每个周期正在形成的K线，下一个周期的第一笔成交到达或周期结束时收盘，发布给CandleListener，
+ * 并放入每个周期固定容量的历史K线中。缓冲区满时撮合线程等待。
+ *
+ * 没有成交的周期不生成K线。
+ *
+ * 聚合线程每次处理连续到达的一批成交，同一交易品种的连续成交只加锁一次，并在处理完一批后才释放槽位。
+ * 只有一个CPU时，聚合线程与撮合线程分时运行，空闲时不自旋也不让出CPU，直接休眠，让撮合线程连续运行，
+ * 醒来后批量处理积累的成交；缓冲区满时撮合线程唤醒聚合线程。
+ */
+public class CandleAggregator implements MarketDataListener {
+
+    final Tick[] slots;
+    final int mask;
+
+    // 下一个待分配的序号:
+    final AtomicLong claimed = new AtomicLong(0);
+
+    // 下一个待处理的序号:
+    volatile long consumed = 0;
+
+    final LongSupplier clock;
+
+    // 聚合线程缓存的当前时间，撮合线程用作成交时间:
+    volatile long now;
+    final CandleListener listener;
+    final int history;
+    final Thread thread;
+    volatile boolean running = true;
+
+    // 只有一个CPU，空闲时直接休眠:
+    final boolean sharedCore = Runtime.getRuntime().availableProcessors() == 1;
+
+    // 一批最多处理的成交数量:
+    static final int BATCH = 256;
+
+    // 只由聚合线程修改:
+    final Map<String, SymbolCandles> candles = new HashMap<>();
+
+    // 供其他线程查询:
+    final ConcurrentMap<String, SymbolCandles> views = new ConcurrentHashMap<>();
+
+    public CandleAggregator(int capacity, int history, CandleListener listener) {
+        this(capacity, history, listener, System::currentTimeMillis);
+    }
+
+    /**
+     * @param capacity 成交缓冲区容量，必须是2的幂
+     * @param history  每个交易品种每个周期保留的K线数量
+     * @param clock    毫秒时间戳
+     */
+    public CandleAggregator(int capacity, int history, CandleListener listener, LongSupplier clock) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be power of 2.");
+        }
+        if (history <= 0) {
+            throw new IllegalArgumentException("Invalid history.");
+        }
+        this.slots = new Tick[capacity];
+        for (int i = 0; i < capacity; i++) {
+            this.slots[i] = new Tick();
+        }
+        this.mask = capacity - 1;
+        this.history = history;
+        this.listener = listener == null ? CandleListener.NOOP : listener;
+        this.clock = clock;
+        this.now = clock.getAsLong();
+        this.thread = new Thread(this::run, "candle-aggregator");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    public void onLevelChanged(String symbol, Direction direction, long price, long quantity) {
+    }
+
+    @Override
+    public void onLevelRemoved(String symbol, Direction direction, long price) {
+    }
+
+    @Override
+    public void onTrade(String symbol, long takerOrderId, long makerOrderId, Direction takerDirection, long price, long amount) {
+        publish(symbol, price, amount, this.now);
+    }
+
+    /**
+     * 发布一笔指定时间的成交，例如从成交记录重建K线
+     */
+    public void publish(String symbol, long price, long amount, long timestamp) {
+        long seq = this.claimed.getAndIncrement();
+        while (seq - this.consumed >= this.slots.length) {
+            // 聚合线程可能正在休眠:
+            LockSupport.unpark(this.thread);
+            LockSupport.parkNanos(1000);
+        }
+        Tick tick = this.slots[(int) seq & this.mask];
+        tick.symbol = symbol;
+        tick.price = price;
+        tick.amount = amount;
+        tick.timestamp = timestamp;
+        // 有序写入即可保证聚合线程看到完整的成交，不需要volatile写的内存屏障:
+        Tick.PUBLISHED.setRelease(tick, seq);
+    }
+
+    /**
+     * 等待已发布的成交全部处理，超时返回false
+     */
+    public boolean awaitProcessed(long timeoutMillis) {
+        long target = this.claimed.get();
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000;
+        while (this.consumed < target) {
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            LockSupport.parkNanos(10_000);
+        }
+        return true;
+    }
+
+    /**
+     * 返回最近的最多n根已收盘K线，最新的在前
+     */
+    public List<Candle> getCandles(String symbol, CandleInterval interval, int n) {
+        SymbolCandles candles = this.views.get(symbol);
+        return candles == null ? List.of() : candles.recent(interval, n);
+    }
+
+    /**
+     * 返回正在形成的K线，该周期尚无成交时返回null
+     */
+    public Candle getCurrent(String symbol, CandleInterval interval) {
+        SymbolCandles candles = this.views.get(symbol);
+        return candles == null ? null : candles.current(interval);
+    }
+
+    /**
+     * 开始聚合以来的成交量加权平均价，尚无成交时返回0
+     */
+    public long getVwap(String symbol) {
+        SymbolCandles candles = this.views.get(symbol);
+        return candles == null ? 0 : candles.vwap();
+    }
+
+    /**
+     * 处理完已发布的成交后停止聚合线程
+     */
+    public void shutdown() throws InterruptedException {
+        this.running = false;
+        this.thread.join();
+    }
+
+    void run() {
+        int idle = 0;
+        for (;;) {
+            long seq = this.consumed;
+            Tick tick = this.slots[(int) seq & this.mask];
+            if (tick.published != seq) {
+                if (!this.running) {
+                    return;
+                }
+                if (idle >= 100) {
+                    // 空闲时更新时间:
+                    updateClock();
+                }
+                if (idle >= 200) {
+                    // 空闲时按时间收盘:
+                    closeExpired(this.now);
+                }
+                idle = idle(idle);
+                continue;
+            }
+            idle = 0;
+            long next = process(seq);
+            this.consumed = next;
+            if ((seq >>> 6) != (next >>> 6)) {
+                // 持续有成交时约每64笔更新一次时间:
+                updateClock();
+            }
+            if ((seq >>> 10) != (next >>> 10)) {
+                // 持续有成交时，其他交易品种也按时间收盘:
+                closeExpired(this.slots[(int) (next - 1) & this.mask].timestamp);
+            }
+        }
+    }
+
+    // 处理从seq开始同一交易品种连续到达的一批成交，返回下一个待处理的序号:
+    long process(long seq) {
+        Tick tick = this.slots[(int) seq & this.mask];
+        String symbol = tick.symbol;
+        SymbolCandles candles = this.candles.get(symbol);
+        if (candles == null) {
+            candles = new SymbolCandles(symbol, this.history);
+            this.candles.put(symbol, candles);
+            this.views.put(symbol, candles);
+        }
+        long end = seq + BATCH;
+        synchronized (candles) {
+            boolean closed;
+            do {
+                closed = candles.add(tick.timestamp, tick.price, tick.amount);
+                tick.symbol = null;
+                seq++;
+                tick = this.slots[(int) seq & this.mask];
+                // 有K线收盘时先发布，每根收盘的K线只保存到发布为止:
+            } while (!closed && seq < end && tick.published == seq && symbol.equals(tick.symbol));
+        }
+        candles.publish(this.listener);
+        return seq;
+    }
+
+    void updateClock() {
+        long time = this.clock.getAsLong();
+        if (time != this.now) {
+            this.now = time;
+        }
+    }
+
+    void closeExpired(long now) {
+        for (SymbolCandles candles : this.candles.values()) {
+            candles.closeExpired(now, this.listener);
+        }
+    }
+
+    // 空闲时先自旋，再让出CPU，最后短暂休眠；只有一个CPU时直接休眠1毫秒:
+    int idle(int counter) {
+        if (this.sharedCore) {
+            LockSupport.parkNanos(1_000_000);
+            return 200;
+        }
+        if (counter < 100) {
+            Thread.onSpinWait();
+        } else if (counter < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50_000);
+        }
+        return counter < 200 ? counter + 1 : counter;
+    }
+
+    /**
+     * 一笔成交
+     */
+    static final class Tick {
+
+        String symbol;
+        long price;
+        long amount;
+        long timestamp;
+
+        volatile long published = -1;
+
+        static final VarHandle PUBLISHED;
+
+        static {
+            try {
+                PUBLISHED = MethodHandles.lookup().findVarHandle(Tick.class, "published", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+    }
+
+    /**
+     * 一个交易品种所有周期的K线和累计成交量加权平均价，聚合线程每批修改时锁定，查询线程读取时短暂加锁。
+     *
+     * 每笔成交只更新秒线，秒线收盘时合并到分钟线和小时线，查询正在形成的分钟线和小时线时再合并正在形成的秒线。
+     */
+    static final class SymbolCandles {
+
+        final CandleSeries[] series;
+        long turnover = 0;
+        long volume = 0;
+
+        // 一次更新中收盘的K线，锁外发布:
+        final List<Candle> closed = new ArrayList<>();
+
+        SymbolCandles(String symbol, int history) {
+            CandleInterval[] intervals = CandleInterval.values();
+            this.series = new CandleSeries[intervals.length];
+            for (int i = 0; i < intervals.length; i++) {
+                this.series[i] = new CandleSeries(symbol, intervals[i], history);
+            }
+        }
+
+        // 调用方加锁，返回是否有K线收盘:
+        boolean add(long timestamp, long price, long amount) {
+            long notional = FixedPoint.notional(price, amount);
+            this.turnover += notional;
+            this.volume += amount;
+            CandleSeries seconds = this.series[0];
+            boolean closed = false;
+            if (seconds.trades > 0 && timestamp >= seconds.end) {
+                closeSecond(seconds.close(), timestamp);
+                closed = true;
+            }
+            seconds.add(timestamp, price, amount, notional);
+            return closed;
+        }
+
+        // 收盘的秒线合并到更长的周期，再按时间收盘更长的周期:
+        void closeSecond(Candle candle, long now) {
+            this.closed.add(candle);
+            for (int i = 1; i < this.series.length; i++) {
+                addClosed(this.series[i].fold(candle));
+                addClosed(this.series[i].closeExpired(now));
+            }
+        }
+
+        void addClosed(Candle candle) {
+            if (candle != null) {
+                this.closed.add(candle);
+            }
+        }
+
+        void closeExpired(long now, CandleListener listener) {
+            synchronized (this) {
+                Candle candle = this.series[0].closeExpired(now);
+                if (candle != null) {
+                    closeSecond(candle, now);
+                } else {
+                    for (int i = 1; i < this.series.length; i++) {
+                        addClosed(this.series[i].closeExpired(now));
+                    }
+                }
+            }
+            publish(listener);
+        }
+
+        // 只由聚合线程调用:
+        void publish(CandleListener listener) {
+            for (int i = 0; i < this.closed.size(); i++) {
+                listener.onCandleClosed(this.closed.get(i));
+            }
+            this.closed.clear();
+        }
+
+        synchronized long vwap() {
+            return Candle.vwap(this.turnover, this.volume);
+        }
+
+        synchronized Candle current(CandleInterval interval) {
+            int i = interval.ordinal();
+            return i == 0 ? this.series[0].current() : this.series[i].current(this.series[0]);
+        }
+
+        synchronized List<Candle> recent(CandleInterval interval, int n) {
+            return this.series[interval.ordinal()].recent(n);
+        }
+    }
+
+    /**
+     * 一个周期正在形成的K线和固定容量的历史K线，由SymbolCandles加锁访问
+     */
+    static final class CandleSeries {
+
+        final String symbol;
+        final CandleInterval interval;
+
+        final Candle[] closed;
+        long count = 0;
+
+        // 正在形成的K线，trades为0表示尚无成交:
+        long start;
+        long end;
+        long open;
+        long high;
+        long low;
+        long close;
+        long volume;
+        long turnover;
+        int trades = 0;
+
+        CandleSeries(String symbol, CandleInterval interval, int history) {
+            this.symbol = symbol;
+            this.interval = interval;
+            this.closed = new Candle[history];
+        }
+
+        // 返回因此收盘的K线:
+        Candle add(long timestamp, long price, long amount, long notional) {
+            Candle closed = null;
+            // 时间戳早于当前周期的成交在缓冲区中等待时当前周期已开始，计入当前周期:
+            if (this.trades > 0 && timestamp >= this.end) {
+                closed = close();
+            }
+            if (this.trades == 0) {
+                this.start = Math.max(this.interval.startOf(timestamp), this.start);
+                this.end = this.start + this.interval.millis;
+                this.open = price;
+                this.high = price;
+                this.low = price;
+                this.volume = 0;
+                this.turnover = 0;
+            } else {
+                this.high = Math.max(this.high, price);
+                this.low = Math.min(this.low, price);
+            }
+            this.close = price;
+            this.volume += amount;
+            this.turnover += notional;
+            this.trades++;
+            return closed;
+        }
+
+        // 合并收盘的秒线，返回因此收盘的K线:
+        Candle fold(Candle candle) {
+            Candle closed = null;
+            if (this.trades > 0 && candle.start >= this.end) {
+                closed = close();
+            }
+            if (this.trades == 0) {
+                this.start = Math.max(this.interval.startOf(candle.start), this.start);
+                this.end = this.start + this.interval.millis;
+                this.open = candle.open;
+                this.high = candle.high;
+                this.low = candle.low;
+                this.volume = 0;
+                this.turnover = 0;
+            } else {
+                this.high = Math.max(this.high, candle.high);
+                this.low = Math.min(this.low, candle.low);
+            }
+            this.close = candle.close;
+            this.volume += candle.volume;
+            this.turnover += candle.turnover;
+            this.trades += candle.trades;
+            return closed;
+        }
+
+        // 合并正在形成的秒线后的K线:
+        Candle current(CandleSeries seconds) {
+            if (seconds.trades == 0) {
+                return current();
+            }
+            if (this.trades == 0 || seconds.start >= this.end) {
+                return new Candle(this.symbol, this.interval, Math.max(this.interval.startOf(seconds.start), this.start), seconds.open, seconds.high,
+                        seconds.low, seconds.close, seconds.volume, seconds.turnover, seconds.trades);
+            }
+            return new Candle(this.symbol, this.interval, this.start, this.open, Math.max(this.high, seconds.high), Math.min(this.low, seconds.low),
+                    seconds.close, this.volume + seconds.volume, this.turnover + seconds.turnover, this.trades + seconds.trades);
+        }
+
+        Candle closeExpired(long now) {
+            if (this.trades == 0 || now < this.end) {
+                return null;
+            }
+            Candle closed = close();
+            // 此后的成交属于之后的周期:
+            this.start = this.interval.startOf(now);
+            return closed;
+        }
+
+        Candle close() {
+            Candle candle = current();
+            this.closed[(int) (this.count % this.closed.length)] = candle;
+            this.count++;
+            this.trades = 0;
+            return candle;
+        }
+
+        Candle current() {
+            if (this.trades == 0) {
+                return null;
+            }
+            return new Candle(this.symbol, this.interval, this.start, this.open, this.high, this.low, this.close, this.volume, this.turnover,
+                    this.trades);
+        }
+
+        List<Candle> recent(int n) {
+            int size = (int) Math.min(Math.min(n, this.closed.length), this.count);
+            List<Candle> list = new ArrayList<>(size);
+            for (long i = this.count - 1; i >= this.count - size; i--) {
+                list.add(this.closed[(int) (i % this.closed.length)]);
+            }
+            return Collections.unmodifiableList(list);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.itranswarp.candle;
+
+/**
+ * K线周期，按毫秒对齐到周期的整数倍。
+ */
+public enum CandleInterval {
+
+    SECOND(1000L),
+
+    MINUTE(60_000L),
+
+    HOUR(3600_000L);
+
+    public final long millis;
+
+    CandleInterval(long millis) {
+        this.millis = millis;
+    }
+
+    /**
+     * 时间戳所在周期的开始时间
+     */
+    public long startOf(long timestamp) {
+        return Math.floorDiv(timestamp, this.millis) * this.millis;
+    }
+}
@@ -0,0 +1,12 @@
+package com.itranswarp.candle;
+
+/**
+ * 接收收盘的K线，在CandleAggregator的线程中调用。
+ */
+public interface CandleListener {
+
+    CandleListener NOOP = candle -> {
+    };
+
+    void onCandleClosed(Candle candle);
+}
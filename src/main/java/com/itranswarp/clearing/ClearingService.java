@@ -1,86 +1,218 @@
 package com.itranswarp.clearing;
 
-import java.math.BigDecimal;
+import java.util.List;
 
 import com.itranswarp.assets.AssetService;
 import com.itranswarp.assets.Transfer;
-import com.itranswarp.match.MatchRecord;
 import com.itranswarp.match.MatchResult;
 import com.itranswarp.order.Order;
 import com.itranswarp.order.OrderService;
+import com.itranswarp.order.OrderStatus;
+import com.itranswarp.order.Symbol;
+import com.itranswarp.util.AccountLedger;
+import com.itranswarp.util.FixedPoint;
 
 public class ClearingService {
 
     final AssetService assetService;
     final OrderService orderService;
 
+    // 并行清算，为null时在调用线程中直接转账:
+    SettlementPipeline settlement = null;
+
+    // 批量清算时按账户合并的余额变化，为null时逐笔转账:
+    AccountLedger batch = null;
+    final AccountLedger ledger = new AccountLedger();
+
     public ClearingService(AssetService assetService, OrderService orderService) {
         this.assetService = assetService;
         this.orderService = orderService;
     }
 
+    /**
+     * 设置并行清算，此后所有转账和解冻交给settlement异步执行，订单的删除仍在调用线程中完成
+     */
+    public void setSettlement(SettlementPipeline settlement) {
+        this.settlement = settlement;
+    }
+
+    /**
+     * 开始批量清算，此后的转账和解冻按(userId, asset)合并，直到endBatch()时每个账户只修改一次。
+     *
+     * 批量中的订单必须已全部冻结，批量内不能冻结资产，也不能读取余额。不能与并行清算同时使用。
+     */
+    public void beginBatch() {
+        if (this.settlement != null) {
+            throw new IllegalStateException("Cannot batch with parallel settlement.");
+        }
+        this.ledger.reset();
+        this.batch = this.ledger;
+    }
+
+    /**
+     * 结束批量清算，把合并后的变化写入每个账户
+     */
+    public void endBatch() {
+        AccountLedger ledger = this.batch;
+        this.batch = null;
+        for (int i = 0; i < ledger.size(); i++) {
+            long available = ledger.available(i);
+            long frozen = ledger.frozen(i);
+            if (available != 0 || frozen != 0) {
+                assetService.adjust(ledger.userId(i), assetService.getAssetId(ledger.asset(i)), available, frozen);
+            }
+        }
+        ledger.reset();
+    }
+
     public void clearMatchResult(MatchResult result) {
         Order taker = result.takerOrder;
+        Symbol symbol = taker.symbol;
+        // Taker的成交数量合计:
+        long filled = 0;
         switch (taker.direction) {
         case BUY -> {
             // 买入时，按Maker的价格成交：
-            for (MatchRecord record : result.matchRecords) {
-                Order maker = record.makerOrder;
-                BigDecimal matched = record.amount;
-                if (taker.price.compareTo(maker.price) > 0) {
+            for (int i = 0; i < result.size(); i++) {
+                Order maker = result.getMakerOrder(i);
+                long matched = result.getAmount(i);
+                if (taker.price > maker.price) {
                     // 实际买入价比报价低，部分金额退回账户:
-                    BigDecimal unfreezeQuote = taker.price.subtract(maker.price).multiply(matched);
-                    assetService.unfreeze(taker.userId, "FIAT", unfreezeQuote);
-                }
-                // 买方FIAT转入卖方账户:
-                assetService.transfer(Transfer.FROZEN_TO_AVAILABLE, taker.userId, maker.userId, "FIAT", maker.price.multiply(matched));
-                // 卖方STOCK转入买方账户:
-                assetService.transfer(Transfer.FROZEN_TO_AVAILABLE, maker.userId, taker.userId, "STOCK", matched);
-                // 删除完全成交的Maker:
-                if (maker.unfilledAmount.signum() == 0) {
-                    orderService.removeOrder(maker.sequenceId);
+                    long unfreezeQuote = FixedPoint.notional(taker.price - maker.price, matched);
+                    unfreeze(taker.userId, symbol.quoteAsset, unfreezeQuote);
                 }
-            }
-            // 删除完全成交的Taker:
-            if (taker.unfilledAmount.signum() == 0) {
-                orderService.removeOrder(taker.sequenceId);
+                // 买方计价资产转入卖方账户:
+                transfer(taker.userId, maker.userId, symbol.quoteAsset, FixedPoint.notional(maker.price, matched));
+                // 卖方标的资产转入买方账户:
+                transfer(maker.userId, taker.userId, symbol.baseAsset, FixedPoint.quantity(matched));
+                filled += matched;
+                orderService.reduceOrder(maker, matched);
+                removeFilledMaker(maker);
             }
         }
         case SELL -> {
-            for (MatchRecord record : result.matchRecords) {
-                Order maker = record.makerOrder;
-                BigDecimal matched = record.amount;
-                // 卖方STOCK转入买方账户:
-                assetService.transfer(Transfer.FROZEN_TO_AVAILABLE, taker.userId, maker.userId, "STOCK", matched);
-                // 买方FIAT转入卖方账户:
-                assetService.transfer(Transfer.FROZEN_TO_AVAILABLE, maker.userId, taker.userId, "FIAT", maker.price.multiply(matched));
-                // 删除完全成交的Maker:
-                if (maker.unfilledAmount.signum() == 0) {
-                    orderService.removeOrder(maker.sequenceId);
-                }
-            }
-            // 删除完全成交的Taker:
-            if (taker.unfilledAmount.signum() == 0) {
-                orderService.removeOrder(taker.sequenceId);
+            for (int i = 0; i < result.size(); i++) {
+                Order maker = result.getMakerOrder(i);
+                long matched = result.getAmount(i);
+                // 卖方标的资产转入买方账户:
+                transfer(taker.userId, maker.userId, symbol.baseAsset, FixedPoint.quantity(matched));
+                // 买方计价资产转入卖方账户:
+                transfer(maker.userId, taker.userId, symbol.quoteAsset, FixedPoint.notional(maker.price, matched));
+                filled += matched;
+                orderService.reduceOrder(maker, matched);
+                removeFilledMaker(maker);
             }
         }
         default -> throw new IllegalArgumentException("Invalid direction.");
         }
+        if (filled > 0) {
+            orderService.reduceOrder(taker, filled);
+        }
+        // 防止自成交减少的数量直接解冻，撤销的Maker按撤单清算:
+        for (int i = 0; i < result.selfTradeSize(); i++) {
+            Order order = result.getSelfTradeOrder(i);
+            long reduced = result.getSelfTradeAmount(i);
+            if (reduced > 0) {
+                unfreeze(order, reduced);
+                orderService.reduceOrder(order, reduced);
+            }
+            if (order != taker && order.status == OrderStatus.CANCELLED && isActive(order)) {
+                clearCancelOrder(order);
+            }
+        }
+        if (taker.unfilledAmount == 0) {
+            // 删除完全成交的Taker:
+            orderService.removeOrder(taker.sequenceId);
+        } else if (taker.status == OrderStatus.CANCELLED) {
+            // 市价、IOC、FOK和POST_ONLY订单未挂入订单簿的部分在同一次清算中解冻:
+            clearCancelOrder(taker);
+        }
+    }
+
+    // 删除完全成交的Maker:
+    void removeFilledMaker(Order maker) {
+        if (maker.unfilledAmount == 0 && isActive(maker)) {
+            orderService.removeOrder(maker.sequenceId);
+        }
+    }
+
+    // 冰山单补充后可能在同一次撮合中多次出现，只有第一次仍是活动订单:
+    boolean isActive(Order order) {
+        return !order.isIceberg() || orderService.getOrder(order.sequenceId) == order;
     }
 
     public void clearCancelOrder(Order order) {
+        unfreeze(order, order.unfilledAmount);
+        // 从OrderService中删除订单:
+        orderService.removeOrder(order.sequenceId);
+    }
+
+    /**
+     * 清算同一用户同一交易品种的多个已撤销订单，每种资产只解冻一次
+     */
+    public void clearCancelOrders(Long userId, Symbol symbol, List<Order> orders) {
+        long quote = 0;
+        long base = 0;
+        for (Order order : orders) {
+            switch (order.direction) {
+            case BUY -> quote = Math.addExact(quote, FixedPoint.notional(order.price, order.unfilledAmount));
+            case SELL -> base = Math.addExact(base, FixedPoint.quantity(order.unfilledAmount));
+            default -> throw new IllegalArgumentException("Invalid direction.");
+            }
+            orderService.removeOrder(order.sequenceId);
+        }
+        if (quote > 0) {
+            unfreeze(userId, symbol.quoteAsset, quote);
+        }
+        if (base > 0) {
+            unfreeze(userId, symbol.baseAsset, base);
+        }
+    }
+
+    /**
+     * 改单后解冻减少的数量
+     */
+    public void clearAmendOrder(Order order, long reducedAmount) {
+        unfreeze(order, reducedAmount);
+        orderService.reduceOrder(order, reducedAmount);
+    }
+
+    void unfreeze(Order order, long amount) {
         switch (order.direction) {
         case BUY -> {
-            // 解冻FIAT:
-            assetService.unfreeze(order.userId, "FIAT", order.price.multiply(order.unfilledAmount));
+            // 解冻计价资产:
+            unfreeze(order.userId, order.symbol.quoteAsset, FixedPoint.notional(order.price, amount));
         }
         case SELL -> {
-            // 解冻STOCK:
-            assetService.unfreeze(order.userId, "STOCK", order.unfilledAmount);
+            // 解冻标的资产:
+            unfreeze(order.userId, order.symbol.baseAsset, FixedPoint.quantity(amount));
         }
         default -> throw new IllegalArgumentException("Invalid direction.");
         }
-        // 从OrderService中删除订单:
-        orderService.removeOrder(order.sequenceId);
+    }
+
+    // 冻结资产转入对方的可用资产:
+    void transfer(long fromUser, long toUser, String assetId, long amount) {
+        AccountLedger batch = this.batch;
+        if (batch != null) {
+            int asset = assetService.assetIndex(assetId);
+            batch.add(fromUser, asset, 0, -amount);
+            batch.add(toUser, asset, amount, 0);
+        } else if (this.settlement == null) {
+            assetService.transfer(Transfer.FROZEN_TO_AVAILABLE, fromUser, toUser, assetId, amount);
+        } else {
+            this.settlement.transfer(fromUser, toUser, assetId, amount);
+        }
+    }
+
+    void unfreeze(long userId, String assetId, long amount) {
+        AccountLedger batch = this.batch;
+        if (batch != null) {
+            batch.add(userId, assetService.assetIndex(assetId), amount, -amount);
+        } else if (this.settlement == null) {
+            assetService.unfreeze(userId, assetId, amount);
+        } else {
+            this.settlement.unfreeze(userId, assetId, amount);
+        }
     }
 }
@@ -0,0 +1,201 @@
+package com.itranswarp.clearing;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.itranswarp.assets.AssetService;
+
+/**
+ * 并行清算。
+ *
+ * 撮合线程把每笔转账拆成付款方冻结资产减少和收款方可用资产增加两条单边记账，按用户所在的资产分片交给固定的工作线程，
+ * 同一账户的记账总是由同一线程按提交顺序执行。每个工作线程有固定容量的队列，队列满时提交方等待。
+ *
+ * 记账期间各资产的总额暂时不为0，validate()、快照等需要一致状态的操作先调用awaitSettled()。
+ * 冻结资产前调用awaitUser()，使余额检查看到该用户此前所有成交，结果与同步清算一致，回放日志时行为不变。
+ */
+public class SettlementPipeline {
+
+    final AssetService assetService;
+    final Worker[] workers;
+
+    /**
+     * @param workers  工作线程数量
+     * @param capacity 每个工作线程的队列容量，必须是2的幂
+     */
+    public SettlementPipeline(AssetService assetService, int workers, int capacity) {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("Invalid workers.");
+        }
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be power of 2.");
+        }
+        this.assetService = assetService;
+        this.workers = new Worker[workers];
+        for (int i = 0; i < workers; i++) {
+            this.workers[i] = new Worker("settlement-" + i, capacity);
+            this.workers[i].start();
+        }
+    }
+
+    /**
+     * 从fromUser的冻结资产转入toUser的可用资产
+     */
+    public void transfer(long fromUser, long toUser, String assetId, long amount) {
+        if (amount != 0) {
+            submit(fromUser, assetId, 0, -amount);
+            submit(toUser, assetId, amount, 0);
+        }
+    }
+
+    /**
+     * 解冻用户的资产
+     */
+    public void unfreeze(long userId, String assetId, long amount) {
+        if (amount != 0) {
+            submit(userId, assetId, amount, -amount);
+        }
+    }
+
+    /**
+     * 等待该用户已提交的记账全部完成
+     */
+    public void awaitUser(long userId) {
+        workerOf(userId).await();
+    }
+
+    /**
+     * 等待所有已提交的记账完成，此后资产状态一致
+     */
+    public void awaitSettled() {
+        for (Worker worker : this.workers) {
+            worker.await();
+        }
+    }
+
+    /**
+     * 执行完已提交的记账后停止所有工作线程
+     */
+    public void shutdown() throws InterruptedException {
+        awaitSettled();
+        for (Worker worker : this.workers) {
+            worker.running = false;
+            worker.thread.join();
+        }
+    }
+
+    void submit(long userId, String assetId, long availableDelta, long frozenDelta) {
+        Worker worker = workerOf(userId);
+        long seq = worker.next();
+        Leg leg = worker.slots[(int) seq & worker.mask];
+        leg.userId = userId;
+        leg.assetId = assetId;
+        leg.availableDelta = availableDelta;
+        leg.frozenDelta = frozenDelta;
+        leg.published = seq;
+    }
+
+    Worker workerOf(long userId) {
+        return this.workers[this.assetService.shardOf(userId) % this.workers.length];
+    }
+
+    /**
+     * 一个账户的单边记账
+     */
+    static final class Leg {
+
+        long userId;
+        String assetId;
+        long availableDelta;
+        long frozenDelta;
+
+        volatile long published = -1;
+    }
+
+    /**
+     * 工作线程及其多生产者、单消费者队列
+     */
+    final class Worker {
+
+        final Leg[] slots;
+        final int mask;
+        final Thread thread;
+
+        // 下一个待分配的序号:
+        final AtomicLong claimed = new AtomicLong(0);
+
+        // 下一个待执行的序号:
+        volatile long consumed = 0;
+
+        volatile boolean running = true;
+
+        // 记账失败时记录，awaitSettled()时抛出:
+        volatile RuntimeException error = null;
+
+        Worker(String name, int capacity) {
+            this.slots = new Leg[capacity];
+            for (int i = 0; i < capacity; i++) {
+                this.slots[i] = new Leg();
+            }
+            this.mask = capacity - 1;
+            this.thread = new Thread(this::run, name);
+            this.thread.setDaemon(true);
+        }
+
+        void start() {
+            this.thread.start();
+        }
+
+        // 队列满时等待:
+        long next() {
+            long seq = this.claimed.getAndIncrement();
+            while (seq - this.consumed >= this.slots.length) {
+                LockSupport.parkNanos(1000);
+            }
+            return seq;
+        }
+
+        void await() {
+            long target = this.claimed.get();
+            int idle = 0;
+            while (this.consumed < target) {
+                idle = idle(idle);
+            }
+            if (this.error != null) {
+                throw this.error;
+            }
+        }
+
+        void run() {
+            int idle = 0;
+            while (this.running) {
+                long seq = this.consumed;
+                Leg leg = this.slots[(int) seq & this.mask];
+                if (leg.published != seq) {
+                    idle = idle(idle);
+                    continue;
+                }
+                idle = 0;
+                try {
+                    assetService.adjust(leg.userId, leg.assetId, leg.availableDelta, leg.frozenDelta);
+                } catch (RuntimeException e) {
+                    this.error = e;
+                }
+                leg.assetId = null;
+                this.consumed = seq + 1;
+            }
+        }
+    }
+
+    // 空闲时先自旋，再让出CPU，最后短暂休眠:
+    static int idle(int counter) {
+        if (counter < 100) {
+            Thread.onSpinWait();
+        } else if (counter < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50_000);
+        }
+        return counter < 200 ? counter + 1 : counter;
+    }
+}
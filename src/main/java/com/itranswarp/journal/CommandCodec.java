@@ -0,0 +1,238 @@
+package com.itranswarp.journal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32C;
+
+import com.itranswarp.order.Direction;
+import com.itranswarp.order.OrderType;
+
+/**
+ * 命令的二进制编码。
+ * 
+ * 每条记录格式为：length(int) crc(int) sequenceId(long) type(byte) 参数...，其中length为sequenceId开始的字节数，
+ * crc为相同范围的CRC32C。length为0表示没有后续记录。
+ */
+public final class CommandCodec {
+
+    public static final int HEADER_SIZE = 8;
+
+    // 单条记录的最大长度:
+    public static final int MAX_RECORD_SIZE = 512;
+
+    static final byte DEPOSIT = 1;
+    static final byte CREATE_ORDER = 2;
+    static final byte CANCEL_ORDER = 3;
+    static final byte AMEND_ORDER = 4;
+    static final byte CANCEL_ALL = 5;
+    // 限价单以外的订单，比CREATE_ORDER多一个订单类型:
+    static final byte CREATE_TYPED_ORDER = 6;
+    static final byte CREATE_STOP_ORDER = 7;
+    static final byte CREATE_ICEBERG_ORDER = 8;
+
+    static final Direction[] DIRECTIONS = Direction.values();
+    static final OrderType[] ORDER_TYPES = OrderType.values();
+
+    private CommandCodec() {
+    }
+
+    public static void encodeDeposit(ByteBuffer buffer, CRC32C crc, long sequenceId, long userId, String assetId, long amount) {
+        int start = begin(buffer, sequenceId, DEPOSIT);
+        buffer.putLong(userId);
+        buffer.putLong(amount);
+        putString(buffer, assetId);
+        end(buffer, crc, start);
+    }
+
+    public static void encodeCreateOrder(ByteBuffer buffer, CRC32C crc, long sequenceId, long userId, String symbol, Direction direction, long price,
+            long amount) {
+        encodeCreateOrder(buffer, crc, sequenceId, userId, symbol, OrderType.LIMIT, direction, price, amount);
+    }
+
+    /**
+     * 限价单仍编码为CREATE_ORDER，其他类型编码为CREATE_TYPED_ORDER
+     */
+    public static void encodeCreateOrder(ByteBuffer buffer, CRC32C crc, long sequenceId, long userId, String symbol, OrderType type, Direction direction,
+            long price, long amount) {
+        int start = begin(buffer, sequenceId, type == OrderType.LIMIT ? CREATE_ORDER : CREATE_TYPED_ORDER);
+        buffer.putLong(userId);
+        putString(buffer, symbol);
+        buffer.put((byte) direction.ordinal());
+        if (type != OrderType.LIMIT) {
+            buffer.put((byte) type.ordinal());
+        }
+        buffer.putLong(price);
+        buffer.putLong(amount);
+        end(buffer, crc, start);
+    }
+
+    public static void encodeCreateStopOrder(ByteBuffer buffer, CRC32C crc, long sequenceId, long userId, String symbol, OrderType type,
+            Direction direction, long price, long amount, long stopPrice) {
+        int start = begin(buffer, sequenceId, CREATE_STOP_ORDER);
+        buffer.putLong(userId);
+        putString(buffer, symbol);
+        buffer.put((byte) direction.ordinal());
+        buffer.put((byte) type.ordinal());
+        buffer.putLong(price);
+        buffer.putLong(amount);
+        buffer.putLong(stopPrice);
+        end(buffer, crc, start);
+    }
+
+    public static void encodeCreateIcebergOrder(ByteBuffer buffer, CRC32C crc, long sequenceId, long userId, String symbol, Direction direction,
+            long price, long amount, long peakAmount) {
+        int start = begin(buffer, sequenceId, CREATE_ICEBERG_ORDER);
+        buffer.putLong(userId);
+        putString(buffer, symbol);
+        buffer.put((byte) direction.ordinal());
+        buffer.putLong(price);
+        buffer.putLong(amount);
+        buffer.putLong(peakAmount);
+        end(buffer, crc, start);
+    }
+
+    public static void encodeCancelOrder(ByteBuffer buffer, CRC32C crc, long sequenceId, long userId, long orderId) {
+        int start = begin(buffer, sequenceId, CANCEL_ORDER);
+        buffer.putLong(userId);
+        buffer.putLong(orderId);
+        end(buffer, crc, start);
+    }
+
+    public static void encodeAmendOrder(ByteBuffer buffer, CRC32C crc, long sequenceId, long userId, long orderId, long amount) {
+        int start = begin(buffer, sequenceId, AMEND_ORDER);
+        buffer.putLong(userId);
+        buffer.putLong(orderId);
+        buffer.putLong(amount);
+        end(buffer, crc, start);
+    }
+
+    /**
+     * direction为null表示撤销两个方向的订单
+     */
+    public static void encodeCancelAll(ByteBuffer buffer, CRC32C crc, long sequenceId, long userId, Direction direction) {
+        int start = begin(buffer, sequenceId, CANCEL_ALL);
+        buffer.putLong(userId);
+        buffer.put(direction == null ? -1 : (byte) direction.ordinal());
+        end(buffer, crc, start);
+    }
+
+    /**
+     * 从buffer当前位置解码一条记录并回调listener。
+     * 
+     * 记录完整且校验通过时返回sequenceId，buffer移动到下一条记录；否则返回-1，buffer位置不变。
+     */
+    public static long decode(ByteBuffer buffer, CRC32C crc, CommandListener listener) {
+        int start = buffer.position();
+        if (buffer.remaining() < HEADER_SIZE) {
+            return -1;
+        }
+        int length = buffer.getInt(start);
+        int checksum = buffer.getInt(start + 4);
+        if (length <= 0 || length > MAX_RECORD_SIZE || buffer.remaining() < HEADER_SIZE + length) {
+            return -1;
+        }
+        if (checksum(buffer, crc, start + HEADER_SIZE, length) != checksum) {
+            return -1;
+        }
+        buffer.position(start + HEADER_SIZE);
+        long sequenceId = buffer.getLong();
+        byte type = buffer.get();
+        switch (type) {
+        case DEPOSIT -> {
+            long userId = buffer.getLong();
+            long amount = buffer.getLong();
+            listener.onDeposit(sequenceId, userId, getString(buffer), amount);
+        }
+        case CREATE_ORDER, CREATE_TYPED_ORDER -> {
+            long userId = buffer.getLong();
+            String symbol = getString(buffer);
+            Direction direction = DIRECTIONS[buffer.get()];
+            OrderType orderType = type == CREATE_ORDER ? OrderType.LIMIT : ORDER_TYPES[buffer.get()];
+            long price = buffer.getLong();
+            long amount = buffer.getLong();
+            listener.onCreateOrder(sequenceId, userId, symbol, orderType, direction, price, amount);
+        }
+        case CREATE_STOP_ORDER -> {
+            long userId = buffer.getLong();
+            String symbol = getString(buffer);
+            Direction direction = DIRECTIONS[buffer.get()];
+            OrderType orderType = ORDER_TYPES[buffer.get()];
+            long price = buffer.getLong();
+            long amount = buffer.getLong();
+            long stopPrice = buffer.getLong();
+            listener.onCreateStopOrder(sequenceId, userId, symbol, orderType, direction, price, amount, stopPrice);
+        }
+        case CREATE_ICEBERG_ORDER -> {
+            long userId = buffer.getLong();
+            String symbol = getString(buffer);
+            Direction direction = DIRECTIONS[buffer.get()];
+            long price = buffer.getLong();
+            long amount = buffer.getLong();
+            long peakAmount = buffer.getLong();
+            listener.onCreateIcebergOrder(sequenceId, userId, symbol, direction, price, amount, peakAmount);
+        }
+        case CANCEL_ORDER -> {
+            long userId = buffer.getLong();
+            long orderId = buffer.getLong();
+            listener.onCancelOrder(sequenceId, userId, orderId);
+        }
+        case AMEND_ORDER -> {
+            long userId = buffer.getLong();
+            long orderId = buffer.getLong();
+            long amount = buffer.getLong();
+            listener.onAmendOrder(sequenceId, userId, orderId, amount);
+        }
+        case CANCEL_ALL -> {
+            long userId = buffer.getLong();
+            byte direction = buffer.get();
+            listener.onCancelAll(sequenceId, userId, direction < 0 ? null : DIRECTIONS[direction]);
+        }
+        default -> throw new IllegalStateException("Invalid command type: " + type);
+        }
+        buffer.position(start + HEADER_SIZE + length);
+        return sequenceId;
+    }
+
+    // 资产id和交易品种等短字符串:
+    static void putString(ByteBuffer buffer, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 127) {
+            throw new IllegalArgumentException("String is too long: " + s);
+        }
+        buffer.put((byte) bytes.length);
+        buffer.put(bytes);
+    }
+
+    static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.get()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static int begin(ByteBuffer buffer, long sequenceId, byte type) {
+        int start = buffer.position();
+        buffer.position(start + HEADER_SIZE);
+        buffer.putLong(sequenceId);
+        buffer.put(type);
+        return start;
+    }
+
+    static void end(ByteBuffer buffer, CRC32C crc, int start) {
+        int length = buffer.position() - start - HEADER_SIZE;
+        buffer.putInt(start + 4, checksum(buffer, crc, start + HEADER_SIZE, length));
+        // 最后写入length，读取方不会看到写了一半的记录:
+        buffer.putInt(start, length);
+    }
+
+    static int checksum(ByteBuffer buffer, CRC32C crc, int offset, int length) {
+        int position = buffer.position();
+        int limit = buffer.limit();
+        buffer.limit(offset + length);
+        buffer.position(offset);
+        crc.reset();
+        crc.update(buffer);
+        buffer.limit(limit);
+        buffer.position(position);
+        return (int) crc.getValue();
+    }
+}
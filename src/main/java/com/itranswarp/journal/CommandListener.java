@@ -0,0 +1,33 @@
+package com.itranswarp.journal;
+
+import com.itranswarp.order.Direction;
+import com.itranswarp.order.OrderType;
+
+/**
+ * 接收解码后的命令。金额和价格均为定点数。
+ */
+public interface CommandListener {
+
+    void onDeposit(long sequenceId, long userId, String assetId, long amount);
+
+    /**
+     * 创建订单，市价单的price为接受时计算的限价
+     */
+    void onCreateOrder(long sequenceId, long userId, String symbol, OrderType type, Direction direction, long price, long amount);
+
+    void onCreateStopOrder(long sequenceId, long userId, String symbol, OrderType type, Direction direction, long price, long amount, long stopPrice);
+
+    /**
+     * 创建冰山限价单，订单簿每次只显示peakAmount
+     */
+    void onCreateIcebergOrder(long sequenceId, long userId, String symbol, Direction direction, long price, long amount, long peakAmount);
+
+    void onCancelOrder(long sequenceId, long userId, long orderId);
+
+    void onAmendOrder(long sequenceId, long userId, long orderId, long amount);
+
+    /**
+     * 撤销用户的所有订单，direction为null时撤销两个方向
+     */
+    void onCancelAll(long sequenceId, long userId, Direction direction);
+}
@@ -0,0 +1,385 @@
+package com.itranswarp.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import com.itranswarp.order.Direction;
+import com.itranswarp.order.OrderType;
+
+/**
+ * 预写命令日志。
+ * 
+ * 日志由固定大小、内存映射的分段文件组成，文件名为该段第一条记录的sequenceId。打开时扫描最后一个分段，遇到不完整或校验失败的记录即视为日志末尾。
+ *
+ * 写入记录只写入内存映射，主机崩溃时未fsync的记录会丢失。写满syncBatch条记录（一批记录计为一条），或最早未fsync的记录已超过syncDelayMillis时，
+ * 下一次写入执行fsync，调用flush()可立即fsync。没有新的写入时不会自动fsync，因此直接使用TradingEngine时返回的结果不保证已持久化；
+ * EnginePipeline在定序线程空闲、达到syncBatch或syncDelayMillis时成组fsync，fsync完成后才撮合并完成future。
+ * syncBatch越大、syncDelayMillis越长，fsync次数越少，确认的延迟越高。
+ */
+public class Journal implements Closeable {
+
+    static final String SUFFIX = ".journal";
+
+    static final CommandListener NOOP = after(Long.MAX_VALUE, null);
+
+    final Path dir;
+    final int segmentSize;
+    final int syncBatch;
+    final long syncDelayNanos;
+    final CRC32C crc = new CRC32C();
+
+    FileChannel channel = null;
+    MappedByteBuffer buffer = null;
+
+    // 最后写入的sequenceId:
+    long lastSequenceId = 0;
+
+    // 尚未fsync的起始位置和记录数:
+    int syncedPosition = 0;
+    int unsynced = 0;
+
+    // 最早未fsync的记录的写入时间:
+    long unsyncedSince = 0;
+
+    // 已fsync的最后一条记录的sequenceId:
+    volatile long syncedSequenceId = 0;
+
+    // 批量写入中，整批只计为一条记录:
+    boolean batching = false;
+
+    // 正在写入的记录的起始位置:
+    int recordStart = 0;
+
+    // 每条记录写入后回调，为null时不回调:
+    RecordListener recordListener = null;
+
+    public Journal(Path dir) {
+        this(dir, 64 * 1024 * 1024, 256);
+    }
+
+    public Journal(Path dir, int segmentSize, int syncBatch) {
+        this(dir, segmentSize, syncBatch, 2);
+    }
+
+    /**
+     * @param syncBatch       最多多少条记录执行一次fsync
+     * @param syncDelayMillis 记录写入后最多等待多久执行fsync
+     */
+    public Journal(Path dir, int segmentSize, int syncBatch, long syncDelayMillis) {
+        if (segmentSize < CommandCodec.MAX_RECORD_SIZE * 2) {
+            throw new IllegalArgumentException("Segment size is too small.");
+        }
+        if (syncBatch <= 0 || syncDelayMillis < 0) {
+            throw new IllegalArgumentException("Invalid sync batch or delay.");
+        }
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.syncBatch = syncBatch;
+        this.syncDelayNanos = syncDelayMillis * 1_000_000;
+        try {
+            Files.createDirectories(dir);
+            List<Path> segments = segments();
+            if (!segments.isEmpty()) {
+                // 定位到最后一个分段的末尾:
+                openSegment(segments.get(segments.size() - 1));
+                long firstSequenceId = firstSequenceId(segments.get(segments.size() - 1));
+                this.lastSequenceId = firstSequenceId - 1;
+                long sequenceId;
+                while ((sequenceId = CommandCodec.decode(this.buffer, this.crc, NOOP)) > 0) {
+                    if (sequenceId != this.lastSequenceId + 1) {
+                        throw new IllegalStateException("Invalid sequence id " + sequenceId + " after " + this.lastSequenceId);
+                    }
+                    this.lastSequenceId = sequenceId;
+                }
+                this.syncedPosition = this.buffer.position();
+            }
+            this.syncedSequenceId = this.lastSequenceId;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public long getLastSequenceId() {
+        return this.lastSequenceId;
+    }
+
+    /**
+     * 已fsync的最后一条记录的sequenceId，可在其他线程读取
+     */
+    public long getSyncedSequenceId() {
+        return this.syncedSequenceId;
+    }
+
+    /**
+     * 是否有记录尚未fsync
+     */
+    public boolean hasUnsynced() {
+        return this.unsynced > 0;
+    }
+
+    /**
+     * 未fsync的记录已达到syncBatch条，或最早的一条已等待超过syncDelayMillis
+     */
+    public boolean isSyncDue() {
+        return this.unsynced > 0 && (this.unsynced >= this.syncBatch || System.nanoTime() - this.unsyncedSince >= this.syncDelayNanos);
+    }
+
+    /**
+     * 设置记录的接收者，此后写入的每条记录都会回调
+     */
+    public void setRecordListener(RecordListener listener) {
+        this.recordListener = listener;
+    }
+
+    /**
+     * 追加一条已编码的记录，例如从主节点复制的记录，src中offset开始的length字节必须是sequenceId的完整记录
+     */
+    public void appendRecord(long sequenceId, ByteBuffer src, int offset, int length) {
+        if (length > CommandCodec.MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("Record is too long.");
+        }
+        prepare(sequenceId);
+        this.buffer.put(this.buffer.position(), src, offset, length);
+        this.buffer.position(this.buffer.position() + length);
+        appended(sequenceId);
+    }
+
+    public void appendDeposit(long sequenceId, long userId, String assetId, long amount) {
+        prepare(sequenceId);
+        CommandCodec.encodeDeposit(this.buffer, this.crc, sequenceId, userId, assetId, amount);
+        appended(sequenceId);
+    }
+
+    public void appendCreateOrder(long sequenceId, long userId, String symbol, Direction direction, long price, long amount) {
+        appendCreateOrder(sequenceId, userId, symbol, OrderType.LIMIT, direction, price, amount);
+    }
+
+    public void appendCreateOrder(long sequenceId, long userId, String symbol, OrderType type, Direction direction, long price, long amount) {
+        prepare(sequenceId);
+        CommandCodec.encodeCreateOrder(this.buffer, this.crc, sequenceId, userId, symbol, type, direction, price, amount);
+        appended(sequenceId);
+    }
+
+    public void appendCreateStopOrder(long sequenceId, long userId, String symbol, OrderType type, Direction direction, long price, long amount,
+            long stopPrice) {
+        prepare(sequenceId);
+        CommandCodec.encodeCreateStopOrder(this.buffer, this.crc, sequenceId, userId, symbol, type, direction, price, amount, stopPrice);
+        appended(sequenceId);
+    }
+
+    public void appendCreateIcebergOrder(long sequenceId, long userId, String symbol, Direction direction, long price, long amount, long peakAmount) {
+        prepare(sequenceId);
+        CommandCodec.encodeCreateIcebergOrder(this.buffer, this.crc, sequenceId, userId, symbol, direction, price, amount, peakAmount);
+        appended(sequenceId);
+    }
+
+    public void appendCancelOrder(long sequenceId, long userId, long orderId) {
+        prepare(sequenceId);
+        CommandCodec.encodeCancelOrder(this.buffer, this.crc, sequenceId, userId, orderId);
+        appended(sequenceId);
+    }
+
+    public void appendAmendOrder(long sequenceId, long userId, long orderId, long amount) {
+        prepare(sequenceId);
+        CommandCodec.encodeAmendOrder(this.buffer, this.crc, sequenceId, userId, orderId, amount);
+        appended(sequenceId);
+    }
+
+    public void appendCancelAll(long sequenceId, long userId, Direction direction) {
+        prepare(sequenceId);
+        CommandCodec.encodeCancelAll(this.buffer, this.crc, sequenceId, userId, direction);
+        appended(sequenceId);
+    }
+
+    /**
+     * 开始批量写入。批量内的记录仍逐条编码和回放，但整批只计为一条待fsync的记录，由endBatch()计数。
+     */
+    public void beginBatch() {
+        this.batching = true;
+    }
+
+    public void endBatch() {
+        this.batching = false;
+        count();
+    }
+
+    /**
+     * 按顺序回放sequenceId大于fromSequenceId的所有记录，返回最后回放的sequenceId
+     */
+    public long replay(long fromSequenceId, CommandListener listener) {
+        long last = fromSequenceId;
+        CommandListener filtered = after(fromSequenceId, listener);
+        try {
+            List<Path> segments = segments();
+            for (int i = 0; i < segments.size(); i++) {
+                // 跳过全部记录都已回放的分段:
+                if (i + 1 < segments.size() && firstSequenceId(segments.get(i + 1)) <= fromSequenceId + 1) {
+                    continue;
+                }
+                try (FileChannel ch = FileChannel.open(segments.get(i), StandardOpenOption.READ)) {
+                    MappedByteBuffer mapped = ch.map(MapMode.READ_ONLY, 0, ch.size());
+                    CRC32C replayCrc = new CRC32C();
+                    long sequenceId;
+                    while ((sequenceId = CommandCodec.decode(mapped, replayCrc, filtered)) > 0) {
+                        if (sequenceId > fromSequenceId) {
+                            if (sequenceId != last + 1) {
+                                throw new IllegalStateException("Invalid sequence id " + sequenceId + " after " + last);
+                            }
+                            last = sequenceId;
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return last;
+    }
+
+    /**
+     * 立即fsync所有已写入的记录
+     */
+    public void flush() {
+        if (this.buffer != null && this.buffer.position() > this.syncedPosition) {
+            this.buffer.force(this.syncedPosition, this.buffer.position() - this.syncedPosition);
+            this.syncedPosition = this.buffer.position();
+        }
+        this.unsynced = 0;
+        this.syncedSequenceId = this.lastSequenceId;
+    }
+
+    @Override
+    public void close() {
+        flush();
+        if (this.channel != null) {
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.channel = null;
+            this.buffer = null;
+        }
+    }
+
+    void prepare(long sequenceId) {
+        if (sequenceId != this.lastSequenceId + 1) {
+            throw new IllegalArgumentException("Invalid sequence id " + sequenceId + " after " + this.lastSequenceId);
+        }
+        // 剩余空间不足时切换到新分段:
+        if (this.buffer == null || this.buffer.remaining() < CommandCodec.MAX_RECORD_SIZE) {
+            flush();
+            try {
+                if (this.channel != null) {
+                    this.channel.close();
+                }
+                openSegment(this.dir.resolve(String.format("%020d", sequenceId) + SUFFIX));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.syncedPosition = 0;
+        }
+        this.recordStart = this.buffer.position();
+    }
+
+    void appended(long sequenceId) {
+        this.lastSequenceId = sequenceId;
+        if (this.recordListener != null) {
+            this.recordListener.onRecord(sequenceId, this.buffer, this.recordStart, this.buffer.position() - this.recordStart);
+        }
+        if (!this.batching) {
+            count();
+        }
+    }
+
+    void count() {
+        if (this.unsynced++ == 0) {
+            this.unsyncedSince = System.nanoTime();
+        }
+        if (isSyncDue()) {
+            flush();
+        }
+    }
+
+    void openSegment(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = this.channel.map(MapMode.READ_WRITE, 0, this.segmentSize);
+    }
+
+    List<Path> segments() throws IOException {
+        try (Stream<Path> stream = Files.list(this.dir)) {
+            return stream.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+        }
+    }
+
+    static long firstSequenceId(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    // 只回调sequenceId大于from的记录:
+    static CommandListener after(long from, CommandListener listener) {
+        return new CommandListener() {
+            @Override
+            public void onDeposit(long sequenceId, long userId, String assetId, long amount) {
+                if (sequenceId > from) {
+                    listener.onDeposit(sequenceId, userId, assetId, amount);
+                }
+            }
+
+            @Override
+            public void onCreateOrder(long sequenceId, long userId, String symbol, OrderType type, Direction direction, long price, long amount) {
+                if (sequenceId > from) {
+                    listener.onCreateOrder(sequenceId, userId, symbol, type, direction, price, amount);
+                }
+            }
+
+            @Override
+            public void onCreateStopOrder(long sequenceId, long userId, String symbol, OrderType type, Direction direction, long price, long amount,
+                    long stopPrice) {
+                if (sequenceId > from) {
+                    listener.onCreateStopOrder(sequenceId, userId, symbol, type, direction, price, amount, stopPrice);
+                }
+            }
+
+            @Override
+            public void onCreateIcebergOrder(long sequenceId, long userId, String symbol, Direction direction, long price, long amount, long peakAmount) {
+                if (sequenceId > from) {
+                    listener.onCreateIcebergOrder(sequenceId, userId, symbol, direction, price, amount, peakAmount);
+                }
+            }
+
+            @Override
+            public void onCancelOrder(long sequenceId, long userId, long orderId) {
+                if (sequenceId > from) {
+                    listener.onCancelOrder(sequenceId, userId, orderId);
+                }
+            }
+
+            @Override
+            public void onAmendOrder(long sequenceId, long userId, long orderId, long amount) {
+                if (sequenceId > from) {
+                    listener.onAmendOrder(sequenceId, userId, orderId, amount);
+                }
+            }
+
+            @Override
+            public void onCancelAll(long sequenceId, long userId, Direction direction) {
+                if (sequenceId > from) {
+                    listener.onCancelAll(sequenceId, userId, direction);
+                }
+            }
+        };
+    }
+}
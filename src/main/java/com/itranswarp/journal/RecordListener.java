@@ -0,0 +1,13 @@
+package com.itranswarp.journal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 接收写入日志的每条记录的完整编码，用于复制日志。
+ *
+ * 在写日志的线程中同步调用，buffer中offset开始的length字节为CommandCodec编码的记录，回调返回后可能被覆盖，实现应复制后尽快返回。
+ */
+public interface RecordListener {
+
+    void onRecord(long sequenceId, ByteBuffer buffer, int offset, int length);
+}
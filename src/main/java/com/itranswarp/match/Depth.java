@@ -0,0 +1,41 @@
+package com.itranswarp.match;
+
+import com.itranswarp.util.FixedPoint;
+
+/**
+ * 按价格档位聚合的买卖盘快照，买盘价格从高到低，卖盘价格从低到高。
+ */
+public class Depth {
+
+    public final String symbol;
+
+    public final long[] bidPrices;
+    public final long[] bidQuantities;
+    public int bids;
+
+    public final long[] askPrices;
+    public final long[] askQuantities;
+    public int asks;
+
+    public Depth(String symbol, int levels) {
+        this.symbol = symbol;
+        this.bidPrices = new long[levels];
+        this.bidQuantities = new long[levels];
+        this.askPrices = new long[levels];
+        this.askQuantities = new long[levels];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(this.symbol).append(" asks:");
+        for (int i = 0; i < this.asks; i++) {
+            sb.append(' ').append(FixedPoint.toBigDecimal(this.askPrices[i])).append('x').append(FixedPoint.toBigDecimal(this.askQuantities[i]));
+        }
+        sb.append(" bids:");
+        for (int i = 0; i < this.bids; i++) {
+            sb.append(' ').append(FixedPoint.toBigDecimal(this.bidPrices[i])).append('x').append(FixedPoint.toBigDecimal(this.bidQuantities[i]));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,78 @@
+package com.itranswarp.match;
+
+import java.util.Arrays;
+
+import com.itranswarp.order.Direction;
+
+/**
+ * 接收MatchEngine发布的行情。
+ *
+ * 在撮合线程中同步调用，参数都是基本类型或已有对象，发布不分配内存。实现应尽快返回，例如写入环形缓冲区后由其他线程处理。
+ * 价格和数量均为定点数。
+ */
+public interface MarketDataListener {
+
+    MarketDataListener NOOP = new MarketDataListener() {
+        @Override
+        public void onLevelChanged(String symbol, Direction direction, long price, long quantity) {
+        }
+
+        @Override
+        public void onLevelRemoved(String symbol, Direction direction, long price) {
+        }
+
+        @Override
+        public void onTrade(String symbol, long takerOrderId, long makerOrderId, Direction takerDirection, long price, long amount) {
+        }
+    };
+
+    /**
+     * 组合多个接收者，每条行情按顺序发布给每个接收者，例如同时输出深度和聚合K线
+     */
+    static MarketDataListener compose(MarketDataListener... listeners) {
+        MarketDataListener[] targets = Arrays.stream(listeners).filter(l -> l != null && l != NOOP).toArray(MarketDataListener[]::new);
+        if (targets.length == 0) {
+            return NOOP;
+        }
+        if (targets.length == 1) {
+            return targets[0];
+        }
+        return new MarketDataListener() {
+            @Override
+            public void onLevelChanged(String symbol, Direction direction, long price, long quantity) {
+                for (MarketDataListener target : targets) {
+                    target.onLevelChanged(symbol, direction, price, quantity);
+                }
+            }
+
+            @Override
+            public void onLevelRemoved(String symbol, Direction direction, long price) {
+                for (MarketDataListener target : targets) {
+                    target.onLevelRemoved(symbol, direction, price);
+                }
+            }
+
+            @Override
+            public void onTrade(String symbol, long takerOrderId, long makerOrderId, Direction takerDirection, long price, long amount) {
+                for (MarketDataListener target : targets) {
+                    target.onTrade(symbol, takerOrderId, makerOrderId, takerDirection, price, amount);
+                }
+            }
+        };
+    }
+
+    /**
+     * 价格档位新增或数量变化，quantity为变化后档位内未成交数量之和
+     */
+    void onLevelChanged(String symbol, Direction direction, long price, long quantity);
+
+    /**
+     * 价格档位已无订单
+     */
+    void onLevelRemoved(String symbol, Direction direction, long price);
+
+    /**
+     * 逐笔成交，每条成交记录一次
+     */
+    void onTrade(String symbol, long takerOrderId, long makerOrderId, Direction takerDirection, long price, long amount);
+}
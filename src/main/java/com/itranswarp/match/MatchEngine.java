@@ -1,18 +1,73 @@
 package com.itranswarp.match;
 
-import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 
 import com.itranswarp.order.Direction;
 import com.itranswarp.order.Order;
 import com.itranswarp.order.OrderStatus;
+import com.itranswarp.order.SelfTradePrevention;
+import com.itranswarp.order.Symbol;
+import com.itranswarp.util.FixedPoint;
 
 public class MatchEngine {
 
-    public final OrderBook buyBook = new OrderBook(Direction.BUY);
-    public final OrderBook sellBook = new OrderBook(Direction.SELL);
-    public BigDecimal marketPrice = BigDecimal.ZERO; // 最新市场价
+    public final Symbol symbol;
+    public final OrderBook buyBook;
+    public final OrderBook sellBook;
+    public long marketPrice = 0; // 最新市场价
 
+    // 未触发的止损单:
+    public final StopBook buyStops;
+    public final StopBook sellStops;
+
+    // 已触发、待撮合的止损单，按序列号排序:
+    final List<Order> triggered = new ArrayList<>();
+    int triggeredIndex = 0;
+
+    // 复用的成交结果:
+    final MatchResult matchResult = new MatchResult();
+
+    static final Comparator<Order> BY_SEQUENCE = Comparator.comparingLong(order -> order.sequenceId);
+
+    // 行情:
+    MarketDataListener listener = MarketDataListener.NOOP;
+
+    public MatchEngine() {
+        this(OrderBookType.PRICE_LEVEL);
+    }
+
+    public MatchEngine(OrderBookType bookType) {
+        this(Symbol.DEFAULT, bookType);
+    }
+
+    public MatchEngine(Symbol symbol, OrderBookType bookType) {
+        this.symbol = symbol;
+        this.buyBook = bookType.create(Direction.BUY);
+        this.sellBook = bookType.create(Direction.SELL);
+        this.buyStops = new StopBook(Direction.BUY);
+        this.sellStops = new StopBook(Direction.SELL);
+    }
+
+    public void setMarketDataListener(MarketDataListener listener) {
+        this.listener = listener == null ? MarketDataListener.NOOP : listener;
+    }
+
+    /**
+     * 撮合订单。返回的MatchResult被复用，只在下一次processOrder之前有效。
+     */
     public MatchResult processOrder(Order order) {
+        if (order.type.isStop() && !order.triggered) {
+            StopBook stops = order.direction == Direction.BUY ? this.buyStops : this.sellStops;
+            // 尚无成交价时不触发:
+            if (this.marketPrice == 0 || !stops.isTriggered(order.stopPrice, this.marketPrice)) {
+                stops.add(order);
+                this.matchResult.reset(order);
+                return this.matchResult;
+            }
+            order.triggered = true;
+        }
         return switch (order.direction) {
         case BUY -> processOrder(order, this.sellBook, this.buyBook);
         case SELL -> processOrder(order, this.buyBook, this.sellBook);
@@ -27,47 +82,132 @@ public class MatchEngine {
      * @return 成交结果
      */
     MatchResult processOrder(Order takerOrder, OrderBook makerBook, OrderBook anotherBook) {
-        MatchResult matchResult = new MatchResult(takerOrder);
+        MatchResult matchResult = this.matchResult;
+        matchResult.reset(takerOrder);
+        switch (takerOrder.type) {
+        case POST_ONLY -> {
+            // 会与对手盘成交时撤销:
+            Order first = makerBook.getFirst();
+            if (first != null && makerBook.isAtOrBetter(first.price, takerOrder.price)) {
+                takerOrder.status = OrderStatus.CANCELLED;
+                return matchResult;
+            }
+        }
+        case FOK -> {
+            // 先按档位检查对手盘数量，不足时不触碰订单簿:
+            if (getFillableQuantity(takerOrder, makerBook) < takerOrder.unfilledAmount) {
+                takerOrder.status = OrderStatus.CANCELLED;
+                return matchResult;
+            }
+        }
+        default -> {
+        }
+        }
+        MarketDataListener listener = this.listener;
+        String symbolName = this.symbol.name;
+        SelfTradePrevention stp = this.symbol.selfTradePrevention;
+        // Taker因防止自成交而撤销:
+        boolean cancelTaker = false;
+        // 最近成交的对手盘档位，档位变化后才发布上一个档位的行情:
+        boolean touched = false;
+        long touchedPrice = 0;
         for (;;) {
             Order makerOrder = makerBook.getFirst();
             if (makerOrder == null) {
                 // 对手盘不存在:
                 break;
             }
-            if (takerOrder.direction == Direction.BUY && takerOrder.price.compareTo(makerOrder.price) < 0) {
+            if (takerOrder.direction == Direction.BUY && takerOrder.price < makerOrder.price) {
                 // 买入订单价格比卖盘第一档价格低:
                 break;
-            } else if (takerOrder.direction == Direction.SELL && takerOrder.price.compareTo(makerOrder.price) > 0) {
+            } else if (takerOrder.direction == Direction.SELL && takerOrder.price > makerOrder.price) {
                 // 卖出订单价格比卖盘第一档价格高:
                 break;
             }
+            boolean selfTrade = stp != SelfTradePrevention.NONE && makerOrder.userId.longValue() == takerOrder.userId.longValue();
+            if (selfTrade && stp == SelfTradePrevention.CANCEL_NEWEST) {
+                cancelTaker = true;
+                break;
+            }
+            if (touched && makerOrder.price != touchedPrice) {
+                // 上一个档位已全部成交:
+                listener.onLevelRemoved(symbolName, makerBook.direction, touchedPrice);
+            }
+            touched = true;
+            touchedPrice = makerOrder.price;
+            if (selfTrade) {
+                if (stp == SelfTradePrevention.CANCEL_OLDEST) {
+                    // 撤销Maker，由清算解冻:
+                    matchResult.addSelfTrade(makerOrder, 0);
+                    makerBook.remove(makerOrder);
+                    makerOrder.status = OrderStatus.CANCELLED;
+                    continue;
+                }
+                // DECREMENT_BOTH，两者减少相同数量，改单一样保持已成交数量:
+                long reduced = Math.min(takerOrder.unfilledAmount, makerOrder.visibleAmount());
+                matchResult.addSelfTrade(makerOrder, reduced);
+                matchResult.addSelfTrade(takerOrder, reduced);
+                makerBook.fill(makerOrder, reduced);
+                makerOrder.amount -= reduced;
+                if (makerOrder.unfilledAmount == 0) {
+                    makerOrder.status = OrderStatus.CANCELLED;
+                    makerBook.remove(makerOrder);
+                } else if (makerOrder.needRefill()) {
+                    refill(makerBook, makerOrder);
+                }
+                takerOrder.unfilledAmount -= reduced;
+                takerOrder.amount -= reduced;
+                if (takerOrder.unfilledAmount == 0) {
+                    takerOrder.status = OrderStatus.CANCELLED;
+                    break;
+                }
+                continue;
+            }
             // 以Maker价格成交:
             this.marketPrice = makerOrder.price;
-            // 待成交数量为两者较小值:
-            BigDecimal matchedAmount = takerOrder.unfilledAmount.min(makerOrder.unfilledAmount);
+            // 待成交数量为两者较小值，冰山单只成交显示的部分:
+            long matchedAmount = Math.min(takerOrder.unfilledAmount, makerOrder.visibleAmount());
             // 成交记录:
             matchResult.add(makerOrder.price, matchedAmount, makerOrder);
+            listener.onTrade(symbolName, takerOrder.sequenceId, makerOrder.sequenceId, takerOrder.direction, makerOrder.price, matchedAmount);
             // 更新成交后的订单数量:
-            takerOrder.unfilledAmount = takerOrder.unfilledAmount.subtract(matchedAmount);
-            makerOrder.unfilledAmount = makerOrder.unfilledAmount.subtract(matchedAmount);
+            takerOrder.unfilledAmount -= matchedAmount;
+            makerBook.fill(makerOrder, matchedAmount);
             // 对手盘完全成交后，从订单簿中删除:
-            if (makerOrder.unfilledAmount.signum() == 0) {
+            if (makerOrder.unfilledAmount == 0) {
                 makerOrder.status = OrderStatus.FULLY_FILLED;
                 makerBook.remove(makerOrder);
             } else {
                 // 对手盘部分成交:
                 makerOrder.status = OrderStatus.PARCIAL_FILLED;
+                if (makerOrder.needRefill()) {
+                    refill(makerBook, makerOrder);
+                }
             }
             // Taker订单完全成交后，退出循环:
-            if (takerOrder.unfilledAmount.signum() == 0) {
+            if (takerOrder.unfilledAmount == 0) {
                 takerOrder.status = OrderStatus.FULLY_FILLED;
                 break;
             }
         }
-        // Taker订单未完全成交时，放入订单簿:
-        if (takerOrder.unfilledAmount.signum() > 0) {
+        if (touched) {
+            // 最后成交的档位:
+            Order first = makerBook.getFirst();
+            if (first != null && first.price == touchedPrice) {
+                listener.onLevelChanged(symbolName, makerBook.direction, touchedPrice, makerBook.getLevelQuantity(first));
+            } else {
+                listener.onLevelRemoved(symbolName, makerBook.direction, touchedPrice);
+            }
+        }
+        if (takerOrder.unfilledAmount > 0 && (cancelTaker || takerOrder.type.isImmediate())) {
+            // 未成交部分撤销，由清算解冻:
+            takerOrder.status = OrderStatus.CANCELLED;
+        } else if (takerOrder.unfilledAmount > 0) {
+            // Taker订单未完全成交时，放入订单簿:
+            takerOrder.hide();
             anotherBook.add(takerOrder);
-            if (takerOrder.unfilledAmount.compareTo(takerOrder.amount) < 0) {
+            listener.onLevelChanged(symbolName, anotherBook.direction, takerOrder.price, anotherBook.getLevelQuantity(takerOrder));
+            if (takerOrder.unfilledAmount < takerOrder.amount) {
                 // 有部分成交:
                 takerOrder.status = OrderStatus.PARCIAL_FILLED;
             }
@@ -75,19 +215,187 @@ public class MatchEngine {
         return matchResult;
     }
 
+    /**
+     * FOK订单检查的对手盘数量，累计达到Taker的未成交数量后不再继续。冰山单在同一次撮合中补充，因此累计全部未成交数量。
+     *
+     * 开启防止自成交时逐个订单累计：CANCEL_OLDEST撤销同一用户的挂单后继续撮合，因此跳过这些挂单；
+     * CANCEL_NEWEST和DECREMENT_BOTH遇到同一用户的挂单时Taker被撤销或减少，因此只累计之前的挂单。
+     * 同一档位中，冰山单补充后排到同一用户的挂单之后，因此该档位只累计之前订单显示的数量。
+     */
+    long getFillableQuantity(Order takerOrder, OrderBook makerBook) {
+        SelfTradePrevention stp = this.symbol.selfTradePrevention;
+        if (stp == SelfTradePrevention.NONE) {
+            return makerBook.getQuantity(takerOrder.price, takerOrder.unfilledAmount);
+        }
+        long quantity = 0;
+        // 当前档位之前各档位的数量:
+        long levelPrice = 0;
+        long levelVisible = 0;
+        long levelUnfilled = 0;
+        for (Order makerOrder : makerBook) {
+            if (makerOrder.price != levelPrice) {
+                quantity += levelUnfilled;
+                levelPrice = makerOrder.price;
+                levelVisible = 0;
+                levelUnfilled = 0;
+            }
+            if (quantity >= takerOrder.unfilledAmount || !makerBook.isAtOrBetter(makerOrder.price, takerOrder.price)) {
+                return quantity;
+            }
+            if (makerOrder.userId.longValue() == takerOrder.userId.longValue()) {
+                if (stp == SelfTradePrevention.CANCEL_OLDEST) {
+                    continue;
+                }
+                return quantity + levelVisible;
+            }
+            levelVisible += makerOrder.visibleAmount();
+            levelUnfilled += makerOrder.unfilledAmount;
+        }
+        return quantity + levelUnfilled;
+    }
+
+    /**
+     * 冰山单显示的部分全部成交后补充显示数量，排到同价格档位的最后，与新订单一样失去原来的时间优先
+     */
+    void refill(OrderBook book, Order order) {
+        book.remove(order);
+        order.hide();
+        book.add(order);
+    }
+
+    /**
+     * 返回下一个被最新成交价触发的止损单，没有时返回null。
+     *
+     * 每次撮合后应反复调用并撮合返回的订单直到返回null。同一成交价触发的止损单按序列号依次返回，
+     * 全部返回后再按此时的成交价查找后续触发的止损单，因此连锁触发的顺序是确定的。
+     */
+    public Order pollTriggered() {
+        if (this.triggeredIndex < this.triggered.size()) {
+            return this.triggered.get(this.triggeredIndex++);
+        }
+        if (this.triggeredIndex > 0) {
+            this.triggered.clear();
+            this.triggeredIndex = 0;
+        }
+        if (this.marketPrice == 0) {
+            return null;
+        }
+        int n = this.buyStops.poll(this.marketPrice, this.triggered);
+        n += this.sellStops.poll(this.marketPrice, this.triggered);
+        if (n == 0) {
+            return null;
+        }
+        this.triggered.sort(BY_SEQUENCE);
+        for (Order order : this.triggered) {
+            order.triggered = true;
+        }
+        return this.triggered.get(this.triggeredIndex++);
+    }
+
+    /**
+     * 从对手盘最优价格开始，能成交amount的最差价格，对手盘数量不足时返回最差价格，对手盘为空时返回0。
+     * 多个交易品种并行撮合时，只能在该品种的撮合线程或撮合线程空闲时调用。
+     */
+    public long getSweepPrice(Direction direction, long amount) {
+        return switch (direction) {
+        case BUY -> this.sellBook.getSweepPrice(amount);
+        case SELL -> this.buyBook.getSweepPrice(amount);
+        default -> throw new IllegalArgumentException("Invalid direction.");
+        };
+    }
+
+    /**
+     * 从快照恢复订单簿中的订单，必须按订单簿中的先后顺序恢复
+     */
+    public void restore(Order order) {
+        if (order.type.isStop() && !order.triggered) {
+            StopBook stops = order.direction == Direction.BUY ? this.buyStops : this.sellStops;
+            if (!stops.add(order)) {
+                throw new IllegalArgumentException("Duplicate order: " + order);
+            }
+            return;
+        }
+        OrderBook book = order.direction == Direction.BUY ? this.buyBook : this.sellBook;
+        if (!book.add(order)) {
+            throw new IllegalArgumentException("Duplicate order: " + order);
+        }
+    }
+
     public void cancel(Order order) {
+        if (order.type.isStop() && !order.triggered) {
+            // 未触发的止损单不在订单簿中，不影响行情:
+            if (!(order.direction == Direction.BUY ? this.buyStops : this.sellStops).remove(order)) {
+                throw new IllegalArgumentException("Order not found in stop book.");
+            }
+            order.status = OrderStatus.CANCELLED;
+            return;
+        }
         OrderBook book = order.direction == Direction.BUY ? this.buyBook : this.sellBook;
-        if (!book.remove(order)) {
+        if (!book.exist(order)) {
             throw new IllegalArgumentException("Order not found in order book.");
         }
+        long quantity = book.getLevelQuantity(order) - order.visibleAmount();
+        book.remove(order);
         order.status = OrderStatus.CANCELLED;
+        publishLevel(book, order.price, quantity);
+    }
+
+    /**
+     * 减少订单簿中订单的数量，订单保持原来的排队位置
+     *
+     * @param amount 新的订单数量，必须小于原数量且大于已成交数量
+     */
+    public void amend(Order order, long amount) {
+        if (order.type.isStop() && !order.triggered) {
+            if (!(order.direction == Direction.BUY ? this.buyStops : this.sellStops).exist(order) || amount >= order.amount || amount <= 0) {
+                throw new IllegalArgumentException("Invalid amount.");
+            }
+            order.unfilledAmount -= order.amount - amount;
+            order.amount = amount;
+            return;
+        }
+        OrderBook book = order.direction == Direction.BUY ? this.buyBook : this.sellBook;
+        if (!book.exist(order)) {
+            throw new IllegalArgumentException("Order not found in order book.");
+        }
+        long filled = order.amount - order.unfilledAmount;
+        if (amount >= order.amount || amount <= filled) {
+            throw new IllegalArgumentException("Invalid amount.");
+        }
+        // 冰山单先减少隐藏的数量，不影响订单簿:
+        long reduced = order.amount - amount;
+        long hidden = Math.min(reduced, order.hiddenAmount);
+        book.reduceHidden(order, hidden);
+        if (reduced > hidden) {
+            book.fill(order, reduced - hidden);
+        }
+        order.amount = amount;
+        publishLevel(book, order.price, book.getLevelQuantity(order));
+    }
+
+    void publishLevel(OrderBook book, long price, long quantity) {
+        if (quantity == 0) {
+            this.listener.onLevelRemoved(this.symbol.name, book.direction, price);
+        } else {
+            this.listener.onLevelChanged(this.symbol.name, book.direction, price, quantity);
+        }
+    }
+
+    /**
+     * 返回买卖盘最优的最多levels个价格档位，必须在撮合线程中调用
+     */
+    public Depth getDepth(int levels) {
+        Depth depth = new Depth(this.symbol.name, levels);
+        depth.bids = this.buyBook.getDepth(levels, depth.bidPrices, depth.bidQuantities);
+        depth.asks = this.sellBook.getDepth(levels, depth.askPrices, depth.askQuantities);
+        return depth;
     }
 
     public void debug() {
-        System.out.println("---------- match engine ----------");
+        System.out.println("---------- match engine " + this.symbol.name + " ----------");
         System.out.println(this.sellBook);
         System.out.println("----------");
-        System.out.println(this.marketPrice);
+        System.out.println(FixedPoint.toBigDecimal(this.marketPrice));
         System.out.println("----------");
         System.out.println(this.buyBook);
         System.out.println("---------- // match engine ----------");
@@ -1,25 +1,27 @@
 package com.itranswarp.match;
 
-import java.math.BigDecimal;
-
 import com.itranswarp.order.Order;
+import com.itranswarp.util.FixedPoint;
 
+/**
+ * 一条成交记录，由MatchResult.get()复用，只在下一次get()之前有效。
+ */
 public class MatchRecord {
 
-    public final BigDecimal price;
-    public final BigDecimal amount;
-    public final Order takerOrder;
-    public final Order makerOrder;
+    public long price;
+    public long amount;
+    public Order takerOrder;
+    public Order makerOrder;
+
+    MatchRecord() {
+    }
 
-    public MatchRecord(BigDecimal price, BigDecimal amount, Order takerOrder, Order makerOrder) {
-        this.price = price;
-        this.amount = amount;
-        this.takerOrder = takerOrder;
-        this.makerOrder = makerOrder;
+    static String format(long price, long amount) {
+        return String.format("[%.2f, %.2f]", FixedPoint.toBigDecimal(price), FixedPoint.toBigDecimal(amount));
     }
 
     @Override
     public String toString() {
-        return String.format("[%.2f, %.2f]", this.price, this.amount);
+        return format(this.price, this.amount);
     }
 }
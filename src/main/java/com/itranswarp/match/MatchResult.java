@@ -1,29 +1,175 @@
 package com.itranswarp.match;
 
-import java.math.BigDecimal;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Objects;
 
 import com.itranswarp.order.Order;
 
+/**
+ * 一次撮合的成交结果。
+ *
+ * MatchEngine复用同一个MatchResult，返回的结果只在下一次processOrder之前有效，需要保留时调用copy()。
+ * 成交记录按列存储在预分配的数组中，容量不足时扩容，稳定后撮合不再分配内存。
+ */
 public class MatchResult {
 
-    public final Order takerOrder;
-    public final List<MatchRecord> matchRecords = new ArrayList<>();
+    static final int INITIAL_CAPACITY = 64;
+
+    public Order takerOrder;
+
+    int size = 0;
+    long[] prices;
+    long[] amounts;
+    Order[] makerOrders;
+
+    // 防止自成交而减少或撤销的订单及减少的未成交数量，撤销的Maker数量为0:
+    int selfTrades = 0;
+    Order[] selfTradeOrders = new Order[4];
+    long[] selfTradeAmounts = new long[4];
+
+    // 复用的成交记录视图:
+    final MatchRecord record = new MatchRecord();
+
+    public MatchResult() {
+        this(null, INITIAL_CAPACITY);
+    }
 
     public MatchResult(Order takerOrder) {
+        this(takerOrder, INITIAL_CAPACITY);
+    }
+
+    MatchResult(Order takerOrder, int capacity) {
+        this.takerOrder = takerOrder;
+        this.prices = new long[capacity];
+        this.amounts = new long[capacity];
+        this.makerOrders = new Order[capacity];
+    }
+
+    /**
+     * 清空成交记录，开始新的撮合
+     */
+    public void reset(Order takerOrder) {
+        // 释放对Maker的引用:
+        Arrays.fill(this.makerOrders, 0, this.size, null);
+        Arrays.fill(this.selfTradeOrders, 0, this.selfTrades, null);
+        this.size = 0;
+        this.selfTrades = 0;
         this.takerOrder = takerOrder;
     }
 
-    public void add(BigDecimal price, BigDecimal matchedAmount, Order makerOrder) {
-        matchRecords.add(new MatchRecord(price, matchedAmount, this.takerOrder, makerOrder));
+    public void add(long price, long matchedAmount, Order makerOrder) {
+        if (this.size == this.prices.length) {
+            int capacity = this.size * 2;
+            this.prices = Arrays.copyOf(this.prices, capacity);
+            this.amounts = Arrays.copyOf(this.amounts, capacity);
+            this.makerOrders = Arrays.copyOf(this.makerOrders, capacity);
+        }
+        this.prices[this.size] = price;
+        this.amounts[this.size] = matchedAmount;
+        this.makerOrders[this.size] = makerOrder;
+        this.size++;
+    }
+
+    /**
+     * 记录防止自成交而减少或撤销的订单
+     *
+     * @param reducedAmount 减少的未成交数量，撤销的Maker未成交数量不变，为0
+     */
+    public void addSelfTrade(Order order, long reducedAmount) {
+        if (this.selfTrades == this.selfTradeOrders.length) {
+            int capacity = this.selfTrades * 2;
+            this.selfTradeOrders = Arrays.copyOf(this.selfTradeOrders, capacity);
+            this.selfTradeAmounts = Arrays.copyOf(this.selfTradeAmounts, capacity);
+        }
+        this.selfTradeOrders[this.selfTrades] = order;
+        this.selfTradeAmounts[this.selfTrades] = reducedAmount;
+        this.selfTrades++;
+    }
+
+    public int selfTradeSize() {
+        return this.selfTrades;
+    }
+
+    public Order getSelfTradeOrder(int index) {
+        Objects.checkIndex(index, this.selfTrades);
+        return this.selfTradeOrders[index];
+    }
+
+    public long getSelfTradeAmount(int index) {
+        Objects.checkIndex(index, this.selfTrades);
+        return this.selfTradeAmounts[index];
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public long getPrice(int index) {
+        checkIndex(index);
+        return this.prices[index];
+    }
+
+    public long getAmount(int index) {
+        checkIndex(index);
+        return this.amounts[index];
+    }
+
+    public Order getMakerOrder(int index) {
+        checkIndex(index);
+        return this.makerOrders[index];
+    }
+
+    /**
+     * 返回第index条成交记录。返回的是复用的视图，下一次调用get()后失效。
+     */
+    public MatchRecord get(int index) {
+        checkIndex(index);
+        MatchRecord r = this.record;
+        r.price = this.prices[index];
+        r.amount = this.amounts[index];
+        r.takerOrder = this.takerOrder;
+        r.makerOrder = this.makerOrders[index];
+        return r;
+    }
+
+    /**
+     * 复制一个独立的MatchResult，不受后续撮合影响
+     */
+    public MatchResult copy() {
+        MatchResult result = new MatchResult(this.takerOrder, Math.max(1, this.size));
+        System.arraycopy(this.prices, 0, result.prices, 0, this.size);
+        System.arraycopy(this.amounts, 0, result.amounts, 0, this.size);
+        System.arraycopy(this.makerOrders, 0, result.makerOrders, 0, this.size);
+        result.size = this.size;
+        for (int i = 0; i < this.selfTrades; i++) {
+            result.addSelfTrade(this.selfTradeOrders[i], this.selfTradeAmounts[i]);
+        }
+        return result;
+    }
+
+    void checkIndex(int index) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + this.size);
+        }
     }
 
     @Override
     public String toString() {
-        if (matchRecords.isEmpty()) {
+        if (this.size == 0) {
             return "no matched.";
         }
-        return matchRecords.size() + " matched: " + String.join(", ", this.matchRecords.stream().map(MatchRecord::toString).toArray(String[]::new));
+        StringBuilder sb = new StringBuilder();
+        sb.append(this.size).append(" matched: ");
+        for (int i = 0; i < this.size; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(MatchRecord.format(this.prices[i], this.amounts[i]));
+        }
+        return sb.toString();
     }
 }
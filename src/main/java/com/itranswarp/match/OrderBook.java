@@ -2,78 +2,111 @@ package com.itranswarp.match;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
-import java.util.Map.Entry;
-
-import java.util.TreeMap;
 
 import com.itranswarp.order.Direction;
 import com.itranswarp.order.Order;
 
-public class OrderBook {
-
-    private static final Comparator<OrderKey> SORT_SELL = new Comparator<>() {
-        @Override
-        public int compare(OrderKey o1, OrderKey o2) {
-            // 价格低在前:
-            int cmp = o1.price.compareTo(o2.price);
-            // 时间早在前:
-            return cmp == 0 ? Long.compare(o1.sequenceId, o2.sequenceId) : cmp;
-        }
-    };
-
-    private static final Comparator<OrderKey> SORT_BUY = new Comparator<>() {
-        @Override
-        public int compare(OrderKey o1, OrderKey o2) {
-            // 价格高在前:
-            int cmp = o2.price.compareTo(o1.price);
-            // 时间早在前:
-            return cmp == 0 ? Long.compare(o1.sequenceId, o2.sequenceId) : cmp;
-        }
-    };
+/**
+ * 订单簿，买盘按价格从高到低，卖盘按价格从低到高，同价格按时间先后排序。
+ */
+public abstract class OrderBook implements Iterable<Order> {
 
     public final Direction direction;
-    public final TreeMap<OrderKey, Order> book;
 
-    public OrderBook(Direction direction) {
+    protected OrderBook(Direction direction) {
         this.direction = direction;
-        this.book = new TreeMap<>(direction == Direction.BUY ? SORT_BUY : SORT_SELL);
     }
 
-    public Order getFirst() {
-        return this.book.isEmpty() ? null : this.book.firstEntry().getValue();
+    /**
+     * 返回排在最前面的订单，订单簿为空时返回null
+     */
+    public abstract Order getFirst();
+
+    public abstract boolean remove(Order order);
+
+    public abstract boolean add(Order order);
+
+    public abstract boolean exist(Order order);
+
+    public abstract int size();
+
+    /**
+     * 订单所在价格档位显示的未成交数量之和，订单必须在订单簿中
+     */
+    public abstract long getLevelQuantity(Order order);
+
+    /**
+     * 把最优的最多n个价格档位写入prices和quantities，返回档位数
+     */
+    public abstract int getDepth(int n, long[] prices, long[] quantities);
+
+    /**
+     * 价格不劣于limitPrice的订单的未成交数量之和，累计达到max后不再继续。
+     *
+     * 冰山单在同一次撮合中补充显示数量，因此包括隐藏的部分，用于FOK检查。
+     */
+    public long getQuantity(long limitPrice, long max) {
+        long quantity = 0;
+        for (Order order : this) {
+            if (quantity >= max || !isAtOrBetter(order.price, limitPrice)) {
+                break;
+            }
+            quantity += order.unfilledAmount;
+        }
+        return quantity;
     }
 
-    public boolean remove(Order order) {
-        return this.book.remove(new OrderKey(order.sequenceId, order.price)) != null;
+    /**
+     * 从最优价格开始累计未成交数量(包括冰山单隐藏的部分)达到quantity时的价格，数量不足时返回最差价格，订单簿为空时返回0
+     */
+    public long getSweepPrice(long quantity) {
+        long price = 0;
+        long total = 0;
+        for (Order order : this) {
+            if (total >= quantity) {
+                break;
+            }
+            price = order.price;
+            total += order.unfilledAmount;
+        }
+        return price;
     }
 
-    public boolean add(Order order) {
-        return this.book.put(new OrderKey(order.sequenceId, order.price), order) == null;
+    /**
+     * price是否等于或优于than，买盘价格高为优，卖盘价格低为优
+     */
+    public boolean isAtOrBetter(long price, long than) {
+        return this.direction == Direction.BUY ? price >= than : price <= than;
     }
 
-    public boolean exist(Order order) {
-        return this.book.containsKey(new OrderKey(order.sequenceId, order.price));
+    /**
+     * 订单簿中的订单部分成交或改单，减少未成交数量并保持排队位置，减少的数量不能超过显示的数量
+     */
+    public void fill(Order order, long matchedAmount) {
+        order.unfilledAmount -= matchedAmount;
     }
 
-    public int size() {
-        return this.book.size();
+    /**
+     * 订单簿中的冰山单改单，减少隐藏的数量，显示的数量和排队位置不变
+     */
+    public void reduceHidden(Order order, long amount) {
+        order.hiddenAmount -= amount;
+        order.unfilledAmount -= amount;
     }
 
     @Override
     public String toString() {
-        if (this.book.isEmpty()) {
+        if (size() == 0) {
             return "(empty)";
         }
         List<String> orders = new ArrayList<>(10);
-        for (Entry<OrderKey, Order> entry : this.book.entrySet()) {
-            orders.add(entry.getValue().toString());
+        for (Order order : this) {
+            orders.add(order.toString());
         }
         if (direction == Direction.SELL) {
             Collections.reverse(orders);
         }
         return String.join("\n", orders);
     }
-
 }
@@ -0,0 +1,23 @@
+package com.itranswarp.match;
+
+import com.itranswarp.order.Direction;
+
+public enum OrderBookType {
+
+    /**
+     * 每个订单按(价格, 序列号)存储在TreeMap中
+     */
+    TREE_MAP,
+
+    /**
+     * 按价格档位存储，每个档位是一个FIFO双向链表
+     */
+    PRICE_LEVEL;
+
+    public OrderBook create(Direction direction) {
+        return switch (this) {
+        case TREE_MAP -> new TreeMapOrderBook(direction);
+        case PRICE_LEVEL -> new PriceLevelOrderBook(direction);
+        };
+    }
+}
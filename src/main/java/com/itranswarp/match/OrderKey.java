@@ -1,13 +1,11 @@
 package com.itranswarp.match;
 
-import java.math.BigDecimal;
-
 public class OrderKey {
 
     public final long sequenceId;
-    public final BigDecimal price;
+    public final long price;
 
-    public OrderKey(long sequenceId, BigDecimal price) {
+    public OrderKey(long sequenceId, long price) {
         this.sequenceId = sequenceId;
         this.price = price;
     }
@@ -0,0 +1,70 @@
+package com.itranswarp.match;
+
+import com.itranswarp.order.Order;
+
+/**
+ * 价格档位，档位内的订单按时间先后组成双向链表。
+ */
+public class PriceLevel {
+
+    public final long price;
+
+    // 价格索引的键，删除档位时无需装箱:
+    final Long key;
+
+    Order head;
+    Order tail;
+
+    // 档位内所有订单显示的未成交数量之和，用于买卖盘和行情:
+    long quantity;
+    // 档位内所有订单包括冰山单隐藏部分的未成交数量之和，用于FOK检查和市价单定价:
+    long unfilled;
+    int size;
+
+    PriceLevel(long price) {
+        this.price = price;
+        this.key = price;
+    }
+
+    public long getQuantity() {
+        return quantity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    void append(Order order) {
+        order.level = this;
+        order.prev = this.tail;
+        order.next = null;
+        if (this.tail == null) {
+            this.head = order;
+        } else {
+            this.tail.next = order;
+        }
+        this.tail = order;
+        this.quantity += order.visibleAmount();
+        this.unfilled += order.unfilledAmount;
+        this.size++;
+    }
+
+    void unlink(Order order) {
+        if (order.prev == null) {
+            this.head = order.next;
+        } else {
+            order.prev.next = order.next;
+        }
+        if (order.next == null) {
+            this.tail = order.prev;
+        } else {
+            order.next.prev = order.prev;
+        }
+        order.level = null;
+        order.prev = null;
+        order.next = null;
+        this.quantity -= order.visibleAmount();
+        this.unfilled -= order.unfilledAmount;
+        this.size--;
+    }
+}
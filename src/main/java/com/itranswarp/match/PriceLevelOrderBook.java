@@ -0,0 +1,180 @@
+package com.itranswarp.match;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+import com.itranswarp.order.Direction;
+import com.itranswarp.order.Order;
+
+/**
+ * 按价格档位组织的订单簿。
+ * 
+ * 价格档位按价格排序，订单通过Order.level直接定位到所在档位，因此获取最优订单、撤单和改单都是O(1)且不分配内存，
+ * 只有新建或删除价格档位时才需要访问价格索引。
+ */
+public class PriceLevelOrderBook extends OrderBook {
+
+    final TreeMap<Long, PriceLevel> levels;
+
+    // 最优价格档位:
+    PriceLevel best = null;
+
+    int size = 0;
+
+    public PriceLevelOrderBook(Direction direction) {
+        super(direction);
+        // 买盘价格高在前，卖盘价格低在前:
+        this.levels = direction == Direction.BUY ? new TreeMap<>(Collections.reverseOrder()) : new TreeMap<>();
+    }
+
+    @Override
+    public Order getFirst() {
+        return this.best == null ? null : this.best.head;
+    }
+
+    @Override
+    public boolean remove(Order order) {
+        if (!exist(order)) {
+            return false;
+        }
+        PriceLevel level = order.level;
+        level.unlink(order);
+        this.size--;
+        if (level.size == 0) {
+            // 删除空档位:
+            this.levels.remove(level.key);
+            if (level == this.best) {
+                this.best = this.levels.isEmpty() ? null : this.levels.firstEntry().getValue();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean add(Order order) {
+        if (order.level != null) {
+            return false;
+        }
+        PriceLevel level = this.levels.get(order.price);
+        if (level == null) {
+            level = new PriceLevel(order.price);
+            this.levels.put(order.price, level);
+            if (this.best == null || isBetter(order.price, this.best.price)) {
+                this.best = level;
+            }
+        }
+        level.append(order);
+        this.size++;
+        return true;
+    }
+
+    @Override
+    public boolean exist(Order order) {
+        return order.level != null && order.direction == this.direction;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public void fill(Order order, long matchedAmount) {
+        super.fill(order, matchedAmount);
+        order.level.quantity -= matchedAmount;
+        order.level.unfilled -= matchedAmount;
+    }
+
+    @Override
+    public void reduceHidden(Order order, long amount) {
+        super.reduceHidden(order, amount);
+        order.level.unfilled -= amount;
+    }
+
+    @Override
+    public long getLevelQuantity(Order order) {
+        return order.level.quantity;
+    }
+
+    @Override
+    public int getDepth(int n, long[] prices, long[] quantities) {
+        int count = 0;
+        for (PriceLevel level : this.levels.values()) {
+            if (count >= n) {
+                break;
+            }
+            prices[count] = level.price;
+            quantities[count] = level.quantity;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 按档位累计，复杂度与经过的档位数成正比
+     */
+    @Override
+    public long getQuantity(long limitPrice, long max) {
+        long quantity = 0;
+        for (PriceLevel level : this.levels.values()) {
+            if (quantity >= max || !isAtOrBetter(level.price, limitPrice)) {
+                break;
+            }
+            quantity += level.unfilled;
+        }
+        return quantity;
+    }
+
+    @Override
+    public long getSweepPrice(long quantity) {
+        long price = 0;
+        long total = 0;
+        for (PriceLevel level : this.levels.values()) {
+            if (total >= quantity) {
+                break;
+            }
+            price = level.price;
+            total += level.unfilled;
+        }
+        return price;
+    }
+
+    /**
+     * 返回最优价格档位，订单簿为空时返回null
+     */
+    public PriceLevel getBestLevel() {
+        return this.best;
+    }
+
+    boolean isBetter(long price, long than) {
+        return this.direction == Direction.BUY ? price > than : price < than;
+    }
+
+    @Override
+    public Iterator<Order> iterator() {
+        Iterator<PriceLevel> levelIterator = this.levels.values().iterator();
+        return new Iterator<>() {
+            Order next = null;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && levelIterator.hasNext()) {
+                    next = levelIterator.next().head;
+                }
+                return next != null;
+            }
+
+            @Override
+            public Order next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Order order = next;
+                next = order.next;
+                return order;
+            }
+        };
+    }
+}
@@ -0,0 +1,90 @@
+package com.itranswarp.match;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import com.itranswarp.order.Direction;
+import com.itranswarp.order.Order;
+
+/**
+ * 未触发的止损单，按触发的先后顺序排序。
+ *
+ * 买入止损单在最新成交价不低于止损价时触发，止损价低的在前；卖出止损单在最新成交价不高于止损价时触发，止损价高的在前。
+ * 同止损价按序列号排序。已触发的止损单总是排在最前面，查找复杂度为O(log n + k)。
+ */
+public class StopBook implements Iterable<Order> {
+
+    // OrderKey.price为止损价:
+    private static final Comparator<OrderKey> SORT_BUY = new Comparator<>() {
+        @Override
+        public int compare(OrderKey o1, OrderKey o2) {
+            // 止损价低在前:
+            int cmp = Long.compare(o1.price, o2.price);
+            return cmp == 0 ? Long.compare(o1.sequenceId, o2.sequenceId) : cmp;
+        }
+    };
+
+    private static final Comparator<OrderKey> SORT_SELL = new Comparator<>() {
+        @Override
+        public int compare(OrderKey o1, OrderKey o2) {
+            // 止损价高在前:
+            int cmp = Long.compare(o2.price, o1.price);
+            return cmp == 0 ? Long.compare(o1.sequenceId, o2.sequenceId) : cmp;
+        }
+    };
+
+    public final Direction direction;
+
+    final TreeMap<OrderKey, Order> orders;
+
+    public StopBook(Direction direction) {
+        this.direction = direction;
+        this.orders = new TreeMap<>(direction == Direction.BUY ? SORT_BUY : SORT_SELL);
+    }
+
+    public boolean add(Order order) {
+        return this.orders.put(new OrderKey(order.sequenceId, order.stopPrice), order) == null;
+    }
+
+    public boolean remove(Order order) {
+        return this.orders.remove(new OrderKey(order.sequenceId, order.stopPrice)) != null;
+    }
+
+    public boolean exist(Order order) {
+        return this.orders.containsKey(new OrderKey(order.sequenceId, order.stopPrice));
+    }
+
+    public int size() {
+        return this.orders.size();
+    }
+
+    /**
+     * 最新成交价为marketPrice时，止损价为stopPrice的订单是否触发
+     */
+    public boolean isTriggered(long stopPrice, long marketPrice) {
+        return this.direction == Direction.BUY ? marketPrice >= stopPrice : marketPrice <= stopPrice;
+    }
+
+    /**
+     * 删除最新成交价为marketPrice时触发的所有止损单，按止损价的先后加入triggered，返回触发的数量
+     */
+    public int poll(long marketPrice, List<Order> triggered) {
+        if (this.orders.isEmpty() || !isTriggered(this.orders.firstKey().price, marketPrice)) {
+            return 0;
+        }
+        // 止损价等于marketPrice的订单也已触发:
+        NavigableMap<OrderKey, Order> head = this.orders.headMap(new OrderKey(Long.MAX_VALUE, marketPrice), true);
+        int n = head.size();
+        triggered.addAll(head.values());
+        head.clear();
+        return n;
+    }
+
+    @Override
+    public Iterator<Order> iterator() {
+        return this.orders.values().iterator();
+    }
+}
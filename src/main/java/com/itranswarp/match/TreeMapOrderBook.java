@@ -0,0 +1,106 @@
+package com.itranswarp.match;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.TreeMap;
+
+import com.itranswarp.order.Direction;
+import com.itranswarp.order.Order;
+
+public class TreeMapOrderBook extends OrderBook {
+
+    private static final Comparator<OrderKey> SORT_SELL = new Comparator<>() {
+        @Override
+        public int compare(OrderKey o1, OrderKey o2) {
+            // 价格低在前:
+            int cmp = Long.compare(o1.price, o2.price);
+            // 时间早在前:
+            return cmp == 0 ? Long.compare(o1.sequenceId, o2.sequenceId) : cmp;
+        }
+    };
+
+    private static final Comparator<OrderKey> SORT_BUY = new Comparator<>() {
+        @Override
+        public int compare(OrderKey o1, OrderKey o2) {
+            // 价格高在前:
+            int cmp = Long.compare(o2.price, o1.price);
+            // 时间早在前:
+            return cmp == 0 ? Long.compare(o1.sequenceId, o2.sequenceId) : cmp;
+        }
+    };
+
+    // OrderKey.sequenceId为入簿顺序而非订单序列号，触发的止损单等较早创建、较晚入簿的订单排在同价格的最后:
+    public final TreeMap<OrderKey, Order> book;
+
+    long arrivals = 0;
+
+    public TreeMapOrderBook(Direction direction) {
+        super(direction);
+        this.book = new TreeMap<>(direction == Direction.BUY ? SORT_BUY : SORT_SELL);
+    }
+
+    @Override
+    public Order getFirst() {
+        return this.book.isEmpty() ? null : this.book.firstEntry().getValue();
+    }
+
+    @Override
+    public boolean remove(Order order) {
+        return this.book.remove(new OrderKey(order.arrival, order.price), order);
+    }
+
+    @Override
+    public boolean add(Order order) {
+        if (exist(order)) {
+            return false;
+        }
+        order.arrival = ++this.arrivals;
+        this.book.put(new OrderKey(order.arrival, order.price), order);
+        return true;
+    }
+
+    @Override
+    public boolean exist(Order order) {
+        return this.book.get(new OrderKey(order.arrival, order.price)) == order;
+    }
+
+    @Override
+    public int size() {
+        return this.book.size();
+    }
+
+    /**
+     * 遍历该价格的所有订单求和，复杂度与档位内订单数成正比
+     */
+    @Override
+    public long getLevelQuantity(Order order) {
+        long quantity = 0;
+        for (Order o : this.book.subMap(new OrderKey(Long.MIN_VALUE, order.price), true, new OrderKey(Long.MAX_VALUE, order.price), true).values()) {
+            quantity += o.visibleAmount();
+        }
+        return quantity;
+    }
+
+    @Override
+    public int getDepth(int n, long[] prices, long[] quantities) {
+        int count = 0;
+        for (Order order : this.book.values()) {
+            if (count > 0 && prices[count - 1] == order.price) {
+                quantities[count - 1] += order.visibleAmount();
+                continue;
+            }
+            if (count >= n) {
+                break;
+            }
+            prices[count] = order.price;
+            quantities[count] = order.visibleAmount();
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public Iterator<Order> iterator() {
+        return this.book.values().iterator();
+    }
+}
@@ -0,0 +1,48 @@
+package com.itranswarp.metrics;
+
+/**
+ * 接收TradingEngine的运行指标。
+ *
+ * 在执行命令的线程中同步调用，多个交易品种并行撮合时会被多个线程同时调用。实现必须线程安全、不分配内存并尽快返回。
+ * 设置为NOOP时TradingEngine不计时。
+ */
+public interface EngineMetrics {
+
+    EngineMetrics NOOP = new EngineMetrics() {
+        @Override
+        public void recordLatency(Stage stage, long nanos) {
+        }
+
+        @Override
+        public void recordFills(String symbol, int fills) {
+        }
+
+        @Override
+        public void recordBook(String symbol, int buyOrders, int sellOrders) {
+        }
+
+        @Override
+        public void recordActiveOrders(int activeOrders) {
+        }
+    };
+
+    /**
+     * 一个处理阶段的耗时，单位为纳秒
+     */
+    void recordLatency(Stage stage, long nanos);
+
+    /**
+     * 一个订单撮合产生的成交笔数
+     */
+    void recordFills(String symbol, int fills);
+
+    /**
+     * 撮合或撤单后买卖盘的订单数量
+     */
+    void recordBook(String symbol, int buyOrders, int sellOrders);
+
+    /**
+     * 撮合或撤单后所有交易品种的活动订单数量
+     */
+    void recordActiveOrders(int activeOrders);
+}
@@ -0,0 +1,95 @@
+package com.itranswarp.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 对数线性分桶的直方图，与HdrHistogram的分桶方式相同。
+ *
+ * 小于64的值精确记录，更大的值按2的幂分段，每段再等分为32个桶，相对误差不超过1/32。超过MAX_VALUE的值按MAX_VALUE记录。
+ * 记录只对一个桶原子加1，可被多个线程同时调用且不分配内存。读取方通过drain()按桶取出并清零，不会丢失计数。
+ */
+public class Histogram {
+
+    static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int LINEAR = SUB_BUCKETS * 2;
+
+    // 可记录的最大值，约18分钟的纳秒数:
+    public static final long MAX_VALUE = (1L << 40) - 1;
+
+    static final int BUCKETS = index(MAX_VALUE) + 1;
+
+    final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        long v = value < 0 ? 0 : Math.min(value, MAX_VALUE);
+        this.counts.incrementAndGet(index(v));
+        long m;
+        while (v > (m = this.max.get()) && !this.max.compareAndSet(m, v)) {
+            // 重试
+        }
+    }
+
+    /**
+     * 取出所有计数并清零，写入snapshot后返回
+     */
+    public Snapshot drain(Snapshot snapshot) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long n = this.counts.getAndSet(i, 0);
+            snapshot.counts[i] = n;
+            total += n;
+        }
+        snapshot.count = total;
+        snapshot.max = this.max.getAndSet(0);
+        return snapshot;
+    }
+
+    static int index(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return LINEAR + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    // 桶内的最大值:
+    static long highestValue(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+        long mantissa = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * 一段时间内的计数，由读取方复用
+     */
+    public static class Snapshot {
+
+        final long[] counts = new long[BUCKETS];
+        public long count;
+        public long max;
+
+        /**
+         * 返回不小于percent%记录值的最小桶上界，不超过最大记录值
+         */
+        public long getValueAtPercentile(double percent) {
+            if (this.count == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(this.count * percent / 100));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += this.counts[i];
+                if (seen >= target) {
+                    return Math.min(highestValue(i), this.max);
+                }
+            }
+            return this.max;
+        }
+    }
+}
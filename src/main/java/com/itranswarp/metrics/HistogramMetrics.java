@@ -0,0 +1,104 @@
+package com.itranswarp.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 内置的指标实现，每个阶段的耗时和每个订单的成交笔数记录到直方图，订单簿深度和活动订单数量记录最新值。
+ *
+ * dump()输出上次dump()以来的百分位并清零，可由scheduleDump()定期调用。
+ */
+public class HistogramMetrics implements EngineMetrics {
+
+    static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+    static final String[] LABELS = { "p50", "p90", "p99", "p99.9" };
+
+    final Histogram[] latencies = new Histogram[Stage.values().length];
+    final Histogram fills = new Histogram();
+
+    // 每个交易品种的买卖盘订单数量:
+    final Map<String, long[]> books = new ConcurrentHashMap<>();
+    volatile int activeOrders = 0;
+
+    // 由dump()复用:
+    final Histogram.Snapshot snapshot = new Histogram.Snapshot();
+
+    ScheduledExecutorService scheduler = null;
+
+    public HistogramMetrics() {
+        for (int i = 0; i < this.latencies.length; i++) {
+            this.latencies[i] = new Histogram();
+        }
+    }
+
+    @Override
+    public void recordLatency(Stage stage, long nanos) {
+        this.latencies[stage.ordinal()].record(nanos);
+    }
+
+    @Override
+    public void recordFills(String symbol, int fills) {
+        this.fills.record(fills);
+    }
+
+    @Override
+    public void recordBook(String symbol, int buyOrders, int sellOrders) {
+        long[] book = this.books.get(symbol);
+        if (book == null) {
+            book = this.books.computeIfAbsent(symbol, k -> new long[2]);
+        }
+        // 只由该交易品种的撮合线程写入:
+        book[0] = buyOrders;
+        book[1] = sellOrders;
+    }
+
+    @Override
+    public void recordActiveOrders(int activeOrders) {
+        this.activeOrders = activeOrders;
+    }
+
+    /**
+     * 输出上次调用以来各阶段耗时的百分位(微秒)、每个订单成交笔数的百分位、订单簿深度和活动订单数量，并清零直方图
+     */
+    public synchronized String dump() {
+        StringBuilder sb = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            Histogram.Snapshot s = this.latencies[stage.ordinal()].drain(this.snapshot);
+            sb.append(String.format("%-8s count=%d", stage, s.count));
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                sb.append(String.format(" %s=%.2f", LABELS[i], s.getValueAtPercentile(PERCENTILES[i]) / 1000.0));
+            }
+            sb.append(String.format(" max=%.2f us\n", s.max / 1000.0));
+        }
+        Histogram.Snapshot s = this.fills.drain(this.snapshot);
+        sb.append(String.format("FILLS    count=%d p50=%d p99=%d max=%d\n", s.count, s.getValueAtPercentile(50), s.getValueAtPercentile(99), s.max));
+        this.books.forEach((symbol, book) -> sb.append(String.format("BOOK     %s buy=%d sell=%d\n", symbol, book[0], book[1])));
+        sb.append("ACTIVE   orders=").append(this.activeOrders);
+        return sb.toString();
+    }
+
+    /**
+     * 在后台线程定期调用dump()并输出
+     */
+    public synchronized void scheduleDump(long periodMillis, Consumer<String> output) {
+        if (this.scheduler == null) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "metrics-dump");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        this.scheduler.scheduleAtFixedRate(() -> output.accept(dump()), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void shutdown() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+        }
+    }
+}
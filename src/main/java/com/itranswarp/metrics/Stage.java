@@ -0,0 +1,22 @@
+package com.itranswarp.metrics;
+
+/**
+ * 计时的处理阶段。
+ */
+public enum Stage {
+
+    // 下单冻结资产:
+    FREEZE,
+
+    // 写入预写日志:
+    JOURNAL,
+
+    // 撮合:
+    MATCH,
+
+    // 清算成交结果:
+    CLEAR,
+
+    // 撤单，包括从订单簿删除和解冻:
+    CANCEL;
+}
@@ -2,32 +2,113 @@ package com.itranswarp.order;
 
 import java.math.BigDecimal;
 
+import com.itranswarp.match.PriceLevel;
+import com.itranswarp.util.FixedPoint;
+
 public class Order {
 
     public final Long sequenceId;
+    public final Symbol symbol;
     public final Long userId;
     public final Direction direction;
-    public final BigDecimal price;
-    public final BigDecimal amount;
+    public final OrderType type;
+
+    // 价格和数量以FixedPoint.SCALE精度的定点数存储:
+    public final long price;
+    // 改单时减少:
+    public long amount;
+    // 止损价，非止损单为0:
+    public final long stopPrice;
+    // 止损单已被触发:
+    public boolean triggered;
 
     public OrderStatus status;
-    public BigDecimal unfilledAmount;
+    public long unfilledAmount;
+
+    // 冰山单每次显示的数量，非冰山单为0:
+    public long peakAmount;
+    // 冰山单在订单簿中隐藏的未成交数量，订单簿只显示和撮合unfilledAmount - hiddenAmount:
+    public long hiddenAmount;
+
+    // 由PriceLevelOrderBook维护的档位及档位内前后订单:
+    public PriceLevel level;
+    public Order prev;
+    public Order next;
 
-    public Order(Long sequenceId, Long userId, Direction direction, BigDecimal price, BigDecimal amount) {
+    // 由TreeMapOrderBook维护的入簿顺序:
+    public long arrival;
+
+    // 由OrderService维护的同一用户前后活动订单:
+    Order userPrev;
+    Order userNext;
+
+    public Order(Long sequenceId, Long userId, Direction direction, long price, long amount) {
+        this(sequenceId, Symbol.DEFAULT, userId, direction, price, amount);
+    }
+
+    public Order(Long sequenceId, Symbol symbol, Long userId, Direction direction, long price, long amount) {
+        this(sequenceId, symbol, userId, OrderType.LIMIT, direction, price, amount);
+    }
+
+    public Order(Long sequenceId, Symbol symbol, Long userId, OrderType type, Direction direction, long price, long amount) {
+        this(sequenceId, symbol, userId, type, direction, price, amount, 0);
+    }
+
+    public Order(Long sequenceId, Symbol symbol, Long userId, OrderType type, Direction direction, long price, long amount, long stopPrice) {
         this.sequenceId = sequenceId;
+        this.symbol = symbol;
         this.userId = userId;
+        this.type = type;
         this.direction = direction;
         this.price = price;
         this.amount = amount;
+        this.stopPrice = stopPrice;
 
         this.status = OrderStatus.PENDING;
         this.unfilledAmount = amount;
     }
 
+    public boolean isIceberg() {
+        return peakAmount > 0;
+    }
+
+    /**
+     * 订单簿中显示的未成交数量
+     */
+    public long visibleAmount() {
+        return unfilledAmount - hiddenAmount;
+    }
+
+    /**
+     * 放入订单簿前调用，冰山单只显示最多peakAmount
+     */
+    public void hide() {
+        hiddenAmount = peakAmount > 0 ? Math.max(0, unfilledAmount - peakAmount) : 0;
+    }
+
+    /**
+     * 冰山单显示的部分全部成交后从隐藏数量中补充，返回是否需要补充。订单必须先移出订单簿，补充后重新放入
+     */
+    public boolean needRefill() {
+        return hiddenAmount > 0 && hiddenAmount == unfilledAmount;
+    }
+
+    public BigDecimal getPrice() {
+        return FixedPoint.toBigDecimal(price);
+    }
+
+    public BigDecimal getAmount() {
+        return FixedPoint.toBigDecimal(amount);
+    }
+
+    public BigDecimal getUnfilledAmount() {
+        return FixedPoint.toBigDecimal(unfilledAmount);
+    }
+
     @Override
     public String toString() {
-        return String.format("%04.2f %02.2f [sequenceId=%s, userId=%s, direction=%s, amount=%s, status=%s]", price, unfilledAmount, sequenceId, userId,
-                direction, amount, status);
+        return String.format("%04.2f %02.2f [sequenceId=%s, symbol=%s, userId=%s, direction=%s, amount=%s, status=%s]", getPrice(), getUnfilledAmount(),
+                sequenceId, symbol.name, userId, direction, getAmount(), status);
     }
 
 }
@@ -0,0 +1,28 @@
+package com.itranswarp.order;
+
+import java.math.BigDecimal;
+
+/**
+ * 批量下单中的一个订单请求。
+ */
+public class OrderRequest {
+
+    public final Long userId;
+    public final String symbol;
+    public final Direction direction;
+    public final BigDecimal price;
+    public final BigDecimal amount;
+
+    public OrderRequest(Long userId, String symbol, Direction direction, BigDecimal price, BigDecimal amount) {
+        this.userId = userId;
+        this.symbol = symbol;
+        this.direction = direction;
+        this.price = price;
+        this.amount = amount;
+    }
+
+    @Override
+    public String toString() {
+        return "OrderRequest[userId=" + userId + ", symbol=" + symbol + ", direction=" + direction + ", price=" + price + ", amount=" + amount + "]";
+    }
+}
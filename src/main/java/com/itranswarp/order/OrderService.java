@@ -1,21 +1,29 @@
 package com.itranswarp.order;
 
-import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 import com.itranswarp.assets.AssetService;
+import com.itranswarp.util.FixedPoint;
 
 public class OrderService {
 
     final AssetService assetService;
 
-    // 全局唯一递增序列号：
+    // 全局唯一递增序列号，只能由引擎线程修改：
     private long sequenceId = 0;
 
     // 跟踪所有活动订单:
     public ConcurrentMap<Long, Order> activeOrders = new ConcurrentHashMap<>();
 
+    // 按用户索引的活动订单:
+    final ConcurrentMap<Long, UserOrders> userOrders = new ConcurrentHashMap<>();
+
+    // 风控限制，为null时不检查:
+    RiskLimits riskLimits = null;
+
     public OrderService(AssetService assetService) {
         this.assetService = assetService;
     }
@@ -23,37 +31,178 @@ public class OrderService {
     /**
      * 创建订单
      */
-    public Order createOrder(Long userId, Direction direction, BigDecimal price, BigDecimal amount) {
+    public Order createOrder(Long userId, Symbol symbol, Direction direction, long price, long amount) {
+        return createOrder(userId, symbol, OrderType.LIMIT, direction, price, amount);
+    }
+
+    /**
+     * 创建指定类型的订单，市价单的price为接受时计算的限价
+     */
+    public Order createOrder(Long userId, Symbol symbol, OrderType type, Direction direction, long price, long amount) {
+        return createOrder(userId, symbol, type, direction, price, amount, 0);
+    }
+
+    /**
+     * 创建订单，止损单按price冻结，stopPrice为止损价
+     */
+    public Order createOrder(Long userId, Symbol symbol, OrderType type, Direction direction, long price, long amount, long stopPrice) {
         switch (direction) {
         case BUY -> {
-            // 买入，需冻结法币：
-            if (!assetService.tryFreeze(userId, "FIAT", price.multiply(amount))) {
-                throw new RuntimeException("No enough FIAT currency.");
+            // 买入，需冻结计价资产：
+            if (!assetService.tryFreeze(userId, symbol.quoteAsset, FixedPoint.notional(price, amount))) {
+                throw new RuntimeException("No enough " + symbol.quoteAsset + ".");
             }
         }
         case SELL -> {
-            // 卖出，需冻结证券：
-            if (!assetService.tryFreeze(userId, "STOCK", amount)) {
-                throw new RuntimeException("No enough stock.");
+            // 卖出，需冻结标的资产：
+            if (!assetService.tryFreeze(userId, symbol.baseAsset, FixedPoint.quantity(amount))) {
+                throw new RuntimeException("No enough " + symbol.baseAsset + ".");
             }
         }
         default -> throw new IllegalArgumentException("Invalid direction.");
         }
+        return createFrozenOrder(userId, symbol, type, direction, price, amount, stopPrice);
+    }
+
+    /**
+     * 创建订单，所需资产已由调用方冻结
+     */
+    public Order createFrozenOrder(Long userId, Symbol symbol, Direction direction, long price, long amount) {
+        return createFrozenOrder(userId, symbol, OrderType.LIMIT, direction, price, amount, 0);
+    }
+
+    Order createFrozenOrder(Long userId, Symbol symbol, OrderType type, Direction direction, long price, long amount, long stopPrice) {
         sequenceId++;
-        Order order = new Order(sequenceId, userId, direction, price, amount);
+        Order order = new Order(sequenceId, symbol, userId, type, direction, price, amount, stopPrice);
         this.activeOrders.put(order.sequenceId, order);
+        addUserOrder(order);
         return order;
     }
 
+    public RiskLimits getRiskLimits() {
+        return this.riskLimits;
+    }
+
+    public void setRiskLimits(RiskLimits riskLimits) {
+        this.riskLimits = riskLimits;
+    }
+
+    /**
+     * 下单前检查风控限制，只读取该用户的计数器，不扫描订单。名义价值只与同一计价资产的订单累计。
+     *
+     * @param marketPrice 最新成交价，为0时不检查价格偏离
+     */
+    public void checkRisk(Long userId, Symbol symbol, long price, long amount, long marketPrice) {
+        RiskLimits limits = this.riskLimits;
+        if (limits == null) {
+            return;
+        }
+        if (limits.priceBandBps > 0 && marketPrice > 0) {
+            // 偏离超过marketPrice * priceBandBps / 10000:
+            if (Math.multiplyExact(Math.abs(price - marketPrice), 10000L) > Math.multiplyExact(marketPrice, (long) limits.priceBandBps)) {
+                throw new RuntimeException("Price out of band.");
+            }
+        }
+        UserOrders orders = this.userOrders.get(userId);
+        int size = 0;
+        long notional = 0;
+        if (orders != null) {
+            synchronized (orders) {
+                size = orders.size;
+                notional = orders.getNotional(symbol.quoteAsset);
+            }
+        }
+        if (limits.maxOpenOrders > 0 && size >= limits.maxOpenOrders) {
+            throw new RuntimeException("Too many open orders.");
+        }
+        if (limits.maxNotional > 0 && Math.addExact(notional, FixedPoint.notional(price, amount)) > limits.maxNotional) {
+            throw new RuntimeException("Notional limit exceeded.");
+        }
+    }
+
+    /**
+     * 订单成交、改单或防止自成交减少未成交数量后，更新用户的名义价值
+     */
+    public void reduceOrder(Order order, long amount) {
+        // 冰山单在一次撮合中多次成交时可能已被删除，用户没有其他订单时索引已移除:
+        UserOrders orders = this.userOrders.get(order.userId);
+        if (orders != null) {
+            orders.reduce(order, amount);
+        }
+    }
+
+    /**
+     * 用户以quoteAsset计价的活动订单未成交部分的名义价值
+     */
+    public long getOpenNotional(Long userId, String quoteAsset) {
+        UserOrders orders = this.userOrders.get(userId);
+        return orders == null ? 0 : orders.getNotional(quoteAsset);
+    }
+
+    public long getSequenceId() {
+        return this.sequenceId;
+    }
+
+    /**
+     * 从快照恢复订单序列号
+     */
+    public void restoreSequenceId(long sequenceId) {
+        this.sequenceId = sequenceId;
+    }
+
+    /**
+     * 从快照恢复活动订单
+     */
+    public void restoreOrder(Order order) {
+        this.activeOrders.put(order.sequenceId, order);
+        addUserOrder(order);
+    }
+
     public Order getOrder(Long sequenceId) {
         return this.activeOrders.get(sequenceId);
     }
 
+    /**
+     * 返回用户的所有活动订单
+     */
+    public List<Order> getOrders(Long userId) {
+        UserOrders orders = this.userOrders.get(userId);
+        return orders == null ? List.of() : orders.toList();
+    }
+
+    /**
+     * 一次遍历用户的活动订单，按交易品种名称分组返回序列号不超过lastOrderId的订单，direction为null时包含两个方向
+     */
+    public Map<String, List<Order>> getOrdersBySymbol(Long userId, Direction direction, long lastOrderId) {
+        UserOrders orders = this.userOrders.get(userId);
+        return orders == null ? Map.of() : orders.groupBySymbol(direction, lastOrderId);
+    }
+
     // 删除活动订单:
     public void removeOrder(Long sequenceId) {
         Order removed = this.activeOrders.remove(sequenceId);
         if (removed == null) {
             throw new IllegalArgumentException("Order not found by sequenceId: " + sequenceId);
         }
+        // 与添加订单在同一个key上互斥，删除最后一个订单时移除空索引:
+        this.userOrders.computeIfPresent(removed.userId, (userId, orders) -> orders.remove(removed) == 0 ? null : orders);
+    }
+
+    // 加入用户订单索引:
+    void addUserOrder(Order order) {
+        this.userOrders.compute(order.userId, (userId, orders) -> {
+            if (orders == null) {
+                orders = new UserOrders();
+            }
+            orders.add(order);
+            return orders;
+        });
+    }
+
+    /**
+     * 有活动订单的用户数
+     */
+    public int getIndexedUsers() {
+        return this.userOrders.size();
     }
 }
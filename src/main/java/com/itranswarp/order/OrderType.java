@@ -0,0 +1,56 @@
+package com.itranswarp.order;
+
+/**
+ * 订单类型，决定未成交部分是否挂入订单簿。
+ */
+public enum OrderType {
+
+    /**
+     * 限价单，未成交部分挂入订单簿
+     */
+    LIMIT,
+
+    /**
+     * 市价单，接受时按对手盘计算能成交全部数量的最差价格作为限价，未成交部分撤销
+     */
+    MARKET,
+
+    /**
+     * 立即成交，未成交部分撤销
+     */
+    IOC,
+
+    /**
+     * 全部成交，对手盘数量不足时不成交并撤销
+     */
+    FOK,
+
+    /**
+     * 只做Maker，会与对手盘成交时撤销
+     */
+    POST_ONLY,
+
+    /**
+     * 止损单，最新成交价达到止损价后以price为保护价按IOC撮合
+     */
+    STOP,
+
+    /**
+     * 止损限价单，最新成交价达到止损价后按限价单撮合
+     */
+    STOP_LIMIT;
+
+    /**
+     * 未成交部分是否立即撤销
+     */
+    public boolean isImmediate() {
+        return this == MARKET || this == IOC || this == FOK || this == STOP;
+    }
+
+    /**
+     * 是否需要先由止损价触发
+     */
+    public boolean isStop() {
+        return this == STOP || this == STOP_LIMIT;
+    }
+}
@@ -0,0 +1,32 @@
+package com.itranswarp.order;
+
+/**
+ * 下单前的风控限制，为0的限制不检查。
+ *
+ * 活动订单数和名义价值由OrderService按用户增量维护，检查时不扫描订单。名义价值按计价资产分别累计和限制。
+ */
+public class RiskLimits {
+
+    // 每个用户的最大活动订单数:
+    public final int maxOpenOrders;
+
+    // 每个用户在每种计价资产上，活动订单未成交部分的最大名义价值，即价格乘以数量，精度与余额相同:
+    public final long maxNotional;
+
+    // 限价与最新成交价的最大偏离，单位为万分之一:
+    public final int priceBandBps;
+
+    public RiskLimits(int maxOpenOrders, long maxNotional, int priceBandBps) {
+        if (maxOpenOrders < 0 || maxNotional < 0 || priceBandBps < 0) {
+            throw new IllegalArgumentException("Invalid risk limits.");
+        }
+        this.maxOpenOrders = maxOpenOrders;
+        this.maxNotional = maxNotional;
+        this.priceBandBps = priceBandBps;
+    }
+
+    @Override
+    public String toString() {
+        return "RiskLimits[maxOpenOrders=" + maxOpenOrders + ", maxNotional=" + maxNotional + ", priceBandBps=" + priceBandBps + "]";
+    }
+}
@@ -0,0 +1,29 @@
+package com.itranswarp.order;
+
+/**
+ * 防止自成交，Taker与同一用户的Maker价格交叉时的处理方式，在撮合循环中逐个Maker判断。
+ *
+ * FOK订单的数量检查不计入会被防止自成交撤销或抵消的挂单，可成交数量不足时在成交前整体撤销。
+ */
+public enum SelfTradePrevention {
+
+    /**
+     * 允许自成交
+     */
+    NONE,
+
+    /**
+     * 撤销Taker的剩余部分，已成交的部分不变
+     */
+    CANCEL_NEWEST,
+
+    /**
+     * 撤销Maker，Taker继续与后续Maker撮合
+     */
+    CANCEL_OLDEST,
+
+    /**
+     * 两者同时减少较小的未成交数量，不产生成交，减为0的订单撤销
+     */
+    DECREMENT_BOTH;
+}
@@ -0,0 +1,39 @@
+package com.itranswarp.order;
+
+/**
+ * 交易品种，以quoteAsset计价买卖baseAsset。
+ */
+public class Symbol {
+
+    // 默认交易品种，以FIAT买卖STOCK:
+    public static final Symbol DEFAULT = new Symbol("STOCK", "STOCK", "FIAT");
+
+    public final String name;
+    public final String baseAsset;
+    public final String quoteAsset;
+
+    // 防止自成交的方式，回放日志时必须与首次执行一致，因此作为交易品种的配置:
+    public final SelfTradePrevention selfTradePrevention;
+
+    public Symbol(String name, String baseAsset, String quoteAsset) {
+        this(name, baseAsset, quoteAsset, SelfTradePrevention.NONE);
+    }
+
+    public Symbol(String name, String baseAsset, String quoteAsset, SelfTradePrevention selfTradePrevention) {
+        if (selfTradePrevention == null) {
+            throw new IllegalArgumentException("Invalid self trade prevention.");
+        }
+        if (name == null || name.isEmpty() || baseAsset == null || quoteAsset == null || baseAsset.equals(quoteAsset)) {
+            throw new IllegalArgumentException("Invalid symbol.");
+        }
+        this.name = name;
+        this.baseAsset = baseAsset;
+        this.quoteAsset = quoteAsset;
+        this.selfTradePrevention = selfTradePrevention;
+    }
+
+    @Override
+    public String toString() {
+        return name + "[" + baseAsset + "/" + quoteAsset + "]";
+    }
+}
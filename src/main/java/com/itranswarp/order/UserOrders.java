@@ -0,0 +1,89 @@
+package com.itranswarp.order;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.itranswarp.util.FixedPoint;
+
+/**
+ * 一个用户的活动订单，通过Order.userPrev和Order.userNext按加入顺序链接，增删均为O(1)。
+ *
+ * 同时维护活动订单数和按计价资产分别累计的未成交部分名义价值，供风控检查使用。
+ * 定序线程添加订单，各撮合线程删除订单，所有操作锁定该对象。最后一个订单删除时从OrderService中移除。
+ */
+final class UserOrders {
+
+    Order head = null;
+    Order tail = null;
+    int size = 0;
+    // 计价资产 -> 名义价值，不同计价资产的金额不能相加:
+    final Map<String, long[]> notionals = new HashMap<>(4);
+
+    synchronized void add(Order order) {
+        order.userPrev = this.tail;
+        order.userNext = null;
+        if (this.tail == null) {
+            this.head = order;
+        } else {
+            this.tail.userNext = order;
+        }
+        this.tail = order;
+        this.size++;
+        notional(order.symbol.quoteAsset)[0] += FixedPoint.notional(order.price, order.unfilledAmount);
+    }
+
+    // 订单的未成交数量减少:
+    synchronized void reduce(Order order, long amount) {
+        notional(order.symbol.quoteAsset)[0] -= FixedPoint.notional(order.price, amount);
+    }
+
+    synchronized long getNotional(String quoteAsset) {
+        long[] notional = this.notionals.get(quoteAsset);
+        return notional == null ? 0 : notional[0];
+    }
+
+    long[] notional(String quoteAsset) {
+        return this.notionals.computeIfAbsent(quoteAsset, k -> new long[1]);
+    }
+
+    // 返回删除后剩余的订单数:
+    synchronized int remove(Order order) {
+        if (order.userPrev == null) {
+            this.head = order.userNext;
+        } else {
+            order.userPrev.userNext = order.userNext;
+        }
+        if (order.userNext == null) {
+            this.tail = order.userPrev;
+        } else {
+            order.userNext.userPrev = order.userPrev;
+        }
+        order.userPrev = null;
+        order.userNext = null;
+        this.size--;
+        notional(order.symbol.quoteAsset)[0] -= FixedPoint.notional(order.price, order.unfilledAmount);
+        return this.size;
+    }
+
+    synchronized List<Order> toList() {
+        List<Order> list = new ArrayList<>(this.size);
+        for (Order order = this.head; order != null; order = order.userNext) {
+            list.add(order);
+        }
+        return list;
+    }
+
+    // 一次遍历，按交易品种分组序列号不超过lastOrderId的订单:
+    synchronized Map<String, List<Order>> groupBySymbol(Direction direction, long lastOrderId) {
+        Map<String, List<Order>> groups = new LinkedHashMap<>();
+        for (Order order = this.head; order != null; order = order.userNext) {
+            if (order.sequenceId.longValue() <= lastOrderId && (direction == null || order.direction == direction)) {
+                groups.computeIfAbsent(order.symbol.name, name -> new ArrayList<>()).add(order);
+            }
+        }
+        return groups;
+    }
+}
@@ -0,0 +1,66 @@
+package com.itranswarp.pipeline;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.itranswarp.order.Direction;
+import com.itranswarp.order.Order;
+import com.itranswarp.order.OrderRequest;
+import com.itranswarp.order.OrderType;
+
+/**
+ * 环形缓冲区中预分配的命令槽位，槽位被循环复用。
+ */
+public class Command {
+
+    // 已发布到该槽位的序号，由生产者写入:
+    volatile long published = -1;
+
+    public CommandType type;
+    public Long userId;
+    public String symbol;
+    public String assetId;
+    public OrderType orderType;
+    public Direction direction;
+    public BigDecimal price;
+    public BigDecimal stopPrice;
+    public BigDecimal amount;
+    public Long orderId;
+    public Path path;
+    public int levels;
+    public List<OrderRequest> requests;
+
+    // 已接受、待撮合线程处理的订单:
+    public Order order;
+
+    // 批量撤单时该撮合线程负责的订单:
+    public List<Order> orders;
+
+    // 分发到多个撮合线程的批量下单或批量撤单:
+    MatchLane.Fanout fanout;
+
+    // 执行结果，CREATE_ORDERS返回BatchResult，CANCEL_ALL返回撤销的订单数量，CREATE_ORDER、CREATE_STOP_ORDER、CANCEL_ORDER和AMEND_ORDER返回Order，DEPTH返回Depth，SNAPSHOT返回快照文件，DEPOSIT和VALIDATE返回null:
+    public CompletableFuture<Object> future;
+
+    void clear() {
+        this.type = null;
+        this.userId = null;
+        this.symbol = null;
+        this.assetId = null;
+        this.orderType = null;
+        this.direction = null;
+        this.price = null;
+        this.stopPrice = null;
+        this.amount = null;
+        this.orderId = null;
+        this.path = null;
+        this.levels = 0;
+        this.requests = null;
+        this.order = null;
+        this.orders = null;
+        this.fanout = null;
+        this.future = null;
+    }
+}
@@ -0,0 +1,90 @@
+package com.itranswarp.pipeline;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 从环形缓冲区按序读取命令并在独立线程中执行。
+ */
+abstract class CommandProcessor {
+
+    // 命令已转交其他线程，由其完成future:
+    static final Object FORWARDED = new Object();
+
+    final CommandRingBuffer ringBuffer;
+    final Thread thread;
+
+    volatile boolean running = false;
+
+    CommandProcessor(String name, int capacity) {
+        this.ringBuffer = new CommandRingBuffer(capacity);
+        this.thread = new Thread(this::run, name);
+    }
+
+    void start() {
+        this.running = true;
+        this.thread.start();
+    }
+
+    void shutdown() throws InterruptedException {
+        this.running = false;
+        this.thread.join();
+    }
+
+    /**
+     * 所有已提交的命令都已执行完毕
+     */
+    boolean isIdle() {
+        return this.ringBuffer.consumed == this.ringBuffer.claimed.get();
+    }
+
+    abstract Object execute(Command command);
+
+    void run() {
+        int idle = 0;
+        // 停止后继续处理已提交的命令:
+        while (this.running || !isIdle()) {
+            Command command = this.ringBuffer.poll();
+            if (command == null) {
+                onIdle();
+                idle = idle(idle);
+                continue;
+            }
+            idle = 0;
+            CompletableFuture<Object> future = command.future;
+            Object result = null;
+            RuntimeException error = null;
+            try {
+                result = execute(command);
+            } catch (RuntimeException e) {
+                error = e;
+            }
+            // 先释放槽位，再通知调用方:
+            this.ringBuffer.release(command);
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else if (result != FORWARDED) {
+                future.complete(result);
+            }
+        }
+        onIdle();
+    }
+
+    /**
+     * 没有待处理的命令时调用
+     */
+    void onIdle() {
+    }
+
+    // 空闲时先自旋，再让出CPU，最后短暂休眠:
+    static int idle(int counter) {
+        if (counter < 100) {
+            Thread.onSpinWait();
+        } else if (counter < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50_000);
+        }
+        return counter < 200 ? counter + 1 : counter;
+    }
+}
@@ -0,0 +1,74 @@
+package com.itranswarp.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 多生产者、单消费者的环形缓冲区。
+ * 
+ * 生产者通过原子递增获取序号，互不等待，只有缓冲区满时才等待消费者；消费者按序号依次读取已发布的槽位。
+ */
+public class CommandRingBuffer {
+
+    final Command[] slots;
+    final int mask;
+
+    // 下一个待分配的序号:
+    final AtomicLong claimed = new AtomicLong(0);
+
+    // 下一个待消费的序号:
+    volatile long consumed = 0;
+
+    public CommandRingBuffer(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be power of 2.");
+        }
+        this.slots = new Command[capacity];
+        for (int i = 0; i < capacity; i++) {
+            this.slots[i] = new Command();
+        }
+        this.mask = capacity - 1;
+    }
+
+    public int capacity() {
+        return this.slots.length;
+    }
+
+    /**
+     * 生产者获取序号，缓冲区满时等待
+     */
+    public long next() {
+        long seq = this.claimed.getAndIncrement();
+        while (seq - this.consumed >= this.slots.length) {
+            LockSupport.parkNanos(1000);
+        }
+        return seq;
+    }
+
+    public Command get(long seq) {
+        return this.slots[(int) seq & this.mask];
+    }
+
+    /**
+     * 生产者填写槽位后发布
+     */
+    public void publish(long seq) {
+        get(seq).published = seq;
+    }
+
+    /**
+     * 消费者获取下一个已发布的命令，没有可用命令时返回null
+     */
+    public Command poll() {
+        Command command = get(this.consumed);
+        return command.published == this.consumed ? command : null;
+    }
+
+    /**
+     * 消费者处理完当前命令后释放槽位
+     */
+    public void release(Command command) {
+        command.clear();
+        this.consumed = this.consumed + 1;
+    }
+}
@@ -0,0 +1,24 @@
+package com.itranswarp.pipeline;
+
+public enum CommandType {
+
+    DEPOSIT,
+
+    CREATE_ORDER,
+
+    CREATE_ORDERS,
+
+    CREATE_STOP_ORDER,
+
+    CANCEL_ORDER,
+
+    AMEND_ORDER,
+
+    CANCEL_ALL,
+
+    DEPTH,
+
+    SNAPSHOT,
+
+    VALIDATE;
+}
@@ -0,0 +1,458 @@
+package com.itranswarp.pipeline;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.itranswarp.BatchResult;
+import com.itranswarp.TradingEngine;
+import com.itranswarp.journal.Journal;
+import com.itranswarp.match.Depth;
+import com.itranswarp.order.Direction;
+import com.itranswarp.order.Order;
+import com.itranswarp.order.OrderRequest;
+import com.itranswarp.order.OrderType;
+import com.itranswarp.order.Symbol;
+
+/**
+ * TradingEngine前置的单写入者命令管道。
+ *
+ * 任意线程提交的命令进入预分配的环形缓冲区，由唯一的定序线程按序校验、冻结资产并写入日志，因此订单序列号和日志只在定序线程修改。
+ * 已接受的订单再交给所属交易品种的撮合线程，不同交易品种并行撮合和清算，同一交易品种按接受顺序处理。
+ * 执行结果通过CompletableFuture返回。
+ */
+public class EnginePipeline {
+
+    final TradingEngine engine;
+    final Sequencer sequencer;
+
+    // 每个交易品种一个撮合线程:
+    final Map<String, MatchLane> lanes;
+
+    // 定时任务:
+    ScheduledExecutorService scheduler = null;
+
+    public EnginePipeline(TradingEngine engine, int capacity) {
+        this.engine = engine;
+        this.sequencer = new Sequencer(capacity);
+        Map<String, MatchLane> map = new LinkedHashMap<>();
+        for (String symbol : engine.getSymbols().keySet()) {
+            map.put(symbol, new MatchLane(engine, symbol, capacity));
+        }
+        this.lanes = Collections.unmodifiableMap(map);
+    }
+
+    public void start() {
+        for (MatchLane lane : this.lanes.values()) {
+            lane.start();
+        }
+        this.sequencer.start();
+    }
+
+    /**
+     * 停止所有线程，已提交的命令执行完毕后返回。调用前应停止提交新命令。
+     */
+    public void shutdown() throws InterruptedException {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+        }
+        this.sequencer.shutdown();
+        for (MatchLane lane : this.lanes.values()) {
+            lane.shutdown();
+        }
+    }
+
+    public CompletableFuture<Void> deposit(Long userId, String assetId, BigDecimal amount) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        CommandRingBuffer ringBuffer = this.sequencer.ringBuffer;
+        long seq = ringBuffer.next();
+        Command command = ringBuffer.get(seq);
+        command.type = CommandType.DEPOSIT;
+        command.userId = userId;
+        command.assetId = assetId;
+        command.amount = amount;
+        command.future = cast(future);
+        ringBuffer.publish(seq);
+        return future;
+    }
+
+    public CompletableFuture<Order> createOrder(Long userId, Direction direction, BigDecimal price, BigDecimal amount) {
+        return createOrder(userId, Symbol.DEFAULT.name, direction, price, amount);
+    }
+
+    public CompletableFuture<Order> createOrder(Long userId, String symbol, Direction direction, BigDecimal price, BigDecimal amount) {
+        return createOrder(userId, symbol, OrderType.LIMIT, direction, price, amount);
+    }
+
+    /**
+     * 创建指定类型的订单，市价单的price必须为null
+     */
+    public CompletableFuture<Order> createOrder(Long userId, String symbol, OrderType type, Direction direction, BigDecimal price, BigDecimal amount) {
+        CompletableFuture<Order> future = new CompletableFuture<>();
+        CommandRingBuffer ringBuffer = this.sequencer.ringBuffer;
+        long seq = ringBuffer.next();
+        Command command = ringBuffer.get(seq);
+        command.type = CommandType.CREATE_ORDER;
+        command.userId = userId;
+        command.symbol = symbol;
+        command.orderType = type;
+        command.direction = direction;
+        command.price = price;
+        command.amount = amount;
+        command.future = cast(future);
+        ringBuffer.publish(seq);
+        return future;
+    }
+
+    /**
+     * 创建止损单或止损限价单，触发后在撮合线程中撮合
+     */
+    public CompletableFuture<Order> createStopOrder(Long userId, String symbol, OrderType type, Direction direction, BigDecimal stopPrice, BigDecimal price,
+            BigDecimal amount) {
+        CompletableFuture<Order> future = new CompletableFuture<>();
+        CommandRingBuffer ringBuffer = this.sequencer.ringBuffer;
+        long seq = ringBuffer.next();
+        Command command = ringBuffer.get(seq);
+        command.type = CommandType.CREATE_STOP_ORDER;
+        command.userId = userId;
+        command.symbol = symbol;
+        command.orderType = type;
+        command.direction = direction;
+        command.stopPrice = stopPrice;
+        command.price = price;
+        command.amount = amount;
+        command.future = cast(future);
+        ringBuffer.publish(seq);
+        return future;
+    }
+
+    /**
+     * 批量下单，定序线程合并冻结后把订单分发到各撮合线程，全部撮合完成后返回结果
+     */
+    public CompletableFuture<BatchResult> submitBatch(List<OrderRequest> requests) {
+        CompletableFuture<BatchResult> future = new CompletableFuture<>();
+        CommandRingBuffer ringBuffer = this.sequencer.ringBuffer;
+        long seq = ringBuffer.next();
+        Command command = ringBuffer.get(seq);
+        command.type = CommandType.CREATE_ORDERS;
+        command.requests = requests;
+        command.future = cast(future);
+        ringBuffer.publish(seq);
+        return future;
+    }
+
+    public CompletableFuture<Order> cancelOrder(Long userId, Long orderId) {
+        CompletableFuture<Order> future = new CompletableFuture<>();
+        CommandRingBuffer ringBuffer = this.sequencer.ringBuffer;
+        long seq = ringBuffer.next();
+        Command command = ringBuffer.get(seq);
+        command.type = CommandType.CANCEL_ORDER;
+        command.userId = userId;
+        command.orderId = orderId;
+        command.future = cast(future);
+        ringBuffer.publish(seq);
+        return future;
+    }
+
+    public CompletableFuture<Order> amendOrder(Long userId, Long orderId, BigDecimal amount) {
+        CompletableFuture<Order> future = new CompletableFuture<>();
+        CommandRingBuffer ringBuffer = this.sequencer.ringBuffer;
+        long seq = ringBuffer.next();
+        Command command = ringBuffer.get(seq);
+        command.type = CommandType.AMEND_ORDER;
+        command.userId = userId;
+        command.orderId = orderId;
+        command.amount = amount;
+        command.future = cast(future);
+        ringBuffer.publish(seq);
+        return future;
+    }
+
+    /**
+     * 撤销用户在所有交易品种的全部订单，返回撤销的订单数量，可用于连接断开时撤单
+     */
+    public CompletableFuture<Integer> cancelAll(Long userId) {
+        return cancelAll(userId, null);
+    }
+
+    /**
+     * 撤销用户在所有交易品种某一方向的订单，direction为null时撤销两个方向
+     */
+    public CompletableFuture<Integer> cancelAll(Long userId, Direction direction) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        CommandRingBuffer ringBuffer = this.sequencer.ringBuffer;
+        long seq = ringBuffer.next();
+        Command command = ringBuffer.get(seq);
+        command.type = CommandType.CANCEL_ALL;
+        command.userId = userId;
+        command.direction = direction;
+        command.future = cast(future);
+        ringBuffer.publish(seq);
+        return future;
+    }
+
+    /**
+     * 在撮合线程中获取买卖盘快照，包含此前已提交的所有命令的结果
+     */
+    public CompletableFuture<Depth> getDepth(String symbol, int levels) {
+        CompletableFuture<Depth> future = new CompletableFuture<>();
+        CommandRingBuffer ringBuffer = this.sequencer.ringBuffer;
+        long seq = ringBuffer.next();
+        Command command = ringBuffer.get(seq);
+        command.type = CommandType.DEPTH;
+        command.symbol = symbol;
+        command.levels = levels;
+        command.future = cast(future);
+        ringBuffer.publish(seq);
+        return future;
+    }
+
+    /**
+     * 等待所有撮合线程空闲后写入快照，快照与已接受的命令完全一致
+     */
+    public CompletableFuture<Path> snapshot(Path snapshotDir) {
+        CompletableFuture<Path> future = new CompletableFuture<>();
+        CommandRingBuffer ringBuffer = this.sequencer.ringBuffer;
+        long seq = ringBuffer.next();
+        Command command = ringBuffer.get(seq);
+        command.type = CommandType.SNAPSHOT;
+        command.path = snapshotDir;
+        command.future = cast(future);
+        ringBuffer.publish(seq);
+        return future;
+    }
+
+    /**
+     * 等待所有撮合线程空闲后并行执行全量验证
+     */
+    public CompletableFuture<Void> validate() {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        CommandRingBuffer ringBuffer = this.sequencer.ringBuffer;
+        long seq = ringBuffer.next();
+        Command command = ringBuffer.get(seq);
+        command.type = CommandType.VALIDATE;
+        command.future = cast(future);
+        ringBuffer.publish(seq);
+        return future;
+    }
+
+    /**
+     * 定期写入快照
+     */
+    public synchronized void scheduleSnapshots(Path snapshotDir, long periodMillis) {
+        scheduler().scheduleAtFixedRate(() -> snapshot(snapshotDir), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 定期全量验证，验证失败时回调onError
+     */
+    public synchronized void scheduleValidation(long periodMillis, Consumer<Throwable> onError) {
+        scheduler().scheduleAtFixedRate(() -> validate().exceptionally(e -> {
+            onError.accept(e);
+            return null;
+        }), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    ScheduledExecutorService scheduler() {
+        if (this.scheduler == null) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "trading-engine-scheduler");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return this.scheduler;
+    }
+
+    /**
+     * 在定序线程等待所有撮合线程处理完已提交的命令
+     */
+    void awaitLanes() {
+        for (MatchLane lane : this.lanes.values()) {
+            awaitLane(lane);
+        }
+    }
+
+    void awaitLane(MatchLane lane) {
+        int idle = 0;
+        while (!lane.isIdle()) {
+            idle = CommandProcessor.idle(idle);
+        }
+    }
+
+    /**
+     * 定序线程。
+     *
+     * 使用日志时成组提交：已写入日志的命令先暂存，定序线程空闲、未fsync的记录达到syncBatch或等待超过syncDelayMillis时执行一次fsync，
+     * 之后才按顺序交给撮合线程或完成future，因此已确认的命令在主机崩溃后仍能从日志恢复。被拒绝的命令不写入日志，立即返回。
+     */
+    class Sequencer extends CommandProcessor {
+
+        // 等待fsync后执行的转交和确认，按接受顺序:
+        final List<Runnable> pending = new ArrayList<>();
+
+        Sequencer(int capacity) {
+            super("trading-engine", capacity);
+        }
+
+        @Override
+        Object execute(Command command) {
+            Object result = accept(command);
+            Journal journal = engine.getJournal();
+            // 日志已自行fsync，或已到成组提交的时间:
+            if (!this.pending.isEmpty() && (!journal.hasUnsynced() || journal.isSyncDue())) {
+                commit();
+            }
+            return result;
+        }
+
+        @Override
+        void onIdle() {
+            if (!this.pending.isEmpty()) {
+                commit();
+            }
+        }
+
+        // fsync后执行暂存的转交和确认:
+        void commit() {
+            engine.getJournal().flush();
+            for (Runnable action : this.pending) {
+                action.run();
+            }
+            this.pending.clear();
+        }
+
+        // 不使用日志时立即执行，否则等待fsync:
+        void forward(Runnable action) {
+            if (engine.getJournal() == null) {
+                action.run();
+            } else {
+                this.pending.add(action);
+            }
+        }
+
+        // 由定序线程完成的命令，使用日志时等待fsync后再完成:
+        Object complete(CompletableFuture<Object> future, Object result) {
+            if (engine.getJournal() == null) {
+                return result;
+            }
+            this.pending.add(() -> future.complete(result));
+            return FORWARDED;
+        }
+
+        // 读取撮合线程的状态前，先提交暂存的命令:
+        void commitAndAwait(MatchLane lane) {
+            onIdle();
+            awaitLane(lane);
+        }
+
+        Object accept(Command command) {
+            CompletableFuture<Object> future = command.future;
+            return switch (command.type) {
+            case DEPOSIT -> {
+                engine.deposit(command.userId, command.assetId, command.amount);
+                yield complete(future, null);
+            }
+            case CREATE_ORDER -> {
+                MatchLane lane = lanes.get(command.symbol);
+                if (command.orderType == OrderType.MARKET && lane != null) {
+                    // 市价单按对手盘计算限价，等待撮合线程处理完此前的命令后读取订单簿:
+                    commitAndAwait(lane);
+                }
+                Order order = engine.acceptOrder(command.userId, command.symbol, command.orderType, command.direction, command.price, command.amount);
+                MatchLane target = lanes.get(order.symbol.name);
+                forward(() -> target.submit(CommandType.CREATE_ORDER, order, null, future));
+                yield FORWARDED;
+            }
+            case CREATE_STOP_ORDER -> {
+                Order order = engine.acceptStopOrder(command.userId, command.symbol, command.orderType, command.direction, command.stopPrice, command.price,
+                        command.amount);
+                MatchLane target = lanes.get(order.symbol.name);
+                forward(() -> target.submit(CommandType.CREATE_ORDER, order, null, future));
+                yield FORWARDED;
+            }
+            case CREATE_ORDERS -> {
+                BatchResult result = engine.acceptBatch(command.requests);
+                if (result.accepted == 0) {
+                    yield result;
+                }
+                MatchLane.Fanout fanout = new MatchLane.Fanout(result.accepted, result, future);
+                forward(() -> {
+                    for (Order order : result.orders) {
+                        if (order != null) {
+                            lanes.get(order.symbol.name).submitBatch(order, fanout);
+                        }
+                    }
+                });
+                yield FORWARDED;
+            }
+            case CANCEL_ALL -> {
+                long lastOrderId = engine.acceptCancelAll(command.userId, command.direction);
+                // 只分发到有该用户订单的撮合线程:
+                Map<String, List<Order>> groups = engine.getOrderService().getOrdersBySymbol(command.userId, command.direction, lastOrderId);
+                if (groups.isEmpty()) {
+                    yield complete(future, 0);
+                }
+                MatchLane.Fanout fanout = new MatchLane.Fanout(groups.size(), null, future);
+                Long userId = command.userId;
+                forward(() -> {
+                    for (Entry<String, List<Order>> entry : groups.entrySet()) {
+                        lanes.get(entry.getKey()).submitCancelAll(userId, entry.getValue(), fanout);
+                    }
+                });
+                yield FORWARDED;
+            }
+            case CANCEL_ORDER -> {
+                Order order = engine.acceptCancel(command.userId, command.orderId);
+                MatchLane target = lanes.get(order.symbol.name);
+                forward(() -> target.submit(CommandType.CANCEL_ORDER, order, null, future));
+                yield FORWARDED;
+            }
+            case AMEND_ORDER -> {
+                Order order = engine.acceptAmend(command.userId, command.orderId, command.amount);
+                MatchLane target = lanes.get(order.symbol.name);
+                BigDecimal amount = command.amount;
+                forward(() -> target.submit(CommandType.AMEND_ORDER, order, amount, future));
+                yield FORWARDED;
+            }
+            case DEPTH -> {
+                MatchLane lane = lanes.get(command.symbol);
+                if (lane == null) {
+                    throw new IllegalArgumentException("Invalid symbol.");
+                }
+                // 排在暂存的命令之后，包含此前已提交的所有命令的结果:
+                int levels = command.levels;
+                forward(() -> lane.submitDepth(levels, future));
+                yield FORWARDED;
+            }
+            case SNAPSHOT -> {
+                onIdle();
+                awaitLanes();
+                yield engine.writeSnapshot(command.path);
+            }
+            case VALIDATE -> {
+                onIdle();
+                awaitLanes();
+                engine.validate();
+                yield null;
+            }
+            default -> throw new IllegalArgumentException("Invalid command type: " + command.type);
+            };
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static CompletableFuture<Object> cast(CompletableFuture<?> future) {
+        return (CompletableFuture<Object>) future;
+    }
+}
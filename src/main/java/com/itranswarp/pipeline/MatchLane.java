@@ -0,0 +1,126 @@
+package com.itranswarp.pipeline;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.itranswarp.BatchResult;
+import com.itranswarp.TradingEngine;
+import com.itranswarp.order.Order;
+import com.itranswarp.util.FixedPoint;
+
+/**
+ * 单个交易品种的撮合线程，按接受顺序撮合和撤销该品种的订单。
+ */
+class MatchLane extends CommandProcessor {
+
+    final TradingEngine engine;
+    final String symbol;
+
+    MatchLane(TradingEngine engine, String symbol, int capacity) {
+        super("match-" + symbol, capacity);
+        this.engine = engine;
+        this.symbol = symbol;
+    }
+
+    /**
+     * 由定序线程提交已接受的订单、撤单或改单，amount为改单后的数量
+     */
+    void submit(CommandType type, Order order, BigDecimal amount, CompletableFuture<Object> future) {
+        long seq = this.ringBuffer.next();
+        Command command = this.ringBuffer.get(seq);
+        command.type = type;
+        command.order = order;
+        command.amount = amount;
+        command.future = future;
+        this.ringBuffer.publish(seq);
+    }
+
+    /**
+     * 由定序线程提交批量下单中已接受的订单，批量中最后一个撮合完成的订单返回BatchResult
+     */
+    void submitBatch(Order order, Fanout fanout) {
+        long seq = this.ringBuffer.next();
+        Command command = this.ringBuffer.get(seq);
+        command.type = CommandType.CREATE_ORDERS;
+        command.order = order;
+        command.fanout = fanout;
+        command.future = fanout.future;
+        this.ringBuffer.publish(seq);
+    }
+
+    /**
+     * 由定序线程提交批量撤单中本品种的订单，最后一个完成的撮合线程返回撤销的订单总数
+     */
+    void submitCancelAll(Long userId, List<Order> orders, Fanout fanout) {
+        long seq = this.ringBuffer.next();
+        Command command = this.ringBuffer.get(seq);
+        command.type = CommandType.CANCEL_ALL;
+        command.userId = userId;
+        command.orders = orders;
+        command.fanout = fanout;
+        command.future = fanout.future;
+        this.ringBuffer.publish(seq);
+    }
+
+    /**
+     * 由定序线程提交买卖盘快照请求
+     */
+    void submitDepth(int levels, CompletableFuture<Object> future) {
+        long seq = this.ringBuffer.next();
+        Command command = this.ringBuffer.get(seq);
+        command.type = CommandType.DEPTH;
+        command.levels = levels;
+        command.future = future;
+        this.ringBuffer.publish(seq);
+    }
+
+    @Override
+    Object execute(Command command) {
+        return switch (command.type) {
+        case CREATE_ORDER -> {
+            this.engine.matchOrder(command.order);
+            yield command.order;
+        }
+        case CREATE_ORDERS -> {
+            this.engine.matchOrder(command.order);
+            yield command.fanout.done() ? command.fanout.batch : FORWARDED;
+        }
+        case CANCEL_ALL -> {
+            int count = this.engine.cancelOrders(command.userId, this.symbol, command.orders);
+            command.fanout.cancelled.addAndGet(count);
+            yield command.fanout.done() ? command.fanout.cancelled.get() : FORWARDED;
+        }
+        case CANCEL_ORDER -> this.engine.cancel(command.order);
+        case AMEND_ORDER -> this.engine.amend(command.order, FixedPoint.toLong(command.amount));
+        case DEPTH -> this.engine.getDepth(this.symbol, command.levels);
+        default -> throw new IllegalArgumentException("Invalid command type: " + command.type);
+        };
+    }
+
+    /**
+     * 分发到多个撮合线程的命令，所有部分执行完毕后由最后一个完成的撮合线程完成future
+     */
+    static class Fanout {
+
+        final AtomicInteger pending;
+        final CompletableFuture<Object> future;
+
+        // CREATE_ORDERS的结果:
+        final BatchResult batch;
+
+        // CANCEL_ALL已撤销的订单数量:
+        final AtomicInteger cancelled = new AtomicInteger();
+
+        Fanout(int parts, BatchResult batch, CompletableFuture<Object> future) {
+            this.pending = new AtomicInteger(parts);
+            this.batch = batch;
+            this.future = future;
+        }
+
+        boolean done() {
+            return this.pending.decrementAndGet() == 0;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.itranswarp.query;
+
+import java.math.BigDecimal;
+
+import com.itranswarp.order.Direction;
+import com.itranswarp.order.OrderStatus;
+import com.itranswarp.order.OrderType;
+import com.itranswarp.util.FixedPoint;
+
+/**
+ * 副本中的订单状态，不可变，每次变化替换为新对象。
+ */
+public final class OrderView {
+
+    public final long sequenceId;
+    public final long userId;
+    public final String symbol;
+    public final OrderType type;
+    public final Direction direction;
+    public final long price;
+    public final long amount;
+    public final long unfilledAmount;
+    public final OrderStatus status;
+
+    OrderView(StateEvent event) {
+        this.sequenceId = event.orderId;
+        this.userId = event.userId;
+        this.symbol = event.symbol;
+        this.type = event.type;
+        this.direction = event.direction;
+        this.price = event.price;
+        this.amount = event.amount;
+        this.unfilledAmount = event.unfilledAmount;
+        this.status = event.status;
+    }
+
+    public BigDecimal getPrice() {
+        return FixedPoint.toBigDecimal(price);
+    }
+
+    public BigDecimal getAmount() {
+        return FixedPoint.toBigDecimal(amount);
+    }
+
+    public BigDecimal getUnfilledAmount() {
+        return FixedPoint.toBigDecimal(unfilledAmount);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%04.2f %02.2f [sequenceId=%s, symbol=%s, userId=%s, type=%s, direction=%s, amount=%s, status=%s]", getPrice(),
+                getUnfilledAmount(), sequenceId, symbol, userId, type, direction, getAmount(), status);
+    }
+}
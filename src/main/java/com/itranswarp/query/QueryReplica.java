@@ -0,0 +1,233 @@
+package com.itranswarp.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.LockSupport;
+
+import com.itranswarp.assets.Asset;
+import com.itranswarp.order.OrderStatus;
+
+/**
+ * 只读查询副本，在独立线程中按序应用StatePublisher发布的状态变化。
+ *
+ * 余额和活动订单存储在ConcurrentHashMap中，值为不可变对象，任意多个线程可以无锁读取，不访问引擎正在修改的对象。
+ * 副本最多落后StatePublisher一个缓冲区的容量，需要读到自己刚提交的命令时，先调用awaitSequence()等待副本追上。
+ */
+public class QueryReplica {
+
+    final StatePublisher publisher;
+    final Thread thread;
+    final int recentTrades;
+
+    // 下一个待应用的序号，即已应用的变化数量:
+    volatile long applied = 0;
+    volatile boolean running = false;
+
+    // 副本线程因异常退出，正常停止时为null:
+    volatile RuntimeException error = null;
+
+    // userId -> (assetId -> Asset)，每次变化放入新的Asset:
+    final ConcurrentMap<Long, ConcurrentMap<String, Asset>> assets = new ConcurrentHashMap<>();
+
+    // 活动订单:
+    final ConcurrentMap<Long, OrderView> orders = new ConcurrentHashMap<>();
+    final ConcurrentMap<Long, ConcurrentMap<Long, OrderView>> userOrders = new ConcurrentHashMap<>();
+
+    // 每个交易品种的最近成交:
+    final ConcurrentMap<String, TradeHistory> trades = new ConcurrentHashMap<>();
+
+    QueryReplica(StatePublisher publisher, String name, int recentTrades) {
+        if (recentTrades <= 0) {
+            throw new IllegalArgumentException("Invalid recent trades.");
+        }
+        this.publisher = publisher;
+        this.recentTrades = recentTrades;
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        this.running = true;
+        this.thread.start();
+    }
+
+    /**
+     * 停止副本线程，停止后不再更新，也不再阻塞StatePublisher
+     */
+    public void shutdown() throws InterruptedException {
+        this.running = false;
+        this.thread.join();
+    }
+
+    /**
+     * 副本线程仍在运行
+     */
+    public boolean isRunning() {
+        return this.thread.isAlive();
+    }
+
+    public RuntimeException getError() {
+        return this.error;
+    }
+
+    /**
+     * 已应用的状态变化数量
+     */
+    public long getAppliedSequence() {
+        return this.applied;
+    }
+
+    /**
+     * 尚未应用的状态变化数量
+     */
+    public long getLag() {
+        return Math.max(0, this.publisher.getSequence() - this.applied);
+    }
+
+    /**
+     * 等待副本应用前sequence条状态变化，超时返回false
+     */
+    public boolean awaitSequence(long sequence, long timeoutMillis) {
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000;
+        while (this.applied < sequence) {
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            LockSupport.parkNanos(10_000);
+        }
+        return true;
+    }
+
+    /**
+     * 返回资产，用户未使用过该资产时返回null
+     */
+    public Asset getAsset(long userId, String assetId) {
+        Map<String, Asset> map = this.assets.get(userId);
+        return map == null ? null : map.get(assetId);
+    }
+
+    /**
+     * 返回活动订单，订单已完全成交或撤销时返回null
+     */
+    public OrderView getOrder(long sequenceId) {
+        return this.orders.get(sequenceId);
+    }
+
+    /**
+     * 返回用户的活动订单，按序列号排序
+     */
+    public List<OrderView> getOrders(long userId) {
+        Map<Long, OrderView> map = this.userOrders.get(userId);
+        if (map == null) {
+            return List.of();
+        }
+        List<OrderView> list = new ArrayList<>(map.values());
+        list.sort((o1, o2) -> Long.compare(o1.sequenceId, o2.sequenceId));
+        return list;
+    }
+
+    public int getOrderCount() {
+        return this.orders.size();
+    }
+
+    /**
+     * 返回交易品种最近的最多n笔成交，最新的在前
+     */
+    public List<TradeView> getRecentTrades(String symbol, int n) {
+        TradeHistory history = this.trades.get(symbol);
+        return history == null ? List.of() : history.recent(n);
+    }
+
+    void run() {
+        try {
+            int idle = 0;
+            while (this.running) {
+                long seq = this.applied;
+                StateEvent event = this.publisher.get(seq);
+                if (event.published != seq) {
+                    idle = idle(idle);
+                    continue;
+                }
+                idle = 0;
+                apply(event);
+                // 应用后才释放槽位:
+                this.applied = seq + 1;
+            }
+        } catch (RuntimeException e) {
+            this.error = e;
+        } finally {
+            // 停止后不再阻塞发布者:
+            this.running = false;
+            this.publisher.removeReplica(this);
+        }
+    }
+
+    void apply(StateEvent event) {
+        switch (event.kind) {
+        case StateEvent.BALANCE -> {
+            this.assets.computeIfAbsent(event.userId, k -> new ConcurrentHashMap<>()).put(event.assetId, new Asset(event.available, event.frozen));
+        }
+        case StateEvent.ORDER -> {
+            Long orderId = event.orderId;
+            if (event.status == OrderStatus.FULLY_FILLED || event.status == OrderStatus.CANCELLED) {
+                this.orders.remove(orderId);
+                Map<Long, OrderView> map = this.userOrders.get(event.userId);
+                if (map != null) {
+                    map.remove(orderId);
+                }
+            } else {
+                OrderView order = new OrderView(event);
+                this.orders.put(orderId, order);
+                this.userOrders.computeIfAbsent(event.userId, k -> new ConcurrentHashMap<>()).put(orderId, order);
+            }
+        }
+        case StateEvent.TRADE -> {
+            this.trades.computeIfAbsent(event.symbol, k -> new TradeHistory(this.recentTrades)).add(new TradeView(event));
+        }
+        default -> throw new IllegalStateException("Invalid event: " + event.kind);
+        }
+    }
+
+    // 空闲时先自旋，再让出CPU，最后短暂休眠:
+    static int idle(int counter) {
+        if (counter < 100) {
+            Thread.onSpinWait();
+        } else if (counter < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50_000);
+        }
+        return counter < 200 ? counter + 1 : counter;
+    }
+
+    /**
+     * 固定容量的最近成交，只由副本线程写入，读取时短暂加锁，不影响撮合线程
+     */
+    static final class TradeHistory {
+
+        final TradeView[] trades;
+        long count = 0;
+
+        TradeHistory(int capacity) {
+            this.trades = new TradeView[capacity];
+        }
+
+        synchronized void add(TradeView trade) {
+            this.trades[(int) (this.count % this.trades.length)] = trade;
+            this.count++;
+        }
+
+        synchronized List<TradeView> recent(int n) {
+            int size = (int) Math.min(Math.min(n, this.trades.length), this.count);
+            List<TradeView> list = new ArrayList<>(size);
+            for (long i = this.count - 1; i >= this.count - size; i--) {
+                list.add(this.trades[(int) (i % this.trades.length)]);
+            }
+            return Collections.unmodifiableList(list);
+        }
+    }
+}
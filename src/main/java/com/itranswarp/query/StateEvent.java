@@ -0,0 +1,40 @@
+package com.itranswarp.query;
+
+import com.itranswarp.order.Direction;
+import com.itranswarp.order.OrderStatus;
+import com.itranswarp.order.OrderType;
+
+/**
+ * 环形缓冲区中预分配的状态变化，发布者复制字段，不引用引擎中的可变对象。
+ */
+final class StateEvent {
+
+    static final int BALANCE = 1;
+    static final int ORDER = 2;
+    static final int TRADE = 3;
+
+    int kind;
+
+    // BALANCE:
+    long userId;
+    String assetId;
+    long available;
+    long frozen;
+
+    // ORDER和TRADE，TRADE时为taker:
+    long orderId;
+    String symbol;
+    OrderType type;
+    Direction direction;
+    long price;
+    long amount;
+    long unfilledAmount;
+    OrderStatus status;
+
+    // TRADE:
+    long makerOrderId;
+    long makerUserId;
+
+    // 已发布的序号:
+    volatile long published = -1;
+}
@@ -0,0 +1,27 @@
+package com.itranswarp.query;
+
+import com.itranswarp.order.Order;
+
+/**
+ * 接收引擎的状态变化。
+ *
+ * 在修改状态的线程中同步调用，余额变化在持有分片锁时发布，同一账户的变化按发生顺序到达。
+ * 每次报告的都是变化后的完整状态，实现应尽快返回，例如写入环形缓冲区后由其他线程处理。
+ */
+public interface StateListener {
+
+    /**
+     * 账户余额变化，available和frozen为变化后的余额
+     */
+    void onBalanceChanged(long userId, String assetId, long available, long frozen);
+
+    /**
+     * 订单创建、成交、改单或撤销后的状态
+     */
+    void onOrderChanged(Order order);
+
+    /**
+     * 逐笔成交，在双方订单的状态之前发布
+     */
+    void onTrade(Order takerOrder, Order makerOrder, long price, long amount);
+}
@@ -0,0 +1,141 @@
+package com.itranswarp.query;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.itranswarp.order.Order;
+
+/**
+ * 把引擎的状态变化发布到多生产者、多消费者的环形缓冲区，每个QueryReplica独立读取全部变化。
+ *
+ * 发布者原子递增获取序号，不加锁；只有最慢的副本落后一整个缓冲区时才等待，因此副本最多落后capacity条变化。
+ * 副本停止或因异常退出时从发布者中移除，不再阻塞发布。
+ * 副本必须在引擎设置StatePublisher之前创建，才能收到初始状态。
+ */
+public class StatePublisher implements StateListener {
+
+    final StateEvent[] slots;
+    final int mask;
+
+    // 下一个待分配的序号:
+    final AtomicLong claimed = new AtomicLong(0);
+
+    // 所有副本中最小的已应用序号，可能过时，只会偏小:
+    volatile long gatingSequence = 0;
+
+    volatile QueryReplica[] replicas = new QueryReplica[0];
+
+    public StatePublisher(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be power of 2.");
+        }
+        this.slots = new StateEvent[capacity];
+        for (int i = 0; i < capacity; i++) {
+            this.slots[i] = new StateEvent();
+        }
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * 创建并启动一个只读副本，recentTrades为每个交易品种保留的最近成交数量
+     */
+    public synchronized QueryReplica createReplica(String name, int recentTrades) {
+        if (this.claimed.get() > 0) {
+            throw new IllegalStateException("Replica must be created before publishing.");
+        }
+        QueryReplica replica = new QueryReplica(this, name, recentTrades);
+        QueryReplica[] replicas = Arrays.copyOf(this.replicas, this.replicas.length + 1);
+        replicas[replicas.length - 1] = replica;
+        this.replicas = replicas;
+        replica.start();
+        return replica;
+    }
+
+    /**
+     * 移除已停止的副本，此后不再等待它读取
+     */
+    synchronized void removeReplica(QueryReplica replica) {
+        QueryReplica[] replicas = Arrays.stream(this.replicas).filter(r -> r != replica).toArray(QueryReplica[]::new);
+        this.replicas = replicas;
+    }
+
+    /**
+     * 已发布的状态变化数量
+     */
+    public long getSequence() {
+        return this.claimed.get();
+    }
+
+    @Override
+    public void onBalanceChanged(long userId, String assetId, long available, long frozen) {
+        long seq = next();
+        StateEvent event = get(seq);
+        event.kind = StateEvent.BALANCE;
+        event.userId = userId;
+        event.assetId = assetId;
+        event.available = available;
+        event.frozen = frozen;
+        event.published = seq;
+    }
+
+    @Override
+    public void onOrderChanged(Order order) {
+        long seq = next();
+        StateEvent event = get(seq);
+        event.kind = StateEvent.ORDER;
+        copy(event, order);
+        event.published = seq;
+    }
+
+    @Override
+    public void onTrade(Order takerOrder, Order makerOrder, long price, long amount) {
+        long seq = next();
+        StateEvent event = get(seq);
+        event.kind = StateEvent.TRADE;
+        copy(event, takerOrder);
+        event.price = price;
+        event.amount = amount;
+        event.makerOrderId = makerOrder.sequenceId;
+        event.makerUserId = makerOrder.userId;
+        event.published = seq;
+    }
+
+    void copy(StateEvent event, Order order) {
+        event.orderId = order.sequenceId;
+        event.userId = order.userId;
+        event.symbol = order.symbol.name;
+        event.type = order.type;
+        event.direction = order.direction;
+        event.price = order.price;
+        event.amount = order.amount;
+        event.unfilledAmount = order.unfilledAmount;
+        event.status = order.status;
+    }
+
+    // 获取序号，最慢的副本尚未读取该槽位的上一轮变化时等待:
+    long next() {
+        long seq = this.claimed.getAndIncrement();
+        while (seq - this.gatingSequence >= this.slots.length) {
+            long min = minApplied();
+            this.gatingSequence = min;
+            if (seq - min >= this.slots.length) {
+                LockSupport.parkNanos(1000);
+            }
+        }
+        return seq;
+    }
+
+    long minApplied() {
+        long min = Long.MAX_VALUE;
+        for (QueryReplica replica : this.replicas) {
+            min = Math.min(min, replica.applied);
+        }
+        // 没有副本时不等待:
+        return min == Long.MAX_VALUE ? this.claimed.get() : min;
+    }
+
+    StateEvent get(long seq) {
+        return this.slots[(int) seq & this.mask];
+    }
+}
@@ -0,0 +1,35 @@
+package com.itranswarp.query;
+
+import com.itranswarp.order.Direction;
+
+/**
+ * 副本中的一笔成交，不可变。
+ */
+public final class TradeView {
+
+    public final String symbol;
+    public final long takerOrderId;
+    public final long takerUserId;
+    public final long makerOrderId;
+    public final long makerUserId;
+    public final Direction takerDirection;
+    public final long price;
+    public final long amount;
+
+    TradeView(StateEvent event) {
+        this.symbol = event.symbol;
+        this.takerOrderId = event.orderId;
+        this.takerUserId = event.userId;
+        this.makerOrderId = event.makerOrderId;
+        this.makerUserId = event.makerUserId;
+        this.takerDirection = event.direction;
+        this.price = event.price;
+        this.amount = event.amount;
+    }
+
+    @Override
+    public String toString() {
+        return "TradeView [symbol=" + symbol + ", taker=" + takerOrderId + ", maker=" + makerOrderId + ", " + takerDirection + ", price=" + price
+                + ", amount=" + amount + "]";
+    }
+}
@@ -0,0 +1,174 @@
+package com.itranswarp.replication;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import com.itranswarp.TradingEngine;
+import com.itranswarp.journal.CommandCodec;
+
+/**
+ * 热备节点，在独立线程中按序应用主节点复制的记录，并按sequenceId确认。
+ *
+ * 备节点的引擎与主节点一样逐条撮合和清算，状态始终是最新的，提升为主节点时不需要回放日志。
+ * 引擎使用预写日志时，复制的记录同时写入备节点自己的日志。收到状态哈希时与本地引擎比较并报告结果。
+ * 复制期间引擎只能由复制线程访问，promote()之后才能由调用方使用。
+ */
+public class ReplicationFollower implements Closeable {
+
+    final TradingEngine engine;
+    final SocketChannel channel;
+    final Thread thread;
+
+    final ByteBuffer input = ByteBuffer.allocateDirect(1024 * 1024);
+    final ByteBuffer output = ByteBuffer.allocate(ReplicationPrimary.FRAME_SIZE);
+
+    volatile boolean running = true;
+    volatile long appliedSequenceId;
+    volatile long checkedSequenceId = 0;
+    volatile int hashMismatches = 0;
+
+    // 复制因错误停止，正常断开时为null:
+    volatile RuntimeException error = null;
+
+    /**
+     * 连接主节点，从engine已应用的下一条记录开始复制
+     */
+    public ReplicationFollower(TradingEngine engine, InetSocketAddress primary) {
+        this.engine = engine;
+        this.appliedSequenceId = engine.getLastSequenceId();
+        try {
+            this.channel = SocketChannel.open(primary);
+            this.channel.socket().setTcpNoDelay(true);
+            send(ReplicationPrimary.HELLO, this.appliedSequenceId, 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.thread = new Thread(this::run, "replication-follower");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public long getAppliedSequenceId() {
+        return this.appliedSequenceId;
+    }
+
+    /**
+     * 最后一次比较状态哈希时的sequenceId
+     */
+    public long getCheckedSequenceId() {
+        return this.checkedSequenceId;
+    }
+
+    public int getHashMismatches() {
+        return this.hashMismatches;
+    }
+
+    public RuntimeException getError() {
+        return this.error;
+    }
+
+    /**
+     * 复制线程仍在运行
+     */
+    public boolean isRunning() {
+        return this.thread.isAlive();
+    }
+
+    /**
+     * 停止复制并返回引擎，此后由调用方作为主节点继续处理命令
+     */
+    public TradingEngine promote() {
+        close();
+        return this.engine;
+    }
+
+    @Override
+    public void close() {
+        this.running = false;
+        try {
+            this.channel.close();
+            this.thread.join();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void run() {
+        try {
+            while (this.running && this.channel.read(this.input) >= 0) {
+                this.input.flip();
+                long before = this.appliedSequenceId;
+                while (this.running && applyFrame()) {
+                    // 应用所有完整的帧
+                }
+                this.input.compact();
+                // 每读取一批确认一次:
+                if (this.appliedSequenceId != before) {
+                    send(ReplicationPrimary.ACK, this.appliedSequenceId, 0);
+                }
+            }
+        } catch (IOException e) {
+            // 主节点断开或已关闭:
+        } catch (RuntimeException e) {
+            this.error = e;
+        }
+        this.running = false;
+        ReplicationPrimary.closeQuietly(this.channel);
+    }
+
+    // 处理input中一个完整的帧，数据不足时返回false:
+    boolean applyFrame() throws IOException {
+        int remaining = this.input.remaining();
+        if (remaining < 1) {
+            return false;
+        }
+        int start = this.input.position();
+        byte kind = this.input.get(start);
+        switch (kind) {
+        case ReplicationPrimary.RECORD -> {
+            if (remaining < 1 + CommandCodec.HEADER_SIZE || remaining < 1 + CommandCodec.HEADER_SIZE + this.input.getInt(start + 1)) {
+                return false;
+            }
+            this.input.position(start + 1);
+            this.appliedSequenceId = this.engine.applyRecord(this.input);
+        }
+        case ReplicationPrimary.STATE_HASH -> {
+            if (remaining < ReplicationPrimary.FRAME_SIZE) {
+                return false;
+            }
+            long sequenceId = this.input.getLong(start + 1);
+            long hash = this.input.getLong(start + 9);
+            this.input.position(start + ReplicationPrimary.FRAME_SIZE);
+            boolean ok = sequenceId == this.engine.getLastSequenceId() && hash == this.engine.stateHash();
+            if (!ok) {
+                this.hashMismatches++;
+            }
+            this.checkedSequenceId = sequenceId;
+            send(ReplicationPrimary.HASH_CHECKED, sequenceId, ok ? 1 : 0);
+        }
+        case ReplicationPrimary.REJECT -> {
+            if (remaining < ReplicationPrimary.FRAME_SIZE) {
+                return false;
+            }
+            throw new IllegalStateException("Primary cannot resume after sequence id " + this.appliedSequenceId + ", last sequence id is "
+                    + this.input.getLong(start + 1) + ". Restore from snapshot first.");
+        }
+        default -> throw new IllegalStateException("Invalid frame: " + kind);
+        }
+        return true;
+    }
+
+    void send(byte kind, long sequenceId, long value) throws IOException {
+        this.output.clear();
+        this.output.put(kind).putLong(sequenceId).putLong(value).flip();
+        while (this.output.hasRemaining()) {
+            this.channel.write(this.output);
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package com.itranswarp.replication;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+import com.itranswarp.TradingEngine;
+import com.itranswarp.journal.Journal;
+import com.itranswarp.journal.RecordListener;
+
+/**
+ * 主节点，把写入预写日志的每条记录复制到一个或多个备节点。
+ *
+ * 记录以CommandCodec编码原样复制到积压缓冲区，由每个备节点各自的发送线程写入socket，写日志的线程只复制字节，不等待网络和确认。
+ * 备节点连接时报告已应用的sequenceId，仍在积压缓冲区中时从下一条记录继续发送，否则拒绝，需要先从快照和日志恢复。
+ * 最慢的备节点落后一整个积压缓冲区时写日志的线程等待。
+ *
+ * 主节点发送的帧：RECORD(byte) 记录；STATE_HASH(byte) sequenceId(long) hash(long)；REJECT(byte) lastSequenceId(long)。
+ * 备节点发送的帧：kind(byte) sequenceId(long) value(long)，kind为HELLO、ACK或HASH_CHECKED。
+ */
+public class ReplicationPrimary implements RecordListener, Closeable {
+
+    static final byte RECORD = 1;
+    static final byte STATE_HASH = 2;
+    static final byte REJECT = 3;
+
+    static final byte HELLO = 1;
+    static final byte ACK = 2;
+    static final byte HASH_CHECKED = 3;
+
+    // 除RECORD以外的帧长度:
+    static final int FRAME_SIZE = 17;
+
+    final Journal journal;
+
+    // 积压缓冲区，按流中的字节位置循环使用:
+    final ByteBuffer backlog;
+    final int mask;
+
+    // sequenceId -> 记录在流中的位置:
+    final long[] positions;
+    final int indexMask;
+
+    // 流中已写入的字节数:
+    volatile long written = 0;
+
+    // 积压缓冲区中第一条和最后一条记录的sequenceId:
+    final long firstSequenceId;
+    volatile long lastSequenceId;
+
+    final ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE);
+
+    final ServerSocketChannel server;
+    final Thread acceptor;
+    volatile boolean running = true;
+
+    final List<Connection> connections = new CopyOnWriteArrayList<>();
+
+    /**
+     * 在address上监听备节点的连接，并接收journal此后写入的记录
+     *
+     * @param capacity 积压缓冲区的字节数，必须是2的幂
+     */
+    public ReplicationPrimary(Journal journal, InetSocketAddress address, int capacity) {
+        if (capacity < 4096 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be power of 2 and no less than 4096.");
+        }
+        this.journal = journal;
+        this.backlog = ByteBuffer.allocateDirect(capacity);
+        this.mask = capacity - 1;
+        // 每条记录至少32字节:
+        this.positions = new long[capacity / 32];
+        this.indexMask = this.positions.length - 1;
+        this.lastSequenceId = journal.getLastSequenceId();
+        this.firstSequenceId = this.lastSequenceId + 1;
+        try {
+            this.server = ServerSocketChannel.open();
+            this.server.bind(address);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        journal.setRecordListener(this);
+        this.acceptor = new Thread(this::accept, "replication-acceptor");
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+    }
+
+    public InetSocketAddress getAddress() {
+        try {
+            return (InetSocketAddress) this.server.getLocalAddress();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public int getFollowerCount() {
+        return this.connections.size();
+    }
+
+    /**
+     * 所有已连接的备节点都已确认的sequenceId，没有备节点时返回0
+     */
+    public long getAckedSequenceId() {
+        long min = Long.MAX_VALUE;
+        for (Connection connection : this.connections) {
+            min = Math.min(min, connection.ackedSequenceId);
+        }
+        return min == Long.MAX_VALUE ? 0 : min;
+    }
+
+    /**
+     * 等待至少followers个备节点，且所有备节点都确认sequenceId，超时返回false
+     */
+    public boolean awaitAck(int followers, long sequenceId, long timeoutMillis) {
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000;
+        while (this.connections.size() < followers || getAckedSequenceId() < sequenceId) {
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            LockSupport.parkNanos(10_000);
+        }
+        return true;
+    }
+
+    /**
+     * 备节点报告的状态哈希不一致的次数
+     */
+    public int getHashMismatches() {
+        int n = 0;
+        for (Connection connection : this.connections) {
+            n += connection.hashMismatches;
+        }
+        return n;
+    }
+
+    /**
+     * 发送引擎当前的状态哈希，备节点应用到相同的sequenceId后比较，必须在写日志的线程中、命令之间调用
+     */
+    public synchronized void publishStateHash(TradingEngine engine) {
+        this.frame.clear();
+        this.frame.put(STATE_HASH).putLong(engine.getLastSequenceId()).putLong(engine.stateHash()).flip();
+        write(this.frame, 0, FRAME_SIZE);
+    }
+
+    @Override
+    public synchronized void onRecord(long sequenceId, ByteBuffer buffer, int offset, int length) {
+        this.frame.clear();
+        this.frame.put(RECORD).flip();
+        long position = this.written;
+        awaitSpace(1 + length);
+        put(position, this.frame, 0, 1);
+        put(position + 1, buffer, offset, length);
+        this.positions[(int) sequenceId & this.indexMask] = position;
+        this.lastSequenceId = sequenceId;
+        this.written = position + 1 + length;
+    }
+
+    @Override
+    public void close() {
+        this.running = false;
+        this.journal.setRecordListener(null);
+        try {
+            this.server.close();
+            this.acceptor.join();
+            for (Connection connection : this.connections) {
+                connection.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void write(ByteBuffer src, int offset, int length) {
+        long position = this.written;
+        awaitSpace(length);
+        put(position, src, offset, length);
+        this.written = position + length;
+    }
+
+    // 等待最慢的备节点发送完即将被覆盖的字节:
+    void awaitSpace(int length) {
+        while (this.written + length - minSent() > this.backlog.capacity()) {
+            LockSupport.parkNanos(1000);
+        }
+    }
+
+    long minSent() {
+        long min = this.written;
+        for (Connection connection : this.connections) {
+            min = Math.min(min, connection.sent);
+        }
+        return min;
+    }
+
+    void put(long position, ByteBuffer src, int offset, int length) {
+        int p = (int) position & this.mask;
+        int first = Math.min(length, this.backlog.capacity() - p);
+        this.backlog.put(p, src, offset, first);
+        if (first < length) {
+            this.backlog.put(0, src, offset + first, length - first);
+        }
+    }
+
+    void accept() {
+        while (this.running) {
+            SocketChannel channel;
+            try {
+                channel = this.server.accept();
+            } catch (IOException e) {
+                // 已关闭:
+                return;
+            }
+            try {
+                channel.socket().setTcpNoDelay(true);
+                ByteBuffer hello = ByteBuffer.allocate(FRAME_SIZE);
+                while (hello.hasRemaining()) {
+                    if (channel.read(hello) < 0) {
+                        throw new IOException("Follower disconnected.");
+                    }
+                }
+                if (hello.get(0) != HELLO) {
+                    throw new IOException("Invalid hello.");
+                }
+                register(channel, hello.getLong(1));
+            } catch (IOException e) {
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    // 从备节点已应用的下一条记录开始发送:
+    synchronized void register(SocketChannel channel, long appliedSequenceId) throws IOException {
+        long start;
+        long last = this.lastSequenceId;
+        if (appliedSequenceId == last) {
+            start = this.written;
+        } else if (appliedSequenceId >= this.firstSequenceId - 1 && appliedSequenceId < last && last - appliedSequenceId <= this.positions.length) {
+            start = this.positions[(int) (appliedSequenceId + 1) & this.indexMask];
+        } else {
+            start = -1;
+        }
+        if (start < 0 || start < this.written - this.backlog.capacity()) {
+            ByteBuffer reject = ByteBuffer.allocate(FRAME_SIZE);
+            reject.put(REJECT).putLong(last).putLong(0).flip();
+            while (reject.hasRemaining()) {
+                channel.write(reject);
+            }
+            closeQuietly(channel);
+            return;
+        }
+        Connection connection = new Connection(channel, start, appliedSequenceId);
+        this.connections.add(connection);
+        connection.start();
+    }
+
+    static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * 一个备节点的连接，发送线程发送积压缓冲区中的帧，接收线程读取确认
+     */
+    class Connection {
+
+        final SocketChannel channel;
+        final ByteBuffer view;
+        final Thread sender;
+        final Thread receiver;
+
+        // 已发送到流中的位置:
+        volatile long sent;
+        volatile long ackedSequenceId;
+        volatile long checkedSequenceId = 0;
+        volatile int hashMismatches = 0;
+
+        Connection(SocketChannel channel, long sent, long ackedSequenceId) {
+            this.channel = channel;
+            this.view = backlog.duplicate();
+            this.sent = sent;
+            this.ackedSequenceId = ackedSequenceId;
+            this.sender = new Thread(this::send, "replication-sender");
+            this.sender.setDaemon(true);
+            this.receiver = new Thread(this::receive, "replication-receiver");
+            this.receiver.setDaemon(true);
+        }
+
+        void start() {
+            this.sender.start();
+            this.receiver.start();
+        }
+
+        void send() {
+            int idle = 0;
+            try {
+                while (running && this.channel.isOpen()) {
+                    long end = written;
+                    if (this.sent == end) {
+                        idle = idle(idle);
+                        continue;
+                    }
+                    idle = 0;
+                    int p = (int) this.sent & mask;
+                    int length = (int) Math.min(end - this.sent, backlog.capacity() - p);
+                    this.view.limit(p + length).position(p);
+                    while (this.view.hasRemaining()) {
+                        this.channel.write(this.view);
+                    }
+                    this.sent += length;
+                }
+            } catch (IOException e) {
+                // 备节点断开:
+            }
+            disconnect();
+        }
+
+        void receive() {
+            ByteBuffer buffer = ByteBuffer.allocate(FRAME_SIZE * 64);
+            try {
+                while (this.channel.read(buffer) >= 0) {
+                    buffer.flip();
+                    while (buffer.remaining() >= FRAME_SIZE) {
+                        byte kind = buffer.get();
+                        long sequenceId = buffer.getLong();
+                        long value = buffer.getLong();
+                        if (kind == ACK) {
+                            this.ackedSequenceId = sequenceId;
+                        } else if (kind == HASH_CHECKED) {
+                            this.checkedSequenceId = sequenceId;
+                            if (value == 0) {
+                                this.hashMismatches++;
+                            }
+                        }
+                    }
+                    buffer.compact();
+                }
+            } catch (IOException e) {
+                // 备节点断开:
+            }
+            disconnect();
+        }
+
+        void disconnect() {
+            connections.remove(this);
+            closeQuietly(this.channel);
+        }
+
+        void close() throws InterruptedException {
+            disconnect();
+            this.sender.join();
+            this.receiver.join();
+        }
+    }
+
+    // 空闲时先自旋，再让出CPU，最后短暂休眠:
+    static int idle(int counter) {
+        if (counter < 100) {
+            Thread.onSpinWait();
+        } else if (counter < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50_000);
+        }
+        return counter < 200 ? counter + 1 : counter;
+    }
+}
@@ -0,0 +1,141 @@
+package com.itranswarp.snapshot;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import com.itranswarp.assets.AssetService;
+import com.itranswarp.match.MatchEngine;
+import com.itranswarp.order.Direction;
+import com.itranswarp.order.Order;
+import com.itranswarp.order.OrderService;
+import com.itranswarp.order.OrderStatus;
+import com.itranswarp.order.OrderType;
+
+/**
+ * 通过内存映射读取SnapshotWriter写入的快照。
+ */
+public class SnapshotReader {
+
+    static final Direction[] DIRECTIONS = Direction.values();
+    static final OrderStatus[] STATUSES = OrderStatus.values();
+    static final OrderType[] ORDER_TYPES = OrderType.values();
+
+    /**
+     * 返回目录中最新的快照，不存在时返回null
+     */
+    public static Path latest(Path dir) {
+        if (!Files.isDirectory(dir)) {
+            return null;
+        }
+        try (Stream<Path> stream = Files.list(dir)) {
+            return stream.filter(p -> p.getFileName().toString().endsWith(SnapshotWriter.SUFFIX)).sorted().reduce((first, second) -> second).orElse(null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 读取快照并恢复到空的AssetService、OrderService和MatchEngine，返回快照的lastSequenceId
+     */
+    public static long read(Path file, AssetService assetService, OrderService orderService, Map<String, MatchEngine> matchEngines) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Snapshot is too large: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer, assetService, orderService, matchEngines);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static long read(MappedByteBuffer buffer, AssetService assetService, OrderService orderService, Map<String, MatchEngine> matchEngines) {
+        // 先校验整个文件:
+        int end = buffer.limit() - 4;
+        CRC32C crc = new CRC32C();
+        buffer.limit(end);
+        crc.update(buffer);
+        buffer.limit(end + 4);
+        if ((int) crc.getValue() != buffer.getInt(end)) {
+            throw new IllegalStateException("Invalid snapshot checksum.");
+        }
+        buffer.position(0);
+        if (buffer.getInt() != SnapshotWriter.MAGIC || buffer.getInt() != SnapshotWriter.VERSION) {
+            throw new IllegalStateException("Invalid snapshot header.");
+        }
+        long lastSequenceId = buffer.getLong();
+        orderService.restoreSequenceId(buffer.getLong());
+        String[] assetIds = new String[buffer.getInt()];
+        for (int i = 0; i < assetIds.length; i++) {
+            assetIds[i] = readString(buffer);
+        }
+        int assetCount = buffer.getInt();
+        for (int i = 0; i < assetCount; i++) {
+            long userId = buffer.getLong();
+            String assetId = assetIds[buffer.getShort()];
+            long available = buffer.getLong();
+            long frozen = buffer.getLong();
+            assetService.restore(userId, assetId, available, frozen);
+        }
+        int symbolCount = buffer.getInt();
+        for (int n = 0; n < symbolCount; n++) {
+            String symbol = readString(buffer);
+            MatchEngine matchEngine = matchEngines.get(symbol);
+            if (matchEngine == null) {
+                throw new IllegalStateException("Symbol not configured: " + symbol);
+            }
+            matchEngine.marketPrice = buffer.getLong();
+            int orderCount = buffer.getInt();
+            for (int i = 0; i < orderCount; i++) {
+                long sequenceId = buffer.getLong();
+                long userId = buffer.getLong();
+                Direction direction = DIRECTIONS[buffer.get()];
+                OrderType type = ORDER_TYPES[buffer.get()];
+                boolean triggered = buffer.get() != 0;
+                OrderStatus status = STATUSES[buffer.get()];
+                long price = buffer.getLong();
+                long amount = buffer.getLong();
+                Order order = new Order(sequenceId, matchEngine.symbol, userId, type, direction, price, amount, buffer.getLong());
+                order.triggered = triggered;
+                order.status = status;
+                order.unfilledAmount = buffer.getLong();
+                order.peakAmount = buffer.getLong();
+                order.hiddenAmount = buffer.getLong();
+                orderService.restoreOrder(order);
+                matchEngine.restore(order);
+            }
+            int stopCount = buffer.getInt();
+            for (int i = 0; i < stopCount; i++) {
+                long sequenceId = buffer.getLong();
+                long userId = buffer.getLong();
+                Direction direction = DIRECTIONS[buffer.get()];
+                OrderType type = ORDER_TYPES[buffer.get()];
+                long price = buffer.getLong();
+                long amount = buffer.getLong();
+                Order order = new Order(sequenceId, matchEngine.symbol, userId, type, direction, price, amount, buffer.getLong());
+                orderService.restoreOrder(order);
+                matchEngine.restore(order);
+            }
+        }
+        if (buffer.position() != end) {
+            throw new IllegalStateException("Unexpected snapshot length.");
+        }
+        return lastSequenceId;
+    }
+
+    static String readString(MappedByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,163 @@
+package com.itranswarp.snapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+import com.itranswarp.assets.AssetService;
+import com.itranswarp.match.MatchEngine;
+import com.itranswarp.match.OrderBook;
+import com.itranswarp.match.StopBook;
+import com.itranswarp.order.Order;
+import com.itranswarp.order.OrderService;
+
+/**
+ * 写入引擎状态快照。
+ * 
+ * 快照格式：
+ * 
+ * <pre>
+ * magic(int) version(int) lastSequenceId(long) orderSequenceId(long)
+ * assetIdCount(int) [length(short) bytes]...
+ * assetCount(int) [userId(long) assetIndex(short) available(long) frozen(long)]...
+ * symbolCount(int) [length(short) bytes marketPrice(long)
+ *     orderCount(int) [sequenceId(long) userId(long) direction(byte) type(byte) triggered(byte) status(byte) price(long) amount(long)
+ *         stopPrice(long) unfilledAmount(long) peakAmount(long) hiddenAmount(long)]...
+ *     stopCount(int) [sequenceId(long) userId(long) direction(byte) type(byte) price(long) amount(long) stopPrice(long)]...]...
+ * crc(int)
+ * </pre>
+ * 
+ * 订单按买盘、卖盘在订单簿中的先后顺序写入，恢复时按相同顺序加入订单簿即可保持时间优先。
+ * 订单簿中的订单恢复类型和是否已触发，冰山单恢复显示和隐藏的数量，未触发的止损单单独写入，未成交数量与数量相同。
+ */
+public class SnapshotWriter {
+
+    static final int MAGIC = 0x534e4150;
+    static final int VERSION = 5;
+    static final String SUFFIX = ".snapshot";
+
+    /**
+     * 写入快照文件，文件名为lastSequenceId，返回快照文件
+     */
+    public static Path write(Path dir, long lastSequenceId, AssetService assetService, OrderService orderService, Collection<MatchEngine> matchEngines) {
+        try {
+            Files.createDirectories(dir);
+            Path file = dir.resolve(String.format("%020d", lastSequenceId) + SUFFIX);
+            Path temp = dir.resolve(file.getFileName() + ".tmp");
+            try (OutputStream output = Files.newOutputStream(temp)) {
+                write(output, lastSequenceId, assetService, orderService, matchEngines);
+            }
+            // 写入完成后再改名，避免读到不完整的快照:
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static void write(OutputStream output, long lastSequenceId, AssetService assetService, OrderService orderService,
+            Collection<MatchEngine> matchEngines) throws IOException {
+        CRC32C crc = new CRC32C();
+        DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(output, 1024 * 1024), crc));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(lastSequenceId);
+        out.writeLong(orderService.getSequenceId());
+        // 资产id字典:
+        List<String> assetIds = new ArrayList<>();
+        Map<String, Integer> assetIndexes = new HashMap<>();
+        int[] assetCount = new int[1];
+        assetService.forEach((userId, assetId, available, frozen) -> {
+            if (!assetIndexes.containsKey(assetId)) {
+                assetIndexes.put(assetId, assetIds.size());
+                assetIds.add(assetId);
+            }
+            assetCount[0]++;
+        });
+        out.writeInt(assetIds.size());
+        for (String assetId : assetIds) {
+            writeString(out, assetId);
+        }
+        // 资产:
+        out.writeInt(assetCount[0]);
+        try {
+            assetService.forEach((userId, assetId, available, frozen) -> {
+                try {
+                    out.writeLong(userId);
+                    out.writeShort(assetIndexes.get(assetId));
+                    out.writeLong(available);
+                    out.writeLong(frozen);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        // 各交易品种的订单:
+        out.writeInt(matchEngines.size());
+        for (MatchEngine matchEngine : matchEngines) {
+            writeString(out, matchEngine.symbol.name);
+            out.writeLong(matchEngine.marketPrice);
+            out.writeInt(matchEngine.buyBook.size() + matchEngine.sellBook.size());
+            writeOrders(out, matchEngine.buyBook);
+            writeOrders(out, matchEngine.sellBook);
+            out.writeInt(matchEngine.buyStops.size() + matchEngine.sellStops.size());
+            writeStops(out, matchEngine.buyStops);
+            writeStops(out, matchEngine.sellStops);
+        }
+        out.flush();
+        // crc不计入校验范围:
+        int checksum = (int) crc.getValue();
+        out.writeInt(checksum);
+        out.flush();
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    static void writeStops(DataOutputStream out, StopBook stops) throws IOException {
+        for (Order order : stops) {
+            out.writeLong(order.sequenceId);
+            out.writeLong(order.userId);
+            out.writeByte(order.direction.ordinal());
+            out.writeByte(order.type.ordinal());
+            out.writeLong(order.price);
+            out.writeLong(order.amount);
+            out.writeLong(order.stopPrice);
+        }
+    }
+
+    static void writeOrders(DataOutputStream out, OrderBook book) throws IOException {
+        for (Order order : book) {
+            out.writeLong(order.sequenceId);
+            out.writeLong(order.userId);
+            out.writeByte(order.direction.ordinal());
+            out.writeByte(order.type.ordinal());
+            out.writeByte(order.triggered ? 1 : 0);
+            out.writeByte(order.status.ordinal());
+            out.writeLong(order.price);
+            out.writeLong(order.amount);
+            out.writeLong(order.stopPrice);
+            out.writeLong(order.unfilledAmount);
+            out.writeLong(order.peakAmount);
+            out.writeLong(order.hiddenAmount);
+        }
+    }
+}
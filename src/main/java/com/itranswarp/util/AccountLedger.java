@@ -0,0 +1,110 @@
+package com.itranswarp.util;
+
+/**
+ * 按(userId, asset)累加可用和冻结的变化，只在所属线程访问。批量清算、批量冻结和审计共用。
+ *
+ * 开放寻址哈希表(线性探测)，按首次出现的顺序遍历。只清理用过的槽位，容量不足时扩容，稳定后不分配内存。
+ */
+public final class AccountLedger {
+
+    long[] userIds = new long[64];
+    int[] assets = new int[64];
+    long[] available = new long[64];
+    long[] frozen = new long[64];
+    boolean[] occupied = new boolean[64];
+
+    // 按首次出现顺序记录已使用的槽位:
+    int[] used = new int[64];
+    int size = 0;
+
+    /**
+     * 累加一个账户的可用和冻结变化
+     */
+    public void add(long userId, int asset, long availableDelta, long frozenDelta) {
+        int slot = slot(userId, asset);
+        this.available[slot] = Math.addExact(this.available[slot], availableDelta);
+        this.frozen[slot] = Math.addExact(this.frozen[slot], frozenDelta);
+    }
+
+    /**
+     * 已记录的账户数
+     */
+    public int size() {
+        return this.size;
+    }
+
+    public long userId(int i) {
+        return this.userIds[this.used[i]];
+    }
+
+    public int asset(int i) {
+        return this.assets[this.used[i]];
+    }
+
+    public long available(int i) {
+        return this.available[this.used[i]];
+    }
+
+    public long frozen(int i) {
+        return this.frozen[this.used[i]];
+    }
+
+    public void reset() {
+        for (int i = 0; i < this.size; i++) {
+            this.occupied[this.used[i]] = false;
+        }
+        this.size = 0;
+    }
+
+    int slot(long userId, int asset) {
+        if ((this.size + 1) * 2 > this.userIds.length) {
+            resize(this.userIds.length * 2);
+        }
+        int slot = find(userId, asset);
+        if (!this.occupied[slot]) {
+            this.occupied[slot] = true;
+            this.userIds[slot] = userId;
+            this.assets[slot] = asset;
+            this.available[slot] = 0;
+            this.frozen[slot] = 0;
+            this.used[this.size++] = slot;
+        }
+        return slot;
+    }
+
+    int find(long userId, int asset) {
+        int mask = this.userIds.length - 1;
+        long h = (userId * 31 + asset) * 0x9e3779b97f4a7c15L;
+        int slot = (int) (h ^ (h >>> 32)) & mask;
+        while (this.occupied[slot] && (this.userIds[slot] != userId || this.assets[slot] != asset)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    void resize(int capacity) {
+        long[] oldUserIds = this.userIds;
+        int[] oldAssets = this.assets;
+        long[] oldAvailable = this.available;
+        long[] oldFrozen = this.frozen;
+        int[] oldUsed = this.used;
+        int n = this.size;
+        this.userIds = new long[capacity];
+        this.assets = new int[capacity];
+        this.available = new long[capacity];
+        this.frozen = new long[capacity];
+        this.occupied = new boolean[capacity];
+        this.used = new int[capacity];
+        this.size = 0;
+        for (int i = 0; i < n; i++) {
+            int old = oldUsed[i];
+            int slot = find(oldUserIds[old], oldAssets[old]);
+            this.occupied[slot] = true;
+            this.userIds[slot] = oldUserIds[old];
+            this.assets[slot] = oldAssets[old];
+            this.available[slot] = oldAvailable[old];
+            this.frozen[slot] = oldFrozen[old];
+            this.used[this.size++] = slot;
+        }
+    }
+}
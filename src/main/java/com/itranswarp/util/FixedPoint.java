@@ -0,0 +1,67 @@
+package com.itranswarp.util;
+
+import java.math.BigDecimal;
+
+/**
+ * 定点数换算。
+ * 
+ * 价格和数量固定为2位小数，以放大100倍的long表示；资产余额需要容纳价格x数量，固定为4位小数，以放大10000倍的long表示。
+ * 
+ * 所有运算均检查溢出，溢出时抛出ArithmeticException。
+ */
+public final class FixedPoint {
+
+    // 价格和数量的小数位数:
+    public static final int SCALE = 2;
+
+    // 资产余额的小数位数:
+    public static final int BALANCE_SCALE = SCALE + SCALE;
+
+    // 数量换算为余额时的放大倍数:
+    static final long QUANTITY_TO_BALANCE = 100L;
+
+    private FixedPoint() {
+    }
+
+    /**
+     * 价格或数量转换为定点数，小数位数超过2位时抛出ArithmeticException
+     */
+    public static long toLong(BigDecimal value) {
+        return value.setScale(SCALE).unscaledValue().longValueExact();
+    }
+
+    /**
+     * 定点数转换为价格或数量
+     */
+    public static BigDecimal toBigDecimal(long value) {
+        return BigDecimal.valueOf(value, SCALE);
+    }
+
+    /**
+     * 余额转换为定点数，小数位数超过4位时抛出ArithmeticException
+     */
+    public static long toBalance(BigDecimal value) {
+        return value.setScale(BALANCE_SCALE).unscaledValue().longValueExact();
+    }
+
+    /**
+     * 定点数转换为余额
+     */
+    public static BigDecimal balanceToBigDecimal(long value) {
+        return BigDecimal.valueOf(value, BALANCE_SCALE);
+    }
+
+    /**
+     * 价格x数量，结果为余额精度
+     */
+    public static long notional(long price, long amount) {
+        return Math.multiplyExact(price, amount);
+    }
+
+    /**
+     * 数量换算为余额精度
+     */
+    public static long quantity(long amount) {
+        return Math.multiplyExact(amount, QUANTITY_TO_BALANCE);
+    }
+}
@@ -0,0 +1,201 @@
+package com.itranswarp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import com.itranswarp.OrderFlowGenerator.FlowCommand;
+import com.itranswarp.assets.Users;
+import com.itranswarp.match.MarketDataListener;
+import com.itranswarp.match.MatchEngine;
+import com.itranswarp.match.OrderBookType;
+import com.itranswarp.order.Direction;
+import com.itranswarp.order.Order;
+import com.itranswarp.order.SelfTradePrevention;
+import com.itranswarp.order.Symbol;
+
+/**
+ * 用相同的随机命令流同时驱动两个引擎，逐条比较命令结果、成交、订单簿和所有用户的资产。
+ *
+ * 更换订单簿或数值类型等实现时，只需把新实现加入比较即可证明行为不变。
+ * 长时间压测只在指定-Dsoak.commands时运行，例如mvn test -Dtest=DifferentialTest#testSoak -Dsoak.commands=5000000。
+ */
+public class DifferentialTest {
+
+    static final int COMMANDS = 20_000;
+
+    @Test
+    public void testTreeMapVsPriceLevel() {
+        for (long seed = 1; seed <= 3; seed++) {
+            OrderFlowGenerator generator = new OrderFlowGenerator(seed);
+            compare(generator, COMMANDS, new TradingEngine(OrderBookType.TREE_MAP), new TradingEngine(OrderBookType.PRICE_LEVEL));
+        }
+    }
+
+    @Test
+    public void testSelfTradePrevention() {
+        long seed = 10;
+        for (SelfTradePrevention stp : SelfTradePrevention.values()) {
+            OrderFlowGenerator generator = new OrderFlowGenerator(seed++);
+            // 用户少，经常与自己的挂单交叉:
+            generator.users = 3;
+            List<Symbol> symbols = List.of(new Symbol("STOCK", "STOCK", "FIAT", stp));
+            TradingEngine expected = new TradingEngine(symbols, OrderBookType.TREE_MAP, null, null);
+            TradingEngine actual = new TradingEngine(symbols, OrderBookType.PRICE_LEVEL, null, null);
+            expected.enableAudit();
+            actual.enableAudit();
+            compare(generator, COMMANDS / 2, expected, actual);
+        }
+    }
+
+    @Test
+    public void testIcebergOrders() {
+        long seed = 20;
+        for (SelfTradePrevention stp : List.of(SelfTradePrevention.NONE, SelfTradePrevention.DECREMENT_BOTH)) {
+            OrderFlowGenerator generator = new OrderFlowGenerator(seed++);
+            generator.icebergOrderRatio = 0.2;
+            generator.users = 5;
+            List<Symbol> symbols = List.of(new Symbol("STOCK", "STOCK", "FIAT", stp));
+            TradingEngine expected = new TradingEngine(symbols, OrderBookType.TREE_MAP, null, null);
+            TradingEngine actual = new TradingEngine(symbols, OrderBookType.PRICE_LEVEL, null, null);
+            expected.enableAudit();
+            actual.enableAudit();
+            compare(generator, COMMANDS / 2, expected, actual);
+        }
+    }
+
+    @Test
+    public void testParallelSettlement() throws InterruptedException {
+        for (long seed = 6; seed <= 7; seed++) {
+            OrderFlowGenerator generator = new OrderFlowGenerator(seed);
+            TradingEngine actual = new TradingEngine(OrderBookType.PRICE_LEVEL);
+            // 队列很小，经常触发等待。每1000条命令才比较余额，其余命令执行时清算仍在进行:
+            actual.enableParallelSettlement(3, 16);
+            compare(generator, COMMANDS, new TradingEngine(OrderBookType.PRICE_LEVEL), actual, 1000);
+            actual.disableParallelSettlement();
+        }
+    }
+
+    @Test
+    public void testUniformPrices() {
+        OrderFlowGenerator generator = new OrderFlowGenerator(42);
+        generator.priceDistribution = OrderFlowGenerator.PriceDistribution.UNIFORM;
+        generator.priceSpread = 20;
+        generator.users = 5;
+        generator.cancelRatio = 0.4;
+        compare(generator, COMMANDS, new TradingEngine(OrderBookType.TREE_MAP), new TradingEngine(OrderBookType.PRICE_LEVEL));
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "soak.commands", matches = "\\d+")
+    public void testSoak() {
+        int commands = Integer.getInteger("soak.commands");
+        int checkpoint = Math.max(1, commands / 10);
+        TradingEngine engine = new TradingEngine(OrderBookType.PRICE_LEVEL);
+        OrderFlowGenerator generator = new OrderFlowGenerator(7);
+        generator.users = 1000;
+        long accepted = 0;
+        for (int i = 1; i <= commands; i++) {
+            Object result = generator.next().apply(engine);
+            generator.accept(result);
+            if (!(result instanceof RuntimeException)) {
+                accepted++;
+            }
+            if (i % checkpoint == 0) {
+                engine.validate();
+            }
+        }
+        // 开始时用户尚无资产，命令数较少时被拒绝的比例较高:
+        assertTrue(accepted > 0);
+        engine.validate();
+    }
+
+    /**
+     * 依次执行count条命令，每条命令后比较两个引擎
+     */
+    static void compare(OrderFlowGenerator generator, int count, TradingEngine expected, TradingEngine actual) {
+        compare(generator, count, expected, actual, 1);
+    }
+
+    /**
+     * 依次执行count条命令，每条命令后比较结果和成交，每stateInterval条命令比较一次资产和订单簿
+     */
+    static void compare(OrderFlowGenerator generator, int count, TradingEngine expected, TradingEngine actual, int stateInterval) {
+        TradeRecorder expectedTrades = new TradeRecorder();
+        TradeRecorder actualTrades = new TradeRecorder();
+        expected.setMarketDataListener(expectedTrades);
+        actual.setMarketDataListener(actualTrades);
+        for (int i = 0; i < count; i++) {
+            FlowCommand command = generator.next();
+            Object expectedResult = command.apply(expected);
+            Object actualResult = command.apply(actual);
+            generator.accept(expectedResult);
+            String message = "command " + i + ": " + command;
+            assertEquals(describe(expectedResult), describe(actualResult), message);
+            assertEquals(expectedTrades.take(), actualTrades.take(), message);
+            if (i % stateInterval == stateInterval - 1) {
+                assertEquals(state(expected, generator.users), state(actual, generator.users), message);
+            }
+        }
+        expected.validate();
+        actual.validate();
+    }
+
+    static String describe(Object result) {
+        if (result instanceof Order order) {
+            return order.sequenceId + " " + order.type + " " + order.status + " " + order.price + " " + order.amount + " " + order.unfilledAmount + " "
+                    + order.triggered;
+        }
+        if (result instanceof RuntimeException e) {
+            return e.getClass().getName() + ": " + e.getMessage();
+        }
+        return String.valueOf(result);
+    }
+
+    static String state(TradingEngine engine, int users) {
+        engine.awaitSettled();
+        StringBuilder sb = new StringBuilder();
+        for (long userId = Users.TRADER; userId < Users.TRADER + users; userId++) {
+            sb.append(engine.assetService.getAsset(userId, "FIAT")).append(' ').append(engine.assetService.getAsset(userId, "STOCK")).append('\n');
+        }
+        MatchEngine matchEngine = engine.getMatchEngine("STOCK");
+        sb.append(matchEngine.getDepth(10)).append('\n');
+        sb.append(matchEngine.marketPrice).append(' ').append(matchEngine.buyStops.size()).append(' ').append(matchEngine.sellStops.size()).append(' ')
+                .append(engine.orderService.activeOrders.size());
+        return sb.toString();
+    }
+
+    /**
+     * 记录一条命令内的逐笔成交和档位变化
+     */
+    static class TradeRecorder implements MarketDataListener {
+
+        final StringBuilder sb = new StringBuilder();
+
+        @Override
+        public void onLevelChanged(String symbol, Direction direction, long price, long quantity) {
+            sb.append("L ").append(direction).append(' ').append(price).append(' ').append(quantity).append('\n');
+        }
+
+        @Override
+        public void onLevelRemoved(String symbol, Direction direction, long price) {
+            sb.append("R ").append(direction).append(' ').append(price).append('\n');
+        }
+
+        @Override
+        public void onTrade(String symbol, long takerOrderId, long makerOrderId, Direction takerDirection, long price, long amount) {
+            sb.append("T ").append(takerOrderId).append(' ').append(makerOrderId).append(' ').append(takerDirection).append(' ').append(price).append(' ')
+                    .append(amount).append('\n');
+        }
+
+        String take() {
+            String s = sb.toString();
+            sb.setLength(0);
+            return s;
+        }
+    }
+}
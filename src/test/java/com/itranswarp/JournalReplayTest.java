@@ -0,0 +1,168 @@
+package com.itranswarp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.itranswarp.assets.Users;
+import com.itranswarp.journal.Journal;
+import com.itranswarp.match.MatchEngine;
+import com.itranswarp.match.OrderBookType;
+import com.itranswarp.order.Direction;
+import com.itranswarp.order.Order;
+import com.itranswarp.order.OrderRequest;
+import com.itranswarp.order.OrderType;
+
+public class JournalReplayTest {
+
+    static final int USERS = 20;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testReplay() {
+        String expected;
+        long lastSequenceId;
+        // 使用很小的分段，覆盖分段切换:
+        try (Journal journal = new Journal(dir, 4096, 8)) {
+            TradingEngine engine = new TradingEngine(OrderBookType.PRICE_LEVEL, journal);
+            engine.enableAudit();
+            runCommands(engine, new Random(1), 2000);
+            engine.validate();
+            expected = dump(engine);
+            lastSequenceId = engine.getLastSequenceId();
+        }
+        try (Journal journal = new Journal(dir, 4096, 8)) {
+            TradingEngine engine = new TradingEngine(OrderBookType.PRICE_LEVEL, journal);
+            engine.enableAudit();
+            assertEquals(lastSequenceId, engine.getLastSequenceId());
+            assertEquals(expected, dump(engine));
+            // 恢复后继续写入:
+            runCommands(engine, new Random(2), 500);
+            engine.validate();
+            expected = dump(engine);
+        }
+        try (Journal journal = new Journal(dir, 4096, 8)) {
+            TradingEngine engine = new TradingEngine(OrderBookType.TREE_MAP, journal);
+            engine.validate();
+            assertEquals(expected, dump(engine));
+        }
+    }
+
+    @Test
+    public void testSnapshot() {
+        Path journalDir = dir.resolve("journal");
+        Path snapshotDir = dir.resolve("snapshot");
+        String expectedSnapshot;
+        long expectedHash;
+        String expected;
+        try (Journal journal = new Journal(journalDir)) {
+            TradingEngine engine = new TradingEngine(OrderBookType.PRICE_LEVEL, journal);
+            runCommands(engine, new Random(3), 1000);
+            engine.writeSnapshot(snapshotDir);
+            expectedSnapshot = dump(engine);
+            expectedHash = engine.stateHash();
+            runCommands(engine, new Random(4), 1000);
+            expected = dump(engine);
+        }
+        // 只恢复快照:
+        TradingEngine snapshotOnly = new TradingEngine(OrderBookType.PRICE_LEVEL, snapshotDir, null);
+        snapshotOnly.validate();
+        assertEquals(expectedSnapshot, dump(snapshotOnly));
+        // 已触发的止损单恢复后状态哈希不变:
+        assertEquals(expectedHash, snapshotOnly.stateHash());
+        // 恢复快照后回放日志:
+        try (Journal journal = new Journal(journalDir)) {
+            TradingEngine engine = new TradingEngine(OrderBookType.PRICE_LEVEL, snapshotDir, journal);
+            engine.validate();
+            assertEquals(expected, dump(engine));
+        }
+    }
+
+    static void runCommands(TradingEngine engine, Random random, int count) {
+        List<Order> orders = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Long userId = Users.TRADER + random.nextInt(USERS);
+            int n = random.nextInt(10);
+            if (n == 0) {
+                engine.deposit(userId, random.nextBoolean() ? "FIAT" : "STOCK", BigDecimal.valueOf(1 + random.nextInt(100000), 2));
+            } else if (n < 3 && !orders.isEmpty()) {
+                Order order = orders.remove(random.nextInt(orders.size()));
+                if (engine.orderService.getOrder(order.sequenceId) != null) {
+                    engine.cancelOrder(order.userId, order.sequenceId);
+                }
+            } else if (n == 3 && !orders.isEmpty()) {
+                Order order = orders.get(random.nextInt(orders.size()));
+                long filled = order.amount - order.unfilledAmount;
+                if (engine.orderService.getOrder(order.sequenceId) != null && order.amount - filled > 1) {
+                    // 改为已成交和原数量之间:
+                    engine.amendOrder(order.userId, order.sequenceId, BigDecimal.valueOf(filled + 1 + random.nextLong(order.amount - filled - 1), 2));
+                }
+            } else if (n == 4 && random.nextInt(10) == 0) {
+                Direction[] directions = { null, Direction.BUY, Direction.SELL };
+                engine.cancelAll(userId, directions[random.nextInt(directions.length)]);
+            } else if (n == 4) {
+                // 批量报价，回放时逐个执行:
+                List<OrderRequest> requests = new ArrayList<>();
+                for (int j = random.nextInt(8); j >= 0; j--) {
+                    requests.add(new OrderRequest(userId, "STOCK", random.nextBoolean() ? Direction.BUY : Direction.SELL,
+                            BigDecimal.valueOf(9900 + random.nextInt(200), 2), BigDecimal.valueOf(1 + random.nextInt(500), 2)));
+                }
+                for (Order order : engine.submitBatch(requests).orders) {
+                    if (order != null) {
+                        orders.add(order);
+                    }
+                }
+            } else {
+                Direction direction = random.nextBoolean() ? Direction.BUY : Direction.SELL;
+                // 一半为限价单，其余为各种类型，市价单的限价在回放时取自日志:
+                OrderType type = random.nextBoolean() ? OrderType.LIMIT : OrderType.values()[random.nextInt(OrderType.values().length)];
+                BigDecimal price = type == OrderType.MARKET ? null : BigDecimal.valueOf(9900 + random.nextInt(200), 2);
+                BigDecimal amount = BigDecimal.valueOf(1 + random.nextInt(500), 2);
+                try {
+                    if (type.isStop()) {
+                        // 止损价在成交价附近，快照中保存未触发的止损单:
+                        BigDecimal stopPrice = BigDecimal.valueOf(9950 + random.nextInt(100), 2);
+                        orders.add(engine.createStopOrder(userId, "STOCK", type, direction, stopPrice, price, amount));
+                    } else if (type == OrderType.LIMIT && amount.unscaledValue().intValue() > 1 && random.nextInt(4) == 0) {
+                        // 冰山单，快照中保存显示和隐藏的数量:
+                        BigDecimal peakAmount = BigDecimal.valueOf(1 + random.nextInt(amount.unscaledValue().intValue() - 1), 2);
+                        orders.add(engine.createIcebergOrder(userId, "STOCK", direction, price, amount, peakAmount));
+                    } else {
+                        orders.add(engine.createOrder(userId, "STOCK", type, direction, price, amount));
+                    }
+                } catch (RuntimeException e) {
+                    // 余额不足或市价单没有对手盘
+                }
+            }
+        }
+    }
+
+    static String dump(TradingEngine engine) {
+        StringBuilder sb = new StringBuilder();
+        for (long userId = Users.TRADER; userId < Users.TRADER + USERS; userId++) {
+            for (String assetId : new String[] { "FIAT", "STOCK" }) {
+                sb.append(userId).append(' ').append(assetId).append(' ').append(engine.assetService.getAsset(userId, assetId)).append('\n');
+            }
+        }
+        MatchEngine matchEngine = engine.getMatchEngine("STOCK");
+        sb.append(matchEngine.sellBook).append('\n').append(matchEngine.marketPrice).append('\n').append(matchEngine.buyBook);
+        sb.append("\nstops ").append(matchEngine.buyStops.size()).append(' ').append(matchEngine.sellStops.size());
+        sb.append("\nhidden");
+        for (Order order : matchEngine.sellBook) {
+            sb.append(' ').append(order.hiddenAmount);
+        }
+        for (Order order : matchEngine.buyBook) {
+            sb.append(' ').append(order.hiddenAmount);
+        }
+        return sb.toString();
+    }
+}
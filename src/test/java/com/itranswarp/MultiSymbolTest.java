@@ -0,0 +1,115 @@
+package com.itranswarp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.itranswarp.assets.Users;
+import com.itranswarp.journal.Journal;
+import com.itranswarp.match.MatchEngine;
+import com.itranswarp.match.OrderBookType;
+import com.itranswarp.order.Direction;
+import com.itranswarp.order.Order;
+import com.itranswarp.order.OrderRequest;
+import com.itranswarp.order.Symbol;
+import com.itranswarp.pipeline.EnginePipeline;
+
+public class MultiSymbolTest {
+
+    static final int PRODUCERS = 4;
+    static final int ORDERS_PER_PRODUCER = 2000;
+
+    static final List<Symbol> SYMBOLS = List.of(new Symbol("AAA", "AAA", "FIAT"), new Symbol("BBB", "BBB", "FIAT"));
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testConcurrentSymbols() throws Exception {
+        String expected;
+        try (Journal journal = new Journal(dir.resolve("journal"))) {
+            TradingEngine engine = new TradingEngine(SYMBOLS, OrderBookType.PRICE_LEVEL, null, journal);
+            engine.enableAudit();
+            EnginePipeline pipeline = new EnginePipeline(engine, 64);
+            pipeline.start();
+            List<Thread> producers = new ArrayList<>();
+            for (int p = 0; p < PRODUCERS; p++) {
+                final Long userId = Users.TRADER + p;
+                final Random random = new Random(p);
+                Thread t = new Thread(() -> {
+                    pipeline.deposit(userId, "FIAT", new BigDecimal("1000000")).join();
+                    pipeline.deposit(userId, "AAA", new BigDecimal("10000")).join();
+                    pipeline.deposit(userId, "BBB", new BigDecimal("10000")).join();
+                    for (int i = 0; i < ORDERS_PER_PRODUCER; i++) {
+                        // 同一用户的FIAT同时被两个交易品种使用:
+                        String symbol = SYMBOLS.get(random.nextInt(SYMBOLS.size())).name;
+                        Direction direction = random.nextBoolean() ? Direction.BUY : Direction.SELL;
+                        BigDecimal price = BigDecimal.valueOf(10000 + random.nextInt(100), 2);
+                        Order order = pipeline.createOrder(userId, symbol, direction, price, BigDecimal.ONE).join();
+                        int n = random.nextInt(8);
+                        if (n < 2) {
+                            // 订单可能已成交，撤单失败:
+                            pipeline.cancelOrder(userId, order.sequenceId).exceptionally(e -> null).join();
+                        } else if (n == 2) {
+                            // 订单可能已成交，改单失败:
+                            pipeline.amendOrder(userId, order.sequenceId, new BigDecimal("0.5")).exceptionally(e -> null).join();
+                        } else if (n == 3) {
+                            // 两个交易品种的批量报价，分别在两个撮合线程撮合:
+                            List<OrderRequest> quotes = new ArrayList<>();
+                            for (Symbol s : SYMBOLS) {
+                                quotes.add(new OrderRequest(userId, s.name, Direction.BUY, price.subtract(BigDecimal.ONE), BigDecimal.ONE));
+                                quotes.add(new OrderRequest(userId, s.name, Direction.SELL, price.add(BigDecimal.ONE), BigDecimal.ONE));
+                            }
+                            BatchResult result = pipeline.submitBatch(quotes).join();
+                            assertEquals(quotes.size(), result.accepted);
+                        } else if (n == 4 && i % 10 == 0) {
+                            // 撤销两个交易品种的全部订单:
+                            pipeline.cancelAll(userId).join();
+                        }
+                    }
+                });
+                producers.add(t);
+                t.start();
+            }
+            for (Thread t : producers) {
+                t.join();
+            }
+            pipeline.validate().join();
+            pipeline.snapshot(dir.resolve("snapshot")).join();
+            pipeline.shutdown();
+            engine.validate();
+            expected = dump(engine);
+        }
+        // 回放日志得到相同的状态:
+        try (Journal journal = new Journal(dir.resolve("journal"))) {
+            TradingEngine engine = new TradingEngine(SYMBOLS, OrderBookType.TREE_MAP, null, journal);
+            engine.validate();
+            assertEquals(expected, dump(engine));
+        }
+        // 快照与日志一致:
+        TradingEngine engine = new TradingEngine(SYMBOLS, OrderBookType.PRICE_LEVEL, dir.resolve("snapshot"), null);
+        engine.validate();
+        assertEquals(expected, dump(engine));
+    }
+
+    static String dump(TradingEngine engine) {
+        StringBuilder sb = new StringBuilder();
+        for (long userId = Users.TRADER; userId < Users.TRADER + PRODUCERS; userId++) {
+            for (String assetId : new String[] { "FIAT", "AAA", "BBB" }) {
+                sb.append(userId).append(' ').append(assetId).append(' ').append(engine.assetService.getAsset(userId, assetId)).append('\n');
+            }
+        }
+        for (Symbol symbol : SYMBOLS) {
+            MatchEngine matchEngine = engine.getMatchEngine(symbol.name);
+            sb.append(matchEngine.sellBook).append('\n').append(matchEngine.marketPrice).append('\n').append(matchEngine.buyBook).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,183 @@
+package com.itranswarp;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.itranswarp.assets.Users;
+import com.itranswarp.order.Direction;
+import com.itranswarp.order.Order;
+import com.itranswarp.order.OrderStatus;
+import com.itranswarp.order.OrderType;
+
+/**
+ * 可复现的随机命令流，相同的种子和参数生成相同的命令序列。
+ *
+ * 用户数、价格分布、各类命令的比例均可配置。撤单和改单从已接受的订单中随机选取，订单可能已成交，此时命令失败。
+ */
+public class OrderFlowGenerator {
+
+    public enum PriceDistribution {
+        UNIFORM, GAUSSIAN;
+    }
+
+    public enum Kind {
+        DEPOSIT, CREATE_ORDER, CREATE_STOP_ORDER, CREATE_ICEBERG_ORDER, CANCEL_ORDER, AMEND_ORDER, CANCEL_ALL;
+    }
+
+    // 生成的命令，可依次作用于多个引擎:
+    public static class FlowCommand {
+
+        public Kind kind;
+        public Long userId;
+        public String assetId;
+        public OrderType orderType;
+        public Direction direction;
+        public BigDecimal price;
+        public BigDecimal stopPrice;
+        public BigDecimal amount;
+        public BigDecimal peakAmount;
+        public Long orderId;
+
+        /**
+         * 执行命令，返回Order、撤销的订单数量、null或被拒绝的异常
+         */
+        public Object apply(TradingEngine engine) {
+            try {
+                return switch (this.kind) {
+                case DEPOSIT -> {
+                    engine.deposit(this.userId, this.assetId, this.amount);
+                    yield null;
+                }
+                case CREATE_ORDER -> engine.createOrder(this.userId, "STOCK", this.orderType, this.direction, this.price, this.amount);
+                case CREATE_STOP_ORDER -> engine.createStopOrder(this.userId, "STOCK", this.orderType, this.direction, this.stopPrice, this.price, this.amount);
+                case CREATE_ICEBERG_ORDER -> engine.createIcebergOrder(this.userId, "STOCK", this.direction, this.price, this.amount, this.peakAmount);
+                case CANCEL_ORDER -> engine.cancelOrder(this.userId, this.orderId);
+                case AMEND_ORDER -> engine.amendOrder(this.userId, this.orderId, this.amount);
+                case CANCEL_ALL -> engine.cancelAll(this.userId, this.direction);
+                };
+            } catch (RuntimeException e) {
+                return e;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return kind + " user=" + userId + " asset=" + assetId + " type=" + orderType + " " + direction + " price=" + price + " stop=" + stopPrice
+                    + " amount=" + amount + " peak=" + peakAmount + " order=" + orderId;
+        }
+    }
+
+    public int users = 20;
+    // 价格中心和离散程度，单位为最小价格变动:
+    public long basePrice = 10000;
+    public int priceSpread = 100;
+    public PriceDistribution priceDistribution = PriceDistribution.GAUSSIAN;
+    public int maxAmount = 500;
+    // 各类命令的比例，其余为限价单:
+    public double depositRatio = 0.05;
+    public double cancelRatio = 0.25;
+    public double amendRatio = 0.05;
+    public double cancelAllRatio = 0.002;
+    public double typedOrderRatio = 0.15;
+    public double stopOrderRatio = 0.03;
+    public double icebergOrderRatio = 0;
+    // 跟踪的订单超过该数量时删除已结束的订单:
+    public int maxTrackedOrders = 10_000;
+
+    final Random random;
+    final FlowCommand command = new FlowCommand();
+
+    // 已接受的订单，可能已成交或撤销:
+    final List<Order> orders = new ArrayList<>();
+
+    public OrderFlowGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * 生成下一条命令，返回的对象被复用
+     */
+    public FlowCommand next() {
+        FlowCommand c = this.command;
+        c.kind = Kind.CREATE_ORDER;
+        c.userId = Users.TRADER + this.random.nextInt(this.users);
+        c.assetId = null;
+        c.orderType = OrderType.LIMIT;
+        c.direction = this.random.nextBoolean() ? Direction.BUY : Direction.SELL;
+        c.price = price();
+        c.stopPrice = null;
+        c.amount = BigDecimal.valueOf(1 + this.random.nextInt(this.maxAmount), 2);
+        c.peakAmount = null;
+        c.orderId = null;
+        double r = this.random.nextDouble();
+        if ((r -= this.depositRatio) < 0) {
+            c.kind = Kind.DEPOSIT;
+            c.assetId = this.random.nextBoolean() ? "FIAT" : "STOCK";
+            c.amount = BigDecimal.valueOf(1 + this.random.nextInt(10_000_000), 2);
+        } else if ((r -= this.cancelAllRatio) < 0) {
+            c.kind = Kind.CANCEL_ALL;
+            c.direction = this.random.nextInt(3) == 0 ? null : c.direction;
+        } else if ((r -= this.cancelRatio) < 0 && !this.orders.isEmpty()) {
+            Order order = take();
+            c.kind = Kind.CANCEL_ORDER;
+            c.userId = order.userId;
+            c.orderId = order.sequenceId;
+        } else if ((r -= this.amendRatio) < 0 && !this.orders.isEmpty()) {
+            Order order = this.orders.get(this.random.nextInt(this.orders.size()));
+            c.kind = Kind.AMEND_ORDER;
+            c.userId = order.userId;
+            c.orderId = order.sequenceId;
+            // 可能小于已成交数量，此时改单失败:
+            c.amount = BigDecimal.valueOf(1 + this.random.nextLong(Math.max(1, order.amount - 1)), 2);
+        } else if ((r -= this.stopOrderRatio) < 0) {
+            c.kind = Kind.CREATE_STOP_ORDER;
+            c.orderType = this.random.nextBoolean() ? OrderType.STOP : OrderType.STOP_LIMIT;
+            c.stopPrice = price();
+        } else if ((r -= this.icebergOrderRatio) < 0) {
+            c.kind = Kind.CREATE_ICEBERG_ORDER;
+            // 可能不小于数量，此时被拒绝:
+            c.peakAmount = BigDecimal.valueOf(1 + this.random.nextInt(Math.max(1, this.maxAmount / 5)), 2);
+        } else if ((r -= this.typedOrderRatio) < 0) {
+            OrderType[] types = { OrderType.MARKET, OrderType.IOC, OrderType.FOK, OrderType.POST_ONLY };
+            c.orderType = types[this.random.nextInt(types.length)];
+            if (c.orderType == OrderType.MARKET) {
+                c.price = null;
+            }
+        }
+        return c;
+    }
+
+    /**
+     * 记录最近一条命令的结果，新接受的订单可被后续撤单和改单选中
+     */
+    public void accept(Object result) {
+        Kind kind = this.command.kind;
+        if ((kind == Kind.CREATE_ORDER || kind == Kind.CREATE_STOP_ORDER || kind == Kind.CREATE_ICEBERG_ORDER) && result instanceof Order order) {
+            this.orders.add(order);
+            if (this.orders.size() > this.maxTrackedOrders) {
+                this.orders.removeIf(o -> o.status == OrderStatus.FULLY_FILLED || o.status == OrderStatus.CANCELLED);
+                if (this.orders.size() > this.maxTrackedOrders / 2) {
+                    // 仍然过多时不再跟踪较早的订单:
+                    this.orders.subList(0, this.orders.size() - this.maxTrackedOrders / 2).clear();
+                }
+            }
+        }
+    }
+
+    BigDecimal price() {
+        long offset = switch (this.priceDistribution) {
+        case UNIFORM -> this.random.nextInt(this.priceSpread * 2 + 1) - this.priceSpread;
+        case GAUSSIAN -> Math.round(this.random.nextGaussian() * this.priceSpread);
+        };
+        return BigDecimal.valueOf(Math.max(1, this.basePrice + offset), 2);
+    }
+
+    // 随机取出一个订单:
+    Order take() {
+        int i = this.random.nextInt(this.orders.size());
+        Order last = this.orders.remove(this.orders.size() - 1);
+        return i == this.orders.size() ? last : this.orders.set(i, last);
+    }
+}
@@ -1,11 +1,27 @@
 package com.itranswarp;
 
 import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.junit.jupiter.api.Test;
 
 import com.itranswarp.assets.Users;
+import com.itranswarp.match.OrderBookType;
+import com.itranswarp.metrics.HistogramMetrics;
 import com.itranswarp.order.Direction;
+import com.itranswarp.order.Order;
+import com.itranswarp.order.OrderRequest;
+import com.itranswarp.order.OrderStatus;
+import com.itranswarp.order.OrderType;
+import com.itranswarp.order.RiskLimits;
+import com.itranswarp.order.SelfTradePrevention;
+import com.itranswarp.order.Symbol;
+import com.itranswarp.util.FixedPoint;
 
 public class TradingEngineTest {
 
@@ -16,7 +32,14 @@ public class TradingEngineTest {
 
     @Test
     public void testTradingEngine() {
-        TradingEngine engine = new TradingEngine();
+        for (OrderBookType bookType : OrderBookType.values()) {
+            testTradingEngine(bookType);
+        }
+    }
+
+    void testTradingEngine(OrderBookType bookType) {
+        TradingEngine engine = new TradingEngine(bookType);
+        engine.enableAudit();
         engine.deposit(USER_A, "FIAT", bd("58000"));
         engine.deposit(USER_B, "FIAT", bd("126700"));
         engine.deposit(USER_C, "STOCK", bd("5.5"));
@@ -48,6 +71,549 @@ public class TradingEngineTest {
         engine.validate();
     }
 
+    @Test
+    public void testFixedPoint() {
+        TradingEngine engine = new TradingEngine();
+        engine.deposit(USER_A, "FIAT", bd("10000"));
+        engine.deposit(USER_B, "STOCK", bd("10"));
+        engine.createOrder(USER_A, Direction.BUY, bd("2207.33"), bd("1.2"));
+        engine.validate();
+        // 冻结金额保留4位小数:
+        assertEquals(bd("2648.7960"), engine.assetService.getAsset(USER_A, "FIAT").getFrozen());
+        engine.createOrder(USER_B, Direction.SELL, bd("2206"), bd("0.7"));
+        engine.validate();
+        assertEquals(bd("1545.1310"), engine.assetService.getAsset(USER_B, "FIAT").getAvailable());
+        assertEquals(bd("0.50"), engine.orderService.getOrder(1L).getUnfilledAmount());
+        // 超出long范围:
+        assertThrows(ArithmeticException.class, () -> engine.createOrder(USER_A, Direction.BUY, bd("99999999999999999999"), bd("1")));
+        engine.validate();
+    }
+
+    @Test
+    public void testAmendOrder() {
+        for (OrderBookType bookType : OrderBookType.values()) {
+            testAmendOrder(bookType);
+        }
+    }
+
+    void testAmendOrder(OrderBookType bookType) {
+        TradingEngine engine = new TradingEngine(bookType);
+        engine.enableAudit();
+        engine.deposit(USER_A, "FIAT", bd("10000"));
+        engine.deposit(USER_B, "FIAT", bd("10000"));
+        engine.deposit(USER_C, "STOCK", bd("10"));
+        Order a = engine.createOrder(USER_A, Direction.BUY, bd("100"), bd("5"));
+        Order b = engine.createOrder(USER_B, Direction.BUY, bd("100"), bd("5"));
+        engine.createOrder(USER_C, Direction.SELL, bd("100"), bd("1"));
+        // 已成交1，改为3后未成交2，解冻200:
+        engine.amendOrder(USER_A, a.sequenceId, bd("3"));
+        assertEquals(bd("3.00"), a.getAmount());
+        assertEquals(bd("2.00"), a.getUnfilledAmount());
+        assertEquals(bd("200.0000"), engine.assetService.getAsset(USER_A, "FIAT").getFrozen());
+        engine.validate();
+        // 只能减少，且必须大于已成交数量:
+        assertThrows(IllegalArgumentException.class, () -> engine.amendOrder(USER_A, a.sequenceId, bd("3")));
+        assertThrows(IllegalArgumentException.class, () -> engine.amendOrder(USER_A, a.sequenceId, bd("1")));
+        assertThrows(IllegalArgumentException.class, () -> engine.amendOrder(USER_B, a.sequenceId, bd("2")));
+        // 改单后保持排队位置，A先于B成交:
+        engine.createOrder(USER_C, Direction.SELL, bd("100"), bd("2"));
+        assertEquals(OrderStatus.FULLY_FILLED, a.status);
+        assertEquals(bd("5.00"), b.getUnfilledAmount());
+        engine.validate();
+    }
+
+    @Test
+    public void testSubmitBatch() {
+        for (OrderBookType bookType : OrderBookType.values()) {
+            // 不审计时整批的清算也合并:
+            testSubmitBatch(bookType, true);
+            testSubmitBatch(bookType, false);
+        }
+    }
+
+    void testSubmitBatch(OrderBookType bookType, boolean audit) {
+        TradingEngine batch = new TradingEngine(bookType);
+        TradingEngine sequential = new TradingEngine(bookType);
+        for (TradingEngine engine : List.of(batch, sequential)) {
+            if (audit) {
+                engine.enableAudit();
+            }
+            engine.deposit(USER_A, "FIAT", bd("1000"));
+            engine.deposit(USER_A, "STOCK", bd("10"));
+            engine.deposit(USER_B, "STOCK", bd("10"));
+            engine.createOrder(USER_B, Direction.SELL, bd("10"), bd("10"));
+        }
+        // 合并冻结FIAT 840和STOCK 5，第一个订单部分成交:
+        List<OrderRequest> quotes = List.of(new OrderRequest(USER_A, "STOCK", Direction.BUY, bd("20"), bd("12")),
+                new OrderRequest(USER_A, "STOCK", Direction.SELL, bd("30"), bd("5")), new OrderRequest(USER_A, "STOCK", Direction.BUY, bd("0"), bd("1")),
+                new OrderRequest(USER_A, "STOCK", Direction.BUY, bd("15"), bd("40")));
+        // 合并冻结FIAT 1600超过余额，逐个处理时第一个订单成交后退回FIAT 500，第三个订单余额不足:
+        List<OrderRequest> fallback = List.of(new OrderRequest(USER_A, "STOCK", Direction.BUY, bd("60"), bd("10")),
+                new OrderRequest(USER_A, "STOCK", Direction.BUY, bd("1"), bd("100")), new OrderRequest(USER_A, "STOCK", Direction.BUY, bd("100"), bd("9")));
+        BatchResult result = batch.submitBatch(quotes);
+        assertTrue(result.coalesced);
+        assertEquals(3, result.accepted);
+        assertEquals(OrderStatus.PARCIAL_FILLED, result.orders[0].status);
+        assertEquals("Invalid price.", result.errors[2].getMessage());
+        createEach(sequential, quotes);
+        assertEquals(JournalReplayTest.dump(sequential), JournalReplayTest.dump(batch));
+        batch.validate();
+
+        TradingEngine refill = new TradingEngine(bookType);
+        refill.enableAudit();
+        refill.deposit(USER_A, "FIAT", bd("1000"));
+        refill.deposit(USER_B, "STOCK", bd("10"));
+        refill.createOrder(USER_B, Direction.SELL, bd("10"), bd("10"));
+        result = refill.submitBatch(fallback);
+        assertFalse(result.coalesced);
+        assertEquals(2, result.accepted);
+        assertEquals("No enough FIAT.", result.errors[2].getMessage());
+        assertEquals(bd("800.0000"), refill.assetService.getAsset(USER_A, "FIAT").getAvailable());
+        refill.validate();
+    }
+
+    @Test
+    public void testCancelAll() {
+        for (OrderBookType bookType : OrderBookType.values()) {
+            testCancelAll(bookType);
+        }
+    }
+
+    void testCancelAll(OrderBookType bookType) {
+        TradingEngine engine = new TradingEngine(bookType);
+        engine.enableAudit();
+        engine.deposit(USER_A, "FIAT", bd("10000"));
+        engine.deposit(USER_A, "STOCK", bd("100"));
+        engine.deposit(USER_B, "FIAT", bd("10000"));
+        for (int i = 0; i < 5; i++) {
+            engine.createOrder(USER_A, Direction.BUY, bd("90").add(BigDecimal.valueOf(i)), bd("2"));
+            engine.createOrder(USER_A, Direction.SELL, bd("110").add(BigDecimal.valueOf(i)), bd("3"));
+        }
+        Order b = engine.createOrder(USER_B, Direction.BUY, bd("80"), bd("1"));
+        // 部分成交的卖单:
+        engine.createOrder(USER_B, Direction.BUY, bd("110"), bd("1"));
+        assertEquals(0, engine.cancelAll(USER_C));
+        assertEquals(5, engine.cancelAll(USER_A, Direction.SELL));
+        assertEquals(bd("0.0000"), engine.assetService.getAsset(USER_A, "STOCK").getFrozen());
+        assertEquals(bd("99.0000"), engine.assetService.getAsset(USER_A, "STOCK").getAvailable());
+        assertEquals(5, engine.orderService.getOrders(USER_A).size());
+        engine.validate();
+        assertEquals(5, engine.cancelAll(USER_A));
+        assertEquals(bd("0.0000"), engine.assetService.getAsset(USER_A, "FIAT").getFrozen());
+        assertEquals(bd("10110.0000"), engine.assetService.getAsset(USER_A, "FIAT").getAvailable());
+        assertTrue(engine.orderService.getOrders(USER_A).isEmpty());
+        // 没有活动订单的用户不保留索引:
+        assertEquals(1, engine.orderService.getIndexedUsers());
+        assertEquals(OrderStatus.PENDING, b.status);
+        assertThrows(IllegalArgumentException.class, () -> engine.cancelAll(null));
+        engine.validate();
+    }
+
+    @Test
+    public void testOrderTypes() {
+        for (OrderBookType bookType : OrderBookType.values()) {
+            testOrderTypes(bookType);
+        }
+    }
+
+    void testOrderTypes(OrderBookType bookType) {
+        TradingEngine engine = new TradingEngine(bookType);
+        engine.enableAudit();
+        engine.deposit(USER_A, "FIAT", bd("10000"));
+        engine.deposit(USER_B, "STOCK", bd("100"));
+        engine.createOrder(USER_B, Direction.SELL, bd("100"), bd("1"));
+        engine.createOrder(USER_B, Direction.SELL, bd("101"), bd("2"));
+        engine.createOrder(USER_B, Direction.SELL, bd("105"), bd("3"));
+        // 市价买入2，按能全部成交的最差价格101冻结，实际成交100和101:
+        Order market = engine.createOrder(USER_A, "STOCK", OrderType.MARKET, Direction.BUY, null, bd("2"));
+        assertEquals(bd("101.00"), market.getPrice());
+        assertEquals(OrderStatus.FULLY_FILLED, market.status);
+        assertEquals(bd("9799.0000"), engine.assetService.getAsset(USER_A, "FIAT").getAvailable());
+        // IOC以102买入3，成交1，剩余部分撤销并解冻:
+        Order ioc = engine.createOrder(USER_A, "STOCK", OrderType.IOC, Direction.BUY, bd("102"), bd("3"));
+        assertEquals(OrderStatus.CANCELLED, ioc.status);
+        assertEquals(bd("2.00"), ioc.getUnfilledAmount());
+        assertEquals(bd("0.0000"), engine.assetService.getAsset(USER_A, "FIAT").getFrozen());
+        assertEquals(bd("9698.0000"), engine.assetService.getAsset(USER_A, "FIAT").getAvailable());
+        engine.validate();
+        // FOK数量不足时不成交:
+        Order fok = engine.createOrder(USER_A, "STOCK", OrderType.FOK, Direction.BUY, bd("105"), bd("4"));
+        assertEquals(OrderStatus.CANCELLED, fok.status);
+        assertEquals(bd("3.00"), engine.getMatchEngine("STOCK").sellBook.getFirst().getUnfilledAmount());
+        fok = engine.createOrder(USER_A, "STOCK", OrderType.FOK, Direction.BUY, bd("105"), bd("3"));
+        assertEquals(OrderStatus.FULLY_FILLED, fok.status);
+        // 对手盘为空时拒绝市价单:
+        assertThrows(RuntimeException.class, () -> engine.createOrder(USER_A, "STOCK", OrderType.MARKET, Direction.BUY, null, bd("1")));
+        assertThrows(IllegalArgumentException.class, () -> engine.createOrder(USER_A, "STOCK", OrderType.MARKET, Direction.BUY, bd("1"), bd("1")));
+        // POST_ONLY会成交时撤销，否则挂单:
+        engine.createOrder(USER_A, Direction.BUY, bd("99"), bd("1"));
+        Order post = engine.createOrder(USER_B, "STOCK", OrderType.POST_ONLY, Direction.SELL, bd("99"), bd("1"));
+        assertEquals(OrderStatus.CANCELLED, post.status);
+        post = engine.createOrder(USER_B, "STOCK", OrderType.POST_ONLY, Direction.SELL, bd("99.01"), bd("1"));
+        assertEquals(OrderStatus.PENDING, post.status);
+        assertEquals(bd("1.0000"), engine.assetService.getAsset(USER_B, "STOCK").getFrozen());
+        // 市价卖出按买盘成交:
+        engine.createOrder(USER_A, "STOCK", OrderType.MARKET, Direction.SELL, null, bd("0.5"));
+        assertEquals(bd("0.50"), engine.getMatchEngine("STOCK").buyBook.getFirst().getUnfilledAmount());
+        assertEquals(2, engine.orderService.activeOrders.size());
+        engine.validate();
+    }
+
+    @Test
+    public void testStopOrders() {
+        for (OrderBookType bookType : OrderBookType.values()) {
+            testStopOrders(bookType);
+        }
+    }
+
+    void testStopOrders(OrderBookType bookType) {
+        TradingEngine engine = new TradingEngine(bookType);
+        engine.enableAudit();
+        engine.deposit(USER_A, "STOCK", bd("100"));
+        engine.deposit(USER_B, "FIAT", bd("10000"));
+        engine.createOrder(USER_B, Direction.BUY, bd("99"), bd("1"));
+        engine.createOrder(USER_B, Direction.BUY, bd("98"), bd("1"));
+        engine.createOrder(USER_B, Direction.BUY, bd("97"), bd("2"));
+        // 尚无成交价，止损单不触发:
+        Order stop = engine.createStopOrder(USER_A, "STOCK", OrderType.STOP, Direction.SELL, bd("98"), bd("96"), bd("2"));
+        Order stopLimit = engine.createStopOrder(USER_A, "STOCK", OrderType.STOP_LIMIT, Direction.SELL, bd("99"), bd("97"), bd("1"));
+        Order buyStop = engine.createStopOrder(USER_B, "STOCK", OrderType.STOP_LIMIT, Direction.BUY, bd("120"), bd("121"), bd("5"));
+        assertEquals(OrderStatus.PENDING, stop.status);
+        assertEquals(bd("3.0000"), engine.assetService.getAsset(USER_A, "STOCK").getFrozen());
+        assertEquals(2, engine.getMatchEngine("STOCK").sellStops.size());
+        engine.validate();
+        // 成交价99触发止损限价单，以98成交后连锁触发止损单，以97成交2:
+        engine.createOrder(USER_A, Direction.SELL, bd("99"), bd("1"));
+        assertEquals(OrderStatus.FULLY_FILLED, stopLimit.status);
+        assertEquals(OrderStatus.FULLY_FILLED, stop.status);
+        assertEquals(0, engine.getMatchEngine("STOCK").buyBook.size());
+        assertEquals(9700, engine.getMatchEngine("STOCK").marketPrice);
+        assertEquals(bd("0.0000"), engine.assetService.getAsset(USER_A, "STOCK").getFrozen());
+        assertEquals(bd("391.0000"), engine.assetService.getAsset(USER_A, "FIAT").getAvailable());
+        engine.validate();
+        // 已达到止损价的止损限价单立即触发，未成交部分挂单:
+        Order triggered = engine.createStopOrder(USER_A, "STOCK", OrderType.STOP_LIMIT, Direction.SELL, bd("98"), bd("100"), bd("1"));
+        assertTrue(triggered.triggered);
+        assertEquals(triggered, engine.getMatchEngine("STOCK").sellBook.getFirst());
+        // 改单和撤销未触发的止损单:
+        engine.amendOrder(USER_B, buyStop.sequenceId, bd("2"));
+        assertEquals(bd("242.0000"), engine.assetService.getAsset(USER_B, "FIAT").getFrozen());
+        engine.cancelOrder(USER_B, buyStop.sequenceId);
+        assertEquals(OrderStatus.CANCELLED, buyStop.status);
+        assertEquals(bd("0.0000"), engine.assetService.getAsset(USER_B, "FIAT").getFrozen());
+        assertThrows(IllegalArgumentException.class, () -> engine.createOrder(USER_A, "STOCK", OrderType.STOP, Direction.SELL, bd("1"), bd("1")));
+        assertThrows(IllegalArgumentException.class, () -> engine.createStopOrder(USER_A, "STOCK", OrderType.LIMIT, Direction.SELL, bd("1"), bd("1"), bd("1")));
+        engine.validate();
+    }
+
+    @Test
+    public void testMetrics() {
+        TradingEngine engine = new TradingEngine();
+        HistogramMetrics metrics = new HistogramMetrics();
+        engine.setMetrics(metrics);
+        engine.deposit(USER_A, "FIAT", bd("10000"));
+        engine.deposit(USER_B, "STOCK", bd("100"));
+        for (int i = 0; i < 10; i++) {
+            engine.createOrder(USER_B, Direction.SELL, bd("100"), bd("1"));
+        }
+        // 一个订单成交10笔:
+        Order order = engine.createOrder(USER_A, Direction.BUY, bd("100"), bd("20"));
+        engine.cancelOrder(USER_A, order.sequenceId);
+        String dump = metrics.dump();
+        assertTrue(dump.contains("FREEZE   count=11 "), dump);
+        assertTrue(dump.contains("MATCH    count=11 "), dump);
+        assertTrue(dump.contains("CLEAR    count=11 "), dump);
+        assertTrue(dump.contains("CANCEL   count=1 "), dump);
+        assertTrue(dump.contains("FILLS    count=11 p50=0 p99=10 max=10"), dump);
+        assertTrue(dump.contains("BOOK     STOCK buy=0 sell=0"), dump);
+        assertTrue(dump.contains("ACTIVE   orders=0"), dump);
+        // dump后清零:
+        assertTrue(metrics.dump().contains("MATCH    count=0 "));
+    }
+
+    @Test
+    public void testSelfTradePrevention() {
+        for (OrderBookType bookType : OrderBookType.values()) {
+            for (SelfTradePrevention stp : List.of(SelfTradePrevention.CANCEL_NEWEST, SelfTradePrevention.CANCEL_OLDEST, SelfTradePrevention.DECREMENT_BOTH)) {
+                testSelfTradePrevention(bookType, stp);
+            }
+        }
+    }
+
+    void testSelfTradePrevention(OrderBookType bookType, SelfTradePrevention stp) {
+        TradingEngine engine = new TradingEngine(List.of(new Symbol("STOCK", "STOCK", "FIAT", stp)), bookType, null, null);
+        engine.enableAudit();
+        engine.deposit(USER_A, "FIAT", bd("10000"));
+        engine.deposit(USER_A, "STOCK", bd("10"));
+        engine.deposit(USER_C, "STOCK", bd("10"));
+        engine.createOrder(USER_C, Direction.SELL, bd("100"), bd("1"));
+        Order maker = engine.createOrder(USER_A, Direction.SELL, bd("100"), bd("2"));
+        // 先与C成交1，再遇到自己的卖单:
+        Order taker = engine.createOrder(USER_A, Direction.BUY, bd("101"), bd("4"));
+        switch (stp) {
+        case CANCEL_NEWEST -> {
+            assertEquals(OrderStatus.CANCELLED, taker.status);
+            assertEquals(OrderStatus.PENDING, maker.status);
+            assertEquals(bd("9900.0000"), engine.assetService.getAsset(USER_A, "FIAT").getAvailable());
+            assertEquals(bd("0.0000"), engine.assetService.getAsset(USER_A, "FIAT").getFrozen());
+            assertEquals(bd("2.0000"), engine.assetService.getAsset(USER_A, "STOCK").getFrozen());
+        }
+        case CANCEL_OLDEST -> {
+            assertEquals(OrderStatus.PARCIAL_FILLED, taker.status);
+            assertEquals(OrderStatus.CANCELLED, maker.status);
+            assertEquals(null, engine.orderService.getOrder(maker.sequenceId));
+            assertEquals(bd("303.0000"), engine.assetService.getAsset(USER_A, "FIAT").getFrozen());
+            assertEquals(bd("11.0000"), engine.assetService.getAsset(USER_A, "STOCK").getAvailable());
+            assertEquals(bd("0.0000"), engine.assetService.getAsset(USER_A, "STOCK").getFrozen());
+        }
+        case DECREMENT_BOTH -> {
+            // 双方减少2，不产生成交:
+            assertEquals(OrderStatus.PARCIAL_FILLED, taker.status);
+            assertEquals(bd("2.00"), taker.getAmount());
+            assertEquals(bd("1.00"), taker.getUnfilledAmount());
+            assertEquals(OrderStatus.CANCELLED, maker.status);
+            assertEquals(null, engine.orderService.getOrder(maker.sequenceId));
+            assertEquals(bd("101.0000"), engine.assetService.getAsset(USER_A, "FIAT").getFrozen());
+            assertEquals(bd("9799.0000"), engine.assetService.getAsset(USER_A, "FIAT").getAvailable());
+            assertEquals(bd("11.0000"), engine.assetService.getAsset(USER_A, "STOCK").getAvailable());
+        }
+        default -> throw new IllegalArgumentException();
+        }
+        // 最新成交价只由与C的成交决定:
+        assertEquals(10000, engine.getMatchEngine("STOCK").marketPrice);
+        engine.validate();
+    }
+
+    @Test
+    public void testFokWithSelfTradePrevention() {
+        for (OrderBookType bookType : OrderBookType.values()) {
+            for (SelfTradePrevention stp : List.of(SelfTradePrevention.CANCEL_NEWEST, SelfTradePrevention.CANCEL_OLDEST, SelfTradePrevention.DECREMENT_BOTH)) {
+                testFokWithSelfTradePrevention(bookType, stp);
+            }
+        }
+    }
+
+    void testFokWithSelfTradePrevention(OrderBookType bookType, SelfTradePrevention stp) {
+        TradingEngine engine = new TradingEngine(List.of(new Symbol("STOCK", "STOCK", "FIAT", stp)), bookType, null, null);
+        engine.enableAudit();
+        engine.deposit(USER_A, "FIAT", bd("10000"));
+        engine.deposit(USER_A, "STOCK", bd("10"));
+        engine.deposit(USER_C, "STOCK", bd("10"));
+        Order c1 = engine.createOrder(USER_C, Direction.SELL, bd("100"), bd("1"));
+        Order own = engine.createOrder(USER_A, Direction.SELL, bd("100"), bd("2"));
+        Order c2 = engine.createOrder(USER_C, Direction.SELL, bd("100"), bd("2"));
+        // 自己的挂单不计入可成交数量，不足时不成交:
+        Order fok = engine.createOrder(USER_A, "STOCK", OrderType.FOK, Direction.BUY, bd("101"), bd("4"));
+        assertEquals(OrderStatus.CANCELLED, fok.status);
+        assertEquals(bd("4.00"), fok.getUnfilledAmount());
+        assertEquals(OrderStatus.PENDING, c1.status);
+        assertEquals(OrderStatus.PENDING, own.status);
+        assertEquals(bd("0.0000"), engine.assetService.getAsset(USER_A, "FIAT").getFrozen());
+        engine.validate();
+        fok = engine.createOrder(USER_A, "STOCK", OrderType.FOK, Direction.BUY, bd("101"), bd("3"));
+        if (stp == SelfTradePrevention.CANCEL_OLDEST) {
+            // 撤销自己的挂单后与C成交3:
+            assertEquals(OrderStatus.FULLY_FILLED, fok.status);
+            assertEquals(OrderStatus.CANCELLED, own.status);
+            assertEquals(OrderStatus.FULLY_FILLED, c2.status);
+        } else {
+            // 自己的挂单之前只有1:
+            assertEquals(OrderStatus.CANCELLED, fok.status);
+            assertEquals(bd("3.00"), fok.getUnfilledAmount());
+            assertEquals(OrderStatus.PENDING, c1.status);
+        }
+        engine.validate();
+    }
+
+    @Test
+    public void testRiskLimits() {
+        TradingEngine engine = new TradingEngine();
+        engine.enableAudit();
+        engine.deposit(USER_A, "FIAT", bd("10000"));
+        engine.deposit(USER_B, "STOCK", bd("10"));
+        engine.setRiskLimits(new RiskLimits(2, FixedPoint.toBalance(bd("1000")), 500));
+        Order first = engine.createOrder(USER_A, Direction.BUY, bd("100"), bd("5"));
+        RuntimeException e = assertThrows(RuntimeException.class, () -> engine.createOrder(USER_A, Direction.BUY, bd("100"), bd("6")));
+        assertEquals("Notional limit exceeded.", e.getMessage());
+        Order second = engine.createOrder(USER_A, Direction.BUY, bd("100"), bd("4"));
+        e = assertThrows(RuntimeException.class, () -> engine.createOrder(USER_A, Direction.BUY, bd("1"), bd("0.01")));
+        assertEquals("Too many open orders.", e.getMessage());
+        // 成交减少未成交部分的名义价值:
+        engine.createOrder(USER_B, Direction.SELL, bd("100"), bd("1"));
+        assertEquals(FixedPoint.toBalance(bd("800")), engine.orderService.getOpenNotional(USER_A, "FIAT"));
+        // 偏离最新成交价超过5%:
+        e = assertThrows(RuntimeException.class, () -> engine.createOrder(USER_B, Direction.SELL, bd("106"), bd("1")));
+        assertEquals("Price out of band.", e.getMessage());
+        engine.createOrder(USER_B, Direction.SELL, bd("105"), bd("1"));
+        // 撤单后可以再下单:
+        engine.cancelOrder(USER_A, first.sequenceId);
+        engine.createOrder(USER_A, Direction.BUY, bd("100"), bd("6"));
+        assertEquals(FixedPoint.toBalance(bd("1000")), engine.orderService.getOpenNotional(USER_A, "FIAT"));
+        engine.validate();
+        // 批量下单不合并冻结，按此前已接受的订单逐个检查:
+        engine.cancelOrder(USER_A, second.sequenceId);
+        BatchResult result = engine.submitBatch(List.of(new OrderRequest(USER_A, "STOCK", Direction.BUY, bd("100"), bd("1")),
+                new OrderRequest(USER_A, "STOCK", Direction.BUY, bd("100"), bd("1"))));
+        assertFalse(result.coalesced);
+        assertEquals(1, result.accepted);
+        assertEquals("Too many open orders.", result.errors[1].getMessage());
+        engine.validate();
+    }
+
+    @Test
+    public void testRiskLimitsPerQuoteAsset() {
+        List<Symbol> symbols = List.of(new Symbol("STOCK", "STOCK", "FIAT"), new Symbol("COIN", "COIN", "USDT"));
+        TradingEngine engine = new TradingEngine(symbols, OrderBookType.PRICE_LEVEL, null, null);
+        engine.enableAudit();
+        engine.deposit(USER_A, "FIAT", bd("10000"));
+        engine.deposit(USER_A, "USDT", bd("10000"));
+        engine.setRiskLimits(new RiskLimits(0, FixedPoint.toBalance(bd("1000")), 0));
+        engine.createOrder(USER_A, "STOCK", Direction.BUY, bd("100"), bd("8"));
+        // 不同计价资产的名义价值分别累计:
+        engine.createOrder(USER_A, "COIN", Direction.BUY, bd("100"), bd("8"));
+        assertEquals(FixedPoint.toBalance(bd("800")), engine.orderService.getOpenNotional(USER_A, "FIAT"));
+        assertEquals(FixedPoint.toBalance(bd("800")), engine.orderService.getOpenNotional(USER_A, "USDT"));
+        RuntimeException e = assertThrows(RuntimeException.class, () -> engine.createOrder(USER_A, "COIN", Direction.BUY, bd("100"), bd("3")));
+        assertEquals("Notional limit exceeded.", e.getMessage());
+        engine.createOrder(USER_A, "STOCK", Direction.BUY, bd("100"), bd("2"));
+        assertEquals(FixedPoint.toBalance(bd("1000")), engine.orderService.getOpenNotional(USER_A, "FIAT"));
+        engine.validate();
+    }
+
+    @Test
+    public void testIcebergOrders() {
+        for (OrderBookType bookType : OrderBookType.values()) {
+            testIcebergOrders(bookType);
+        }
+    }
+
+    void testIcebergOrders(OrderBookType bookType) {
+        TradingEngine engine = new TradingEngine(bookType);
+        engine.enableAudit();
+        engine.deposit(USER_A, "STOCK", bd("10"));
+        engine.deposit(USER_B, "FIAT", bd("10000"));
+        engine.deposit(USER_C, "STOCK", bd("10"));
+        // 按全部数量冻结，只显示2:
+        Order iceberg = engine.createIcebergOrder(USER_A, "STOCK", Direction.SELL, bd("100"), bd("5"), bd("2"));
+        Order c = engine.createOrder(USER_C, Direction.SELL, bd("100"), bd("1"));
+        assertEquals(bd("5.0000"), engine.assetService.getAsset(USER_A, "STOCK").getFrozen());
+        assertEquals(300, engine.getDepth("STOCK", 5).askQuantities[0]);
+        engine.validate();
+        // 显示的部分全部成交后补充，排到C之后:
+        engine.createOrder(USER_B, Direction.BUY, bd("100"), bd("2"));
+        assertEquals(bd("3.00"), iceberg.getUnfilledAmount());
+        assertEquals(100, iceberg.hiddenAmount);
+        assertEquals(c, engine.getMatchEngine("STOCK").sellBook.getFirst());
+        assertEquals(300, engine.getDepth("STOCK", 5).askQuantities[0]);
+        engine.validate();
+        // 先成交C，再成交冰山单显示的1:
+        engine.createOrder(USER_B, Direction.BUY, bd("100"), bd("2"));
+        assertEquals(OrderStatus.FULLY_FILLED, c.status);
+        assertEquals(bd("2.00"), iceberg.getUnfilledAmount());
+        assertEquals(100, iceberg.visibleAmount());
+        assertEquals(100, engine.getDepth("STOCK", 5).askQuantities[0]);
+        engine.validate();
+        // 改单先减少隐藏的数量:
+        engine.amendOrder(USER_A, iceberg.sequenceId, bd("4"));
+        assertEquals(0, iceberg.hiddenAmount);
+        assertEquals(100, iceberg.visibleAmount());
+        assertEquals(bd("1.0000"), engine.assetService.getAsset(USER_A, "STOCK").getFrozen());
+        engine.validate();
+        // 作为Taker时全部数量参与撮合，剩余部分挂单时隐藏:
+        Order taker = engine.createIcebergOrder(USER_B, "STOCK", Direction.BUY, bd("100"), bd("3"), bd("1"));
+        assertEquals(OrderStatus.FULLY_FILLED, iceberg.status);
+        assertEquals(OrderStatus.PARCIAL_FILLED, taker.status);
+        assertEquals(100, taker.hiddenAmount);
+        assertEquals(100, engine.getDepth("STOCK", 5).bidQuantities[0]);
+        assertEquals(bd("200.0000"), engine.assetService.getAsset(USER_B, "FIAT").getFrozen());
+        assertThrows(IllegalArgumentException.class, () -> engine.createIcebergOrder(USER_B, "STOCK", Direction.BUY, bd("100"), bd("1"), bd("1")));
+        // 撤销时解冻包括隐藏的全部数量:
+        engine.cancelOrder(USER_B, taker.sequenceId);
+        assertEquals(bd("0.0000"), engine.assetService.getAsset(USER_B, "FIAT").getFrozen());
+        engine.validate();
+    }
+
+    @Test
+    public void testFokAgainstIceberg() {
+        for (OrderBookType bookType : OrderBookType.values()) {
+            TradingEngine engine = new TradingEngine(bookType);
+            engine.enableAudit();
+            engine.deposit(USER_A, "STOCK", bd("10"));
+            engine.deposit(USER_B, "FIAT", bd("10000"));
+            // 只显示1，同一次撮合中补充4次:
+            Order iceberg = engine.createIcebergOrder(USER_A, "STOCK", Direction.SELL, bd("100"), bd("5"), bd("1"));
+            Order fok = engine.createOrder(USER_B, "STOCK", OrderType.FOK, Direction.BUY, bd("100"), bd("6"));
+            assertEquals(OrderStatus.CANCELLED, fok.status);
+            assertEquals(bd("5.00"), iceberg.getUnfilledAmount());
+            fok = engine.createOrder(USER_B, "STOCK", OrderType.FOK, Direction.BUY, bd("100"), bd("4"));
+            assertEquals(OrderStatus.FULLY_FILLED, fok.status);
+            assertEquals(bd("1.00"), iceberg.getUnfilledAmount());
+            assertEquals(100, engine.getDepth("STOCK", 5).askQuantities[0]);
+            engine.validate();
+            // 改单减少隐藏的数量后，FOK检查使用减少后的数量:
+            Order hidden = engine.createIcebergOrder(USER_A, "STOCK", Direction.SELL, bd("101"), bd("5"), bd("1"));
+            engine.amendOrder(USER_A, hidden.sequenceId, bd("3"));
+            fok = engine.createOrder(USER_B, "STOCK", OrderType.FOK, Direction.BUY, bd("101"), bd("5"));
+            assertEquals(OrderStatus.CANCELLED, fok.status);
+            fok = engine.createOrder(USER_B, "STOCK", OrderType.FOK, Direction.BUY, bd("101"), bd("4"));
+            assertEquals(OrderStatus.FULLY_FILLED, fok.status);
+            assertEquals(OrderStatus.FULLY_FILLED, hidden.status);
+            engine.validate();
+            testFokAgainstIcebergWithSelfTradePrevention(bookType);
+        }
+    }
+
+    void testFokAgainstIcebergWithSelfTradePrevention(OrderBookType bookType) {
+        TradingEngine engine = new TradingEngine(List.of(new Symbol("STOCK", "STOCK", "FIAT", SelfTradePrevention.CANCEL_NEWEST)), bookType, null, null);
+        engine.enableAudit();
+        engine.deposit(USER_A, "FIAT", bd("10000"));
+        engine.deposit(USER_A, "STOCK", bd("10"));
+        engine.deposit(USER_C, "STOCK", bd("10"));
+        Order iceberg = engine.createIcebergOrder(USER_C, "STOCK", Direction.SELL, bd("100"), bd("5"), bd("1"));
+        engine.createOrder(USER_A, Direction.SELL, bd("100"), bd("2"));
+        // 冰山单补充后排到自己的挂单之后，只有显示的1可以成交:
+        Order fok = engine.createOrder(USER_A, "STOCK", OrderType.FOK, Direction.BUY, bd("100"), bd("2"));
+        assertEquals(OrderStatus.CANCELLED, fok.status);
+        assertEquals(bd("5.00"), iceberg.getUnfilledAmount());
+        fok = engine.createOrder(USER_A, "STOCK", OrderType.FOK, Direction.BUY, bd("100"), bd("1"));
+        assertEquals(OrderStatus.FULLY_FILLED, fok.status);
+        engine.validate();
+    }
+
+    @Test
+    public void testMarketOrderAgainstIceberg() {
+        for (OrderBookType bookType : OrderBookType.values()) {
+            TradingEngine engine = new TradingEngine(bookType);
+            engine.enableAudit();
+            engine.deposit(USER_A, "STOCK", bd("10"));
+            engine.deposit(USER_B, "FIAT", bd("10000"));
+            engine.deposit(USER_C, "STOCK", bd("10"));
+            engine.createIcebergOrder(USER_A, "STOCK", Direction.SELL, bd("100"), bd("5"), bd("1"));
+            engine.createOrder(USER_C, Direction.SELL, bd("101"), bd("5"));
+            // 按全部数量定价，不扫到下一档:
+            Order market = engine.createOrder(USER_B, "STOCK", OrderType.MARKET, Direction.BUY, null, bd("4"));
+            assertEquals(bd("100.00"), market.getPrice());
+            assertEquals(OrderStatus.FULLY_FILLED, market.status);
+            assertEquals(bd("0.0000"), engine.assetService.getAsset(USER_B, "FIAT").getFrozen());
+            assertEquals(bd("9600.0000"), engine.assetService.getAsset(USER_B, "FIAT").getAvailable());
+            // 超过冰山单的全部数量时才扫到下一档:
+            market = engine.createOrder(USER_B, "STOCK", OrderType.MARKET, Direction.BUY, null, bd("2"));
+            assertEquals(bd("101.00"), market.getPrice());
+            assertEquals(OrderStatus.FULLY_FILLED, market.status);
+            engine.validate();
+        }
+    }
+
+    static void createEach(TradingEngine engine, List<OrderRequest> requests) {
+        for (OrderRequest request : requests) {
+            try {
+                engine.createOrder(request.userId, request.symbol, request.direction, request.price, request.amount);
+            } catch (RuntimeException e) {
+                // 被拒绝
+            }
+        }
+    }
+
     static BigDecimal bd(String s) {
         return new BigDecimal(s);
     }
@@ -0,0 +1,109 @@
+package com.itranswarp.assets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class AssetServiceTest {
+
+    @Test
+    public void testTransfer() {
+        AssetService assetService = new AssetService(4);
+        assertNull(assetService.getAsset(100, "FIAT"));
+        assertTrue(assetService.tryTransfer(Transfer.AVAILABLE_TO_AVAILABLE, Users.DEBT, 100, "FIAT", 1000, false));
+        assertTrue(assetService.tryFreeze(100, "FIAT", 300));
+        assertFalse(assetService.tryFreeze(100, "FIAT", 701));
+        assetService.transfer(Transfer.FROZEN_TO_AVAILABLE, 100, 101, "FIAT", 200);
+        assertEquals(new Asset(700, 100).toString(), assetService.getAsset(100, "FIAT").toString());
+        assertEquals(new Asset(200, 0).toString(), assetService.getAsset(101, "FIAT").toString());
+        assertEquals(new Asset(-1000, 0).toString(), assetService.getAsset(Users.DEBT, "FIAT").toString());
+        // 未使用的资产:
+        assertNull(assetService.getAsset(101, "STOCK"));
+        assertThrows(RuntimeException.class, () -> assetService.unfreeze(100, "FIAT", 101));
+    }
+
+    @Test
+    public void testManyUsers() {
+        AssetService assetService = new AssetService(8);
+        Map<String, Long> expected = new HashMap<>();
+        // 覆盖分片扩容，用户ID不连续:
+        for (long i = 0; i < 100_000; i++) {
+            long userId = Users.TRADER + i * 7919;
+            String assetId = "A" + (i % 5);
+            assetService.tryTransfer(Transfer.AVAILABLE_TO_AVAILABLE, Users.DEBT, userId, assetId, i + 1, false);
+            expected.put(userId + " " + assetId, i + 1);
+        }
+        Map<String, Long> actual = new HashMap<>();
+        long[] debt = new long[1];
+        assetService.forEach((userId, assetId, available, frozen) -> {
+            if (userId == Users.DEBT) {
+                debt[0] += available;
+            } else {
+                actual.put(userId + " " + assetId, available);
+            }
+        });
+        assertEquals(expected, actual);
+        assertEquals(-100_000L * 100_001 / 2, debt[0]);
+    }
+
+    @Test
+    public void testManyAssets() {
+        AssetService assetService = new AssetService(2);
+        // 资产种类不设上限，新资产在分片扩容前后分配列:
+        for (int asset = 0; asset < 200; asset++) {
+            for (long userId = Users.TRADER; userId < Users.TRADER + 20 + asset; userId++) {
+                assetService.tryTransfer(Transfer.AVAILABLE_TO_AVAILABLE, Users.DEBT, userId, "A" + asset, asset + 1, false);
+            }
+        }
+        assertEquals(new Asset(1, 0).toString(), assetService.getAsset(Users.TRADER, "A0").toString());
+        assertEquals(new Asset(200, 0).toString(), assetService.getAsset(Users.TRADER + 218, "A199").toString());
+        assertNull(assetService.getAsset(Users.TRADER + 218, "A198"));
+        long[] count = new long[1];
+        assetService.forEach((userId, assetId, available, frozen) -> count[0]++);
+        // 每种资产的用户数加上DEBT:
+        assertEquals(200 * 20 + 199 * 200 / 2 + 200, count[0]);
+    }
+
+    @Test
+    public void testConcurrentTransfer() throws Exception {
+        AssetService assetService = new AssetService(4);
+        final int users = 100;
+        for (long userId = Users.TRADER; userId < Users.TRADER + users; userId++) {
+            assetService.tryTransfer(Transfer.AVAILABLE_TO_AVAILABLE, Users.DEBT, userId, "FIAT", 1000_000, false);
+        }
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Random random = new Random(t);
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    long from = Users.TRADER + random.nextInt(users);
+                    long to = Users.TRADER + random.nextInt(users);
+                    if (assetService.tryFreeze(from, "FIAT", 10)) {
+                        assetService.transfer(Transfer.FROZEN_TO_AVAILABLE, from, to, "FIAT", 10);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long[] total = new long[1];
+        assetService.forEach((userId, assetId, available, frozen) -> {
+            assertEquals(0, frozen);
+            total[0] += available;
+        });
+        assertEquals(0, total[0]);
+    }
+}
@@ -0,0 +1,81 @@
+package com.itranswarp.audit;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import com.itranswarp.assets.AssetService;
+import com.itranswarp.assets.Transfer;
+import com.itranswarp.assets.Users;
+import com.itranswarp.order.Direction;
+import com.itranswarp.order.Order;
+import com.itranswarp.util.FixedPoint;
+
+public class AuditorTest {
+
+    @Test
+    public void testFrozenMatchesOrder() {
+        AssetService assetService = new AssetService();
+        Auditor auditor = new Auditor(assetService);
+        assetService.setAuditor(auditor);
+        deposit(auditor, assetService, Users.TRADER, "FIAT", 2_000_000);
+
+        // 冻结与订单一致:
+        Order order = new Order(1L, Users.TRADER, Direction.BUY, 10000, 100);
+        auditor.begin();
+        assetService.tryFreeze(Users.TRADER, "FIAT", FixedPoint.notional(order.price, order.amount));
+        auditor.onOrderChanged(order, order.amount);
+        auditor.end();
+
+        // 冻结多于订单:
+        auditor.begin();
+        assetService.tryFreeze(Users.TRADER, "FIAT", 1);
+        assertThrows(RuntimeException.class, () -> auditor.end());
+
+        // 订单减少但未解冻:
+        auditor.begin();
+        auditor.onOrderChanged(order, -1);
+        assertThrows(RuntimeException.class, () -> auditor.end());
+    }
+
+    @Test
+    public void testBalanceChange() {
+        AssetService assetService = new AssetService();
+        Auditor auditor = new Auditor(assetService);
+        assetService.setAuditor(auditor);
+        deposit(auditor, assetService, Users.TRADER, "FIAT", 100);
+
+        // 资产总额变化:
+        auditor.begin();
+        auditor.onBalanceChanged(Users.TRADER, assetService.assetIndex("FIAT"), 1, 0, 101, 0);
+        assertThrows(RuntimeException.class, () -> auditor.end());
+
+        // 交易用户余额为负:
+        auditor.begin();
+        assertThrows(RuntimeException.class,
+                () -> assetService.tryTransfer(Transfer.AVAILABLE_TO_AVAILABLE, Users.TRADER, Users.TRADER + 1, "FIAT", 101, false));
+    }
+
+    @Test
+    public void testManyAssets() {
+        AssetService assetService = new AssetService();
+        Auditor auditor = new Auditor(assetService);
+        assetService.setAuditor(auditor);
+        for (int asset = 0; asset < 100; asset++) {
+            deposit(auditor, assetService, Users.TRADER, "A" + asset, 100);
+        }
+        // 序号超过64的资产:
+        auditor.begin();
+        auditor.onBalanceChanged(Users.TRADER, assetService.assetIndex("A99"), 1, 0, 101, 0);
+        assertThrows(RuntimeException.class, () -> auditor.end());
+        auditor.begin();
+        assetService.tryTransfer(Transfer.AVAILABLE_TO_AVAILABLE, Users.TRADER, Users.TRADER + 1, "A99", 50, true);
+        auditor.end();
+    }
+
+    static void deposit(Auditor auditor, AssetService assetService, long userId, String assetId, long amount) {
+        auditor.begin();
+        assetService.tryTransfer(Transfer.AVAILABLE_TO_AVAILABLE, Users.DEBT, userId, assetId, amount, false);
+        auditor.end();
+    }
+}
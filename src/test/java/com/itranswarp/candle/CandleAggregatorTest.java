@@ -0,0 +1,151 @@
+package com.itranswarp.candle;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.jupiter.api.Test;
+
+import com.itranswarp.TradingEngine;
+import com.itranswarp.assets.Users;
+import com.itranswarp.match.MarketDataListener;
+import com.itranswarp.order.Direction;
+
+public class CandleAggregatorTest {
+
+    @Test
+    public void testCandles() throws InterruptedException {
+        AtomicLong clock = new AtomicLong(1000);
+        List<Candle> closed = new ArrayList<>();
+        CandleAggregator aggregator = new CandleAggregator(64, 4, candle -> {
+            synchronized (closed) {
+                closed.add(candle);
+            }
+        }, clock::get);
+        aggregator.publish("STOCK", 10000, 100, 1000);
+        aggregator.publish("STOCK", 10200, 200, 1000);
+        aggregator.publish("STOCK", 9900, 100, 1500);
+        // 下一秒的第一笔成交使上一秒收盘:
+        aggregator.publish("STOCK", 10100, 100, 2100);
+        assertTrue(aggregator.awaitProcessed(1000));
+
+        List<Candle> seconds = aggregator.getCandles("STOCK", CandleInterval.SECOND, 10);
+        assertEquals(1, seconds.size());
+        Candle candle = seconds.get(0);
+        assertEquals(1000, candle.start);
+        assertEquals(10000, candle.open);
+        assertEquals(10200, candle.high);
+        assertEquals(9900, candle.low);
+        assertEquals(9900, candle.close);
+        assertEquals(400, candle.volume);
+        assertEquals(3, candle.trades);
+        // (100 * 1 + 102 * 2 + 99 * 1) / 4 = 100.75:
+        assertEquals(10075, candle.getVwap());
+
+        Candle minute = aggregator.getCurrent("STOCK", CandleInterval.MINUTE);
+        assertEquals(0, minute.start);
+        assertEquals(5, minute.volume / 100);
+        assertEquals(10080, aggregator.getVwap("STOCK"));
+        assertNull(aggregator.getCurrent("OTHER", CandleInterval.SECOND));
+
+        // 没有成交时按时间收盘:
+        clock.set(60_000);
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (aggregator.getCandles("STOCK", CandleInterval.MINUTE, 1).isEmpty() && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(1_000_000);
+        }
+        assertEquals(10100, aggregator.getCandles("STOCK", CandleInterval.MINUTE, 1).get(0).close);
+        assertEquals(2000, aggregator.getCandles("STOCK", CandleInterval.SECOND, 1).get(0).start);
+        // 小时线尚未结束:
+        assertEquals(4, aggregator.getCurrent("STOCK", CandleInterval.HOUR).trades);
+        aggregator.shutdown();
+        synchronized (closed) {
+            // 1000和2000两根秒线，0开始的一根分钟线:
+            assertEquals(3, closed.size());
+        }
+    }
+
+    @Test
+    public void testHistoryCapacity() throws InterruptedException {
+        AtomicLong clock = new AtomicLong(0);
+        CandleAggregator aggregator = new CandleAggregator(16, 4, null, clock::get);
+        for (int i = 0; i < 100; i++) {
+            aggregator.publish("STOCK", 10000 + i, 100, i * 1000L);
+        }
+        assertTrue(aggregator.awaitProcessed(1000));
+        List<Candle> seconds = aggregator.getCandles("STOCK", CandleInterval.SECOND, 10);
+        // 只保留最近4根，最新的在前:
+        assertEquals(4, seconds.size());
+        assertEquals(98_000, seconds.get(0).start);
+        assertEquals(95_000, seconds.get(3).start);
+        // 分钟线由收盘的秒线合并，下一分钟的成交使其收盘:
+        List<Candle> minutes = aggregator.getCandles("STOCK", CandleInterval.MINUTE, 10);
+        assertEquals(1, minutes.size());
+        assertEquals(60, minutes.get(0).trades);
+        assertEquals(10000, minutes.get(0).open);
+        assertEquals(10059, minutes.get(0).high);
+        assertEquals(40, aggregator.getCurrent("STOCK", CandleInterval.MINUTE).trades);
+        assertEquals(100, aggregator.getCurrent("STOCK", CandleInterval.HOUR).trades);
+        aggregator.shutdown();
+    }
+
+    @Test
+    public void testEngineTrades() throws InterruptedException {
+        TradingEngine engine = new TradingEngine();
+        // 撮合线程使用聚合线程缓存的时间:
+        CandleAggregator aggregator = new CandleAggregator(1024, 16, null, () -> 5000);
+        engine.setMarketDataListener(aggregator);
+        engine.deposit(Users.TRADER, "FIAT", new BigDecimal("10000"));
+        engine.deposit(Users.TRADER + 1, "STOCK", new BigDecimal("10"));
+        engine.createOrder(Users.TRADER + 1, Direction.SELL, new BigDecimal("100"), new BigDecimal("1"));
+        engine.createOrder(Users.TRADER + 1, Direction.SELL, new BigDecimal("101"), new BigDecimal("1"));
+        engine.createOrder(Users.TRADER, Direction.BUY, new BigDecimal("101"), new BigDecimal("2"));
+        assertTrue(aggregator.awaitProcessed(1000));
+        Candle candle = aggregator.getCurrent("STOCK", CandleInterval.SECOND);
+        assertEquals(2, candle.trades);
+        assertEquals(10000, candle.open);
+        assertEquals(10100, candle.close);
+        assertEquals(10050, candle.getVwap());
+        aggregator.shutdown();
+    }
+
+    @Test
+    public void testDepthAndCandles() throws InterruptedException {
+        TradingEngine engine = new TradingEngine();
+        List<String> depth = new ArrayList<>();
+        engine.setMarketDataListener(new MarketDataListener() {
+            @Override
+            public void onLevelChanged(String symbol, Direction direction, long price, long quantity) {
+                depth.add(direction + " " + price + " " + quantity);
+            }
+
+            @Override
+            public void onLevelRemoved(String symbol, Direction direction, long price) {
+                depth.add(direction + " " + price + " removed");
+            }
+
+            @Override
+            public void onTrade(String symbol, long takerOrderId, long makerOrderId, Direction takerDirection, long price, long amount) {
+            }
+        });
+        // 深度行情和K线同时接收:
+        CandleAggregator aggregator = new CandleAggregator(1024, 16, null, () -> 5000);
+        engine.addMarketDataListener(aggregator);
+        engine.deposit(Users.TRADER, "FIAT", new BigDecimal("10000"));
+        engine.deposit(Users.TRADER + 1, "STOCK", new BigDecimal("10"));
+        engine.createOrder(Users.TRADER + 1, Direction.SELL, new BigDecimal("100"), new BigDecimal("2"));
+        engine.createOrder(Users.TRADER, Direction.BUY, new BigDecimal("100"), new BigDecimal("2"));
+        assertEquals(List.of("SELL 10000 200", "SELL 10000 removed"), depth);
+        assertTrue(aggregator.awaitProcessed(1000));
+        Candle candle = aggregator.getCurrent("STOCK", CandleInterval.MINUTE);
+        assertEquals(1, candle.trades);
+        assertEquals(200, candle.volume);
+        aggregator.shutdown();
+    }
+}
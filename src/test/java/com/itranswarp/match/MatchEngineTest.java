@@ -0,0 +1,257 @@
+package com.itranswarp.match;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+import com.itranswarp.order.Direction;
+import com.itranswarp.order.Order;
+import com.itranswarp.order.OrderStatus;
+import com.itranswarp.order.OrderType;
+import com.itranswarp.order.Symbol;
+
+public class MatchEngineTest {
+
+    @Test
+    public void testReuseResult() {
+        MatchEngine engine = new MatchEngine(OrderBookType.PRICE_LEVEL);
+        // 超过初始容量的成交记录:
+        int makers = MatchResult.INITIAL_CAPACITY * 2 + 1;
+        for (int i = 0; i < makers; i++) {
+            engine.processOrder(new Order((long) i + 1, 100L, Direction.SELL, 10000 + i, 10));
+        }
+        MatchResult result = engine.processOrder(new Order((long) makers + 1, 101L, Direction.BUY, 20000, 10 * makers));
+        assertEquals(makers, result.size());
+        for (int i = 0; i < makers; i++) {
+            MatchRecord record = result.get(i);
+            assertEquals(10000 + i, record.price);
+            assertEquals(10, record.amount);
+            assertEquals(i + 1, record.makerOrder.sequenceId);
+            assertEquals(makers + 1, record.takerOrder.sequenceId);
+        }
+        MatchResult copy = result.copy();
+        // 下一次撮合复用同一个MatchResult:
+        MatchResult next = engine.processOrder(new Order((long) makers + 2, 101L, Direction.BUY, 20000, 10));
+        assertSame(result, next);
+        assertTrue(next.isEmpty());
+        assertEquals(makers, copy.size());
+        assertEquals(10000 + makers - 1, copy.getPrice(makers - 1));
+    }
+
+    @Test
+    public void testOrderTypes() {
+        for (OrderBookType bookType : OrderBookType.values()) {
+            MatchEngine engine = new MatchEngine(bookType);
+            engine.processOrder(new Order(1L, 100L, Direction.SELL, 10000, 10));
+            engine.processOrder(new Order(2L, 100L, Direction.SELL, 10100, 20));
+            engine.processOrder(new Order(3L, 100L, Direction.SELL, 10100, 30));
+            assertEquals(10100, engine.getSweepPrice(Direction.BUY, 11));
+            assertEquals(10100, engine.getSweepPrice(Direction.BUY, 1000));
+            assertEquals(0, engine.getSweepPrice(Direction.SELL, 1));
+            // 累计达到max后停止:
+            assertTrue(engine.sellBook.getQuantity(10100, 25) >= 25);
+            assertEquals(10, engine.sellBook.getQuantity(10000, 100));
+            assertEquals(60, engine.sellBook.getQuantity(10100, 100));
+            // IOC成交后剩余部分不挂单:
+            Order ioc = new Order(4L, Symbol.DEFAULT, 101L, OrderType.IOC, Direction.BUY, 10000, 15);
+            assertEquals(1, engine.processOrder(ioc).size());
+            assertEquals(OrderStatus.CANCELLED, ioc.status);
+            assertEquals(5, ioc.unfilledAmount);
+            assertEquals(0, engine.buyBook.size());
+            // FOK数量不足时不触碰订单簿:
+            Order fok = new Order(5L, Symbol.DEFAULT, 101L, OrderType.FOK, Direction.BUY, 10100, 51);
+            assertTrue(engine.processOrder(fok).isEmpty());
+            assertEquals(OrderStatus.CANCELLED, fok.status);
+            assertEquals(2, engine.sellBook.size());
+            fok = new Order(6L, Symbol.DEFAULT, 101L, OrderType.FOK, Direction.BUY, 10100, 50);
+            assertEquals(2, engine.processOrder(fok).size());
+            assertEquals(OrderStatus.FULLY_FILLED, fok.status);
+            // POST_ONLY与对手盘价格相同时撤销:
+            engine.processOrder(new Order(7L, 100L, Direction.SELL, 10200, 10));
+            Order post = new Order(8L, Symbol.DEFAULT, 101L, OrderType.POST_ONLY, Direction.BUY, 10200, 10);
+            assertTrue(engine.processOrder(post).isEmpty());
+            assertEquals(OrderStatus.CANCELLED, post.status);
+            post = new Order(9L, Symbol.DEFAULT, 101L, OrderType.POST_ONLY, Direction.BUY, 10199, 10);
+            engine.processOrder(post);
+            assertEquals(OrderStatus.PENDING, post.status);
+            assertSame(post, engine.buyBook.getFirst());
+        }
+    }
+
+    @Test
+    public void testStopTrigger() {
+        MatchEngine engine = new MatchEngine(OrderBookType.PRICE_LEVEL);
+        // 买入止损单，止损价低的先触发，同一批按序列号返回:
+        Order s1 = new Order(1L, Symbol.DEFAULT, 100L, OrderType.STOP_LIMIT, Direction.BUY, 20000, 10, 10100);
+        Order s2 = new Order(2L, Symbol.DEFAULT, 100L, OrderType.STOP_LIMIT, Direction.BUY, 20000, 10, 10000);
+        Order s3 = new Order(3L, Symbol.DEFAULT, 100L, OrderType.STOP_LIMIT, Direction.BUY, 20000, 10, 10200);
+        // 卖出止损单:
+        Order s4 = new Order(4L, Symbol.DEFAULT, 100L, OrderType.STOP, Direction.SELL, 1, 10, 9000);
+        for (Order order : new Order[] { s1, s2, s3, s4 }) {
+            assertTrue(engine.processOrder(order).isEmpty());
+        }
+        assertEquals(3, engine.buyStops.size());
+        assertEquals(1, engine.sellStops.size());
+        assertEquals(null, engine.pollTriggered());
+        engine.processOrder(new Order(5L, 101L, Direction.SELL, 10100, 10));
+        engine.processOrder(new Order(6L, 102L, Direction.BUY, 10100, 5));
+        assertEquals(10100, engine.marketPrice);
+        assertSame(s1, engine.pollTriggered());
+        assertSame(s2, engine.pollTriggered());
+        assertTrue(s1.triggered && s2.triggered && !s3.triggered);
+        assertEquals(null, engine.pollTriggered());
+        assertEquals(1, engine.buyStops.size());
+        // 触发后按限价单撮合:
+        assertEquals(1, engine.processOrder(s1).size());
+        assertSame(s1, engine.buyBook.getFirst());
+        engine.cancel(s4);
+        assertEquals(OrderStatus.CANCELLED, s4.status);
+        assertEquals(0, engine.sellStops.size());
+    }
+
+    @Test
+    public void testZeroAllocation() {
+        MatchEngine engine = new MatchEngine(OrderBookType.PRICE_LEVEL);
+        // 数量很大的Maker，每次只部分成交，档位始终存在:
+        engine.processOrder(new Order(1L, 100L, Direction.SELL, 10000, Long.MAX_VALUE / 2));
+        engine.processOrder(new Order(2L, 100L, Direction.BUY, 9000, Long.MAX_VALUE / 2));
+        Order buy = new Order(3L, 101L, Direction.BUY, 10000, 10);
+        Order sell = new Order(4L, 101L, Direction.SELL, 9000, 10);
+        // 预热:
+        long sum = run(engine, buy, sell, 100_000);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long start = bean.getThreadAllocatedBytes(threadId);
+        sum += run(engine, buy, sell, 100_000);
+        long allocated = bean.getThreadAllocatedBytes(threadId) - start;
+        assertEquals(0, allocated, "Allocated bytes per order: " + allocated / 200_000.0);
+        assertEquals(200_000 * 10, sum);
+    }
+
+    @Test
+    public void testCancelWithoutAllocation() {
+        MatchEngine engine = new MatchEngine(OrderBookType.PRICE_LEVEL);
+        // 档位始终存在:
+        engine.processOrder(new Order(1L, 100L, Direction.SELL, 10000, 10));
+        Order[] orders = new Order[10_000];
+        for (int i = 0; i < orders.length; i++) {
+            orders[i] = new Order((long) i + 2, 100L, Direction.SELL, 10000, 10);
+            engine.processOrder(orders[i]);
+        }
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long start = bean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < orders.length; i += 2) {
+            engine.amend(orders[i], 5);
+            engine.cancel(orders[i + 1]);
+        }
+        long allocated = bean.getThreadAllocatedBytes(threadId) - start;
+        assertEquals(0, allocated);
+        PriceLevelOrderBook book = (PriceLevelOrderBook) engine.sellBook;
+        assertEquals(1 + orders.length / 2, book.size());
+        assertEquals(10 + 5 * orders.length / 2, book.getBestLevel().getQuantity());
+    }
+
+    @Test
+    public void testMarketData() {
+        for (OrderBookType bookType : OrderBookType.values()) {
+            testMarketData(bookType);
+        }
+    }
+
+    void testMarketData(OrderBookType bookType) {
+        MatchEngine engine = new MatchEngine(bookType);
+        // 由增量行情重建的买卖盘:
+        Map<Long, Long> bids = new TreeMap<>(Comparator.reverseOrder());
+        Map<Long, Long> asks = new TreeMap<>();
+        long[] traded = new long[1];
+        engine.setMarketDataListener(new MarketDataListener() {
+            @Override
+            public void onLevelChanged(String symbol, Direction direction, long price, long quantity) {
+                (direction == Direction.BUY ? bids : asks).put(price, quantity);
+            }
+
+            @Override
+            public void onLevelRemoved(String symbol, Direction direction, long price) {
+                assertNotNull((direction == Direction.BUY ? bids : asks).remove(price));
+            }
+
+            @Override
+            public void onTrade(String symbol, long takerOrderId, long makerOrderId, Direction takerDirection, long price, long amount) {
+                traded[0] += amount;
+            }
+        });
+        Random random = new Random(bookType.ordinal());
+        List<Order> orders = new ArrayList<>();
+        long sequenceId = 0;
+        for (int i = 0; i < 5000; i++) {
+            int n = random.nextInt(10);
+            if (n < 2 && !orders.isEmpty()) {
+                Order order = orders.remove(random.nextInt(orders.size()));
+                if (order.status == OrderStatus.PENDING || order.status == OrderStatus.PARCIAL_FILLED) {
+                    engine.cancel(order);
+                }
+            } else if (n == 2 && !orders.isEmpty()) {
+                Order order = orders.get(random.nextInt(orders.size()));
+                long filled = order.amount - order.unfilledAmount;
+                if ((order.status == OrderStatus.PENDING || order.status == OrderStatus.PARCIAL_FILLED) && order.amount - filled > 1) {
+                    engine.amend(order, filled + 1);
+                }
+            } else {
+                Direction direction = random.nextBoolean() ? Direction.BUY : Direction.SELL;
+                Order order = new Order(++sequenceId, 100L, direction, 9990 + random.nextInt(20), 1 + random.nextInt(100));
+                long before = traded[0];
+                MatchResult result = engine.processOrder(order);
+                long matched = 0;
+                for (int r = 0; r < result.size(); r++) {
+                    matched += result.getAmount(r);
+                }
+                assertEquals(matched, traded[0] - before);
+                orders.add(order);
+            }
+            Depth depth = engine.getDepth(100);
+            assertEquals(bids, toMap(depth.bidPrices, depth.bidQuantities, depth.bids));
+            assertEquals(asks, toMap(depth.askPrices, depth.askQuantities, depth.asks));
+        }
+        // 只取前几档:
+        Depth top = engine.getDepth(2);
+        assertEquals(Math.min(2, bids.size()), top.bids);
+        if (!bids.isEmpty()) {
+            assertEquals(bids.keySet().iterator().next(), top.bidPrices[0]);
+        }
+    }
+
+    static Map<Long, Long> toMap(long[] prices, long[] quantities, int count) {
+        Map<Long, Long> map = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            map.put(prices[i], quantities[i]);
+        }
+        return map;
+    }
+
+    static long run(MatchEngine engine, Order buy, Order sell, int count) {
+        long sum = 0;
+        for (int i = 0; i < count; i++) {
+            Order taker = (i & 1) == 0 ? buy : sell;
+            taker.unfilledAmount = taker.amount;
+            taker.status = OrderStatus.PENDING;
+            MatchResult result = engine.processOrder(taker);
+            for (int n = 0; n < result.size(); n++) {
+                sum += result.get(n).amount;
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,83 @@
+package com.itranswarp.match;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.itranswarp.order.Direction;
+import com.itranswarp.order.Order;
+
+public class PriceLevelOrderBookTest {
+
+    @Test
+    public void testBuyBook() {
+        PriceLevelOrderBook book = new PriceLevelOrderBook(Direction.BUY);
+        Order o1 = order(1, Direction.BUY, 1000, 10);
+        Order o2 = order(2, Direction.BUY, 1010, 20);
+        Order o3 = order(3, Direction.BUY, 1000, 30);
+        Order o4 = order(4, Direction.BUY, 1010, 40);
+        assertTrue(book.add(o1));
+        assertTrue(book.add(o2));
+        assertTrue(book.add(o3));
+        assertTrue(book.add(o4));
+        assertFalse(book.add(o4));
+        assertEquals(4, book.size());
+        // 价格高在前，同价格时间早在前:
+        assertEquals(List.of(o2, o4, o1, o3), toList(book));
+        assertSame(o2, book.getFirst());
+        assertEquals(60, book.getBestLevel().getQuantity());
+
+        book.fill(o2, 5);
+        assertEquals(55, book.getBestLevel().getQuantity());
+
+        assertTrue(book.remove(o2));
+        assertFalse(book.remove(o2));
+        assertSame(o4, book.getFirst());
+        assertEquals(40, book.getBestLevel().getQuantity());
+
+        assertTrue(book.remove(o4));
+        assertSame(o1, book.getFirst());
+        assertEquals(1000, book.getBestLevel().price);
+        assertEquals(40, book.getBestLevel().getQuantity());
+
+        assertTrue(book.remove(o3));
+        assertTrue(book.remove(o1));
+        assertNull(book.getFirst());
+        assertEquals(0, book.size());
+    }
+
+    @Test
+    public void testSellBook() {
+        PriceLevelOrderBook book = new PriceLevelOrderBook(Direction.SELL);
+        Order o1 = order(1, Direction.SELL, 1010, 10);
+        Order o2 = order(2, Direction.SELL, 1000, 20);
+        Order o3 = order(3, Direction.SELL, 1020, 30);
+        book.add(o1);
+        book.add(o2);
+        book.add(o3);
+        // 价格低在前:
+        assertEquals(List.of(o2, o1, o3), toList(book));
+        assertFalse(book.exist(order(4, Direction.SELL, 1000, 10)));
+        assertTrue(book.remove(o1));
+        assertEquals(List.of(o2, o3), toList(book));
+    }
+
+    static Order order(long sequenceId, Direction direction, long price, long amount) {
+        return new Order(sequenceId, 100L, direction, price, amount);
+    }
+
+    static List<Order> toList(OrderBook book) {
+        List<Order> list = new ArrayList<>();
+        for (Order order : book) {
+            list.add(order);
+        }
+        return list;
+    }
+}
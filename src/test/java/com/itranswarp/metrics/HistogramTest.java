@@ -0,0 +1,89 @@
+package com.itranswarp.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.jupiter.api.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void testPercentiles() {
+        Histogram histogram = new Histogram();
+        for (long v = 1; v <= 100_000; v++) {
+            histogram.record(v);
+        }
+        Histogram.Snapshot snapshot = histogram.drain(new Histogram.Snapshot());
+        assertEquals(100_000, snapshot.count);
+        assertEquals(100_000, snapshot.max);
+        // 相对误差不超过1/32:
+        for (double p : new double[] { 0.01, 50, 90, 99, 99.9 }) {
+            long expected = (long) Math.ceil(100_000 * p / 100);
+            long actual = snapshot.getValueAtPercentile(p);
+            assertTrue(actual >= expected && actual <= expected + expected / 32, "p" + p + ": " + actual);
+        }
+        assertEquals(100_000, snapshot.getValueAtPercentile(100));
+        // 取出后清零:
+        assertEquals(0, histogram.drain(snapshot).count);
+        assertEquals(0, snapshot.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testBuckets() {
+        for (long v = 0; v < 1_000_000; v++) {
+            int index = Histogram.index(v);
+            assertTrue(v <= Histogram.highestValue(index));
+            assertTrue(index == 0 || v > Histogram.highestValue(index - 1));
+        }
+        assertEquals(Histogram.BUCKETS - 1, Histogram.index(Histogram.MAX_VALUE));
+        Histogram histogram = new Histogram();
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(-1);
+        Histogram.Snapshot snapshot = histogram.drain(new Histogram.Snapshot());
+        assertEquals(Histogram.MAX_VALUE, snapshot.max);
+        assertEquals(0, snapshot.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void testConcurrentRecord() throws Exception {
+        Histogram histogram = new Histogram();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int n = 0; n < 100_000; n++) {
+                    histogram.record(n % 1000);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(400_000, histogram.drain(new Histogram.Snapshot()).count);
+    }
+
+    @Test
+    public void testRecordWithoutAllocation() {
+        HistogramMetrics metrics = new HistogramMetrics();
+        metrics.recordBook("STOCK", 0, 0);
+        // 预热:
+        record(metrics, 200_000);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long start = bean.getThreadAllocatedBytes(threadId);
+        record(metrics, 1_000_000);
+        assertEquals(0, bean.getThreadAllocatedBytes(threadId) - start);
+        assertTrue(metrics.dump().startsWith("FREEZE   count=1200000"));
+    }
+
+    static void record(HistogramMetrics metrics, int count) {
+        for (int i = 0; i < count; i++) {
+            metrics.recordLatency(Stage.FREEZE, i);
+            metrics.recordFills("STOCK", i & 7);
+            metrics.recordBook("STOCK", i, i);
+            metrics.recordActiveOrders(i);
+        }
+    }
+}
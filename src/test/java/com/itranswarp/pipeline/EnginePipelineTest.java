@@ -0,0 +1,138 @@
+package com.itranswarp.pipeline;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.itranswarp.TradingEngine;
+import com.itranswarp.assets.Users;
+import com.itranswarp.journal.Journal;
+import com.itranswarp.match.Depth;
+import com.itranswarp.match.OrderBookType;
+import com.itranswarp.order.Direction;
+import com.itranswarp.order.Order;
+import com.itranswarp.order.OrderStatus;
+import com.itranswarp.order.OrderType;
+
+public class EnginePipelineTest {
+
+    static final int PRODUCERS = 4;
+    static final int ORDERS_PER_PRODUCER = 2000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        TradingEngine engine = new TradingEngine();
+        // 容量小于命令总数，覆盖缓冲区满时的等待:
+        EnginePipeline pipeline = new EnginePipeline(engine, 64);
+        pipeline.start();
+        List<Thread> producers = new ArrayList<>();
+        List<CompletableFuture<Order>> futures = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            final Long userId = Users.TRADER + p;
+            final Random random = new Random(p);
+            Thread t = new Thread(() -> {
+                pipeline.deposit(userId, "FIAT", new BigDecimal("100000000")).join();
+                pipeline.deposit(userId, "STOCK", new BigDecimal("100000")).join();
+                for (int i = 0; i < ORDERS_PER_PRODUCER; i++) {
+                    Direction direction = random.nextBoolean() ? Direction.BUY : Direction.SELL;
+                    BigDecimal price = BigDecimal.valueOf(10000 + random.nextInt(100), 2);
+                    CompletableFuture<Order> future = pipeline.createOrder(userId, direction, price, BigDecimal.ONE);
+                    synchronized (futures) {
+                        futures.add(future);
+                    }
+                }
+            });
+            producers.add(t);
+            t.start();
+        }
+        for (Thread t : producers) {
+            t.join();
+        }
+        for (CompletableFuture<Order> future : futures) {
+            future.join();
+        }
+        // 在撮合线程中获取买卖盘:
+        Depth depth = pipeline.getDepth("STOCK", 5).join();
+        assertTrue(depth.bids + depth.asks > 0 && depth.bids <= 5 && depth.asks <= 5);
+        assertThrows(ExecutionException.class, () -> pipeline.getDepth("NONE", 5).get());
+        pipeline.shutdown();
+        // 引擎线程分配的序列号连续:
+        assertEquals(PRODUCERS * ORDERS_PER_PRODUCER, futures.stream().mapToLong(f -> f.join().sequenceId).max().getAsLong());
+        engine.validate();
+    }
+
+    @Test
+    public void testFailedCommand() throws Exception {
+        TradingEngine engine = new TradingEngine();
+        EnginePipeline pipeline = new EnginePipeline(engine, 16);
+        pipeline.start();
+        CompletableFuture<Order> future = pipeline.createOrder(Users.TRADER, Direction.BUY, BigDecimal.ONE, BigDecimal.ONE);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get());
+        assertEquals("No enough FIAT.", e.getCause().getMessage());
+        pipeline.shutdown();
+        engine.validate();
+    }
+
+    @Test
+    public void testMarketOrder() throws Exception {
+        TradingEngine engine = new TradingEngine();
+        engine.enableAudit();
+        EnginePipeline pipeline = new EnginePipeline(engine, 16);
+        pipeline.start();
+        pipeline.deposit(Users.TRADER, "FIAT", new BigDecimal("10000"));
+        pipeline.deposit(Users.TRADER + 1, "STOCK", new BigDecimal("100"));
+        for (int i = 0; i < 10; i++) {
+            pipeline.createOrder(Users.TRADER + 1, Direction.SELL, BigDecimal.valueOf(100 + i), BigDecimal.ONE);
+        }
+        // 不等待卖单完成，定序线程等待撮合线程空闲后计算限价:
+        Order order = pipeline.createOrder(Users.TRADER, "STOCK", OrderType.MARKET, Direction.BUY, null, new BigDecimal("3")).join();
+        assertEquals(OrderStatus.FULLY_FILLED, order.status);
+        assertEquals(new BigDecimal("102.00"), order.getPrice());
+        Depth depth = pipeline.getDepth("STOCK", 1).join();
+        assertEquals(10300, depth.askPrices[0]);
+        pipeline.validate().join();
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        // 批量和延迟都很大，只在定序线程空闲时fsync:
+        try (Journal journal = new Journal(this.dir.resolve("journal"), 1024 * 1024, 1_000_000, 1_000_000)) {
+            TradingEngine engine = new TradingEngine(OrderBookType.PRICE_LEVEL, journal);
+            EnginePipeline pipeline = new EnginePipeline(engine, 64);
+            pipeline.start();
+            pipeline.deposit(Users.TRADER, "FIAT", new BigDecimal("100000")).join();
+            assertEquals(1, journal.getSyncedSequenceId());
+            pipeline.deposit(Users.TRADER + 1, "STOCK", new BigDecimal("1000"));
+            List<CompletableFuture<Order>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                futures.add(pipeline.createOrder(Users.TRADER + (i % 2), i % 2 == 0 ? Direction.BUY : Direction.SELL, BigDecimal.valueOf(100), BigDecimal.ONE));
+            }
+            for (CompletableFuture<Order> future : futures) {
+                // 确认时日志已fsync到该命令:
+                long sequenceId = future.join().sequenceId;
+                assertTrue(journal.getSyncedSequenceId() >= sequenceId);
+            }
+            // 被拒绝的命令不写日志，立即返回:
+            assertThrows(ExecutionException.class, () -> pipeline.createOrder(Users.TRADER + 2, Direction.BUY, BigDecimal.ONE, BigDecimal.ONE).get());
+            pipeline.shutdown();
+            assertEquals(journal.getLastSequenceId(), journal.getSyncedSequenceId());
+            assertEquals(102, journal.getLastSequenceId());
+            engine.validate();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.itranswarp.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import com.itranswarp.OrderFlowGenerator;
+import com.itranswarp.TradingEngine;
+import com.itranswarp.assets.Users;
+import com.itranswarp.order.Direction;
+import com.itranswarp.order.Order;
+import com.itranswarp.order.OrderStatus;
+
+public class QueryReplicaTest {
+
+    static final Long USER_A = Users.TRADER;
+    static final Long USER_B = Users.TRADER + 1;
+
+    @Test
+    public void testInitialStateAndTrades() throws Exception {
+        TradingEngine engine = new TradingEngine();
+        engine.deposit(USER_A, "FIAT", new BigDecimal("1000"));
+        engine.deposit(USER_B, "STOCK", new BigDecimal("10"));
+        Order sell = engine.createOrder(USER_B, Direction.SELL, new BigDecimal("100"), new BigDecimal("5"));
+
+        StatePublisher publisher = new StatePublisher(1024);
+        QueryReplica replica = publisher.createReplica("replica", 10);
+        // 设置时发布已有的余额和订单:
+        engine.setStateListener(publisher);
+        assertTrue(replica.awaitSequence(publisher.getSequence(), 5000));
+        assertEquals("1000.0000", replica.getAsset(USER_A, "FIAT").getAvailable().toPlainString());
+        assertEquals(1, replica.getOrders(USER_B).size());
+
+        engine.createOrder(USER_A, Direction.BUY, new BigDecimal("100"), new BigDecimal("2"));
+        assertTrue(replica.awaitSequence(publisher.getSequence(), 5000));
+        assertEquals(0, replica.getLag());
+        assertEquals("800.0000", replica.getAsset(USER_A, "FIAT").getAvailable().toPlainString());
+        assertEquals("2.0000", replica.getAsset(USER_A, "STOCK").getAvailable().toPlainString());
+        OrderView view = replica.getOrder(sell.sequenceId);
+        assertEquals(OrderStatus.PARCIAL_FILLED, view.status);
+        assertEquals(300, view.unfilledAmount);
+        assertTrue(replica.getOrders(USER_A).isEmpty());
+        List<TradeView> trades = replica.getRecentTrades("STOCK", 5);
+        assertEquals(1, trades.size());
+        assertEquals(sell.sequenceId.longValue(), trades.get(0).makerOrderId);
+        assertEquals(200, trades.get(0).amount);
+
+        engine.cancelOrder(USER_B, sell.sequenceId);
+        assertTrue(replica.awaitSequence(publisher.getSequence(), 5000));
+        assertNull(replica.getOrder(sell.sequenceId));
+        assertEquals("10.0000", replica.getAsset(USER_B, "STOCK").getTotal().add(new BigDecimal("2")).setScale(4).toPlainString());
+
+        assertThrows(IllegalStateException.class, () -> publisher.createReplica("late", 10));
+        replica.shutdown();
+    }
+
+    @Test
+    public void testReplicasFollowEngine() throws Exception {
+        TradingEngine engine = new TradingEngine();
+        // 容量很小，副本经常落后一整个缓冲区，发布者需要等待:
+        StatePublisher publisher = new StatePublisher(256);
+        QueryReplica replica1 = publisher.createReplica("replica-1", 100);
+        QueryReplica replica2 = publisher.createReplica("replica-2", 100);
+        engine.setStateListener(publisher);
+
+        // 查询线程并发读取，不影响撮合:
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong reads = new AtomicLong();
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            QueryReplica replica = i % 2 == 0 ? replica1 : replica2;
+            Thread reader = new Thread(() -> {
+                while (running.get()) {
+                    long userId = Users.TRADER + (reads.incrementAndGet() % 20);
+                    replica.getAsset(userId, "FIAT");
+                    replica.getOrders(userId);
+                    replica.getRecentTrades("STOCK", 10);
+                    Thread.yield();
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+
+        OrderFlowGenerator generator = new OrderFlowGenerator(11);
+        for (int i = 0; i < 10_000; i++) {
+            generator.accept(generator.next().apply(engine));
+        }
+        running.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        for (QueryReplica replica : List.of(replica1, replica2)) {
+            assertTrue(replica.awaitSequence(publisher.getSequence(), 10_000));
+            for (long userId = Users.TRADER; userId < Users.TRADER + generator.users; userId++) {
+                for (String assetId : List.of("FIAT", "STOCK")) {
+                    assertEquals(String.valueOf(engine.getAssetService().getAsset(userId, assetId)), String.valueOf(replica.getAsset(userId, assetId)), "user " + userId);
+                }
+                List<Order> orders = new ArrayList<>(engine.getOrderService().getOrders(userId));
+                orders.sort((o1, o2) -> o1.sequenceId.compareTo(o2.sequenceId));
+                List<OrderView> views = replica.getOrders(userId);
+                assertEquals(orders.size(), views.size());
+                for (int i = 0; i < orders.size(); i++) {
+                    assertEquals(orders.get(i).sequenceId.longValue(), views.get(i).sequenceId);
+                    assertEquals(orders.get(i).unfilledAmount, views.get(i).unfilledAmount);
+                    assertEquals(orders.get(i).status, views.get(i).status);
+                }
+            }
+            replica.shutdown();
+        }
+        assertTrue(reads.get() > 0);
+    }
+
+    @Test
+    public void testStoppedReplicaDoesNotBlockPublisher() throws Exception {
+        TradingEngine engine = new TradingEngine();
+        StatePublisher publisher = new StatePublisher(16);
+        QueryReplica stopped = publisher.createReplica("stopped", 10);
+        QueryReplica live = publisher.createReplica("live", 10);
+        engine.setStateListener(publisher);
+        stopped.shutdown();
+        // 发布超过容量的变化，不等待已停止的副本:
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            for (int i = 0; i < 100; i++) {
+                engine.deposit(USER_A, "FIAT", BigDecimal.ONE);
+            }
+        });
+        assertTrue(live.awaitSequence(publisher.getSequence(), 5000));
+        assertEquals("100.0000", live.getAsset(USER_A, "FIAT").getAvailable().toPlainString());
+        assertEquals(1, publisher.replicas.length);
+        live.shutdown();
+    }
+
+    @Test
+    public void testFailedReplicaDoesNotBlockPublisher() throws Exception {
+        TradingEngine engine = new TradingEngine();
+        StatePublisher publisher = new StatePublisher(16);
+        QueryReplica failed = publisher.createReplica("failed", 10);
+        engine.setStateListener(publisher);
+        // 无法应用的变化使副本线程退出:
+        long seq = publisher.next();
+        StateEvent event = publisher.get(seq);
+        event.kind = -1;
+        event.published = seq;
+        failed.thread.join(5000);
+        assertFalse(failed.isRunning());
+        assertTrue(failed.getError() instanceof IllegalStateException);
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            for (int i = 0; i < 100; i++) {
+                engine.deposit(USER_A, "FIAT", BigDecimal.ONE);
+            }
+        });
+        assertEquals(0, publisher.replicas.length);
+    }
+}
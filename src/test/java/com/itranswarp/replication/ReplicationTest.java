@@ -0,0 +1,144 @@
+package com.itranswarp.replication;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.itranswarp.OrderFlowGenerator;
+import com.itranswarp.TradingEngine;
+import com.itranswarp.assets.Users;
+import com.itranswarp.journal.Journal;
+import com.itranswarp.match.OrderBookType;
+
+public class ReplicationTest {
+
+    static final InetSocketAddress LOOPBACK = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testReplicateAndPromote() throws Exception {
+        Journal journal = new Journal(this.dir.resolve("primary"), 1024 * 1024, 256);
+        TradingEngine primary = new TradingEngine(OrderBookType.PRICE_LEVEL, journal);
+        // 积压缓冲区很小，复制过程中多次循环使用:
+        ReplicationPrimary replication = new ReplicationPrimary(journal, LOOPBACK, 64 * 1024);
+        Journal standbyJournal = new Journal(this.dir.resolve("standby"), 1024 * 1024, 256);
+        ReplicationFollower standby = new ReplicationFollower(new TradingEngine(OrderBookType.PRICE_LEVEL, standbyJournal), replication.getAddress());
+        ReplicationFollower follower = new ReplicationFollower(new TradingEngine(OrderBookType.TREE_MAP), replication.getAddress());
+        assertTrue(replication.awaitAck(2, 0, 5000));
+
+        OrderFlowGenerator generator = new OrderFlowGenerator(21);
+        for (int i = 1; i <= 5000; i++) {
+            generator.accept(generator.next().apply(primary));
+            if (i % 1000 == 0) {
+                replication.publishStateHash(primary);
+            }
+        }
+        long last = primary.getLastSequenceId();
+        assertTrue(replication.awaitAck(2, last, 10_000));
+        awaitChecked(standby, last);
+        awaitChecked(follower, last);
+        assertEquals(0, standby.getHashMismatches());
+        assertEquals(0, follower.getHashMismatches());
+        assertEquals(0, replication.getHashMismatches());
+
+        // 积压缓冲区已覆盖最早的记录，新的备节点被拒绝:
+        ReplicationFollower late = new ReplicationFollower(new TradingEngine(), replication.getAddress());
+        awaitStopped(late);
+        assertNotNull(late.getError());
+
+        // 主节点故障，提升备节点，与原主节点继续处理相同的命令:
+        replication.close();
+        follower.close();
+        TradingEngine promoted = standby.promote();
+        assertNull(standby.getError());
+        assertEquals(primary.stateHash(), promoted.stateHash());
+        for (int i = 0; i < 1000; i++) {
+            OrderFlowGenerator.FlowCommand command = generator.next();
+            Object expected = command.apply(primary);
+            command.apply(promoted);
+            generator.accept(expected);
+        }
+        assertEquals(primary.stateHash(), promoted.stateHash());
+        promoted.validate();
+
+        // 备节点的日志包含复制的记录和提升后的命令:
+        standbyJournal.close();
+        TradingEngine recovered = new TradingEngine(OrderBookType.PRICE_LEVEL, new Journal(this.dir.resolve("standby"), 1024 * 1024, 256));
+        assertEquals(primary.stateHash(), recovered.stateHash());
+        journal.close();
+    }
+
+    @Test
+    public void testCatchUpFromBacklog() throws Exception {
+        Journal journal = new Journal(this.dir.resolve("primary"), 1024 * 1024, 256);
+        TradingEngine primary = new TradingEngine(OrderBookType.PRICE_LEVEL, journal);
+        ReplicationPrimary replication = new ReplicationPrimary(journal, LOOPBACK, 4 * 1024 * 1024);
+        OrderFlowGenerator generator = new OrderFlowGenerator(22);
+        for (int i = 0; i < 1000; i++) {
+            generator.accept(generator.next().apply(primary));
+        }
+        // 备节点稍后连接，从积压缓冲区补齐:
+        ReplicationFollower follower = new ReplicationFollower(new TradingEngine(), replication.getAddress());
+        for (int i = 0; i < 1000; i++) {
+            generator.accept(generator.next().apply(primary));
+        }
+        replication.publishStateHash(primary);
+        assertTrue(replication.awaitAck(1, primary.getLastSequenceId(), 10_000));
+        awaitChecked(follower, primary.getLastSequenceId());
+        assertEquals(0, follower.getHashMismatches());
+        assertTrue(follower.isRunning());
+        follower.close();
+        replication.close();
+        journal.close();
+    }
+
+    @Test
+    public void testDetectDivergence() throws Exception {
+        Journal journal = new Journal(this.dir.resolve("primary"), 1024 * 1024, 256);
+        TradingEngine primary = new TradingEngine(OrderBookType.PRICE_LEVEL, journal);
+        ReplicationPrimary replication = new ReplicationPrimary(journal, LOOPBACK, 64 * 1024);
+        primary.deposit(Users.TRADER, "FIAT", new BigDecimal("100"));
+        // 备节点的状态与主节点不同，但sequenceId相同:
+        TradingEngine diverged = new TradingEngine();
+        diverged.deposit(Users.TRADER, "FIAT", new BigDecimal("99"));
+        ReplicationFollower follower = new ReplicationFollower(diverged, replication.getAddress());
+        assertTrue(replication.awaitAck(1, 1, 5000));
+        primary.deposit(Users.TRADER, "STOCK", new BigDecimal("1"));
+        replication.publishStateHash(primary);
+        awaitChecked(follower, 2);
+        assertEquals(1, follower.getHashMismatches());
+        assertFalse(follower.getHashMismatches() == 0 && replication.getHashMismatches() == 0);
+        follower.close();
+        replication.close();
+        journal.close();
+    }
+
+    static void awaitChecked(ReplicationFollower follower, long sequenceId) {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (follower.getCheckedSequenceId() < sequenceId && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(100_000);
+        }
+        assertEquals(sequenceId, follower.getCheckedSequenceId());
+    }
+
+    static void awaitStopped(ReplicationFollower follower) {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (follower.isRunning() && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(100_000);
+        }
+        assertFalse(follower.isRunning());
+    }
+}